@@ -598,12 +598,26 @@ public abstract class AST implements UL4Instance, UL4ONSerializable, UL4Dir, UL4
 	{@code decoratedEvaluate} should be used. When an exception bubbles up
 	the call stack, {@code decoratedEvaluate} creates a exception chain
 	containing information about the location of the exception.
+
+	<p>If the context has a {@link Profiler}, the evaluation is recorded by
+	the profiler.</p>
 	**/
 	public Object decoratedEvaluate(EvaluationContext context)
+	{
+		Profiler profiler = context.profiler;
+		if (profiler != null)
+			return profiler.evaluate(this, context);
+		return evaluateDecorated(context);
+	}
+
+	/**
+	The implementation of {@link #decoratedEvaluate} (without profiling).
+	Subclasses that need different exception handling overwrite this method.
+	**/
+	Object evaluateDecorated(EvaluationContext context)
 	{
 		try
 		{
-			context.tick();
 			return evaluate(context);
 		}
 		// Pass through LocationException, as the location is already known.
@@ -0,0 +1,229 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.util.List;
+
+/**
+Walks the AST of a template.
+
+<p>{@code ASTWalker} is the one place that knows the children of each kind
+of node. The passes that analyze the AST ({@link VariableResolver},
+{@link FreeVariables}, {@link BuiltinResolver}, {@link ExpressionCache} and
+{@link TypeInference}) extend it and override the methods for the nodes they
+are interested in. By default all children of a node are walked, except for
+the content of nested templates (i.e. of {@code <?def?>} and
+{@code <?renderblock?>}), which has a scope of its own.</p>
+**/
+abstract class ASTWalker
+{
+	/**
+	Walk {@code node}, which might also be a list of nodes or {@code null}.
+	**/
+	void walk(Object node)
+	{
+		if (node == null)
+			return;
+		else if (node instanceof List)
+		{
+			for (Object item : (List)node)
+				walk(item);
+		}
+		else if (!walkChildren(node))
+			unknown(node);
+	}
+
+	/**
+	Called for each variable.
+	**/
+	void walkVar(VarAST var)
+	{
+	}
+
+	/**
+	Walk the target {@code lvalue} of an assignment or a loop (which might be
+	a list of targets).
+	**/
+	void walkTarget(Object lvalue)
+	{
+		walk(lvalue);
+	}
+
+	/**
+	Walk the template {@code template} defined via {@code <?def?>}: The
+	default values of the parameters are evaluated in our scope, the content
+	in the scope of the template, so by default only the default values are
+	walked.
+	**/
+	void walkTemplate(Template template)
+	{
+		if (template.signatureAST != null)
+		{
+			for (Parameter parameter : template.signatureAST.parameters)
+				walk(parameter.defaultValue);
+		}
+	}
+
+	/**
+	Called for the content of a {@code <?renderblock?>} tag (which has a scope
+	of its own).
+	**/
+	void walkRenderBlock(Template content)
+	{
+	}
+
+	/**
+	Walk the content of a {@code <?renderblocks?>} tag.
+	**/
+	void walkRenderBlocks(List<AST> content)
+	{
+		walk(content);
+	}
+
+	/**
+	Walk the comprehension or generator expression {@code comprehension} with
+	the loop variables {@code varname} which loops over {@code container} and
+	evaluates {@code expressions} (the item or key and value and the
+	condition) for each iteration.
+	**/
+	void walkComprehension(CodeAST comprehension, Object varname, CodeAST container, CodeAST... expressions)
+	{
+		walk(container);
+		walkTarget(varname);
+		for (CodeAST expression : expressions)
+			walk(expression);
+	}
+
+	/**
+	Called for a node whose children we don't know.
+	**/
+	void unknown(Object node)
+	{
+	}
+
+	/**
+	Walk the children of {@code node} and return whether we know the node.
+	**/
+	final boolean walkChildren(Object node)
+	{
+		if (node instanceof VarAST)
+			walkVar((VarAST)node);
+		else if (node instanceof ConstAST || node instanceof TextAST || node instanceof BreakAST || node instanceof ContinueAST)
+			return true;
+		else if (node instanceof Template)
+			walkTemplate((Template)node);
+		else if (node instanceof CallRenderAST)
+		{
+			CallRenderAST call = (CallRenderAST)node;
+			walk(call.obj);
+			walk(call.arguments);
+			if (node instanceof RenderBlockAST)
+				walkRenderBlock(((RenderBlockAST)node).content);
+			else if (node instanceof RenderBlocksAST)
+				walkRenderBlocks(((RenderBlocksAST)node).content);
+		}
+		else if (node instanceof ForBlockAST)
+		{
+			ForBlockAST block = (ForBlockAST)node;
+			walkTarget(block.varname);
+			walk(block.container);
+			walk(block.getContent());
+		}
+		else if (node instanceof WhileBlockAST)
+		{
+			WhileBlockAST block = (WhileBlockAST)node;
+			walk(block.condition);
+			walk(block.getContent());
+		}
+		else if (node instanceof ConditionalBlockWithCondition)
+		{
+			ConditionalBlockWithCondition block = (ConditionalBlockWithCondition)node;
+			walk(block.condition);
+			walk(block.getContent());
+		}
+		else if (node instanceof BlockAST)
+			walk(((BlockAST)node).getContent());
+		else if (node instanceof SetVarAST)
+		{
+			walkTarget(((SetVarAST)node).lvalue);
+			walk(((SetVarAST)node).value);
+		}
+		else if (node instanceof ChangeVarAST)
+		{
+			walkTarget(((ChangeVarAST)node).lvalue);
+			walk(((ChangeVarAST)node).value);
+		}
+		else if (node instanceof UnaryAST)
+			walk(((UnaryAST)node).obj);
+		else if (node instanceof BinaryAST)
+		{
+			walk(((BinaryAST)node).obj1);
+			walk(((BinaryAST)node).obj2);
+		}
+		else if (node instanceof AttrAST)
+			walk(((AttrAST)node).obj);
+		else if (node instanceof SliceAST)
+		{
+			walk(((SliceAST)node).index1);
+			walk(((SliceAST)node).index2);
+		}
+		else if (node instanceof IfAST)
+		{
+			walk(((IfAST)node).objIf);
+			walk(((IfAST)node).objCond);
+			walk(((IfAST)node).objElse);
+		}
+		else if (node instanceof ListAST)
+			walk(((ListAST)node).items);
+		else if (node instanceof SetAST)
+			walk(((SetAST)node).items);
+		else if (node instanceof DictAST)
+			walk(((DictAST)node).items);
+		else if (node instanceof SeqItemAST)
+			walk(((SeqItemAST)node).value);
+		else if (node instanceof UnpackSeqItemAST)
+			walk(((UnpackSeqItemAST)node).value);
+		else if (node instanceof DictItemAST)
+		{
+			walk(((DictItemAST)node).key);
+			walk(((DictItemAST)node).value);
+		}
+		else if (node instanceof UnpackDictItemAST)
+			walk(((UnpackDictItemAST)node).item);
+		else if (node instanceof PositionalArgumentAST)
+			walk(((PositionalArgumentAST)node).value);
+		else if (node instanceof KeywordArgumentAST)
+			walk(((KeywordArgumentAST)node).value);
+		else if (node instanceof UnpackListArgumentAST)
+			walk(((UnpackListArgumentAST)node).value);
+		else if (node instanceof UnpackDictArgumentAST)
+			walk(((UnpackDictArgumentAST)node).value);
+		else if (node instanceof ListComprehensionAST)
+		{
+			ListComprehensionAST comprehension = (ListComprehensionAST)node;
+			walkComprehension(comprehension, comprehension.varname, comprehension.container, comprehension.item, comprehension.condition);
+		}
+		else if (node instanceof SetComprehensionAST)
+		{
+			SetComprehensionAST comprehension = (SetComprehensionAST)node;
+			walkComprehension(comprehension, comprehension.varname, comprehension.container, comprehension.item, comprehension.condition);
+		}
+		else if (node instanceof DictComprehensionAST)
+		{
+			DictComprehensionAST comprehension = (DictComprehensionAST)node;
+			walkComprehension(comprehension, comprehension.varname, comprehension.container, comprehension.key, comprehension.value, comprehension.condition);
+		}
+		else if (node instanceof GeneratorExpressionAST)
+		{
+			GeneratorExpressionAST generator = (GeneratorExpressionAST)node;
+			walkComprehension(generator, generator.varname, generator.container, generator.item, generator.condition);
+		}
+		else
+			return false;
+		return true;
+	}
+}
@@ -31,7 +31,6 @@ public abstract class ArgumentASTBase extends CodeAST
 	{
 		try
 		{
-			context.tick();
 			evaluateCall(context, arguments, keywordArguments);
 		}
 		catch (BreakException|ContinueException|ReturnException|LocationException ex)
@@ -75,6 +75,17 @@ public class AttrAST extends CodeAST implements LValue
 	protected AST obj;
 	protected String attrName;
 
+	/**
+	Inline cache for fetching the attribute from the object.
+	**/
+	private final TypeCache typeCache = new TypeCache();
+
+	/**
+	The slot in the frame in which the attribute value is cached (set by
+	{@link ExpressionCache}, -1 if the value isn't cached).
+	**/
+	int cacheSlot = -1;
+
 	public AttrAST(Template template, int posStart, int posStop, AST obj, String attrName)
 	{
 		super(template, posStart, posStop);
@@ -148,7 +159,55 @@ public class AttrAST extends CodeAST implements LValue
 	@Override
 	public Object evaluate(EvaluationContext context)
 	{
-		return call(context, obj.decoratedEvaluate(context), attrName);
+		if (cacheSlot >= 0)
+			return evaluateCached(context);
+		return evaluateAttr(context, obj.decoratedEvaluate(context));
+	}
+
+	/**
+	Return the attribute value from the cache in the frame (or fetch it and
+	cache it if the attribute is pure).
+	**/
+	private Object evaluateCached(EvaluationContext context)
+	{
+		Map<String, Object> variables = context.getVariables();
+		Object value = Frame.getCached(variables, template.frameLayout, cacheSlot);
+		if (value != Frame.UNSET)
+			return value;
+		Object object = obj.decoratedEvaluate(context);
+		value = evaluateAttr(context, object);
+		if (object instanceof UL4GetAttr && ((UL4GetAttr)object).isPureAttrUL4(attrName) && (obj instanceof VarAST || ((AttrAST)obj).isCached(context)))
+			Frame.setCached(variables, template.frameLayout, cacheSlot, value);
+		return value;
+	}
+
+	/**
+	Return whether the value of this attribute is currently cached in the
+	frame.
+	**/
+	boolean isCached(EvaluationContext context)
+	{
+		return cacheSlot >= 0 && Frame.getCached(context.getVariables(), template.frameLayout, cacheSlot) != Frame.UNSET;
+	}
+
+	/**
+	Return the attribute of {@code obj} (which is the value of {@link #obj}).
+	This uses the inline cache of this node.
+	**/
+	Object evaluateAttr(EvaluationContext context, Object obj)
+	{
+		try
+		{
+			return typeCache.getAttr(context, obj, attrName);
+		}
+		catch (AttributeException exc)
+		{
+			if (exc.getObject() == obj)
+				return new UndefinedAttribute(obj, attrName);
+			else
+				// The {@code AttributeException} originated from another object
+				throw exc;
+		}
 	}
 
 	public void evaluateSet(EvaluationContext context, Object value)
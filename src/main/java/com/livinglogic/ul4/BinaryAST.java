@@ -58,6 +58,31 @@ public abstract class BinaryAST extends CodeAST
 	**/
 	protected CodeAST obj2;
 
+	/**
+	The operand types this node has specialized itself for (only used by
+	nodes that have fast paths for specific operand types).
+	**/
+	protected OperandTypes operandTypes = OperandTypes.UNINITIALIZED;
+
+	/**
+	The operand types known before executing the template (set by
+	{@link TypeInference}, {@code null} if they aren't known). The bytecode
+	for the node checks these types and then calls the implementation for them
+	directly.
+	**/
+	OperandTypes staticOperandTypes = null;
+
+	/**
+	Called when the operands {@code arg1} and {@code arg2} don't match the
+	current specialization: An uninitialized node specializes itself for the
+	types of the operands, a specialized node falls back to the generic
+	implementation.
+	**/
+	protected void respecialize(Object arg1, Object arg2)
+	{
+		operandTypes = operandTypes == OperandTypes.UNINITIALIZED ? OperandTypes.of(arg1, arg2) : OperandTypes.GENERIC;
+	}
+
 	/**
 	Create a new {@code BinaryAST} object
 	@param template The template this node belongs to.
@@ -49,6 +49,13 @@ abstract class BlockAST extends CodeAST implements BlockLike
 
 	protected List<AST> content = new LinkedList<AST>();
 
+	/**
+	The cache slots of the expressions that are cached during one execution
+	of this loop (set by {@link ExpressionCache}, {@code null} if there are
+	none).
+	**/
+	int[] cacheSlots = null;
+
 	public BlockAST(Template template, int startPosStart, int startPosStop, int stopPosStart, int stopPosStop)
 	{
 		super(template, startPosStart, startPosStop, stopPosStart, stopPosStop);
@@ -98,9 +105,35 @@ abstract class BlockAST extends CodeAST implements BlockLike
 
 	@Override
 	public Object evaluate(EvaluationContext context)
+	{
+		return evaluateContent(context, content);
+	}
+
+	/**
+	Forget the expression values cached during the previous execution of this
+	loop.
+	**/
+	void clearCache(EvaluationContext context)
+	{
+		int[] cacheSlots = this.cacheSlots;
+		if (cacheSlots != null)
+			Frame.clearCached(context.getVariables(), template.frameLayout, cacheSlots);
+	}
+
+	/**
+	Execute the statements in {@code content}.
+
+	@return {@code null} if all statements have been executed, or the
+	        {@link Completion} of the statement that ended the execution.
+	**/
+	static Object evaluateContent(EvaluationContext context, List<AST> content)
 	{
 		for (AST item : content)
-			item.decoratedEvaluate(context);
+		{
+			Object result = item.decoratedEvaluate(context);
+			if (result instanceof Completion)
+				return result;
+		}
 		return null;
 	}
 
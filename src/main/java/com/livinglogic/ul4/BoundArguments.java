@@ -8,6 +8,7 @@ package com.livinglogic.ul4;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Iterator;
@@ -19,6 +20,12 @@ Represents the arguments that have been bound to a function or method signature.
 **/
 public class BoundArguments
 {
+	/**
+	Marker for a parameter that hasn't got a value yet (we can't use
+	{@code null} for that, as {@code null} is a legitimate argument value).
+	**/
+	private static final Object UNSET = new Object();
+
 	protected String name;
 	protected Signature signature;
 	protected Object[] argumentsByPosition;
@@ -63,7 +70,7 @@ public class BoundArguments
 
 			argumentsByPosition = new Object[count + (varPositionalParameter != null ? 1 : 0) + (varKeywordParameter != null ? 1 : 0)];
 			argumentsByName = null; // will be created on demand
-			boolean[] haveValue = new boolean[count];
+			Arrays.fill(argumentsByPosition, 0, count, UNSET);
 
 			// Handle positional arguments
 			if (args != null)
@@ -76,7 +83,6 @@ public class BoundArguments
 					{
 						// A parameter exists in the first position and it can be specified positionally
 						argumentsByPosition[0] = self;
-						haveValue[0] = true;
 					}
 					else
 					{
@@ -98,7 +104,6 @@ public class BoundArguments
 					{
 						// A parameter exists in this position and it can be specified positionally
 						argumentsByPosition[i] = argValue;
-						haveValue[i] = true;
 					}
 					else
 					{
@@ -127,13 +132,10 @@ public class BoundArguments
 					{
 						// A parameter exists with this name and it can be specified via keyword
 						int position = param.getPosition();
-						if (haveValue[position])
+						if (argumentsByPosition[position] != UNSET)
 							throw new DuplicateArgumentException(name, param);
 						else
-						{
 							argumentsByPosition[position] = argValue;
-							haveValue[position] = true;
-						}
 					}
 					else
 					{
@@ -156,13 +158,10 @@ public class BoundArguments
 			i = 0;
 			for (ParameterDescription param : signature.getParametersByPosition())
 			{
-				if (!haveValue[i])
+				if (argumentsByPosition[i] == UNSET)
 				{
 					if (param.hasDefault())
-					{
 						argumentsByPosition[i] = param.getDefaultValue();
-						haveValue[i] = true;
-					}
 					else
 						throw new MissingArgumentException(name, param);
 				}
@@ -96,7 +96,7 @@ public class BoundTemplate implements UL4Instance, UL4Render, UL4Name, UL4Dir, U
 	{
 		// We can clean up here, as a "render" call can't pass anything to the outside world
 		BoundArguments arguments = new BoundArguments(template, self, args, kwargs);
-		render(context, arguments.byName());
+		render(context, arguments);
 	}
 
 	public Object callUL4(EvaluationContext context, List<Object> args, Map<String, Object> kwargs)
@@ -105,7 +105,7 @@ public class BoundTemplate implements UL4Instance, UL4Render, UL4Name, UL4Dir, U
 		Object result = null;
 		try
 		{
-			result = call(context, arguments.byName());
+			result = call(context, arguments);
 		}
 		finally
 		{
@@ -114,20 +114,20 @@ public class BoundTemplate implements UL4Instance, UL4Render, UL4Name, UL4Dir, U
 		return result;
 	}
 
-	private Object call(EvaluationContext context, Map<String, Object> variables)
+	private Object call(EvaluationContext context, BoundArguments arguments)
 	{
-		return template.callBound(context, variables);
+		return template.callBound(context, template.makeFrame(arguments, null));
 	}
 
-	private void render(EvaluationContext context, Map<String, Object> variables)
+	private void render(EvaluationContext context, BoundArguments arguments)
 	{
-		template.renderBound(context, null, variables);
+		template.renderBound(context, null, template.makeFrame(arguments, null));
 	}
 
-	private String renders(EvaluationContext context, Map<String, Object> variables)
+	private String renders(EvaluationContext context, BoundArguments arguments)
 	{
 		Writer writer = new StringWriter();
-		template.renderBound(context, writer, variables);
+		template.renderBound(context, writer, template.makeFrame(arguments, null));
 		return writer.toString();
 	}
 
@@ -170,10 +170,10 @@ public class BoundTemplate implements UL4Instance, UL4Render, UL4Name, UL4Dir, U
 		{
 			case "renders":
 				BoundArguments boundRenderSArgs = new BoundArguments(template, self, args, kwargs);
-				return renders(context, boundRenderSArgs.byName());
+				return renders(context, boundRenderSArgs);
 			case "render":
 				BoundArguments boundRenderArgs = new BoundArguments(template, self, args, kwargs);
-				render(context, boundRenderArgs.byName());
+				render(context, boundRenderArgs);
 				return null;
 			default:
 				return UL4Instance.super.callAttrUL4(context, key, args, kwargs);
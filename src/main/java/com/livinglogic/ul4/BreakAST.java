@@ -66,7 +66,7 @@ public class BreakAST extends CodeAST
 	@Override
 	public Object evaluate(EvaluationContext context)
 	{
-		throw new BreakException();
+		return Completion.BREAK;
 	}
 
 	public String toString(int indent)
@@ -19,6 +19,11 @@ public class BuiltinMethodDescriptor
 	protected UL4Type type;
 	protected String methodName;
 	protected Signature signature;
+	/**
+	The full name of the method (passed to the signature for error messages).
+	This is computed on first use.
+	**/
+	private String fullName = null;
 
 	public BuiltinMethodDescriptor(UL4Type type, String methodName, Signature signature)
 	{
@@ -32,13 +37,20 @@ public class BuiltinMethodDescriptor
 		return new BuiltinGenericBoundMethod(type, object, methodName);
 	}
 
+	private String getFullName()
+	{
+		if (fullName == null)
+			fullName = type.getFullNameUL4() + "." + methodName;
+		return fullName;
+	}
+
 	public BoundArguments bindArguments(List<Object> args, Map<String, Object> kwargs)
 	{
-		return signature.bind(type.getFullNameUL4() + "." + methodName, args, kwargs);
+		return signature.bind(getFullName(), args, kwargs);
 	}
 
 	public BoundArguments bindArguments(Object self, List<Object> args, Map<String, Object> kwargs)
 	{
-		return signature.bind(type.getFullNameUL4() + "." + methodName, self, args, kwargs);
+		return signature.bind(getFullName(), self, args, kwargs);
 	}
 }
@@ -0,0 +1,158 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+Binds variables that can only refer to builtin functions (or types etc.) to
+the builtin object itself.
+
+<p>Normally a variable like {@code len} in {@code len(x)} is looked up in the
+local variables, then in the global variables and finally in the builtins.
+If the name is never assigned to in the template (or in any template it's
+nested in) and the variables of the template can only be the parameters of
+its signature, the local variables can't contain the name. So if the global
+variables don't contain it either (which an {@link EvaluationContext} can
+declare via {@link EvaluationContext#setGlobalsShadowBuiltins}), the variable
+always refers to the builtin.</p>
+
+<p>For such variables {@link VarAST#builtin} is set to the builtin object.
+Templates without a signature can be called with arbitrary variables, so in
+them (and in all templates nested in them) no variable is bound.</p>
+**/
+final class BuiltinResolver extends ASTWalker
+{
+	/**
+	The variable names that are assigned to in the scope (including loop
+	variables, parameters and the names of nested templates).
+	**/
+	private Set<String> assigned;
+
+	/**
+	The variables that are read in the scope.
+	**/
+	private List<VarAST> vars = new ArrayList<VarAST>();
+
+	/**
+	The templates nested in this scope.
+	**/
+	private List<Template> templates = new ArrayList<Template>();
+
+	/**
+	Do we know all variables assigned to in the scope? (If we encounter a node
+	we don't know, we can't tell).
+	**/
+	private boolean complete = true;
+
+	private BuiltinResolver(Set<String> assigned)
+	{
+		this.assigned = assigned;
+	}
+
+	/**
+	Bind the variables in the outermost template {@code template} (and all
+	templates nested in it).
+	**/
+	static void resolve(Template template)
+	{
+		resolve(template, new HashSet<String>(), true);
+	}
+
+	/**
+	Bind the variables in {@code template} whose enclosing scopes assign to
+	the variables in {@code enclosing}. If {@code bindable} is false, one of
+	the enclosing templates can be called with arbitrary variables, so no
+	variable can be bound.
+	**/
+	private static void resolve(Template template, Set<String> enclosing, boolean bindable)
+	{
+		BuiltinResolver scope = new BuiltinResolver(new HashSet<String>(enclosing));
+		bindable &= scope.addParameters(template);
+		scope.walk(template.getContent());
+		bindable &= scope.complete;
+
+		for (VarAST var : scope.vars)
+			var.builtin = bindable && !scope.assigned.contains(var.getName()) ? EvaluationContext.getBuiltin(var.getName()) : null;
+
+		for (Template nested : scope.templates)
+			resolve(nested, scope.assigned, bindable);
+	}
+
+	/**
+	Add the parameters of {@code template} to the assigned names and return
+	whether the template has a signature.
+	**/
+	private boolean addParameters(Template template)
+	{
+		if (template.signature != null)
+		{
+			for (ParameterDescription parameter : template.signature)
+				assigned.add(parameter.getName());
+			if (template.signature.getVarPositional() != null)
+				assigned.add(template.signature.getVarPositional().getName());
+			if (template.signature.getVarKeyword() != null)
+				assigned.add(template.signature.getVarKeyword().getName());
+			return true;
+		}
+		else if (template.signatureAST != null)
+		{
+			for (Parameter parameter : template.signatureAST.parameters)
+				assigned.add(parameter.getName());
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	void walkVar(VarAST var)
+	{
+		vars.add(var);
+	}
+
+	/**
+	Collect the variables assigned to by the target {@code lvalue} of an
+	assignment or loop. The loop variables of comprehensions are treated like
+	variables of our scope.
+	**/
+	@Override
+	void walkTarget(Object lvalue)
+	{
+		if (lvalue instanceof VarAST)
+			assigned.add(((VarAST)lvalue).getName());
+		else if (lvalue instanceof List)
+		{
+			for (Object item : (List)lvalue)
+				walkTarget(item);
+		}
+		else
+			walk(lvalue);
+	}
+
+	@Override
+	void walkTemplate(Template template)
+	{
+		assigned.add(template.name);
+		super.walkTemplate(template);
+		templates.add(template);
+	}
+
+	@Override
+	void walkRenderBlock(Template content)
+	{
+		templates.add(content);
+	}
+
+	@Override
+	void unknown(Object node)
+	{
+		complete = false;
+	}
+}
@@ -13,6 +13,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Set;
 import java.io.IOException;
 
@@ -75,6 +77,12 @@ public class CallAST extends CallRenderAST
 		return type;
 	}
 
+	/**
+	Inline cache for calling the method of the object (if {@link #obj} is an
+	{@link AttrAST}).
+	**/
+	private final TypeCache typeCache = new TypeCache();
+
 	public CallAST(Template template, int posStart, int posStop, AST obj)
 	{
 		super(template, posStart, posStop, obj);
@@ -148,14 +156,172 @@ public class CallAST extends CallRenderAST
 		}
 	}
 
+	/**
+	The shape of the arguments of this call: {@link #SHAPE_UNKNOWN} if the
+	call hasn't been evaluated yet, {@link #SHAPE_POSITIONAL} if the call
+	passes no keyword arguments and {@link #SHAPE_KEYWORD} otherwise.
+	**/
+	private int shape = SHAPE_UNKNOWN;
+
+	private static final int SHAPE_UNKNOWN = 0;
+	private static final int SHAPE_POSITIONAL = 1;
+	private static final int SHAPE_KEYWORD = 2;
+
+	/**
+	Return a new map for the keyword arguments of this call (or the shared
+	empty immutable one, if the call doesn't pass any keyword arguments).
+
+	<p>The shared map is only passed on to callables that are known not to
+	modify it (see {@link #keywordArguments}).</p>
+	**/
+	private Map<String, Object> makeKeywordArguments()
+	{
+		int shape = this.shape;
+		if (shape == SHAPE_UNKNOWN)
+		{
+			shape = hasKeywordArguments() ? SHAPE_KEYWORD : SHAPE_POSITIONAL;
+			this.shape = shape;
+		}
+		return shape == SHAPE_KEYWORD ? new LinkedHashMap<String, Object>() : Collections.<String, Object>emptyMap();
+	}
+
 	private void makeArguments(EvaluationContext context, List<Object> realArguments, Map<String, Object> realKeywordArguments)
 	{
 		for (ArgumentASTBase argument : arguments)
 			argument.decoratedEvaluateCall(context, realArguments, realKeywordArguments);
 	}
 
+	/**
+	Can this call stream the items of a list comprehension into the called
+	function? {@link #STREAM_UNKNOWN} if we haven't checked yet.
+	**/
+	private int stream = STREAM_UNKNOWN;
+
+	private static final int STREAM_UNKNOWN = 0;
+	private static final int STREAM_NO = 1;
+	private static final int STREAM_YES = 2;
+
+	/**
+	The slot in the frame in which the result of the call is cached (set by
+	{@link ExpressionCache}, -1 if the result isn't cached).
+	**/
+	int cacheSlot = -1;
+
+	/**
+	Return whether this call looks like a call to a builtin function (or to
+	the {@code join} method of a string) that consumes the items of a list
+	comprehension passed as the first argument one by one, i.e. something
+	like {@code any([x > 0 for x in l])} or {@code "".join([str(x) for x in l])}.
+
+	<p>For such calls the list doesn't have to be built: The items of the
+	comprehension can be passed to the function via an iterator instead. But
+	whether {@code any} really is the builtin function can only be decided
+	at runtime (see {@link #isStreamingFunction}).</p>
+
+	<p>The remaining arguments must be keyword arguments whose values can be
+	evaluated before the items of the comprehension without changing the
+	result.</p>
+	**/
+	boolean isStreamable()
+	{
+		int stream = this.stream;
+		if (stream == STREAM_UNKNOWN)
+		{
+			stream = checkStreamable() ? STREAM_YES : STREAM_NO;
+			this.stream = stream;
+		}
+		return stream == STREAM_YES;
+	}
+
+	private boolean checkStreamable()
+	{
+		if (obj instanceof VarAST)
+		{
+			switch (((VarAST)obj).getName())
+			{
+				case "any":
+				case "all":
+				case "sum":
+				case "min":
+				case "max":
+				case "first":
+				case "sorted":
+					break;
+				case "len":
+					if (arguments.size() != 1)
+						return false;
+					break;
+				default:
+					return false;
+			}
+		}
+		else if (obj instanceof AttrAST)
+		{
+			if (!"join".equals(((AttrAST)obj).attrName) || arguments.size() != 1)
+				return false;
+		}
+		else
+			return false;
+
+		if (arguments.isEmpty() || !(arguments.get(0) instanceof PositionalArgumentAST) || !(((PositionalArgumentAST)arguments.get(0)).getValue() instanceof ListComprehensionAST))
+			return false;
+		for (int i = 1; i < arguments.size(); ++i)
+		{
+			if (!(arguments.get(i) instanceof KeywordArgumentAST))
+				return false;
+			AST value = ((KeywordArgumentAST)arguments.get(i)).value;
+			if (!(value instanceof ConstAST || value instanceof VarAST))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	Return whether {@code function} is one of the builtin functions that can
+	consume the items of a list comprehension via an iterator.
+	**/
+	private static boolean isStreamingFunction(Object function)
+	{
+		return function == FunctionAny.function
+			|| function == FunctionAll.function
+			|| function == FunctionSum.function
+			|| function == FunctionMin.function
+			|| function == FunctionMax.function
+			|| function == FunctionFirst.function
+			|| function == FunctionSorted.function
+			|| function == FunctionLen.function;
+	}
+
+	/**
+	Pass the items of the list comprehension in the first argument to
+	{@code realObject} via an iterator. {@code realObject} is either one of the
+	builtin functions or a string (whose {@code join} method will be called).
+	**/
+	private Object evaluateStreaming(EvaluationContext context, Object realObject)
+	{
+		List<Object> realArguments = new ArrayList<Object>(arguments.size());
+		Map<String, Object> realKeywordArguments = makeKeywordArguments();
+		for (int i = 1; i < arguments.size(); ++i)
+			arguments.get(i).decoratedEvaluateCall(context, realArguments, realKeywordArguments);
+
+		Iterator iterator = ((ListComprehensionAST)((PositionalArgumentAST)arguments.get(0)).getValue()).stream(context);
+
+		if (realObject == FunctionLen.function)
+		{
+			int count = 0;
+			for (; iterator.hasNext(); iterator.next())
+				++count;
+			return count;
+		}
+		realArguments.add(0, iterator);
+		if (obj instanceof AttrAST)
+			return evaluateCallAttr(context, realObject, realArguments, realKeywordArguments);
+		else
+			return call(context, realObject, realArguments, realKeywordArguments);
+	}
+
 	@Override
-	public Object decoratedEvaluate(EvaluationContext context)
+	Object evaluateDecorated(EvaluationContext context)
 	{
 		Object realObject = null;
 		// Overwrite with a version that attaches a new stackframe when the called object is a template, because we want to see the call in the exception chain.
@@ -163,8 +329,15 @@ public class CallAST extends CallRenderAST
 		{
 			context.tick();
 
-			List<Object> realArguments = new ArrayList<Object>();
-			Map<String, Object> realKeywordArguments = new LinkedHashMap<String, Object>();
+			if (cacheSlot >= 0)
+			{
+				Object value = Frame.getCached(context.getVariables(), template.frameLayout, cacheSlot);
+				if (value != Frame.UNSET)
+					return value;
+			}
+
+			List<Object> realArguments = new ArrayList<Object>(arguments.size());
+			Map<String, Object> realKeywordArguments = makeKeywordArguments();
 
 			// If {@code obj} is an attribute access, this means that this
 			// looks like a method call, so if the resulting object for which the
@@ -174,30 +347,33 @@ public class CallAST extends CallRenderAST
 			if (obj instanceof AttrAST)
 			{
 				AST attrObject = ((AttrAST)obj).getObj();
-				String attrName = ((AttrAST)obj).getAttrName();
 				realObject = attrObject.decoratedEvaluate(context);
+				if (realObject instanceof String && isStreamable())
+					return evaluateStreaming(context, realObject);
 				// Note that we can't move the {@code makeArguments} call out to a
 				// common spot as this would change the order of the AST evaluation.
 				makeArguments(context, realArguments, realKeywordArguments);
-				if (realObject instanceof UL4GetAttr)
-				{
-					return ((UL4GetAttr)realObject).callAttrUL4(context, attrName, realArguments, realKeywordArguments);
-				}
-				else
-				{
-					// This is an attribute access, but the resulting object doesn't
-					// implement {@link UL4GetAttr}, so we have to get the attribute
-					// via {@link AttrAST}.
-					UL4Type type = UL4Type.getType(realObject);
-					return type.callAttr(context, realObject, attrName, realArguments, realKeywordArguments);
-				}
+				return evaluateCallAttr(context, realObject, realArguments, realKeywordArguments);
 			}
 			else
+			{
 				realObject = obj.decoratedEvaluate(context);
+				if (isStreamingFunction(realObject) && isStreamable())
+					return evaluateStreaming(context, realObject);
+				if (realObject instanceof TemplateClosure && hasSimpleArguments())
+				{
+					InlineCall inlineCall = getInlineCall((TemplateClosure)realObject);
+					if (inlineCall != null)
+						return inlineCall.call(context, (TemplateClosure)realObject, evaluateArgumentValues(context));
+				}
+			}
 
 			makeArguments(context, realArguments, realKeywordArguments);
 
-			return call(context, realObject, realArguments, realKeywordArguments);
+			Object result = call(context, realObject, realArguments, realKeywordArguments);
+			if (cacheSlot >= 0 && ExpressionCache.isCacheableCall(context, realObject, ((PositionalArgumentAST)arguments.get(0)).getValue(), realArguments.get(0)))
+				Frame.setCached(context.getVariables(), template.frameLayout, cacheSlot, result);
+			return result;
 		}
 		catch (BreakException|ContinueException|ReturnException ex)
 		{
@@ -213,15 +389,66 @@ public class CallAST extends CallRenderAST
 	@Override
 	public Object evaluate(EvaluationContext context)
 	{
-		// Do nothing here as the implementation is in {@code decoratedEvaluate}
+		// Do nothing here as the implementation is in {@code evaluateDecorated}
 		return null;
 	}
 
+	@Override
+	int decoratedEvaluateInt(EvaluationContext context) throws UnexpectedResultException
+	{
+		return unboxInt(decoratedEvaluate(context));
+	}
+
+	@Override
+	long decoratedEvaluateLong(EvaluationContext context) throws UnexpectedResultException
+	{
+		return unboxLong(decoratedEvaluate(context));
+	}
+
+	@Override
+	double decoratedEvaluateDouble(EvaluationContext context) throws UnexpectedResultException
+	{
+		return unboxDouble(decoratedEvaluate(context));
+	}
+
+	/**
+	Call the method of {@code obj} (which is the value of the object of the
+	{@link AttrAST} in {@link #obj}). This uses the inline cache of this
+	node.
+	**/
+	Object evaluateCallAttr(EvaluationContext context, Object obj, List<Object> args, Map<String, Object> kwargs)
+	{
+		String attrName = ((AttrAST)this.obj).attrName;
+		if (obj instanceof UL4GetAttr)
+			return ((UL4GetAttr)obj).callAttrUL4(context, attrName, args, keywordArguments(knownCallAttrUL4, obj, kwargs));
+		else
+			return typeCache.callAttr(context, obj, attrName, args, kwargs);
+	}
+
+	/**
+	Call the method named {@code attrName} of the object {@code obj}.
+	**/
+	public static Object callAttr(EvaluationContext context, Object obj, String attrName, List<Object> args, Map<String, Object> kwargs)
+	{
+		if (obj instanceof UL4GetAttr)
+		{
+			return ((UL4GetAttr)obj).callAttrUL4(context, attrName, args, keywordArguments(knownCallAttrUL4, obj, kwargs));
+		}
+		else
+		{
+			// This is an attribute access, but the resulting object doesn't
+			// implement {@link UL4GetAttr}, so we have to get the attribute
+			// via {@link AttrAST}.
+			UL4Type type = UL4Type.getType(obj);
+			return type.callAttr(context, obj, attrName, args, keywordArguments(type, kwargs));
+		}
+	}
+
 	public static Object call(EvaluationContext context, UL4Call obj, List<Object> args, Map<String, Object> kwargs)
 	{
 		if (obj == null)
 			throw new NotCallableException(obj);
-		return obj.callUL4(context, args, kwargs);
+		return obj.callUL4(context, args, keywordArguments(knownCallUL4, obj, kwargs));
 	}
 
 	public static Object call(EvaluationContext context, Object obj, List<Object> args, Map<String, Object> kwargs)
@@ -230,4 +457,80 @@ public class CallAST extends CallRenderAST
 			return call(context, (UL4Call)obj, args, kwargs);
 		throw new NotCallableException(obj);
 	}
+
+	/**
+	Checks whether a class inherits its implementation of a method from one of
+	a known set of classes, whose implementations don't modify the keyword
+	arguments: They either pass them to {@link BoundArguments} (which copies
+	them) or to another call (which does this check again).
+	**/
+	private static class KnownImplementation extends ClassValue<Boolean>
+	{
+		private final String methodName;
+		private final Class[] parameterTypes;
+		private final Set<Class> implementations;
+
+		KnownImplementation(String methodName, Class[] parameterTypes, Class... implementations)
+		{
+			this.methodName = methodName;
+			this.parameterTypes = parameterTypes;
+			this.implementations = Set.of(implementations);
+		}
+
+		@Override
+		protected Boolean computeValue(Class cls)
+		{
+			try
+			{
+				return implementations.contains(cls.getMethod(methodName, parameterTypes).getDeclaringClass());
+			}
+			catch (NoSuchMethodException exc)
+			{
+				return false;
+			}
+		}
+	}
+
+	private static final KnownImplementation knownCallUL4 = new KnownImplementation(
+		"callUL4",
+		new Class[]{EvaluationContext.class, List.class, Map.class},
+		UL4Call.class, Function.class, Template.class, TemplateClosure.class, BoundTemplate.class, UL4Type.class
+	);
+
+	private static final KnownImplementation knownCallAttrUL4 = new KnownImplementation(
+		"callAttrUL4",
+		new Class[]{EvaluationContext.class, String.class, List.class, Map.class},
+		UL4GetAttr.class, Template.class, TemplateClosure.class, BoundTemplate.class, Color.class, TimeDelta.class, MonthDelta.class
+	);
+
+	private static final KnownImplementation knownCallAttr = new KnownImplementation(
+		"callAttr",
+		new Class[]{EvaluationContext.class, Object.class, String.class, List.class, Map.class},
+		UL4Type.class, Str.class, List_.class, Dict.class, Set_.class, Date_.class, DateTime.class
+	);
+
+	/**
+	Return the keyword arguments to pass to the method {@code known} checks of
+	{@code object}.
+
+	<p>Calls without keyword arguments share an immutable empty map for them.
+	Such a map is only passed on to known implementations, all other
+	callables (e.g. objects implementing {@link UL4Call} outside of this
+	package) get a new map they are free to modify.</p>
+	**/
+	private static Map<String, Object> keywordArguments(KnownImplementation known, Object object, Map<String, Object> kwargs)
+	{
+		if (kwargs == Collections.<String, Object>emptyMap() && !known.get(object.getClass()))
+			return new LinkedHashMap<String, Object>();
+		return kwargs;
+	}
+
+	/**
+	Return the keyword arguments to pass to the {@code callAttr} method of the
+	type object {@code type}.
+	**/
+	static Map<String, Object> keywordArguments(UL4Type type, Map<String, Object> kwargs)
+	{
+		return keywordArguments(knownCallAttr, type, kwargs);
+	}
 }
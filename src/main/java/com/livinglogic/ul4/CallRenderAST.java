@@ -10,6 +10,7 @@ import static com.livinglogic.utils.SetUtils.makeExtendedSet;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.ArrayList;
@@ -46,6 +47,92 @@ public abstract class CallRenderAST extends CodeAST
 		arguments.add(argument);
 	}
 
+	/**
+	Return whether any of the arguments passes keyword arguments (i.e. is a
+	{@link KeywordArgumentAST} or an {@link UnpackDictArgumentAST}). If not,
+	a call doesn't need a map for the keyword arguments.
+	**/
+	boolean hasKeywordArguments()
+	{
+		for (ArgumentASTBase argument : arguments)
+		{
+			if (argument instanceof KeywordArgumentAST || argument instanceof UnpackDictArgumentAST)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	Do the arguments of this call consist only of positional arguments and
+	keyword arguments with different names? {@code null} if we haven't
+	checked yet.
+	**/
+	private Boolean simpleArguments = null;
+
+	/**
+	The plan for calling the last {@link TemplateClosure} called from here.
+	**/
+	private InlineCall inlineCall = null;
+
+	/**
+	Return whether a {@link TemplateClosure} called from here might be called
+	via an {@link InlineCall}, i.e. whether the arguments of this call consist
+	only of positional arguments and keyword arguments with different names.
+	**/
+	boolean hasSimpleArguments()
+	{
+		Boolean simpleArguments = this.simpleArguments;
+		if (simpleArguments == null)
+		{
+			simpleArguments = checkSimpleArguments();
+			this.simpleArguments = simpleArguments;
+		}
+		return simpleArguments;
+	}
+
+	private boolean checkSimpleArguments()
+	{
+		Set<String> names = new HashSet<String>();
+		for (ArgumentASTBase argument : arguments)
+		{
+			if (argument instanceof KeywordArgumentAST)
+			{
+				if (!names.add(((KeywordArgumentAST)argument).name))
+					return false;
+			}
+			else if (!(argument instanceof PositionalArgumentAST))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	Return the {@link InlineCall} for calling {@code closure} from here (or
+	{@code null} if {@code closure} must be called the normal way).
+	**/
+	InlineCall getInlineCall(TemplateClosure closure)
+	{
+		InlineCall inlineCall = InlineCall.get(this.inlineCall, this, closure);
+		this.inlineCall = inlineCall;
+		return inlineCall.matches ? inlineCall : null;
+	}
+
+	/**
+	Evaluate the values of the arguments (which must all be positional or
+	keyword arguments).
+	**/
+	Object[] evaluateArgumentValues(EvaluationContext context)
+	{
+		Object[] values = new Object[arguments.size()];
+		int i = 0;
+		for (ArgumentASTBase argument : arguments)
+		{
+			AST value = argument instanceof PositionalArgumentAST ? ((PositionalArgumentAST)argument).value : ((KeywordArgumentAST)argument).value;
+			values[i++] = value.decoratedEvaluate(context);
+		}
+		return values;
+	}
+
 	public AST getObj()
 	{
 		return obj;
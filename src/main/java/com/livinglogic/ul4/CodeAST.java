@@ -79,4 +79,136 @@ public abstract class CodeAST extends AST
 	{
 		super(template, startPosStart, startPosStop);
 	}
+
+	/**
+	Evaluate this node and return the result as an {@code int}.
+
+	<p>This is used by arithmetic and comparison nodes that have specialized
+	themselves for {@link Integer} operands, so that intermediate results don't
+	have to be boxed. If the result isn't an {@link Integer} an
+	{@link UnexpectedResultException} containing the result is thrown.</p>
+
+	<p>The default implementation unboxes the result of {@link #evaluate}.
+	Nodes that can compute their result without boxing overwrite this.</p>
+	**/
+	int evaluateInt(EvaluationContext context) throws UnexpectedResultException
+	{
+		return unboxInt(evaluate(context));
+	}
+
+	/**
+	Evaluate this node and return the result as a {@code long}.
+
+	<p>The same as {@link #evaluateInt} but for {@link Long} operands: If the
+	result isn't a {@link Long} an {@link UnexpectedResultException} is
+	thrown.</p>
+	**/
+	long evaluateLong(EvaluationContext context) throws UnexpectedResultException
+	{
+		return unboxLong(evaluate(context));
+	}
+
+	/**
+	Evaluate this node and return the result as a {@code double}.
+
+	<p>The same as {@link #evaluateLong} but for float operands: If the result
+	isn't a {@link Double} an {@link UnexpectedResultException} is thrown.</p>
+	**/
+	double evaluateDouble(EvaluationContext context) throws UnexpectedResultException
+	{
+		return unboxDouble(evaluate(context));
+	}
+
+	/**
+	Wraps a call to {@link #evaluateInt} with the same exception handling
+	as {@link #decoratedEvaluate}.
+	**/
+	int decoratedEvaluateInt(EvaluationContext context) throws UnexpectedResultException
+	{
+		// Let the profiler see the evaluation
+		if (context.profiler != null)
+			return unboxInt(decoratedEvaluate(context));
+		try
+		{
+			return evaluateInt(context);
+		}
+		catch (UnexpectedResultException|BreakException|ContinueException|ReturnException|LocationException ex)
+		{
+			throw ex;
+		}
+		catch (Exception ex)
+		{
+			decorateException(ex);
+			throw ex;
+		}
+	}
+
+	/**
+	Wraps a call to {@link #evaluateLong} with the same exception handling
+	as {@link #decoratedEvaluate}.
+	**/
+	long decoratedEvaluateLong(EvaluationContext context) throws UnexpectedResultException
+	{
+		// Let the profiler see the evaluation
+		if (context.profiler != null)
+			return unboxLong(decoratedEvaluate(context));
+		try
+		{
+			return evaluateLong(context);
+		}
+		catch (UnexpectedResultException|BreakException|ContinueException|ReturnException|LocationException ex)
+		{
+			throw ex;
+		}
+		catch (Exception ex)
+		{
+			decorateException(ex);
+			throw ex;
+		}
+	}
+
+	/**
+	Wraps a call to {@link #evaluateDouble} with the same exception handling
+	as {@link #decoratedEvaluate}.
+	**/
+	double decoratedEvaluateDouble(EvaluationContext context) throws UnexpectedResultException
+	{
+		// Let the profiler see the evaluation
+		if (context.profiler != null)
+			return unboxDouble(decoratedEvaluate(context));
+		try
+		{
+			return evaluateDouble(context);
+		}
+		catch (UnexpectedResultException|BreakException|ContinueException|ReturnException|LocationException ex)
+		{
+			throw ex;
+		}
+		catch (Exception ex)
+		{
+			decorateException(ex);
+			throw ex;
+		}
+	}
+
+	static int unboxInt(Object value) throws UnexpectedResultException
+	{
+		if (value instanceof Integer)
+			return ((Integer)value).intValue();
+		throw new UnexpectedResultException(value);
+	}
+
+	static long unboxLong(Object value) throws UnexpectedResultException
+	{
+		if (value instanceof Long)
+			return ((Long)value).longValue();
+		throw new UnexpectedResultException(value);
+	}
+
+	static double unboxDouble(Object value) throws UnexpectedResultException
+	{
+		if (value instanceof Double)
+			return ((Double)value).doubleValue();
+		throw new UnexpectedResultException(value);
+	}
 }
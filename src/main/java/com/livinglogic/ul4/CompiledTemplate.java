@@ -0,0 +1,129 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+Base class of the classes generated by {@link TemplateCompiler}.
+
+<p>A generated subclass implements {@link #run} by executing the content of
+the template as JVM bytecode. AST nodes for which no bytecode can be generated
+are evaluated by the interpreter, i.e. by calling their
+{@link AST#decoratedEvaluate} method.</p>
+
+<p>The static methods of this class are called from the generated code.</p>
+**/
+abstract class CompiledTemplate
+{
+	/**
+	The template whose content has been compiled.
+	**/
+	protected final Template template;
+
+	/**
+	The AST nodes referenced by the generated code (for decorating exceptions
+	and for evaluating nodes via the interpreter).
+	**/
+	protected final AST[] nodes;
+
+	/**
+	Constant values referenced by the generated code.
+	**/
+	protected final Object[] constants;
+
+	protected CompiledTemplate(Template template, AST[] nodes, Object[] constants)
+	{
+		this.template = template;
+		this.nodes = nodes;
+		this.constants = constants;
+	}
+
+	/**
+	Execute the template content.
+
+	<p>Variables, writer and template must already have been set in
+	{@code context}.</p>
+
+	@param context The evaluation context.
+	@return The value of the {@code <?return?>} tag that ended the execution
+	        or {@code null} when the end of the template was reached.
+	**/
+	abstract Object run(EvaluationContext context);
+
+	public Template getTemplate()
+	{
+		return template;
+	}
+
+	/**
+	Add the location of {@code node} to the exception {@code ex} (the same way
+	{@link AST#decoratedEvaluate} does it) and return the exception.
+	**/
+	static Exception decorate(Exception ex, AST node)
+	{
+		if (!(ex instanceof BreakException || ex instanceof ContinueException || ex instanceof ReturnException || ex instanceof LocationException))
+			node.decorateException(ex);
+		return ex;
+	}
+
+	/**
+	Add the location of the call {@code node} to the exception {@code ex}
+	(the same way {@link CallAST#evaluateDecorated} does it) and return the
+	exception.
+	**/
+	static Exception decorateCall(Exception ex, CallRenderAST node, Object obj)
+	{
+		if (!(ex instanceof BreakException || ex instanceof ContinueException || ex instanceof ReturnException))
+			node.decorateException(ex, obj);
+		return ex;
+	}
+
+	/**
+	Unpack the iterable {@code item} into exactly {@code count} values.
+	This is used for unpacking in {@code <?for?>} loops and assignments.
+	**/
+	static Object[] unpack(Object item, int count)
+	{
+		Object[] result = new Object[count];
+		Iterator<Object> itemIter = Utils.iterator(item);
+
+		for (int i = 0;;++i)
+		{
+			if (itemIter.hasNext())
+			{
+				if (i < count)
+					result[i] = itemIter.next();
+				else
+					throw new UnpackingException("mismatched for loop unpacking: " + count + " varnames, >" + i + " items");
+			}
+			else
+			{
+				if (i < count)
+					throw new UnpackingException("mismatched for loop unpacking: " + count + "+ varnames, " + i + " items");
+				else
+					break;
+			}
+		}
+		return result;
+	}
+
+	static void addAll(Collection result, Object iterable)
+	{
+		for (Iterator iter = Utils.iterator(iterable); iter.hasNext();)
+			result.add(iter.next());
+	}
+
+	static void checkKeywordArgument(Map<String, Object> keywordArguments, String name)
+	{
+		Object oldValue = keywordArguments.get(name);
+		if (oldValue != null || keywordArguments.containsKey(name))
+			throw new DuplicateArgumentException(name);
+	}
+}
@@ -0,0 +1,28 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+
+/**
+Returned from {@link AST#evaluate} by statements that end the execution of
+the enclosing block abnormally.
+
+<p>Blocks check the results of their statements and either handle the
+completion ({@code <?for?>} and {@code <?while?>} handle {@link #BREAK} and
+{@link #CONTINUE}, the template handles {@link #RETURN}) or pass it on to
+their own caller. For {@link #RETURN} the return value is stored in
+{@link EvaluationContext#returnValue}.</p>
+
+<p>As the enum is package private, its values never show up as the value of
+an UL4 expression.</p>
+**/
+enum Completion
+{
+	BREAK,
+	CONTINUE,
+	RETURN
+}
@@ -66,7 +66,7 @@ public class ContinueAST extends CodeAST
 	@Override
 	public Object evaluate(EvaluationContext context)
 	{
-		throw new ContinueException();
+		return Completion.CONTINUE;
 	}
 
 	public String toString(int indent)
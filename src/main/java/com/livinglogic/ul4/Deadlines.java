@@ -0,0 +1,86 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+Process-wide bookkeeping for the runtime limits of {@link EvaluationContext}
+objects.
+
+<p>A runtime limit doesn't need a timer thread: An {@code EvaluationContext}
+with a limit computes its deadline once and compares it with
+{@link System#nanoTime} while the template is running (see
+{@link EvaluationContext#tick}). So "arming" a deadline is nothing more than
+registering it here, which makes it possible to monitor how many limited
+contexts exist and how often the limit has been exceeded.</p>
+**/
+public final class Deadlines
+{
+	private static final LongAdder armed = new LongAdder();
+	private static final LongAdder fired = new LongAdder();
+	private static final LongAdder disarmed = new LongAdder();
+
+	private Deadlines()
+	{
+	}
+
+	/**
+	Register a new deadline (i.e. an {@code EvaluationContext} with a runtime
+	limit has been created).
+	**/
+	static void arm()
+	{
+		armed.increment();
+	}
+
+	/**
+	Register that a deadline has been exceeded.
+	**/
+	static void fire()
+	{
+		fired.increment();
+	}
+
+	/**
+	Register that a deadline is no longer needed without having been exceeded
+	(i.e. the {@code EvaluationContext} has been closed in time).
+	**/
+	static void disarm()
+	{
+		disarmed.increment();
+	}
+
+	/**
+	Return the number of deadlines that have been armed since the start of
+	the process.
+	**/
+	public static long getArmedCount()
+	{
+		return armed.sum();
+	}
+
+	/**
+	Return the number of deadlines that have been exceeded since the start of
+	the process.
+	**/
+	public static long getFiredCount()
+	{
+		return fired.sum();
+	}
+
+	/**
+	Return the number of deadlines that are currently armed (i.e. neither
+	exceeded nor disarmed).
+
+	<p>Contexts that are never closed stay in this count.</p>
+	**/
+	public static long getPendingCount()
+	{
+		return armed.sum() - fired.sum() - disarmed.sum();
+	}
+}
@@ -31,7 +31,6 @@ public abstract class DictItemASTBase extends CodeAST
 	{
 		try
 		{
-			context.tick();
 			evaluateDict(context, result);
 		}
 		catch (BreakException|ContinueException|ReturnException|LocationException ex)
@@ -16,7 +16,7 @@ import com.livinglogic.utils.VSQLUtils;
 /**
 AST node for the binary equality comparison (e.g. {@code x == y}).
 **/
-public class EQAST extends BinaryAST
+public class EQAST extends SpecializingBinaryAST
 {
 	protected static class Type extends BinaryAST.Type
 	{
@@ -82,9 +82,71 @@ public class EQAST extends BinaryAST
 	}
 
 	@Override
-	public Object evaluate(EvaluationContext context)
+	Object evaluateInts(EvaluationContext context, int arg1, int arg2)
 	{
-		return call(context, obj1.decoratedEvaluate(context), obj2.decoratedEvaluate(context));
+		return arg1 == arg2;
+	}
+
+	@Override
+	Object evaluateLongs(EvaluationContext context, long arg1, long arg2)
+	{
+		return arg1 == arg2;
+	}
+
+	@Override
+	Object evaluateDoubles(EvaluationContext context, double arg1, double arg2)
+	{
+		return arg1 == arg2;
+	}
+
+	@Override
+	Object evaluateSpecialized(EvaluationContext context, Object arg1, Object arg2)
+	{
+		return callSpecialized(context, arg1, arg2);
+	}
+
+	@Override
+	protected Object callGeneric(EvaluationContext context, Object arg1, Object arg2)
+	{
+		return call(context, arg1, arg2);
+	}
+
+	/**
+	Compare {@code arg1} and {@code arg2} for equality using the fast path
+	for the operand types this node has specialized itself for.
+	**/
+	boolean callSpecialized(EvaluationContext context, Object arg1, Object arg2)
+	{
+		switch (operandTypes)
+		{
+			case INT:
+				if (arg1 instanceof Integer && arg2 instanceof Integer)
+					return ((Integer)arg1).intValue() == ((Integer)arg2).intValue();
+				break;
+			case LONG:
+				if (arg1 instanceof Long && arg2 instanceof Long)
+					return ((Long)arg1).longValue() == ((Long)arg2).longValue();
+				break;
+			case DOUBLE:
+				if (arg1 instanceof Double && arg2 instanceof Double)
+					return ((Double)arg1).doubleValue() == ((Double)arg2).doubleValue();
+				break;
+			case STR:
+				if (arg1 instanceof String && arg2 instanceof String)
+					return call(context, (String)arg1, (String)arg2);
+				break;
+			case UNINITIALIZED:
+				break;
+			default:
+				return call(context, arg1, arg2);
+		}
+		respecialize(arg1, arg2);
+		return call(context, arg1, arg2);
+	}
+
+	public static boolean call(EvaluationContext context, String arg1, String arg2)
+	{
+		return arg1.equals(arg2);
 	}
 
 	public static boolean call(EvaluationContext context, Object obj1, Object obj2)
@@ -8,17 +8,16 @@ package com.livinglogic.ul4;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.Map;
-import java.util.Timer;
 
 import com.livinglogic.utils.CloseableRegistry;
 import com.livinglogic.utils.MapChain;
 import com.livinglogic.utils.MapUtils;
-import com.livinglogic.utils.InterruptTimerTask;
 
 /**
 An {@code EvaluationContext} object is passed around calls to the node method
@@ -38,6 +37,12 @@ public class EvaluationContext implements AutoCloseable, CloseableRegistry
 	**/
 	protected List<String> indents;
 
+	/**
+	The concatenation of all strings in {@link #indents} (i.e. what has to be
+	output in front of each indented line).
+	**/
+	private String indent = "";
+
 	/**
 	A map containing the global variables
 	**/
@@ -60,6 +65,37 @@ public class EvaluationContext implements AutoCloseable, CloseableRegistry
 	**/
 	protected MapChain<String, Object> allVariables;
 
+	/**
+	Might the global variables contain variables with the same name as a
+	builtin (see {@link #setGlobalsShadowBuiltins})?
+	**/
+	boolean globalsShadowBuiltins = true;
+
+	/**
+	The cache for the output of {@code <?render?>} calls (or {@code null} if
+	the output isn't cached, see {@link #setFragmentCache}).
+	**/
+	FragmentCache fragmentCache = null;
+
+	/**
+	The profiler that records the evaluation of the AST nodes (or
+	{@code null} if profiling is off, see {@link #setProfiler}).
+	**/
+	Profiler profiler = null;
+
+	/**
+	Measures the CPU time and allocated memory of the renders and calls of
+	templates (or {@code null} if nothing is measured, see
+	{@link #setResourceUsage}).
+	**/
+	ResourceUsage resourceUsage = null;
+
+	/**
+	The value of the last {@code <?return?>} tag that has been executed (until
+	the template that executed it picks it up via {@link #takeReturnValue}).
+	**/
+	Object returnValue = null;
+
 	/**
 	A list of cleanup tasks that have to be done, when the
 	{@code EvaluationContext} is no longer used
@@ -74,14 +110,34 @@ public class EvaluationContext implements AutoCloseable, CloseableRegistry
 	private long milliseconds = -1;
 
 	/**
-	 The timer used to limit the maximum runtime
-	 **/
-	private Timer timer;
+	The value of {@link System#nanoTime} at which the maximum runtime is
+	exceeded (only used if {@link #milliseconds} is &gt;= 0).
+	**/
+	private long deadline;
+
+	/**
+	The number of calls to {@link #tick} before the clock is checked again.
+	**/
+	private static final int TICKS_PER_CHECK = 64;
+
+	/**
+	The number of calls to {@link #tick} left until the clock is checked
+	again.
+	**/
+	private int countdown = TICKS_PER_CHECK;
+
+	/**
+	Is the deadline registered with {@link Deadlines} (i.e. it has neither
+	been exceeded nor has the context been closed)?
+	**/
+	private boolean deadlineArmed = false;
 
 	/**
-	The timer task used to limit the maximum runtime
+	Has the runtime limit (or the allocation limit of the
+	{@link ResourceUsage}) been exceeded (see {@link TemplateRenderEvent} and
+	{@link RenderObserver})?
 	**/
-	private InterruptTimerTask interruptTimerTask;
+	boolean limitExceeded = false;
 
 	/**
 	Create a new {@code EvaluationContext} object.
@@ -165,9 +221,8 @@ public class EvaluationContext implements AutoCloseable, CloseableRegistry
 	{@code milliseconds} can be used to limit the runtime of the template using
 	this {@code EvaluationContext}. In reality this means that the code
 	instantiating the {@code EvaluationContext} has the specified amount of time
-	before a timer thread will interupt the thread that created the
-	{@code EvaluationContext}. This timer will be cancelled when the
-	{@code EvaluationContext} gets closed before the timer fires.
+	before the template execution will be aborted with an exception. The time
+	is checked in loops and calls, the thread's interrupt flag isn't used.
 
 	@param writer The output stream where the template output will be written
 	@param milliseconds The maximum number of milliseconds allowed for
@@ -179,7 +234,7 @@ public class EvaluationContext implements AutoCloseable, CloseableRegistry
 	public EvaluationContext(Writer writer, long milliseconds, Map<String, Object> globalVariables)
 	{
 		this.writer = writer;
-		this.indents = new LinkedList<String>();
+		this.indents = new ArrayList<String>();
 		variables = new HashMap<String, Object>();
 		if (globalVariables == null)
 			globalVariables = new HashMap<String, Object>();
@@ -193,31 +248,81 @@ public class EvaluationContext implements AutoCloseable, CloseableRegistry
 		this.milliseconds = milliseconds;
 		if (milliseconds >= 0)
 		{
-			timer = new Timer("Runtime monitor for UL4 template", false);
-			interruptTimerTask = new InterruptTimerTask(Thread.currentThread());
-			timer.schedule(interruptTimerTask, milliseconds);
+			deadline = System.nanoTime() + milliseconds * 1000000L;
+			deadlineArmed = true;
+			Deadlines.arm();
 		}
-		else
+	}
+
+	/**
+	Check whether the maximum runtime has been exceeded.
+
+	<p>This is called at the places where a template can spend an unbounded
+	amount of time, i.e. once per loop iteration and once per call. If
+	there's neither a runtime limit nor a {@link ResourceUsage} this does
+	nothing, otherwise the clock (and the allocation limit of the
+	{@code ResourceUsage}) is only checked every {@link #TICKS_PER_CHECK}
+	calls.</p>
+	**/
+	protected void tick()
+	{
+		if ((milliseconds >= 0 || resourceUsage != null) && --countdown <= 0)
 		{
-			interruptTimerTask = null;
-			timer = null;
+			countdown = TICKS_PER_CHECK;
+			if (resourceUsage != null)
+				resourceUsage.checkLimit(this);
+			if (milliseconds >= 0 && System.nanoTime() - deadline >= 0)
+			{
+				limitExceeded = true;
+				if (deadlineArmed)
+				{
+					deadlineArmed = false;
+					Deadlines.fire();
+				}
+				throw new RuntimeException(new InterruptedException("Maximum runtime of " + milliseconds + " ms exceeded"));
+			}
 		}
 	}
 
-	protected void tick()
+	/**
+	Return the value of the last {@code <?return?>} tag and reset it.
+	**/
+	Object takeReturnValue()
 	{
-		if (Thread.interrupted())
-			throw new RuntimeException(new InterruptedException("Maximum runtime of " + milliseconds + " ms exceeded"));
+		Object result = returnValue;
+		returnValue = null;
+		return result;
 	}
 
 	public void pushIndent(String indent)
 	{
 		indents.add(indent);
+		this.indent = this.indent.concat(indent);
 	}
 
 	public void popIndent()
 	{
-		indents.remove(indents.size()-1);
+		String indent = indents.remove(indents.size()-1);
+		this.indent = this.indent.substring(0, this.indent.length() - indent.length());
+	}
+
+	/**
+	Return the current indentation (i.e. what has to be output in front of
+	each indented line).
+	**/
+	String getIndent()
+	{
+		return indent;
+	}
+
+	/**
+	Output the current indentation followed by {@code text}.
+	**/
+	public void writeIndent(String text)
+	{
+		if (!indent.isEmpty())
+			write(indent);
+		write(text);
 	}
 
 	/**
@@ -226,10 +331,11 @@ public class EvaluationContext implements AutoCloseable, CloseableRegistry
 	@Override
 	public void close()
 	{
-		if (interruptTimerTask != null)
-			interruptTimerTask.cancel();
-		if (timer != null)
-			timer.cancel();
+		if (deadlineArmed)
+		{
+			deadlineArmed = false;
+			Deadlines.disarm();
+		}
 		for (AutoCloseable closeable : closeables)
 		{
 			try
@@ -332,6 +438,102 @@ public class EvaluationContext implements AutoCloseable, CloseableRegistry
 		return setVariables(new MapChain<String, Object>(variables, getVariables()));
 	}
 
+	/**
+	Replace the map containing the template variables with a {@link Frame}
+	for the variables of a comprehension with the layout {@code layout} (or
+	with a new map if {@code layout} is {@code null}) that defers all other
+	variables to the previous map and return the previous map.
+	**/
+	Map<String, Object> pushScope(Frame.Layout layout)
+	{
+		if (layout == null)
+			return pushVariables(null);
+		return setVariables(Frame.nested(layout, getVariables()));
+	}
+
+	/**
+	Return whether the global variables might shadow builtins.
+	**/
+	public boolean getGlobalsShadowBuiltins()
+	{
+		return globalsShadowBuiltins;
+	}
+
+	/**
+	Declare whether the global variables might contain variables with the same
+	name as a builtin (like {@code len} or {@code str}).
+
+	<p>If {@code globalsShadowBuiltins} is {@code false}, variables in
+	templates that can only refer to a builtin (because they are neither
+	parameters nor assigned to anywhere, see {@link BuiltinResolver}) use
+	the builtin directly without looking up the name in the local and global
+	variables. The default is {@code true}.</p>
+	**/
+	public void setGlobalsShadowBuiltins(boolean globalsShadowBuiltins)
+	{
+		this.globalsShadowBuiltins = globalsShadowBuiltins;
+	}
+
+	/**
+	Return the cache for the output of {@code <?render?>} calls (or
+	{@code null}).
+	**/
+	public FragmentCache getFragmentCache()
+	{
+		return fragmentCache;
+	}
+
+	/**
+	Use {@code fragmentCache} for caching the output of templates rendered via
+	{@code <?render?>} (and the other render tags). The same cache can be
+	used by many {@code EvaluationContext} objects (e.g. for all renders of an
+	application). Passing {@code null} disables caching (which is the
+	default).
+	**/
+	public void setFragmentCache(FragmentCache fragmentCache)
+	{
+		this.fragmentCache = fragmentCache;
+	}
+
+	/**
+	Return the profiler that records the evaluation of the AST nodes (or
+	{@code null}).
+	**/
+	public Profiler getProfiler()
+	{
+		return profiler;
+	}
+
+	/**
+	Record the evaluation of the AST nodes in {@code profiler}. Passing
+	{@code null} turns profiling off (which is the default).
+	**/
+	public void setProfiler(Profiler profiler)
+	{
+		this.profiler = profiler;
+	}
+
+	/**
+	Return the object that measures the CPU time and allocated memory of
+	the renders and calls (or {@code null}). The measurements stay available
+	after the context has been closed.
+	**/
+	public ResourceUsage getResourceUsage()
+	{
+		return resourceUsage;
+	}
+
+	/**
+	Measure the CPU time and allocated memory of the renders and calls of
+	templates in this context with {@code resourceUsage} (which may also
+	limit the memory that may be allocated). Passing {@code null} turns
+	measuring off (which is the default).
+	**/
+	public void setResourceUsage(ResourceUsage resourceUsage)
+	{
+		this.resourceUsage = resourceUsage;
+	}
+
 	/**
 	Return the {@code Writer} object where template output is written to.
 	**/
@@ -490,6 +692,15 @@ public class EvaluationContext implements AutoCloseable, CloseableRegistry
 	{
 	}
 
+	/**
+	Return the builtin object named {@code name} (or {@code null} if there's
+	no such builtin).
+	**/
+	static Object getBuiltin(String name)
+	{
+		return builtins.get(name);
+	}
+
 	private static Map<String, Object> builtins = new HashMap<String, Object>();
 
 	static
@@ -0,0 +1,393 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+Determines which expressions in a template can be cached, so that they are
+evaluated only once per template call or once per execution of a loop.
+
+<p>This applies to attribute chains like {@code app.params.lang} and to calls
+of pure builtin functions like {@code len(app.params.title)}, whose variable
+isn't assigned to in the template (or in the loop). Assigning to an
+attribute or item of an object (e.g. {@code <?code app.params.lang = 'en'?>})
+or calling a method that modifies it (e.g.
+{@code <?code app.params.items.append(x)?>}) counts as an assignment to the
+variable the object comes from. All uses of the same expression share the
+cached value.</p>
+
+<p>Whether an expression really is invariant can only be decided at runtime:
+An attribute value is only cached if the object implements
+{@link UL4GetAttr} and declares the attribute as pure via
+{@link UL4GetAttr#isPureAttrUL4} (and the object itself has been a variable
+or a cached attribute). A call is only cached if the called object is the
+builtin function and its argument is immutable (and, if the argument is an
+attribute, a cached one).</p>
+
+<p>For each template the cached values are stored in the {@link Frame} of
+the template call. Loops forget the values that are specific to the loop
+when the loop starts.</p>
+**/
+final class ExpressionCache
+{
+	/**
+	The names of the builtin functions whose result only depends on their
+	argument.
+	**/
+	private static final Set<String> pureFunctionNames = new HashSet<String>();
+
+	/**
+	The builtin functions themselves.
+	**/
+	private static final Set<Object> pureFunctions = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+	static
+	{
+		Collections.addAll(pureFunctionNames, "len", "str", "repr", "ascii", "int", "float", "bool", "hex", "oct", "bin", "abs");
+		for (String name : pureFunctionNames)
+			pureFunctions.add(EvaluationContext.getBuiltin(name));
+	}
+
+	/**
+	A part of the template during whose execution cached values stay valid:
+	either the template itself or a loop.
+	**/
+	private static final class Region
+	{
+		/**
+		The names of the variables assigned to in the region.
+		**/
+		final Set<String> assigned;
+
+		/**
+		The cache slots of the expressions that are cached in the region (by
+		source of the expression).
+		**/
+		final Map<String, Integer> slots = new LinkedHashMap<String, Integer>();
+
+		Region(Set<String> assigned)
+		{
+			this.assigned = assigned;
+		}
+	}
+
+	private int cacheSize = 0;
+
+	/**
+	The regions we're currently in (the template itself first).
+	**/
+	private List<Region> regions = new ArrayList<Region>();
+
+	private ExpressionCache()
+	{
+	}
+
+	/**
+	Determine the cached expressions in {@code template} and in all
+	templates nested in it.
+	**/
+	static void analyze(Template template)
+	{
+		ExpressionCache cache = new ExpressionCache();
+		Region region = new Region(new HashSet<String>());
+		new Assignments(region.assigned).walk(template.getContent());
+		cache.regions.add(region);
+		cache.walker.walk(template.getContent());
+		template.cacheSize = cache.cacheSize;
+
+		List<Template> templates = new ArrayList<Template>();
+		TemplateCompiler.collectNestedTemplates(template.getContent(), templates);
+		for (Template nested : templates)
+			analyze(nested);
+	}
+
+	/**
+	Return whether the value of a call of the function {@code function} with
+	the argument {@code argument} (which is the value of the node
+	{@code argumentNode}) may be cached.
+	**/
+	static boolean isCacheableCall(EvaluationContext context, Object function, AST argumentNode, Object argument)
+	{
+		if (!pureFunctions.contains(function))
+			return false;
+		// A list or dict might be modified later (even if the attribute
+		// holding it isn't)
+		if (!(argument == null || argument instanceof Boolean || argument instanceof Number || argument instanceof String))
+			return false;
+		return !(argumentNode instanceof AttrAST) || ((AttrAST)argumentNode).isCached(context);
+	}
+
+	private void loop(BlockAST block, Set<String> assigned, AST condition, List<AST> content)
+	{
+		Region region = new Region(assigned);
+		regions.add(region);
+		try
+		{
+			walker.walk(condition);
+			walker.walk(content);
+		}
+		finally
+		{
+			regions.remove(regions.size() - 1);
+		}
+		if (region.slots.isEmpty())
+			block.cacheSlots = null;
+		else
+		{
+			int[] slots = new int[region.slots.size()];
+			int i = 0;
+			for (Integer slot : region.slots.values())
+				slots[i++] = slot;
+			block.cacheSlots = slots;
+		}
+	}
+
+	/**
+	Walks the template, assigns cache slots to the attributes and calls of
+	pure functions and creates the regions for loops.
+	**/
+	private final ASTWalker walker = new ASTWalker()
+	{
+		@Override
+		void walk(Object node)
+		{
+			if (node instanceof ForBlockAST)
+			{
+				ForBlockAST block = (ForBlockAST)node;
+				walk(block.container);
+				Set<String> assigned = new HashSet<String>();
+				Assignments assignments = new Assignments(assigned);
+				assignments.walkTarget(block.varname);
+				assignments.walk(block.getContent());
+				loop(block, assigned, null, block.getContent());
+			}
+			else if (node instanceof WhileBlockAST)
+			{
+				WhileBlockAST block = (WhileBlockAST)node;
+				Set<String> assigned = new HashSet<String>();
+				Assignments assignments = new Assignments(assigned);
+				assignments.walk(block.condition);
+				assignments.walk(block.getContent());
+				loop(block, assigned, block.condition, block.getContent());
+			}
+			else if (node instanceof AttrAST)
+			{
+				AttrAST attr = (AttrAST)node;
+				attr.cacheSlot = -1;
+				String root = getRoot(attr);
+				if (root != null)
+					attr.cacheSlot = getSlot(root, null, getSource(attr));
+				walk(attr.obj);
+			}
+			else if (node instanceof CallRenderAST)
+			{
+				CallRenderAST call = (CallRenderAST)node;
+				if (call instanceof CallAST)
+				{
+					((CallAST)call).cacheSlot = -1;
+					if (call.obj instanceof VarAST && pureFunctionNames.contains(((VarAST)call.obj).getName()) && call.arguments.size() == 1 && call.arguments.get(0) instanceof PositionalArgumentAST)
+					{
+						AST argument = ((PositionalArgumentAST)call.arguments.get(0)).value;
+						String root = argument instanceof VarAST ? ((VarAST)argument).getName() : argument instanceof AttrAST ? getRoot((AttrAST)argument) : null;
+						if (root != null)
+						{
+							String function = ((VarAST)call.obj).getName();
+							String source = function + "(" + (argument instanceof VarAST ? root : getSource((AttrAST)argument)) + ")";
+							((CallAST)call).cacheSlot = getSlot(root, function, source);
+						}
+					}
+				}
+				// For method calls the attribute itself isn't fetched via the {@code AttrAST}
+				walk(call.obj instanceof AttrAST ? ((AttrAST)call.obj).obj : call.obj);
+				walk(call.arguments);
+				// The content of {@code <?renderblock?>} has its own variables
+			}
+			else
+				super.walk(node);
+		}
+
+		@Override
+		void walkTarget(Object lvalue)
+		{
+			// Assignment targets are never cached
+		}
+
+		@Override
+		void walkTemplate(Template template)
+		{
+			// Nested templates have their own variables
+		}
+
+		@Override
+		void walkRenderBlocks(List<AST> content)
+		{
+			// The content of {@code <?renderblocks?>} has its own variables
+		}
+
+		@Override
+		void walkComprehension(CodeAST comprehension, Object varname, CodeAST container, CodeAST... expressions)
+		{
+			// Comprehensions and generator expressions are skipped: Their
+			// expressions might refer to their loop variables and generator
+			// expressions are evaluated later.
+		}
+	};
+
+	/**
+	Return the name of the variable at the start of the attribute chain
+	{@code attr} (or {@code null} if the chain doesn't start with a variable).
+	**/
+	private static String getRoot(AttrAST attr)
+	{
+		AST node = attr.obj;
+		while (node instanceof AttrAST)
+			node = ((AttrAST)node).obj;
+		return node instanceof VarAST ? ((VarAST)node).getName() : null;
+	}
+
+	private static String getSource(AttrAST attr)
+	{
+		return (attr.obj instanceof AttrAST ? getSource((AttrAST)attr.obj) : ((VarAST)attr.obj).getName()) + "." + attr.attrName;
+	}
+
+	/**
+	Return the cache slot for the expression {@code source} which uses the
+	variables {@code root} and {@code function} (which may be {@code null}),
+	or -1 if the expression can't be cached (because the variables are
+	assigned to in the innermost region).
+
+	<p>The expression is cached in the outermost region in which the variables
+	aren't assigned to.</p>
+	**/
+	private int getSlot(String root, String function, String source)
+	{
+		for (Region region : regions)
+		{
+			if (!region.assigned.contains(root) && (function == null || !region.assigned.contains(function)))
+			{
+				Integer slot = region.slots.get(source);
+				if (slot == null)
+				{
+					slot = cacheSize++;
+					region.slots.put(source, slot);
+				}
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	Collects the names of the variables that are assigned to in a part of a
+	template. Modifying an object (by assigning to one of its attributes or
+	items or by calling a method like {@code append()}) counts as an
+	assignment to the variable the object comes from.
+	**/
+	private static final class Assignments extends ASTWalker
+	{
+		private final Set<String> assigned;
+
+		/**
+		Are we in the content of a nested template? Then only modifications of
+		objects count, since the variables are those of the nested template.
+		**/
+		private boolean nested = false;
+
+		Assignments(Set<String> assigned)
+		{
+			this.assigned = assigned;
+		}
+
+		@Override
+		void walk(Object node)
+		{
+			if (node instanceof CallAST)
+			{
+				CallAST call = (CallAST)node;
+				if (call.obj instanceof AttrAST && FreeVariables.modifyingMethods.contains(((AttrAST)call.obj).attrName))
+					addRoot(((AttrAST)call.obj).obj);
+			}
+			super.walk(node);
+		}
+
+		@Override
+		void walkTarget(Object lvalue)
+		{
+			if (lvalue instanceof VarAST)
+			{
+				if (!nested)
+					assigned.add(((VarAST)lvalue).getName());
+			}
+			else if (lvalue instanceof List)
+			{
+				for (Object item : (List)lvalue)
+					walkTarget(item);
+			}
+			else
+			{
+				if (lvalue instanceof AttrAST)
+					addRoot(((AttrAST)lvalue).obj);
+				else if (lvalue instanceof ItemAST)
+					addRoot(((ItemAST)lvalue).obj1);
+				walk(lvalue);
+			}
+		}
+
+		@Override
+		void walkTemplate(Template template)
+		{
+			if (!nested)
+				assigned.add(template.name);
+			super.walkTemplate(template);
+			walkNested(template);
+		}
+
+		@Override
+		void walkRenderBlock(Template content)
+		{
+			walkNested(content);
+		}
+
+		/**
+		Walk the content of the nested template {@code template}, which might
+		modify objects from our scope.
+		**/
+		private void walkNested(Template template)
+		{
+			boolean oldNested = nested;
+			nested = true;
+			try
+			{
+				walk(template.getContent());
+			}
+			finally
+			{
+				nested = oldNested;
+			}
+		}
+
+		/**
+		Add the variable at the start of the attribute or item chain
+		{@code node} (if there is one).
+		**/
+		private void addRoot(AST node)
+		{
+			while (node instanceof AttrAST || node instanceof ItemAST)
+				node = node instanceof AttrAST ? ((AttrAST)node).obj : ((ItemAST)node).obj1;
+			if (node instanceof VarAST)
+				assigned.add(((VarAST)node).getName());
+		}
+	}
+}
@@ -113,27 +113,21 @@ public class ForBlockAST extends BlockAST
 	public Object evaluate(EvaluationContext context)
 	{
 		Object container = this.container.decoratedEvaluate(context);
+		clearCache(context);
 
 		Iterator iter = Utils.iterator(container);
 
 		while (iter.hasNext())
 		{
-			for (Utils.LValueValue lvv : Utils.unpackVariable(varname, iter.next()))
-				lvv.getLValue().evaluateSet(context, lvv.getValue());
-
-			try
-			{
-				for (AST item : content)
-					item.decoratedEvaluate(context);
-			}
-			catch (BreakException ex)
-			{
+			context.tick();
+			Utils.assignVariable(context, varname, iter.next());
+
+			Object completion = evaluateContent(context, content);
+			if (completion == Completion.BREAK)
 				break; // breaking the evaluated for loop
-			}
-			catch (ContinueException ex)
-			{
-				// doing nothing here does exactly what we need ;)
-			}
+			else if (completion == Completion.RETURN)
+				return completion;
+			// For {@code Completion.CONTINUE} doing nothing here does exactly what we need ;)
 		}
 		return null;
 	}
@@ -0,0 +1,428 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+Caches the output of templates rendered via {@code <?render?>} (and the other
+render tags like {@code <?renderblock?>}).
+
+<p>A {@code FragmentCache} is used by setting it as the fragment cache of an
+{@link EvaluationContext} (see {@link EvaluationContext#setFragmentCache}).
+The same cache can be shared by many contexts (and threads).</p>
+
+<p>The output of a template is cached under a key consisting of the template,
+the values of its arguments, the values of the variables of the closure the
+template has been defined in (for templates defined via {@code <?def?>}) and
+the current indentation. When the same template is rendered again with equal
+arguments, the cached output is written directly, without executing the
+template.</p>
+
+<p>Output is only cached if the template can't produce different output for
+the same key:</p>
+
+<ul>
+<li>The argument values must be {@code None}, booleans, numbers, strings,
+dates, colors, time deltas, lists, dicts and sets of those, or templates that
+satisfy these conditions themselves. For other objects (whose state can't be
+compared) the output isn't cached.</li>
+<li>The template (and the templates nested in it) must not use any variable
+that is defined in the global variables or the builtin functions
+{@code now()}, {@code utcnow()}, {@code today()}, {@code random()},
+{@code randrange()}, {@code randchoice()} and {@code setattr()}.</li>
+<li>The template must not modify objects (i.e. assign to attributes or items
+or call methods like {@code append()}), because rendering it from the cache
+would skip the modification.</li>
+</ul>
+
+<p>The cache holds at most a fixed number of entries (dropping the least
+recently used one when it's full). Entries can expire after a fixed time.
+Output of renders that fail is not cached.</p>
+**/
+public class FragmentCache
+{
+	/**
+	The names of the builtins whose result might be different on every call.
+	**/
+	static final Set<String> impureNames = new HashSet<String>();
+
+	static
+	{
+		Collections.addAll(impureNames, "now", "utcnow", "today", "random", "randrange", "randchoice", "setattr");
+	}
+
+	/**
+	Used as {@link Template#fragmentNames} for templates whose output can't be
+	cached.
+	**/
+	static final String[] UNCACHEABLE = new String[0];
+
+	/**
+	Returned by {@link #keyValue} for values that can't be part of a key.
+	**/
+	private static final Object NO_KEY = new Object();
+
+	/**
+	Used in keys for variables that aren't defined.
+	**/
+	private static final Object UNDEFINED = new Object();
+
+	/**
+	The maximum nesting depth of argument values that are part of a key.
+	**/
+	private static final int MAX_DEPTH = 32;
+
+	/**
+	A composite part of a key: The kind of the part (a class or a template)
+	and its items.
+	**/
+	private static final class Key
+	{
+		private final Object kind;
+		private final Object[] items;
+		private final int hash;
+
+		Key(Object kind, Object[] items)
+		{
+			this.kind = kind;
+			this.items = items;
+			this.hash = 31 * System.identityHashCode(kind) + Arrays.hashCode(items);
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof Key))
+				return false;
+			Key otherKey = (Key)other;
+			return hash == otherKey.hash && kind == otherKey.kind && Arrays.equals(items, otherKey.items);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+	}
+
+	private static final class Entry
+	{
+		final String output;
+
+		/**
+		The value of {@link System#nanoTime} when the entry expires.
+		**/
+		final long expires;
+
+		Entry(String output, long expires)
+		{
+			this.output = output;
+			this.expires = expires;
+		}
+	}
+
+	private final int maxEntries;
+	private final long ttlNanos;
+
+	/**
+	The cache entries (in the order of last access).
+	**/
+	private final LinkedHashMap<Key, Entry> entries;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder uncacheable = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	Create a new {@code FragmentCache}.
+
+	@param maxEntries The maximum number of outputs the cache holds.
+	@param ttlMilliseconds The number of milliseconds after which a cached
+	                       output expires. If negative, outputs never expire.
+	**/
+	public FragmentCache(int maxEntries, long ttlMilliseconds)
+	{
+		if (maxEntries <= 0)
+			throw new IllegalArgumentException("maxEntries must be positive");
+		this.maxEntries = maxEntries;
+		this.ttlNanos = ttlMilliseconds >= 0 ? ttlMilliseconds * 1000000L : -1;
+		entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest)
+			{
+				if (size() > FragmentCache.this.maxEntries)
+				{
+					evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	Return the number of renders whose output has been taken from the cache.
+	**/
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	Return the number of renders whose output wasn't in the cache (and has
+	been cached after rendering).
+	**/
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	Return the number of renders whose output couldn't be cached (because of
+	the template or the argument values).
+	**/
+	public long getUncacheable()
+	{
+		return uncacheable.sum();
+	}
+
+	/**
+	Return the number of outputs that have been dropped from the cache because
+	it was full.
+	**/
+	public long getEvictions()
+	{
+		return evictions.sum();
+	}
+
+	/**
+	Return the number of outputs currently in the cache (including the ones
+	that have expired but haven't been dropped yet).
+	**/
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	Remove all outputs from the cache.
+	**/
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	private synchronized String get(Key key)
+	{
+		Entry entry = entries.get(key);
+		if (entry == null)
+			return null;
+		if (ttlNanos >= 0 && System.nanoTime() - entry.expires > 0)
+		{
+			entries.remove(key);
+			return null;
+		}
+		return entry.output;
+	}
+
+	private synchronized void put(Key key, String output)
+	{
+		entries.put(key, new Entry(output, ttlNanos >= 0 ? System.nanoTime() + ttlNanos : 0));
+	}
+
+	/**
+	Render {@code template} (which is the template of {@code closure} or
+	{@code closure} is {@code null}) with the variables {@code variables}
+	(i.e. the bound arguments) or output the cached output of a previous
+	render.
+	**/
+	void render(EvaluationContext context, Template template, TemplateClosure closure, Map<String, Object> variables)
+	{
+		Key key = context.getWriter() != null ? makeKey(context, template, closure, variables) : null;
+		if (key == null)
+		{
+			uncacheable.increment();
+			template.renderBound(context, variables);
+			return;
+		}
+
+		String output = get(key);
+		if (output != null)
+		{
+			hits.increment();
+			context.write(output);
+			return;
+		}
+
+		misses.increment();
+		StringWriter buffer = new StringWriter();
+		Writer oldWriter = context.setWriter(buffer);
+		boolean complete = false;
+		try
+		{
+			template.renderBound(context, variables);
+			complete = true;
+		}
+		finally
+		{
+			context.setWriter(oldWriter);
+			output = buffer.toString();
+			context.write(output);
+		}
+		if (complete)
+			put(key, output);
+	}
+
+	/**
+	Return the cache key for rendering {@code template} (or {@code closure})
+	with {@code variables} (or {@code null} if the output can't be cached).
+	**/
+	private static Key makeKey(EvaluationContext context, Template template, TemplateClosure closure, Map<String, Object> variables)
+	{
+		Signature signature = closure != null ? closure.getSignature() : template.signature;
+		if (signature == null)
+			return null;
+		List<ParameterDescription> parameters = new ArrayList<ParameterDescription>(signature.getParametersByPosition());
+		if (signature.hasVarPositional())
+			parameters.add(signature.getVarPositional());
+		if (signature.hasVarKeyword())
+			parameters.add(signature.getVarKeyword());
+		Object[] items = new Object[parameters.size() + 2];
+		items[0] = context.getIndent();
+		items[1] = closure != null ? keyValue(context, closure, 0) : keyValue(context, template, 0);
+		if (items[1] == NO_KEY)
+			return null;
+		int i = 2;
+		for (ParameterDescription parameter : parameters)
+		{
+			Object value = keyValue(context, variables.get(parameter.getName()), 0);
+			if (value == NO_KEY)
+				return null;
+			items[i++] = value;
+		}
+		return new Key(Key.class, items);
+	}
+
+	/**
+	Return an object that is equal for equal values and that can't change (or
+	{@code NO_KEY} if {@code value} can't be part of a key).
+	**/
+	private static Object keyValue(EvaluationContext context, Object value, int depth)
+	{
+		if (value == null || value instanceof String || value instanceof Boolean || value instanceof Integer || value instanceof Long || value instanceof Byte || value instanceof Short || value instanceof BigInteger || value instanceof Double || value instanceof Float || value instanceof BigDecimal || value instanceof LocalDate || value instanceof LocalDateTime || value instanceof Color || value instanceof TimeDelta || value instanceof MonthDelta)
+			return value;
+		else if (value instanceof Date)
+			return new Key(Date.class, new Object[]{((Date)value).getTime()});
+		else if (depth >= MAX_DEPTH)
+			return NO_KEY;
+		else if (value instanceof List)
+			return keyValues(context, List.class, ((List)value).toArray(), depth);
+		else if (value instanceof Object[])
+			return keyValues(context, List.class, ((Object[])value).clone(), depth);
+		else if (value instanceof Set)
+			return keyValues(context, Set.class, ((Set)value).toArray(), depth);
+		else if (value instanceof Map)
+		{
+			Map<Object, Object> map = (Map<Object, Object>)value;
+			Object[] items = new Object[2 * map.size()];
+			int i = 0;
+			for (Map.Entry<Object, Object> entry : map.entrySet())
+			{
+				items[i++] = entry.getKey();
+				items[i++] = entry.getValue();
+			}
+			return keyValues(context, Map.class, items, depth);
+		}
+		else if (value instanceof Template)
+			return templateKey(context, (Template)value, null, depth);
+		else if (value instanceof TemplateClosure)
+			return templateKey(context, ((TemplateClosure)value).getTemplate(), ((TemplateClosure)value).getVariables(), depth);
+		return NO_KEY;
+	}
+
+	/**
+	Replace the items in {@code items} by their key values and return a key
+	for them (or {@code NO_KEY}).
+	**/
+	private static Object keyValues(EvaluationContext context, Class kind, Object[] items, int depth)
+	{
+		for (int i = 0; i < items.length; ++i)
+		{
+			Object item = keyValue(context, items[i], depth + 1);
+			if (item == NO_KEY)
+				return NO_KEY;
+			items[i] = item;
+		}
+		return new Key(kind, items);
+	}
+
+	/**
+	Return a key for {@code template} whose closure has the variables
+	{@code variables} (which is {@code null} for templates that aren't
+	closures). The key contains the values of all the variables the template
+	uses from the closure. If the template's output might differ between
+	renders with the same arguments, return {@code NO_KEY}.
+	**/
+	private static Object templateKey(EvaluationContext context, Template template, Map<String, Object> variables, int depth)
+	{
+		String[] names = getNames(template);
+		if (names == UNCACHEABLE)
+			return NO_KEY;
+		Map<String, Object> globalVariables = context.getGlobalVariables();
+		Object[] items = new Object[names.length];
+		for (int i = 0; i < names.length; ++i)
+		{
+			String name = names[i];
+			if (variables != null && variables.containsKey(name))
+			{
+				Object value = keyValue(context, variables.get(name), depth + 1);
+				if (value == NO_KEY)
+					return NO_KEY;
+				items[i] = value;
+			}
+			else if (globalVariables.containsKey(name) || impureNames.contains(name))
+				return NO_KEY;
+			else
+				items[i] = UNDEFINED;
+		}
+		return new Key(template, items);
+	}
+
+	/**
+	Return the names of the variables {@code template} uses apart from its
+	parameters (or {@code UNCACHEABLE} if its output can't be cached).
+	**/
+	static String[] getNames(Template template)
+	{
+		String[] names = template.fragmentNames;
+		if (names == null)
+		{
+			Set<String> nameSet = FreeVariables.getNames(template);
+			names = nameSet != null ? nameSet.toArray(new String[nameSet.size()]) : UNCACHEABLE;
+			template.fragmentNames = names;
+		}
+		return names;
+	}
+}
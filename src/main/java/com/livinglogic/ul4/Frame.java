@@ -0,0 +1,679 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+The variables of one execution of a template.
+
+<p>Every variable the template assigns to (i.e. parameters, loop variables,
+assigned variables and the names of nested templates) has been assigned a
+slot index by {@link VariableResolver}. A {@code Frame} stores the values of
+these variables in an array, so that a {@link VarAST} can access its
+variable without any hash lookup.</p>
+
+<p>For everyone else a {@code Frame} behaves like the variable map it replaces:
+Variables whose slot hasn't been set yet and variables that are only read
+are looked up in the parent map (which might be the variables of the caller
+or the globals). The parent map is never modified: Variables without a slot
+that are set or removed are kept in the frame itself.</p>
+
+<p>A {@code Frame} also holds the values of the expressions that
+{@link ExpressionCache} has determined to be invariant during one execution
+of the template (or of a loop in the template). These don't have names and
+are invisible in the map.</p>
+**/
+final class Frame extends AbstractMap<String, Object>
+{
+	/**
+	Marker for a slot that hasn't been set.
+	**/
+	static final Object UNSET = new Object();
+
+	/**
+	Assignment of variable names to slot indexes (for one template).
+	**/
+	static final class Layout
+	{
+		final String[] names;
+		final Map<String, Integer> slots;
+
+		/**
+		The number of cached expression values (see {@link ExpressionCache}).
+		**/
+		final int cacheSize;
+
+		Layout(Map<String, Integer> slots)
+		{
+			this(slots, 0);
+		}
+
+		Layout(Map<String, Integer> slots, int cacheSize)
+		{
+			this.slots = slots;
+			this.cacheSize = cacheSize;
+			names = new String[slots.size()];
+			for (Map.Entry<String, Integer> entry : slots.entrySet())
+				names[entry.getValue()] = entry.getKey();
+		}
+
+		int size()
+		{
+			return names.length;
+		}
+	}
+
+	/**
+	Assignment of the arguments of a call (in the order of
+	{@link BoundArguments#byPosition}) to the slots of a layout.
+	**/
+	static final class ArgumentSlots
+	{
+		final Layout layout;
+		final Signature signature;
+		final String[] names;
+		/**
+		The slot index for each argument or -1 if the parameter has no slot
+		(because the template never uses it).
+		**/
+		final int[] slots;
+
+		ArgumentSlots(Layout layout, Signature signature)
+		{
+			this.layout = layout;
+			this.signature = signature;
+
+			List<String> names = new ArrayList<String>();
+			for (ParameterDescription param : signature.getParametersByPosition())
+				names.add(param.getName());
+			if (signature.getVarPositional() != null)
+				names.add(signature.getVarPositional().getName());
+			if (signature.getVarKeyword() != null)
+				names.add(signature.getVarKeyword().getName());
+
+			int size = names.size();
+			this.names = names.toArray(new String[size]);
+			slots = new int[size];
+			for (int i = 0; i < size; ++i)
+			{
+				Integer slot = layout.slots.get(this.names[i]);
+				slots[i] = slot != null ? slot : -1;
+			}
+		}
+	}
+
+	final Layout layout;
+	final Object[] values;
+	private final Map<String, Object> parent;
+
+	/**
+	The variables without a slot that have been set in this frame (or
+	{@code null} if there are none). A value of {@link #UNSET} means that the
+	variable has been removed, i.e. that the variable of the parent map is
+	hidden. This isn't used for nested frames, which write to their parent.
+	**/
+	private Map<String, Object> locals = null;
+
+	/**
+	The cached expression values (or {@code null} if the layout has none).
+	**/
+	private final Object[] cache;
+
+	/**
+	Is this the frame of a comprehension or generator expression (whose
+	{@code parent} are the variables of the enclosing scope)?
+	**/
+	private final boolean nested;
+
+	/**
+	The slots whose variable has been removed via {@link #remove} (or
+	{@code null} if none has). The variables in these slots are no longer
+	looked up in the parent map.
+	**/
+	private boolean[] removed = null;
+
+	/**
+	Create a new {@code Frame} for the variable layout {@code layout}.
+	Variables whose slot hasn't been set are looked up in {@code parent}
+	(which is never modified).
+	**/
+	Frame(Layout layout, Map<String, Object> parent)
+	{
+		this(layout, parent, false);
+	}
+
+	private Frame(Layout layout, Map<String, Object> parent, boolean nested)
+	{
+		this.layout = layout;
+		this.parent = parent != null ? parent : Collections.<String, Object>emptyMap();
+		this.nested = nested;
+		values = new Object[layout.size()];
+		cache = makeCache(layout);
+		Arrays.fill(values, UNSET);
+	}
+
+	/**
+	Create a new {@code Frame} for the variables of a comprehension or
+	generator expression. {@code layout} contains the loop variables (which
+	are all unset initially). All other variables are looked up in (and
+	written to) {@code parent} (the variables of the enclosing scope).
+	**/
+	static Frame nested(Layout layout, Map<String, Object> parent)
+	{
+		return new Frame(layout, parent, true);
+	}
+
+	/**
+	Create a new {@code Frame} for a call with the arguments {@code arguments}
+	(as returned by {@link BoundArguments#byPosition}). The arguments are
+	written into their slots directly (or into the frame itself if the
+	template doesn't use them). All other variables are looked up in
+	{@code variables} (which may be {@code null} and is never modified).
+	**/
+	Frame(ArgumentSlots argumentSlots, Object[] arguments, Map<String, Object> variables)
+	{
+		this(argumentSlots.layout, variables, false);
+		int[] slots = argumentSlots.slots;
+		for (int i = 0; i < slots.length; ++i)
+		{
+			int slot = slots[i];
+			if (slot >= 0)
+				values[slot] = arguments[i];
+			else
+				locals().put(argumentSlots.names[i], arguments[i]);
+		}
+	}
+
+	private static Object[] makeCache(Layout layout)
+	{
+		if (layout.cacheSize == 0)
+			return null;
+		Object[] cache = new Object[layout.cacheSize];
+		Arrays.fill(cache, UNSET);
+		return cache;
+	}
+
+	private Map<String, Object> locals()
+	{
+		if (locals == null)
+			locals = new LinkedHashMap<String, Object>();
+		return locals;
+	}
+
+	/**
+	Return the value of the slot {@code slot} if {@code variables} is a frame
+	with the layout {@code layout} (or a frame of a comprehension nested in
+	such a frame). Otherwise (or if the slot hasn't been set) return
+	{@link #UNSET}.
+	**/
+	static Object get(Map<String, Object> variables, Layout layout, int slot)
+	{
+		while (variables instanceof Frame)
+		{
+			Frame frame = (Frame)variables;
+			if (frame.layout == layout)
+				return frame.values[slot];
+			if (!frame.nested)
+				break;
+			variables = frame.parent;
+		}
+		return UNSET;
+	}
+
+	/**
+	Set the slot {@code slot} to {@code value} if {@code variables} is a frame
+	with the layout {@code layout}. Return whether the slot has been set.
+	**/
+	static boolean set(Map<String, Object> variables, Layout layout, int slot, Object value)
+	{
+		if (variables instanceof Frame)
+		{
+			Frame frame = (Frame)variables;
+			if (frame.layout == layout)
+			{
+				frame.values[slot] = value;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	Return the frame with the layout {@code layout} if {@code variables} is
+	such a frame (or a frame of a comprehension nested in such a frame).
+	Otherwise return {@code null}.
+	**/
+	private static Frame find(Map<String, Object> variables, Layout layout)
+	{
+		while (variables instanceof Frame)
+		{
+			Frame frame = (Frame)variables;
+			if (frame.layout == layout)
+				return frame;
+			if (!frame.nested)
+				break;
+			variables = frame.parent;
+		}
+		return null;
+	}
+
+	/**
+	Return the cached expression value {@code slot} from the frame with the
+	layout {@code layout} (or {@link #UNSET} if there's no such frame or
+	the value hasn't been cached yet).
+	**/
+	static Object getCached(Map<String, Object> variables, Layout layout, int slot)
+	{
+		Frame frame = find(variables, layout);
+		return frame != null && frame.cache != null ? frame.cache[slot] : UNSET;
+	}
+
+	/**
+	Cache the expression value {@code value} in slot {@code slot} of the frame
+	with the layout {@code layout} (if there is one).
+	**/
+	static void setCached(Map<String, Object> variables, Layout layout, int slot, Object value)
+	{
+		Frame frame = find(variables, layout);
+		if (frame != null && frame.cache != null)
+			frame.cache[slot] = value;
+	}
+
+	/**
+	Forget the cached expression values in the slots {@code slots} of the
+	frame with the layout {@code layout} (if there is one).
+	**/
+	static void clearCached(Map<String, Object> variables, Layout layout, int[] slots)
+	{
+		Frame frame = find(variables, layout);
+		if (frame != null && frame.cache != null)
+		{
+			for (int slot : slots)
+				frame.cache[slot] = UNSET;
+		}
+	}
+
+	/**
+	Is the variable in slot {@code slot} hidden from the parent map (because
+	it has been removed)?
+	**/
+	private boolean isRemoved(int slot)
+	{
+		return removed != null && removed[slot];
+	}
+
+	/**
+	Is the entry for {@code key} in the parent map invisible (because the
+	variable has been set or removed in this frame)?
+	**/
+	private boolean isShadowed(Object key)
+	{
+		Integer slot = layout.slots.get(key);
+		if (slot != null)
+			return values[slot] != UNSET || isRemoved(slot);
+		return locals != null && locals.containsKey(key);
+	}
+
+	/**
+	Unset the slot {@code slot} and hide the variable in the parent map.
+	**/
+	private void removeSlot(int slot)
+	{
+		values[slot] = UNSET;
+		if (removed == null)
+			removed = new boolean[values.length];
+		removed[slot] = true;
+	}
+
+	@Override
+	public Object get(Object key)
+	{
+		Integer slot = layout.slots.get(key);
+		if (slot != null)
+		{
+			Object value = values[slot];
+			if (value != UNSET)
+				return value;
+			if (isRemoved(slot))
+				return null;
+		}
+		else if (locals != null && locals.containsKey(key))
+		{
+			Object value = locals.get(key);
+			return value != UNSET ? value : null;
+		}
+		return parent.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		Integer slot = layout.slots.get(key);
+		if (slot != null)
+		{
+			if (values[slot] != UNSET)
+				return true;
+			if (isRemoved(slot))
+				return false;
+		}
+		else if (locals != null && locals.containsKey(key))
+			return locals.get(key) != UNSET;
+		return parent.containsKey(key);
+	}
+
+	/**
+	Set the variable {@code key} to {@code value}. The parent map isn't
+	modified (except for nested frames).
+	**/
+	@Override
+	public Object put(String key, Object value)
+	{
+		Integer slot = layout.slots.get(key);
+		if (slot != null)
+		{
+			Object oldValue = get(key);
+			values[slot] = value;
+			return oldValue;
+		}
+		if (nested)
+			return parent.put(key, value);
+		Object oldValue = get(key);
+		locals().put(key, value);
+		return oldValue;
+	}
+
+	/**
+	Remove the variable {@code key}. The parent map isn't modified (except
+	for nested frames), but its value for {@code key} is no longer visible.
+	**/
+	@Override
+	public Object remove(Object key)
+	{
+		Integer slot = layout.slots.get(key);
+		if (slot != null)
+		{
+			Object oldValue = get(key);
+			removeSlot(slot);
+			return oldValue;
+		}
+		if (nested)
+			return parent.remove(key);
+		Object oldValue = get(key);
+		if (parent.containsKey(key))
+			locals().put((String)key, UNSET);
+		else if (locals != null)
+			locals.remove(key);
+		return oldValue;
+	}
+
+	@Override
+	public int size()
+	{
+		int size = 0;
+		for (Object value : values)
+		{
+			if (value != UNSET)
+				++size;
+		}
+		if (locals != null)
+		{
+			for (Object value : locals.values())
+			{
+				if (value != UNSET)
+					++size;
+			}
+		}
+		for (String key : parent.keySet())
+		{
+			if (!isShadowed(key))
+				++size;
+		}
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return !new EntryIterator().hasNext();
+	}
+
+	/**
+	Remove all variables. The variables of the parent map are only hidden
+	(see {@link #remove}).
+	**/
+	@Override
+	public void clear()
+	{
+		for (int i = 0; i < values.length; ++i)
+			removeSlot(i);
+		if (nested)
+		{
+			parent.clear();
+			return;
+		}
+		locals = null;
+		for (String key : parent.keySet())
+		{
+			if (!layout.slots.containsKey(key))
+				locals().put(key, UNSET);
+		}
+	}
+
+	/**
+	Return a view of the variables: First the variables with a slot, then
+	the variables set in the frame and finally the remaining variables of
+	the parent map.
+	**/
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet()
+	{
+		return new AbstractSet<Map.Entry<String, Object>>()
+		{
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator()
+			{
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size()
+			{
+				return Frame.this.size();
+			}
+
+			@Override
+			public boolean isEmpty()
+			{
+				return Frame.this.isEmpty();
+			}
+
+			@Override
+			public void clear()
+			{
+				Frame.this.clear();
+			}
+		};
+	}
+
+	/**
+	The entry for a variable with a slot.
+	**/
+	private final class SlotEntry implements Map.Entry<String, Object>
+	{
+		private final int slot;
+
+		SlotEntry(int slot)
+		{
+			this.slot = slot;
+		}
+
+		@Override
+		public String getKey()
+		{
+			return layout.names[slot];
+		}
+
+		@Override
+		public Object getValue()
+		{
+			Object value = values[slot];
+			return value != UNSET ? value : null;
+		}
+
+		@Override
+		public Object setValue(Object value)
+		{
+			Object oldValue = getValue();
+			values[slot] = value;
+			return oldValue;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>)other;
+			return Objects.equals(getKey(), entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public String toString()
+		{
+			return getKey() + "=" + getValue();
+		}
+	}
+
+	/**
+	The entry for a variable of the parent map. Setting the value sets the
+	variable in the frame.
+	**/
+	private final class ParentEntry extends AbstractMap.SimpleEntry<String, Object>
+	{
+		ParentEntry(Map.Entry<String, Object> entry)
+		{
+			super(entry.getKey(), entry.getValue());
+		}
+
+		@Override
+		public Object setValue(Object value)
+		{
+			put(getKey(), value);
+			return super.setValue(value);
+		}
+	}
+
+	/**
+	Iterates through the slots that are set, then through the variables set
+	in the frame and finally through the entries of the parent map that
+	aren't shadowed.
+	**/
+	private final class EntryIterator implements Iterator<Map.Entry<String, Object>>
+	{
+		private int slot = 0;
+		private Iterator<Map.Entry<String, Object>> localIterator = null;
+		private Iterator<Map.Entry<String, Object>> parentIterator = null;
+
+		/**
+		The entry that {@link #next} returns next (or {@code null} if it
+		hasn't been determined yet).
+		**/
+		private Map.Entry<String, Object> next = null;
+
+		/**
+		The entry that {@link #next} returned last (for {@link #remove}).
+		**/
+		private Map.Entry<String, Object> last = null;
+
+		@Override
+		public boolean hasNext()
+		{
+			if (next != null)
+				return true;
+			while (slot < values.length)
+			{
+				int i = slot++;
+				if (values[i] != UNSET)
+				{
+					next = new SlotEntry(i);
+					return true;
+				}
+			}
+			if (localIterator == null)
+				localIterator = locals != null ? locals.entrySet().iterator() : Collections.<Map.Entry<String, Object>>emptyIterator();
+			while (localIterator.hasNext())
+			{
+				Map.Entry<String, Object> entry = localIterator.next();
+				if (entry.getValue() != UNSET)
+				{
+					next = entry;
+					return true;
+				}
+			}
+			if (parentIterator == null)
+				parentIterator = parent.entrySet().iterator();
+			while (parentIterator.hasNext())
+			{
+				Map.Entry<String, Object> entry = parentIterator.next();
+				if (!isShadowed(entry.getKey()))
+				{
+					next = nested ? entry : new ParentEntry(entry);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public Map.Entry<String, Object> next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			last = next;
+			next = null;
+			return last;
+		}
+
+		@Override
+		public void remove()
+		{
+			if (last == null)
+				throw new IllegalStateException();
+			if (last instanceof SlotEntry)
+				removeSlot(((SlotEntry)last).slot);
+			else if (nested)
+			{
+				if (next != null)
+					// The parent iterator has already moved on to {@code next}
+					throw new IllegalStateException("remove() after hasNext()");
+				parentIterator.remove();
+			}
+			else
+				// Only hide the variable, so that the iteration isn't disturbed
+				locals().put(last.getKey(), UNSET);
+			last = null;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+Determines which variables of the enclosing scopes the templates defined via
+{@code <?def?>} (and the content of {@code <?renderblock?>} tags) might
+access.
+
+<p>A {@link TemplateClosure} normally keeps the variables of the scope it has
+been defined in, because the template might read variables from there (even
+ones that are assigned after the closure has been created). But if none of the
+variable names the template uses (other than its parameters) can be defined
+in any of the enclosing scopes, the closure doesn't have to keep the enclosing
+variables. Names like those of builtin functions are found in the globals and
+builtins anyway.</p>
+
+<p>For each nested template the analysis sets {@link Template#closureNames}:
+{@code null} means that closures must keep the enclosing variables, otherwise
+the array contains the names the template uses that aren't defined anywhere
+in the enclosing templates. Those can only come from the variables passed
+to the outermost template, so {@link Template#makeClosure} checks them at
+runtime.</p>
+**/
+final class FreeVariables extends ASTWalker
+{
+	/**
+	The variable names that are used in the scope (including the names of
+	nested templates and the variables in the default values of their
+	signatures).
+	**/
+	private Set<String> names = new HashSet<String>();
+
+	/**
+	The templates nested in this scope.
+	**/
+	private List<Template> templates = new ArrayList<Template>();
+
+	/**
+	Do we know all names used in the scope? (If we encounter a node we don't
+	know, we can't tell).
+	**/
+	private boolean complete = true;
+
+	/**
+	Might the scope modify objects (by assigning to attributes or items, which
+	includes using them as the loop variables of a loop, or by calling a
+	method like {@code append()})?
+	**/
+	private boolean modifies = false;
+
+	/**
+	The names of the methods of lists, dicts and sets that modify the object
+	(also used by {@link ExpressionCache}).
+	**/
+	static final Set<String> modifyingMethods = new HashSet<String>();
+
+	static
+	{
+		Collections.addAll(modifyingMethods, "append", "insert", "extend", "pop", "remove", "discard", "add", "update", "clear", "setdefault", "sort", "reverse");
+	}
+
+	private FreeVariables()
+	{
+	}
+
+	/**
+	Analyze the templates nested in the outermost template {@code template}.
+	**/
+	static void analyze(Template template)
+	{
+		analyze(template, new HashSet<String>());
+	}
+
+	/**
+	Analyze {@code template} whose enclosing scopes might define the variables
+	in {@code enclosing} and return the names {@code template} uses that might
+	come from the enclosing scopes (or {@code null} if we can't tell).
+	**/
+	private static Set<String> analyze(Template template, Set<String> enclosing)
+	{
+		FreeVariables scope = new FreeVariables();
+		scope.walk(template.getContent());
+
+		Set<String> parameters = getParameterNames(template);
+		Set<String> visible = new HashSet<String>(enclosing);
+		visible.addAll(scope.names);
+		visible.addAll(parameters);
+
+		Set<String> free = scope.complete ? scope.names : null;
+		for (Template nested : scope.templates)
+		{
+			Set<String> nestedFree = analyze(nested, visible);
+			if (nestedFree == null)
+				free = null;
+			else if (free != null)
+				free.addAll(nestedFree);
+		}
+
+		if (free != null)
+		{
+			free.removeAll(parameters);
+			for (String name : free)
+			{
+				if (enclosing.contains(name))
+				{
+					template.closureNames = null;
+					return free;
+				}
+			}
+			template.closureNames = free.toArray(new String[free.size()]);
+		}
+		else
+			template.closureNames = null;
+		return free;
+	}
+
+	/**
+	Return the names {@code template} and the templates nested in it use
+	(except for the parameters of {@code template}). Return {@code null} if we
+	can't tell or if one of the templates might modify objects (which is
+	used by {@link FragmentCache}).
+	**/
+	static Set<String> getNames(Template template)
+	{
+		FreeVariables scope = new FreeVariables();
+		scope.walk(template.getContent());
+		if (!scope.complete || scope.modifies)
+			return null;
+		Set<String> names = scope.names;
+		for (Template nested : scope.templates)
+		{
+			Set<String> nestedNames = getNames(nested);
+			if (nestedNames == null)
+				return null;
+			names.addAll(nestedNames);
+		}
+		names.removeAll(getParameterNames(template));
+		return names;
+	}
+
+	private static Set<String> getParameterNames(Template template)
+	{
+		Set<String> names = new HashSet<String>();
+		if (template.signature != null)
+		{
+			for (ParameterDescription parameter : template.signature)
+				names.add(parameter.getName());
+			if (template.signature.getVarPositional() != null)
+				names.add(template.signature.getVarPositional().getName());
+			if (template.signature.getVarKeyword() != null)
+				names.add(template.signature.getVarKeyword().getName());
+		}
+		else if (template.signatureAST != null)
+		{
+			for (Parameter parameter : template.signatureAST.parameters)
+				names.add(parameter.getName());
+		}
+		return names;
+	}
+
+	@Override
+	void walk(Object node)
+	{
+		if (node instanceof CallRenderAST)
+		{
+			CallRenderAST call = (CallRenderAST)node;
+			if (call.obj instanceof AttrAST && modifyingMethods.contains(((AttrAST)call.obj).attrName))
+				modifies = true;
+		}
+		super.walk(node);
+	}
+
+	@Override
+	void walkVar(VarAST var)
+	{
+		names.add(var.getName());
+	}
+
+	@Override
+	void walkTarget(Object lvalue)
+	{
+		if (lvalue instanceof AttrAST || lvalue instanceof ItemAST)
+			modifies = true;
+		else if (lvalue instanceof List)
+		{
+			for (Object item : (List)lvalue)
+				walkTarget(item);
+			return;
+		}
+		walk(lvalue);
+	}
+
+	@Override
+	void walkTemplate(Template template)
+	{
+		names.add(template.name);
+		super.walkTemplate(template);
+		templates.add(template);
+	}
+
+	@Override
+	void walkRenderBlock(Template content)
+	{
+		templates.add(content);
+	}
+
+	@Override
+	void unknown(Object node)
+	{
+		complete = false;
+	}
+}
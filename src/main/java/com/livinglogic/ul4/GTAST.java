@@ -13,7 +13,7 @@ import com.livinglogic.vsql.VSQLField;
 import com.livinglogic.utils.VSQLUtils;
 
 
-public class GTAST extends BinaryAST
+public class GTAST extends SpecializingBinaryAST
 {
 	protected static class Type extends BinaryAST.Type
 	{
@@ -79,9 +79,71 @@ public class GTAST extends BinaryAST
 	}
 
 	@Override
-	public Object evaluate(EvaluationContext context)
+	Object evaluateInts(EvaluationContext context, int arg1, int arg2)
 	{
-		return call(context, obj1.decoratedEvaluate(context), obj2.decoratedEvaluate(context));
+		return Utils.cmp(arg1, arg2) > 0;
+	}
+
+	@Override
+	Object evaluateLongs(EvaluationContext context, long arg1, long arg2)
+	{
+		return Utils.cmp(arg1, arg2) > 0;
+	}
+
+	@Override
+	Object evaluateDoubles(EvaluationContext context, double arg1, double arg2)
+	{
+		return Utils.cmp(arg1, arg2) > 0;
+	}
+
+	@Override
+	Object evaluateSpecialized(EvaluationContext context, Object arg1, Object arg2)
+	{
+		return callSpecialized(context, arg1, arg2);
+	}
+
+	@Override
+	protected Object callGeneric(EvaluationContext context, Object arg1, Object arg2)
+	{
+		return call(context, arg1, arg2);
+	}
+
+	/**
+	Return whether {@code arg1} is greater than {@code arg2} using the fast
+	path for the operand types this node has specialized itself for.
+	**/
+	boolean callSpecialized(EvaluationContext context, Object arg1, Object arg2)
+	{
+		switch (operandTypes)
+		{
+			case INT:
+				if (arg1 instanceof Integer && arg2 instanceof Integer)
+					return Utils.cmp(((Integer)arg1).intValue(), ((Integer)arg2).intValue()) > 0;
+				break;
+			case LONG:
+				if (arg1 instanceof Long && arg2 instanceof Long)
+					return Utils.cmp(((Long)arg1).longValue(), ((Long)arg2).longValue()) > 0;
+				break;
+			case DOUBLE:
+				if (arg1 instanceof Double && arg2 instanceof Double)
+					return Utils.cmp(((Double)arg1).doubleValue(), ((Double)arg2).doubleValue()) > 0;
+				break;
+			case STR:
+				if (arg1 instanceof String && arg2 instanceof String)
+					return call(context, (String)arg1, (String)arg2);
+				break;
+			case UNINITIALIZED:
+				break;
+			default:
+				return call(context, arg1, arg2);
+		}
+		respecialize(arg1, arg2);
+		return call(context, arg1, arg2);
+	}
+
+	public static boolean call(EvaluationContext context, String arg1, String arg2)
+	{
+		return arg1.compareTo(arg2) > 0;
 	}
 
 	public static boolean call(EvaluationContext context, Object obj1, Object obj2)
@@ -63,6 +63,12 @@ public class GeneratorExpressionAST extends CodeAST
 	protected CodeAST container;
 	protected CodeAST condition;
 
+	/**
+	The layout of the frame for the loop variables (set by
+	{@link VariableResolver}).
+	**/
+	Frame.Layout scopeLayout = null;
+
 	public GeneratorExpressionAST(Template template, int posStart, int posStop, CodeAST item, Object varname, CodeAST container, CodeAST condition)
 	{
 		super(template, posStart, posStop);
@@ -114,7 +120,10 @@ public class GeneratorExpressionAST extends CodeAST
 		{
 			this.context = context;
 			this.iterator = Utils.iterator(container.decoratedEvaluate(context));
-			variables = new MapChain<String, Object>(new HashMap<String, Object>(), context.getVariables());
+			if (scopeLayout != null)
+				variables = Frame.nested(scopeLayout, context.getVariables());
+			else
+				variables = new MapChain<String, Object>(new HashMap<String, Object>(), context.getVariables());
 			fetchNextItem();
 		}
 
@@ -125,8 +134,8 @@ public class GeneratorExpressionAST extends CodeAST
 			{
 				while (iterator.hasNext())
 				{
-					for (Utils.LValueValue lvv : Utils.unpackVariable(varname, iterator.next()))
-						lvv.getLValue().evaluateSet(context, lvv.getValue());
+					context.tick();
+					Utils.assignVariable(context, varname, iterator.next());
 
 					if (condition == null || Bool.call(context, condition.decoratedEvaluate(context)))
 					{
@@ -63,9 +63,9 @@ public class IfAST extends CodeAST
 		return type;
 	}
 
-	private CodeAST objIf;
-	private CodeAST objCond;
-	private CodeAST objElse;
+	protected CodeAST objIf;
+	protected CodeAST objCond;
+	protected CodeAST objElse;
 
 	public IfAST(Template template, int posStart, int posStop, CodeAST objIf, CodeAST objCond, CodeAST objElse)
 	{
@@ -63,6 +63,15 @@ public class IndentAST extends TextAST
 		super(template, source, startPos, stopPos);
 	}
 
+	/**
+	Create an indentation node that outputs the text {@code text} after the
+	indentation (see {@link TextAST#TextAST(Template, int, int, String)}).
+	**/
+	IndentAST(Template template, int startPos, int stopPos, String text)
+	{
+		super(template, startPos, stopPos, text);
+	}
+
 	public void setText(String text)
 	{
 		this.text = text;
@@ -71,9 +80,7 @@ public class IndentAST extends TextAST
 	@Override
 	public Object evaluate(EvaluationContext context)
 	{
-		for (String indent : context.indents)
-			context.write(indent);
-		context.write(getText());
+		context.writeIndent(getText());
 		return null;
 	}
 
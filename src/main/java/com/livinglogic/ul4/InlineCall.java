@@ -0,0 +1,242 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+Calls a template defined via {@code <?def?>} (i.e. a {@link TemplateClosure})
+from one {@link CallAST} or {@link RenderAST} node.
+
+<p>Calling a template normally puts the argument values into a list and a map,
+binds them to the signature via {@link BoundArguments} and then copies them
+into the {@link Frame} of the template. For a call site that passes only
+positional and keyword arguments an {@code InlineCall} has precomputed which
+argument goes into which variable slot of the template, so the argument
+values can be written into the frame directly.</p>
+
+<p>If the content of the template consists only of a {@code <?return?>} tag
+(and literal text, which a call doesn't output), calling the template
+evaluates the expression of the {@code <?return?>} tag directly (unless the
+template has been compiled to bytecode).</p>
+
+<p>Exceptions are reported exactly as for a normal call (with the call site
+and the location in the template).</p>
+
+<p>If the arguments don't match the signature (or the signature has
+{@code *} or {@code **} parameters) the call site uses the normal path
+(which reports the error).</p>
+**/
+final class InlineCall
+{
+	final Template template;
+	final Frame.Layout layout;
+	final Signature signature;
+
+	/**
+	Does the call site match the signature? If not, the fields used for the
+	call are {@code null}.
+	**/
+	final boolean matches;
+
+	private final Frame.ArgumentSlots argumentSlots;
+
+	/**
+	For each parameter the index of the argument value that is passed for it
+	(or -1 if the default value is used).
+	**/
+	private final int[] sources;
+
+	/**
+	The default values of the parameters.
+	**/
+	private final Object[] defaults;
+
+	/**
+	The expression of the {@code <?return?>} tag if that's all the template
+	does (or {@code null}).
+	**/
+	private final AST expression;
+
+	private InlineCall(CallRenderAST node, Template template, Frame.Layout layout, Signature signature)
+	{
+		this.template = template;
+		this.layout = layout;
+		this.signature = signature;
+
+		int[] sources = node != null ? bind(node.arguments, signature) : null;
+		if (sources != null)
+		{
+			List<ParameterDescription> parameters = signature.getParametersByPosition();
+			defaults = new Object[sources.length];
+			for (int i = 0; i < sources.length; ++i)
+			{
+				if (sources[i] < 0)
+					defaults[i] = parameters.get(i).getDefaultValue();
+			}
+			argumentSlots = new Frame.ArgumentSlots(layout, signature);
+			expression = getReturnExpression(template);
+		}
+		else
+		{
+			defaults = null;
+			argumentSlots = null;
+			expression = null;
+		}
+		this.sources = sources;
+		this.matches = sources != null;
+	}
+
+	/**
+	Return the {@code InlineCall} for calling {@code closure} from {@code node}
+	(reusing {@code inlineCall} if it is still valid). The result has
+	{@link #matches} set to {@code false} if the closure must be called the
+	normal way.
+	**/
+	static InlineCall get(InlineCall inlineCall, CallRenderAST node, TemplateClosure closure)
+	{
+		Template template = closure.getTemplate();
+		Frame.Layout layout = template.frameLayout;
+		Signature signature = closure.getSignature();
+		if (inlineCall == null || inlineCall.template != template || inlineCall.layout != layout || inlineCall.signature != signature)
+		{
+			if (layout == null || signature == null || signature.hasVarPositional() || signature.hasVarKeyword())
+				inlineCall = new InlineCall(null, template, layout, signature);
+			else
+				inlineCall = new InlineCall(node, template, layout, signature);
+		}
+		return inlineCall;
+	}
+
+	/**
+	Return for each parameter of {@code signature} the index of the argument
+	that passes its value or -1 for parameters that use their default value.
+	Return {@code null} if the arguments don't match the signature.
+	**/
+	private static int[] bind(List<ArgumentASTBase> arguments, Signature signature)
+	{
+		List<ParameterDescription> parameters = signature.getParametersByPosition();
+		int count = parameters.size();
+		int[] sources = new int[count];
+		Arrays.fill(sources, -1);
+		int position = 0;
+		int index = 0;
+		for (ArgumentASTBase argument : arguments)
+		{
+			if (argument instanceof PositionalArgumentAST)
+			{
+				if (position >= count || !parameters.get(position).isPositional())
+					return null;
+				sources[position++] = index;
+			}
+			else
+			{
+				ParameterDescription parameter = signature.getParameterByName(((KeywordArgumentAST)argument).name);
+				if (parameter == null || !parameter.isKeyword() || sources[parameter.getPosition()] >= 0)
+					return null;
+				sources[parameter.getPosition()] = index;
+			}
+			++index;
+		}
+		for (int i = 0; i < count; ++i)
+		{
+			if (sources[i] < 0 && !parameters.get(i).hasDefault())
+				return null;
+		}
+		return sources;
+	}
+
+	/**
+	Return the expression of the {@code <?return?>} tag if {@code template}
+	consists only of literal text and this {@code <?return?>} tag (otherwise
+	return {@code null}).
+	**/
+	private static AST getReturnExpression(Template template)
+	{
+		AST expression = null;
+		for (AST node : template.getContent())
+		{
+			if (node instanceof TextAST)
+				continue;
+			if (node.getClass() == ReturnAST.class && expression == null)
+				expression = ((ReturnAST)node).getObj();
+			else
+				return null;
+		}
+		return expression;
+	}
+
+	private Map<String, Object> makeFrame(TemplateClosure closure, Object[] values)
+	{
+		int[] sources = this.sources;
+		Object[] arguments = new Object[sources.length];
+		for (int i = 0; i < sources.length; ++i)
+		{
+			int source = sources[i];
+			arguments[i] = source >= 0 ? values[source] : defaults[i];
+		}
+		return new Frame(argumentSlots, arguments, closure.getVariables());
+	}
+
+	/**
+	Call the template of {@code closure} with the argument values
+	{@code values} (in the order of the arguments of the call site).
+	**/
+	Object call(EvaluationContext context, TemplateClosure closure, Object[] values)
+	{
+		RenderRecording recording = RenderRecording.startNested(context);
+		if (recording == null)
+			return callUnrecorded(context, closure, values);
+		try
+		{
+			return callUnrecorded(context, closure, values);
+		}
+		catch (Throwable exc)
+		{
+			recording.failed(exc);
+			throw exc;
+		}
+		finally
+		{
+			recording.finish(template, "call", context, -1);
+		}
+	}
+
+	private Object callUnrecorded(EvaluationContext context, TemplateClosure closure, Object[] values)
+	{
+		Map<String, Object> frame = makeFrame(closure, values);
+		AST expression = this.expression;
+		if (expression == null || template.isBytecodeCompiled())
+			return template.callBound(context, frame);
+
+		Map<String, Object> oldVariables = context.setVariables(frame);
+		Writer oldWriter = context.setWriter(null);
+		Template oldTemplate = context.setTemplate(template);
+		try
+		{
+			return expression.decoratedEvaluate(context);
+		}
+		finally
+		{
+			context.setTemplate(oldTemplate);
+			context.setWriter(oldWriter);
+			context.setVariables(oldVariables);
+		}
+	}
+
+	/**
+	Render the template of {@code closure} with the argument values
+	{@code values} (in the order of the arguments of the call site).
+	**/
+	void render(EvaluationContext context, TemplateClosure closure, Object[] values)
+	{
+		template.renderFragment(context, closure, makeFrame(closure, values));
+	}
+}
@@ -8,12 +8,15 @@ package com.livinglogic.ul4;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import com.livinglogic.ul4on.Decoder;
 import com.livinglogic.ul4on.Encoder;
+import com.livinglogic.utils.MapChain;
 
 public class ListComprehensionAST extends CodeAST
 {
@@ -63,6 +66,12 @@ public class ListComprehensionAST extends CodeAST
 	protected CodeAST container;
 	protected CodeAST condition;
 
+	/**
+	The layout of the frame for the loop variables (set by
+	{@link VariableResolver}).
+	**/
+	Frame.Layout scopeLayout = null;
+
 	public ListComprehensionAST(Template template, int posStart, int posStop, CodeAST item, Object varname, CodeAST container, CodeAST condition)
 	{
 		super(template, posStart, posStop);
@@ -86,14 +95,14 @@ public class ListComprehensionAST extends CodeAST
 		Iterator iter = Utils.iterator(container);
 
 		// Store the loop variables into a local map, so they don't leak into the surrounding scope.
-		Map<String, Object> oldVariables = context.pushVariables(null);
+		Map<String, Object> oldVariables = context.pushScope(scopeLayout);
 
 		try
 		{
 			while (iter.hasNext())
 			{
-				for (Utils.LValueValue lvv : Utils.unpackVariable(varname, iter.next()))
-					lvv.getLValue().evaluateSet(context, lvv.getValue());
+				context.tick();
+				Utils.assignVariable(context, varname, iter.next());
 
 				if (condition == null || Bool.call(context, condition.decoratedEvaluate(context)))
 				{
@@ -109,6 +118,86 @@ public class ListComprehensionAST extends CodeAST
 		return result;
 	}
 
+	/**
+	Return an iterator that produces the items of the list comprehension one
+	by one instead of collecting them in a list (see {@link CallAST}).
+
+	<p>The container is evaluated immediately, everything else only when the
+	iterator is advanced: The iterator never looks further ahead than the
+	caller asks for, so a caller that stops early doesn't evaluate the rest
+	of the items (or their conditions).</p>
+	**/
+	Iterator stream(EvaluationContext context)
+	{
+		return new StreamIterator(context);
+	}
+
+	private class StreamIterator implements Iterator
+	{
+		private EvaluationContext context;
+		private Iterator iterator;
+		private Map<String, Object> variables;
+		private int state = UNKNOWN;
+
+		private static final int UNKNOWN = 0;
+		private static final int AVAILABLE = 1;
+		private static final int EXHAUSTED = 2;
+
+		StreamIterator(EvaluationContext context)
+		{
+			this.context = context;
+			this.iterator = Utils.iterator(container.decoratedEvaluate(context));
+			if (scopeLayout != null)
+				variables = Frame.nested(scopeLayout, context.getVariables());
+			else
+				variables = new MapChain<String, Object>(new HashMap<String, Object>(), context.getVariables());
+		}
+
+		public boolean hasNext()
+		{
+			if (state == UNKNOWN)
+			{
+				state = EXHAUSTED;
+				Map<String, Object> oldVariables = context.setVariables(variables);
+				try
+				{
+					while (iterator.hasNext())
+					{
+						context.tick();
+						Utils.assignVariable(context, varname, iterator.next());
+
+						if (condition == null || Bool.call(context, condition.decoratedEvaluate(context)))
+						{
+							state = AVAILABLE;
+							break;
+						}
+					}
+				}
+				finally
+				{
+					context.setVariables(oldVariables);
+				}
+			}
+			return state == AVAILABLE;
+		}
+
+		public Object next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			state = UNKNOWN;
+			Map<String, Object> oldVariables = context.setVariables(variables);
+			try
+			{
+				return item.decoratedEvaluate(context);
+			}
+			finally
+			{
+				context.setVariables(oldVariables);
+			}
+		}
+	}
+
 	@Override
 	public void dumpUL4ON(Encoder encoder) throws IOException
 	{
@@ -19,7 +19,7 @@ import com.livinglogic.vsql.VSQLField;
 import com.livinglogic.utils.VSQLUtils;
 
 
-public class MulAST extends BinaryAST
+public class MulAST extends SpecializingArithmeticAST
 {
 	protected static class Type extends BinaryAST.Type
 	{
@@ -84,9 +84,74 @@ public class MulAST extends BinaryAST
 		);
 	}
 
-	public Object evaluate(EvaluationContext context)
+	@Override
+	int evaluateInt(EvaluationContext context, int arg1, int arg2) throws UnexpectedResultException
+	{
+		try
+		{
+			return Math.multiplyExact(arg1, arg2);
+		}
+		catch (ArithmeticException ex)
+		{
+			// The result doesn't fit into an {@code int}, so let {@code call} promote it to {@code BigInteger}
+			throw new UnexpectedResultException(call(context, arg1, arg2));
+		}
+	}
+
+	@Override
+	long evaluateLong(EvaluationContext context, long arg1, long arg2) throws UnexpectedResultException
+	{
+		try
+		{
+			return Math.multiplyExact(arg1, arg2);
+		}
+		catch (ArithmeticException ex)
+		{
+			// The result doesn't fit into a {@code long}, so let {@code call} promote it to {@code BigInteger}
+			throw new UnexpectedResultException(call(context, arg1, arg2));
+		}
+	}
+
+	@Override
+	double evaluateDouble(EvaluationContext context, double arg1, double arg2)
+	{
+		return arg1 * arg2;
+	}
+
+	@Override
+	protected Object callGeneric(EvaluationContext context, Object arg1, Object arg2)
 	{
-		return call(context, obj1.decoratedEvaluate(context), obj2.decoratedEvaluate(context));
+		return call(context, arg1, arg2);
+	}
+
+	/**
+	Return the product of {@code arg1} and {@code arg2} using the fast path
+	for the operand types this node has specialized itself for.
+	**/
+	@Override
+	Object callSpecialized(EvaluationContext context, Object arg1, Object arg2)
+	{
+		switch (operandTypes)
+		{
+			case INT:
+				if (arg1 instanceof Integer && arg2 instanceof Integer)
+					return call(context, ((Integer)arg1).intValue(), ((Integer)arg2).intValue());
+				break;
+			case LONG:
+				if (arg1 instanceof Long && arg2 instanceof Long)
+					return call(context, ((Long)arg1).longValue(), ((Long)arg2).longValue());
+				break;
+			case DOUBLE:
+				if (arg1 instanceof Double && arg2 instanceof Double)
+					return call(context, ((Double)arg1).doubleValue(), ((Double)arg2).doubleValue());
+				break;
+			case UNINITIALIZED:
+				break;
+			default:
+				return call(context, arg1, arg2);
+		}
+		respecialize(arg1, arg2);
+		return call(context, arg1, arg2);
 	}
 
 	public static String call(EvaluationContext context, int arg1, String arg2)
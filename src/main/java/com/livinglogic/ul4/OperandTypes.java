@@ -0,0 +1,85 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+The operand types a {@link BinaryAST} node has specialized itself for.
+
+<p>Arithmetic and comparison nodes start out {@link #UNINITIALIZED}. On their
+first evaluation they specialize for the types of the operands they see (if
+there is a fast path for them). As long as the operands keep having these
+types the node skips the {@code instanceof} chain in the generic
+implementation. As soon as the node sees operands of other types, it falls
+back to {@link #GENERIC} for good.</p>
+**/
+enum OperandTypes
+{
+	/**
+	The node hasn't been evaluated yet.
+	**/
+	UNINITIALIZED,
+
+	/**
+	Both operands are {@link Integer}s.
+	**/
+	INT,
+
+	/**
+	Both operands are {@link Long}s.
+	**/
+	LONG,
+
+	/**
+	Both operands are {@link Double}s.
+	**/
+	DOUBLE,
+
+	/**
+	Both operands are {@link String}s.
+	**/
+	STR,
+
+	/**
+	The left operand is a {@link LocalDate}, the right one a {@link TimeDelta}.
+	**/
+	DATE_TIMEDELTA,
+
+	/**
+	The left operand is a {@link LocalDateTime}, the right one a
+	{@link TimeDelta}.
+	**/
+	DATETIME_TIMEDELTA,
+
+	/**
+	The node has seen operands of various types (or of types without a fast
+	path) and always uses the generic implementation.
+	**/
+	GENERIC;
+
+	/**
+	Return the specialization for the operands {@code arg1} and {@code arg2}.
+	**/
+	static OperandTypes of(Object arg1, Object arg2)
+	{
+		if (arg1 instanceof Integer)
+			return arg2 instanceof Integer ? INT : GENERIC;
+		else if (arg1 instanceof Long)
+			return arg2 instanceof Long ? LONG : GENERIC;
+		else if (arg1 instanceof Double)
+			return arg2 instanceof Double ? DOUBLE : GENERIC;
+		else if (arg1 instanceof String)
+			return arg2 instanceof String ? STR : GENERIC;
+		else if (arg1 instanceof LocalDate)
+			return arg2 instanceof TimeDelta ? DATE_TIMEDELTA : GENERIC;
+		else if (arg1 instanceof LocalDateTime)
+			return arg2 instanceof TimeDelta ? DATETIME_TIMEDELTA : GENERIC;
+		return GENERIC;
+	}
+}
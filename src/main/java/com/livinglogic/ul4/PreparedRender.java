@@ -0,0 +1,263 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+A template prepared for being rendered repeatedly with different variables
+(see {@link Template#prepare}).
+
+<p>Rendering a template normally binds the variables to the signature via
+{@link BoundArguments} which copies them into a new map. A
+{@code PreparedRender} has precomputed which parameter goes into which
+variable slot of the template, so it can bind the variables by looking them
+up in the variable map passed in, without copying the map.</p>
+
+<p>Variable maps that need more than that (i.e. that contain variables not
+in the signature or that don't contain a required variable) fall back to the
+normal rendering path (which reports the error or passes the additional
+variables to the {@code **} parameter).</p>
+
+<p>If the template changes after it has been prepared (e.g. via
+{@link Template#optimize}) the plan is recomputed.</p>
+
+<p>A {@code PreparedRender} can be used by multiple threads at the same
+time.</p>
+**/
+public class PreparedRender
+{
+	/**
+	Marker for a parameter that must be passed in the variables.
+	**/
+	private static final Object NO_DEFAULT = new Object();
+
+	/**
+	The binding plan for one variable layout and signature of the template.
+	**/
+	private static final class Plan
+	{
+		final Frame.Layout layout;
+		final Signature signature;
+		final Frame.ArgumentSlots argumentSlots;
+
+		/**
+		The names of the parameters (without the {@code *} and {@code **}
+		parameters). Parameters that can't be passed by keyword have no name
+		here.
+		**/
+		final String[] names;
+
+		/**
+		The default values of the parameters (or {@link #NO_DEFAULT} for
+		required parameters).
+		**/
+		final Object[] defaults;
+
+		final boolean varPositional;
+		final boolean varKeyword;
+
+		Plan(Frame.Layout layout, Signature signature)
+		{
+			this.layout = layout;
+			this.signature = signature;
+			if (signature != null)
+			{
+				argumentSlots = new Frame.ArgumentSlots(layout, signature);
+
+				List<ParameterDescription> parameters = signature.getParametersByPosition();
+				int count = parameters.size();
+				names = new String[count];
+				defaults = new Object[count];
+				for (int i = 0; i < count; ++i)
+				{
+					ParameterDescription parameter = parameters.get(i);
+					names[i] = parameter.isKeyword() ? parameter.getName() : null;
+					defaults[i] = parameter.hasDefault() ? parameter.getDefaultValue() : NO_DEFAULT;
+				}
+				varPositional = signature.getVarPositional() != null;
+				varKeyword = signature.getVarKeyword() != null;
+			}
+			else
+			{
+				argumentSlots = null;
+				names = null;
+				defaults = null;
+				varPositional = false;
+				varKeyword = false;
+			}
+		}
+	}
+
+	private Template template;
+	private Plan plan = null;
+
+	PreparedRender(Template template)
+	{
+		this.template = template;
+		getPlan();
+	}
+
+	public Template getTemplate()
+	{
+		return template;
+	}
+
+	/**
+	Return the binding plan for the current variable layout and signature of
+	the template (or {@code null} if the variables of the template haven't
+	been resolved).
+	**/
+	private Plan getPlan()
+	{
+		Frame.Layout layout = template.frameLayout;
+		if (layout == null)
+			return null;
+		Plan plan = this.plan;
+		if (plan == null || plan.layout != layout || plan.signature != template.signature)
+		{
+			plan = new Plan(layout, template.signature);
+			this.plan = plan;
+		}
+		return plan;
+	}
+
+	/**
+	Return the frame for rendering the template with the variables
+	{@code variables} or {@code null} if the variables can't be bound by
+	the precomputed plan.
+	**/
+	private Map<String, Object> bind(Map<String, Object> variables)
+	{
+		Plan plan = getPlan();
+		if (plan == null)
+			return null;
+
+		if (plan.signature == null)
+			return new Frame(plan.layout, variables);
+
+		String[] names = plan.names;
+		Object[] defaults = plan.defaults;
+		int count = names.length;
+		Object[] arguments = new Object[plan.argumentSlots.slots.length];
+		int found = 0;
+		for (int i = 0; i < count; ++i)
+		{
+			String name = names[i];
+			Object value = variables != null && name != null ? variables.get(name) : null;
+			if (value != null || (variables != null && name != null && variables.containsKey(name)))
+				++found;
+			else if (defaults[i] != NO_DEFAULT)
+				value = defaults[i];
+			else
+				return null;
+			arguments[i] = value;
+		}
+
+		// Variables that are not parameters (or parameters that can't be passed by keyword)
+		if (variables != null && found < variables.size())
+			return null;
+
+		if (plan.varPositional)
+			arguments[count++] = new ArrayList<Object>();
+		if (plan.varKeyword)
+			arguments[count++] = new LinkedHashMap<String, Object>();
+
+		return new Frame(plan.argumentSlots, arguments, null);
+	}
+
+	/**
+	Render the template to {@code writer} (or the writer of the context if
+	{@code writer} is {@code null}) for the entry point {@code operation}.
+	**/
+	private void render(EvaluationContext context, Writer writer, Map<String, Object> variables, String operation)
+	{
+		RenderRecording recording = RenderRecording.start(context);
+		Writer realWriter = writer != null ? writer : context.getWriter();
+		Writer countingWriter = recording.count(realWriter);
+		try
+		{
+			Map<String, Object> frame = bind(variables);
+			if (frame == null)
+				frame = template.makeFrame(new BoundArguments(template, null, null, variables), null);
+			template.renderBound(context, countingWriter != realWriter ? countingWriter : writer, frame);
+		}
+		catch (Throwable exc)
+		{
+			recording.failed(exc);
+			throw exc;
+		}
+		finally
+		{
+			recording.finish(template, operation, context);
+		}
+	}
+
+	/**
+	Render the template.
+
+	@param context   the EvaluationContext. May not be null.
+	@param variables a map containing the top level variables that should be
+	                 available to the template code. May be null.
+	                 These variables will be checked against the signature
+	                 of the template. The map will not be modified.
+	**/
+	public void render(EvaluationContext context, Map<String, Object> variables)
+	{
+		render(context, null, variables, "render");
+	}
+
+	/**
+	Render the template to a {@code java.io.Writer} object.
+
+	@param writer    the java.io.Writer object to which the output is written.
+	@param variables a map containing the top level variables that should be
+	                 available to the template code. May be null.
+	**/
+	public void render(Writer writer, Map<String, Object> variables)
+	{
+		try (EvaluationContext context = new EvaluationContext(writer))
+		{
+			render(context, null, variables, "render");
+		}
+	}
+
+	/**
+	Render the template and return the resulting string.
+
+	@param context   the EvaluationContext. May not be null.
+	@param variables a map containing the top level variables that should be
+	                 available to the template code. May be null.
+	@return The rendered output as a string.
+	**/
+	public String renders(EvaluationContext context, Map<String, Object> variables)
+	{
+		StringWriter output = new StringWriter();
+		render(context, output, variables, "renders");
+		return output.toString();
+	}
+
+	/**
+	Render the template and return the resulting string.
+
+	@param variables a map containing the top level variables that should be
+	                 available to the template code. May be null.
+	@return The rendered output as a string.
+	**/
+	public String renders(Map<String, Object> variables)
+	{
+		try (EvaluationContext context = new EvaluationContext())
+		{
+			return renders(context, variables);
+		}
+	}
+}
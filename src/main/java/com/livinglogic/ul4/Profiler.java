@@ -0,0 +1,330 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+Records how often each AST node of a template is evaluated and how much time
+its evaluation takes.
+
+<p>A {@code Profiler} is used by setting it as the profiler of an
+{@link EvaluationContext} (see {@link EvaluationContext#setProfiler}). All
+nodes that are evaluated via {@link AST#decoratedEvaluate} in this context
+are recorded. Templates that have been compiled to bytecode are interpreted
+while profiling. Without a profiler the only cost is a {@code null} check
+per node.</p>
+
+<p>Evaluations are recorded per call stack, i.e. per path of nodes from the
+outermost node to the node itself (where calls and renders of templates
+continue the path into the called template). For each path the profiler
+counts the evaluations exactly, but to bound the overhead it measures the
+time only for every {@code sampleInterval}th evaluation of the path (and for
+all evaluations nested in a measured one). Times are then extrapolated to
+all evaluations.</p>
+
+<p>The result can be output as a text report of the nodes sorted by their
+self time (see {@link #writeReport}) or in the "collapsed stack" format that
+flame graph tools understand (see {@link #writeCollapsedStacks}). Nodes are
+identified by the name of their template, their line and column and their
+type.</p>
+
+<p>A {@code Profiler} must only be used by one {@code EvaluationContext} at
+a time, but it can be used for several renders one after the other.</p>
+**/
+public class Profiler
+{
+	/**
+	The evaluations of one node with a certain call stack.
+	**/
+	private static final class Path
+	{
+		final AST node;
+
+		/**
+		The paths for the nodes evaluated by this one.
+		**/
+		IdentityHashMap<AST, Path> children = null;
+
+		/**
+		The number of evaluations.
+		**/
+		long count = 0;
+
+		/**
+		The number of evaluations until the next one is timed.
+		**/
+		int countdown = 1;
+
+		/**
+		The number of timed evaluations.
+		**/
+		long timedCount = 0;
+
+		/**
+		The total time of the timed evaluations.
+		**/
+		long nanos = 0;
+
+		/**
+		The part of {@link #nanos} spent in the child nodes.
+		**/
+		long childNanos = 0;
+
+		Path(AST node)
+		{
+			this.node = node;
+		}
+
+		Path child(AST node)
+		{
+			IdentityHashMap<AST, Path> children = this.children;
+			if (children == null)
+			{
+				children = new IdentityHashMap<AST, Path>();
+				this.children = children;
+			}
+			Path path = children.get(node);
+			if (path == null)
+			{
+				path = new Path(node);
+				children.put(node, path);
+			}
+			return path;
+		}
+
+		/**
+		Return the estimated time of all evaluations.
+		**/
+		double totalNanos()
+		{
+			return timedCount > 0 ? (double)nanos * count / timedCount : 0.;
+		}
+
+		/**
+		Return the estimated time of all evaluations without the time spent in
+		the child nodes.
+		**/
+		double selfNanos()
+		{
+			return timedCount > 0 ? (double)(nanos - childNanos) * count / timedCount : 0.;
+		}
+	}
+
+	/**
+	The evaluations of one node with all call stacks (for the report).
+	**/
+	private static final class NodeStats
+	{
+		final AST node;
+		long count = 0;
+		double selfNanos = 0.;
+		double totalNanos = 0.;
+
+		NodeStats(AST node)
+		{
+			this.node = node;
+		}
+	}
+
+	private final int sampleInterval;
+	private Path root = new Path(null);
+	private Path current = root;
+
+	/**
+	Are we inside of a timed evaluation (so all nested evaluations must be
+	timed too)?
+	**/
+	private boolean timing = false;
+
+	/**
+	Create a profiler that times every evaluation.
+	**/
+	public Profiler()
+	{
+		this(1);
+	}
+
+	/**
+	Create a profiler that times every {@code sampleInterval}th evaluation of
+	each node (with the same call stack).
+	**/
+	public Profiler(int sampleInterval)
+	{
+		if (sampleInterval <= 0)
+			throw new IllegalArgumentException("sampleInterval must be positive");
+		this.sampleInterval = sampleInterval;
+	}
+
+	public int getSampleInterval()
+	{
+		return sampleInterval;
+	}
+
+	/**
+	Drop everything that has been recorded so far.
+	**/
+	public void clear()
+	{
+		root = new Path(null);
+		current = root;
+		timing = false;
+	}
+
+	/**
+	Evaluate {@code node} (via {@link AST#evaluateDecorated}) and record the
+	evaluation.
+	**/
+	Object evaluate(AST node, EvaluationContext context)
+	{
+		Path parent = current;
+		Path path = parent.child(node);
+		++path.count;
+		current = path;
+
+		boolean timed = timing;
+		if (--path.countdown <= 0)
+		{
+			path.countdown = sampleInterval;
+			timed = true;
+		}
+		if (!timed)
+		{
+			try
+			{
+				return node.evaluateDecorated(context);
+			}
+			finally
+			{
+				current = parent;
+			}
+		}
+
+		boolean oldTiming = timing;
+		timing = true;
+		long start = System.nanoTime();
+		try
+		{
+			return node.evaluateDecorated(context);
+		}
+		finally
+		{
+			long nanos = System.nanoTime() - start;
+			timing = oldTiming;
+			current = parent;
+			++path.timedCount;
+			path.nanos += nanos;
+			if (oldTiming)
+				parent.childNanos += nanos;
+		}
+	}
+
+	private static String label(AST node)
+	{
+		Template template = node.getTemplate();
+		String name = template != null ? template.getFullName() : null;
+		if (name == null)
+			name = "?";
+		return name.replace(';', ',') + ":" + node.getStartLine() + ":" + node.getStartCol() + " " + node.getType();
+	}
+
+	/**
+	Write the recorded evaluations in the "collapsed stack" format: One line
+	for each call stack, containing the nodes of the stack (outermost first)
+	separated by {@code ;}, a space and the estimated self time of the
+	innermost node in nanoseconds.
+	**/
+	public void writeCollapsedStacks(Writer writer) throws IOException
+	{
+		writeCollapsedStacks(writer, root, null);
+	}
+
+	private void writeCollapsedStacks(Writer writer, Path path, String prefix) throws IOException
+	{
+		if (path.children == null)
+			return;
+		for (Path child : path.children.values())
+		{
+			String stack = prefix != null ? prefix + ";" + label(child.node) : label(child.node);
+			long selfNanos = Math.round(child.selfNanos());
+			if (selfNanos > 0)
+			{
+				writer.write(stack);
+				writer.write(" ");
+				writer.write(Long.toString(selfNanos));
+				writer.write("\n");
+			}
+			writeCollapsedStacks(writer, child, stack);
+		}
+	}
+
+	/**
+	Write a report of the recorded evaluations: One line for each node
+	containing the number of evaluations, the estimated self time and the
+	estimated total time (in milliseconds) and the node. The nodes are sorted
+	by their self time (largest first).
+	**/
+	public void writeReport(Writer writer) throws IOException
+	{
+		Map<AST, NodeStats> stats = new IdentityHashMap<AST, NodeStats>();
+		collectStats(stats, new IdentityHashMap<AST, Integer>(), root);
+		List<NodeStats> nodes = new ArrayList<NodeStats>(stats.values());
+		Collections.sort(nodes, new Comparator<NodeStats>()
+		{
+			@Override
+			public int compare(NodeStats stats1, NodeStats stats2)
+			{
+				return Double.compare(stats2.selfNanos, stats1.selfNanos);
+			}
+		});
+
+		writer.write(String.format(Locale.ROOT, "%12s %12s %12s  %s\n", "count", "self ms", "total ms", "node"));
+		for (NodeStats node : nodes)
+			writer.write(String.format(Locale.ROOT, "%12d %12.3f %12.3f  %s\n", node.count, node.selfNanos / 1e6, node.totalNanos / 1e6, label(node.node)));
+	}
+
+	/**
+	Add the evaluations of the children of {@code path} to {@code stats}.
+	{@code active} counts how often each node is on the call stack, so that
+	the total time of recursive evaluations is only counted for the
+	outermost one.
+	**/
+	private void collectStats(Map<AST, NodeStats> stats, Map<AST, Integer> active, Path path)
+	{
+		if (path.children == null)
+			return;
+		for (Path child : path.children.values())
+		{
+			AST node = child.node;
+			NodeStats nodeStats = stats.get(node);
+			if (nodeStats == null)
+			{
+				nodeStats = new NodeStats(node);
+				stats.put(node, nodeStats);
+			}
+			nodeStats.count += child.count;
+			nodeStats.selfNanos += child.selfNanos();
+			Integer depth = active.get(node);
+			if (depth == null)
+				nodeStats.totalNanos += child.totalNanos();
+			active.put(node, depth != null ? depth + 1 : 1);
+			collectStats(stats, active, child);
+			if (depth == null)
+				active.remove(node);
+			else
+				active.put(node, depth);
+		}
+	}
+}
@@ -118,7 +118,7 @@ public class RenderAST extends CallRenderAST
 	}
 
 	@Override
-	public Object decoratedEvaluate(EvaluationContext context)
+	Object evaluateDecorated(EvaluationContext context)
 	{
 		// Overwrite with a version that attaches a new stackframe when the render object is a template, because we want to see the call in the exception chain.
 		Object realObject = null;
@@ -151,13 +151,24 @@ public class RenderAST extends CallRenderAST
 					// This is an attribute access, but the resulting object doesn't
 					// implement {@link UL4GetAttr}, so we have to get the attribute
 					// via {@link AttrAST}.
-					realObject = AttrAST.call(context, realObject, attrName);
+					realObject = ((AttrAST)obj).evaluateAttr(context, realObject);
 					call(context, realObject, realArguments, realKeywordArguments);
 				}
 				return null;
 			}
 			else
+			{
 				realObject = obj.decoratedEvaluate(context);
+				if (realObject instanceof TemplateClosure && getClass() == RenderAST.class && hasSimpleArguments())
+				{
+					InlineCall inlineCall = getInlineCall((TemplateClosure)realObject);
+					if (inlineCall != null)
+					{
+						render(context, inlineCall, (TemplateClosure)realObject, evaluateArgumentValues(context));
+						return null;
+					}
+				}
+			}
 
 			makeArguments(context, realArguments, realKeywordArguments);
 			call(context, realObject, realArguments, realKeywordArguments);
@@ -192,6 +203,19 @@ public class RenderAST extends CallRenderAST
 			context.popIndent();
 	}
 
+	/**
+	Render {@code closure} via {@code inlineCall} with the argument values
+	{@code values}.
+	**/
+	void render(EvaluationContext context, InlineCall inlineCall, TemplateClosure closure, Object[] values)
+	{
+		if (indent != null)
+			context.pushIndent(indent.getText());
+		inlineCall.render(context, closure, values);
+		if (indent != null)
+			context.popIndent();
+	}
+
 	public void call(EvaluationContext context, Object obj, List<Object> args, Map<String, Object> kwargs)
 	{
 		if (obj instanceof UL4Render)
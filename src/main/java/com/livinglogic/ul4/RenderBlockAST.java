@@ -147,7 +147,7 @@ public class RenderBlockAST extends RenderAST implements BlockLike
 
 		if (realKeywordArguments.containsKey("content"))
 			throw new DuplicateArgumentException(content, "content");
-		realKeywordArguments.put("content", new TemplateClosure(content, context));
+		realKeywordArguments.put("content", content.makeClosure(context));
 	}
 
 	@Override
@@ -153,8 +153,10 @@ public class RenderBlocksAST extends RenderAST implements BlockLike
 
 		try
 		{
-			for (AST item : content)
-				item.decoratedEvaluate(context);
+			// The content can't contain {@code <?break?>} or {@code <?continue?>}, but it
+			// can contain a {@code <?return?>} which ends the template containing this block
+			if (BlockAST.evaluateContent(context, content) == Completion.RETURN)
+				throw new ReturnException(context.takeReturnValue());
 		}
 		finally
 		{
@@ -0,0 +1,846 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+Caches the output of complete template renders.
+
+<p>A {@code RenderCache} sits in front of {@link Template#renders} and
+{@link Template#render}: Calling {@link #renders} or {@link #render} renders
+the template only if the cache doesn't contain the output for the same
+template, global variables and variables already.</p>
+
+<p>Outputs are stored under a key that is a SHA-256 hash of:</p>
+
+<ul>
+<li>The fingerprint of the template, i.e. {@link Template#API_VERSION}, the
+whitespace mode, the name and the source of the template;</li>
+<li>the signature of the template (including the default values of the
+parameters);</li>
+<li>the global variables and the variables. Their values are walked the way
+the UL4ON {@link com.livinglogic.ul4on.Encoder} walks them. Dicts and sets
+are hashed in iteration order, so equal dicts or sets whose iteration order
+differs get different keys (as their output might differ too).</li>
+</ul>
+
+<p>Renders bypass the cache automatically (i.e. the template is simply
+rendered) if:</p>
+
+<ul>
+<li>a global variable or variable contains an object that isn't
+{@code None}, a boolean, a number, a string, a date, a color, a time delta,
+a slice, a list, a dict, a set or a template satisfying these conditions
+(e.g. a database connection);</li>
+<li>the template (or a template nested in it or passed to it) uses one of the
+builtin functions {@code now()}, {@code utcnow()}, {@code today()},
+{@code random()}, {@code randrange()}, {@code randchoice()} and
+{@code setattr()} (unless a global variable of that name hides the
+builtin);</li>
+<li>the template modifies objects (i.e. assigns to attributes or items or
+calls methods like {@code append()}).</li>
+</ul>
+
+<p>Where the outputs are stored is determined by the {@link Storage} of the
+cache. {@link HeapStorage}, {@link OffHeapStorage} and {@link DiskStorage}
+drop the least recently used outputs when the outputs take up more than a
+fixed number of bytes. A {@code RenderCache} can be shared by many threads.
+Output of renders that fail is not cached.</p>
+**/
+public class RenderCache
+{
+	/**
+	Where a {@link RenderCache} stores the outputs. Keys are strings of
+	hexadecimal digits. A storage might drop any output at any time.
+	**/
+	public interface Storage
+	{
+		/**
+		Return the output stored under {@code key} (or {@code null}).
+		**/
+		String get(String key);
+
+		/**
+		Store {@code output} under {@code key}.
+		**/
+		void put(String key, String output);
+
+		/**
+		Remove all outputs.
+		**/
+		void clear();
+	}
+
+	/**
+	Base class of storages that hold a limited number of bytes and drop the
+	least recently used outputs when they are full. Subclasses implement how
+	an output is stored in an entry of type {@code E}.
+
+	<p>Entries are stored, loaded and released (which might involve IO)
+	without holding the lock of the storage, so concurrent renders only wait
+	for each other while the list of entries is updated.</p>
+	**/
+	public static abstract class LRUStorage<E> implements Storage
+	{
+		private static final class Slot<E>
+		{
+			final E entry;
+			final long bytes;
+
+			Slot(E entry, long bytes)
+			{
+				this.entry = entry;
+				this.bytes = bytes;
+			}
+		}
+
+		private final long maxBytes;
+		private long bytes = 0;
+		private final LongAdder evictions = new LongAdder();
+
+		/**
+		The entries (in the order of last access).
+		**/
+		private final LinkedHashMap<String, Slot<E>> slots = new LinkedHashMap<String, Slot<E>>(16, 0.75f, true);
+
+		/**
+		Create a new {@code LRUStorage} that holds at most {@code maxBytes}
+		bytes.
+		**/
+		protected LRUStorage(long maxBytes)
+		{
+			if (maxBytes <= 0)
+				throw new IllegalArgumentException("maxBytes must be positive");
+			this.maxBytes = maxBytes;
+		}
+
+		/**
+		Store {@code output} under {@code key} and return the entry (or
+		{@code null} if the output can't be stored). The entry must not share
+		any resources with other entries for the same key, as another thread
+		might be loading or releasing those.
+		**/
+		protected abstract E store(String key, String output);
+
+		/**
+		Return the output stored in {@code entry} (or {@code null} if it's
+		gone).
+		**/
+		protected abstract String load(E entry);
+
+		/**
+		Return the number of bytes {@code entry} takes up.
+		**/
+		protected abstract long size(E entry);
+
+		/**
+		Release the resources of an entry that has been dropped.
+		**/
+		protected abstract void release(E entry);
+
+		@Override
+		public String get(String key)
+		{
+			E entry;
+			synchronized (this)
+			{
+				Slot<E> slot = slots.get(key);
+				if (slot == null)
+					return null;
+				entry = slot.entry;
+			}
+			String output = load(entry);
+			if (output == null)
+				drop(key, entry);
+			return output;
+		}
+
+		@Override
+		public void put(String key, String output)
+		{
+			E entry = store(key, output);
+			if (entry == null)
+				return;
+			long size = size(entry);
+			if (size > maxBytes)
+			{
+				release(entry);
+				return;
+			}
+			List<E> dropped = new ArrayList<E>();
+			synchronized (this)
+			{
+				Slot<E> old = slots.put(key, new Slot<E>(entry, size));
+				if (old != null)
+				{
+					bytes -= old.bytes;
+					dropped.add(old.entry);
+				}
+				bytes += size;
+				Iterator<Slot<E>> iterator = slots.values().iterator();
+				while (bytes > maxBytes)
+				{
+					Slot<E> eldest = iterator.next();
+					iterator.remove();
+					bytes -= eldest.bytes;
+					dropped.add(eldest.entry);
+					evictions.increment();
+				}
+			}
+			for (E droppedEntry : dropped)
+				release(droppedEntry);
+		}
+
+		/**
+		Remove the entry {@code entry} stored under {@code key} (if it hasn't
+		been replaced in the meantime).
+		**/
+		private void drop(String key, E entry)
+		{
+			synchronized (this)
+			{
+				Slot<E> slot = slots.get(key);
+				if (slot == null || slot.entry != entry)
+					return;
+				slots.remove(key);
+				bytes -= slot.bytes;
+			}
+			release(entry);
+		}
+
+		@Override
+		public void clear()
+		{
+			List<E> dropped = new ArrayList<E>();
+			synchronized (this)
+			{
+				for (Slot<E> slot : slots.values())
+					dropped.add(slot.entry);
+				slots.clear();
+				bytes = 0;
+			}
+			for (E entry : dropped)
+				release(entry);
+		}
+
+		/**
+		Return the number of outputs in the storage.
+		**/
+		public synchronized int size()
+		{
+			return slots.size();
+		}
+
+		/**
+		Return the number of bytes the outputs in the storage take up.
+		**/
+		public synchronized long getBytes()
+		{
+			return bytes;
+		}
+
+		/**
+		Return the number of outputs that have been dropped because the storage
+		was full.
+		**/
+		public long getEvictions()
+		{
+			return evictions.sum();
+		}
+	}
+
+	/**
+	Stores outputs as strings on the Java heap.
+	**/
+	public static class HeapStorage extends LRUStorage<String>
+	{
+		public HeapStorage(long maxBytes)
+		{
+			super(maxBytes);
+		}
+
+		@Override
+		protected String store(String key, String output)
+		{
+			return output;
+		}
+
+		@Override
+		protected String load(String entry)
+		{
+			return entry;
+		}
+
+		@Override
+		protected long size(String entry)
+		{
+			return 2L * entry.length();
+		}
+
+		@Override
+		protected void release(String entry)
+		{
+		}
+	}
+
+	/**
+	Stores outputs UTF-8 encoded in direct byte buffers outside of the Java
+	heap.
+	**/
+	public static class OffHeapStorage extends LRUStorage<ByteBuffer>
+	{
+		public OffHeapStorage(long maxBytes)
+		{
+			super(maxBytes);
+		}
+
+		@Override
+		protected ByteBuffer store(String key, String output)
+		{
+			byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+			buffer.put(bytes);
+			buffer.flip();
+			return buffer;
+		}
+
+		@Override
+		protected String load(ByteBuffer entry)
+		{
+			byte[] bytes = new byte[entry.remaining()];
+			entry.duplicate().get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		protected long size(ByteBuffer entry)
+		{
+			return entry.capacity();
+		}
+
+		@Override
+		protected void release(ByteBuffer entry)
+		{
+			// The memory is freed when the buffer is garbage collected
+		}
+	}
+
+	/**
+	Stores outputs UTF-8 encoded in files in a local directory (one file per
+	output, named after the key plus a unique suffix). Only the files stored
+	by this object count for the size limit. Outputs whose file can't be
+	written aren't cached.
+	**/
+	public static class DiskStorage extends LRUStorage<File>
+	{
+		private final File directory;
+
+		public DiskStorage(File directory, long maxBytes)
+		{
+			super(maxBytes);
+			directory.mkdirs();
+			this.directory = directory;
+		}
+
+		@Override
+		protected File store(String key, String output)
+		{
+			File file = null;
+			try
+			{
+				file = Files.createTempFile(directory.toPath(), key + "-", ".ul4").toFile();
+				Files.write(file.toPath(), output.getBytes(StandardCharsets.UTF_8));
+				return file;
+			}
+			catch (IOException exc)
+			{
+				if (file != null)
+					file.delete();
+				return null;
+			}
+		}
+
+		@Override
+		protected String load(File entry)
+		{
+			try
+			{
+				return new String(Files.readAllBytes(entry.toPath()), StandardCharsets.UTF_8);
+			}
+			catch (IOException exc)
+			{
+				return null;
+			}
+		}
+
+		@Override
+		protected long size(File entry)
+		{
+			return entry.length();
+		}
+
+		@Override
+		protected void release(File entry)
+		{
+			entry.delete();
+		}
+	}
+
+	/**
+	The maximum nesting depth of values that are part of a key.
+	**/
+	private static final int MAX_DEPTH = 32;
+
+	private static final char[] hexDigits = "0123456789abcdef".toCharArray();
+
+	/**
+	Computes a key by feeding values into a SHA-256 digest.
+	**/
+	private static final class Digest
+	{
+		private final MessageDigest digest;
+		private final Map<String, Object> globalVariables;
+
+		Digest(Map<String, Object> globalVariables)
+		{
+			try
+			{
+				digest = MessageDigest.getInstance("SHA-256");
+			}
+			catch (NoSuchAlgorithmException exc)
+			{
+				// can't happen, as every JVM supports SHA-256
+				throw new RuntimeException(exc);
+			}
+			this.globalVariables = globalVariables;
+		}
+
+		void tag(char tag)
+		{
+			digest.update((byte)tag);
+		}
+
+		void number(long value)
+		{
+			for (int i = 0; i < 8; ++i)
+			{
+				digest.update((byte)value);
+				value >>>= 8;
+			}
+		}
+
+		void string(String value)
+		{
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			number(bytes.length);
+			digest.update(bytes);
+		}
+
+		String hex()
+		{
+			byte[] bytes = digest.digest();
+			char[] chars = new char[2 * bytes.length];
+			for (int i = 0; i < bytes.length; ++i)
+			{
+				chars[2 * i] = hexDigits[(bytes[i] >> 4) & 0xf];
+				chars[2 * i + 1] = hexDigits[bytes[i] & 0xf];
+			}
+			return new String(chars);
+		}
+
+		/**
+		Feed {@code value} into the digest. Return {@code false} if
+		{@code value} can't be part of a key.
+		**/
+		boolean value(Object value, int depth)
+		{
+			if (value == null)
+				tag('n');
+			else if (value instanceof Boolean)
+				tag(((Boolean)value).booleanValue() ? 'T' : 'F');
+			else if (value instanceof Integer || value instanceof Long || value instanceof Byte || value instanceof Short || value instanceof BigInteger)
+			{
+				tag('i');
+				string(value.toString());
+			}
+			else if (value instanceof Double || value instanceof Float || value instanceof BigDecimal)
+			{
+				tag(value instanceof Double ? 'f' : value instanceof Float ? 'g' : 'd');
+				string(value.toString());
+			}
+			else if (value instanceof String)
+			{
+				tag('s');
+				string((String)value);
+			}
+			else if (value instanceof Date)
+			{
+				tag('z');
+				number(((Date)value).getTime());
+			}
+			else if (value instanceof LocalDate)
+			{
+				tag('x');
+				string(value.toString());
+			}
+			else if (value instanceof LocalDateTime)
+			{
+				tag('Z');
+				string(value.toString());
+			}
+			else if (value instanceof TimeDelta)
+			{
+				TimeDelta timeDelta = (TimeDelta)value;
+				tag('t');
+				number(timeDelta.getDays());
+				number(timeDelta.getSeconds());
+				number(timeDelta.getMicroseconds());
+			}
+			else if (value instanceof MonthDelta)
+			{
+				tag('m');
+				number(((MonthDelta)value).getMonths());
+			}
+			else if (value instanceof Color)
+			{
+				Color color = (Color)value;
+				tag('c');
+				number(color.getR());
+				number(color.getG());
+				number(color.getB());
+				number(color.getA());
+			}
+			else if (value instanceof Slice)
+			{
+				tag('r');
+				value(((Slice)value).getStart(), depth);
+				value(((Slice)value).getStop(), depth);
+			}
+			else if (depth >= MAX_DEPTH)
+				return false;
+			else if (value instanceof Template)
+				return template((Template)value, null, ((Template)value).signature, depth);
+			else if (value instanceof TemplateClosure)
+			{
+				TemplateClosure closure = (TemplateClosure)value;
+				return template(closure.getTemplate(), closure.getVariables(), closure.getSignature(), depth);
+			}
+			else if (value instanceof Set)
+				return items('y', (Set)value, depth);
+			else if (value instanceof Collection)
+				return items('l', (Collection)value, depth);
+			else if (value instanceof Object[])
+			{
+				tag('l');
+				for (Object item : (Object[])value)
+				{
+					if (!value(item, depth + 1))
+						return false;
+				}
+				tag(']');
+			}
+			else if (value instanceof Map)
+			{
+				tag('d');
+				for (Map.Entry<Object, Object> entry : ((Map<Object, Object>)value).entrySet())
+				{
+					if (!value(entry.getKey(), depth + 1) || !value(entry.getValue(), depth + 1))
+						return false;
+				}
+				tag('}');
+			}
+			else
+				return false;
+			return true;
+		}
+
+		private boolean items(char tag, Collection items, int depth)
+		{
+			tag(tag);
+			for (Object item : items)
+			{
+				if (!value(item, depth + 1))
+					return false;
+			}
+			tag(']');
+			return true;
+		}
+
+		/**
+		Feed {@code template} (whose closure has the variables
+		{@code variables}, which is {@code null} for templates that aren't
+		closures) with the signature {@code signature} into the digest. This
+		includes the values of all the variables the template uses from the
+		closure. Return {@code false} if the template's output might differ
+		between renders with the same arguments.
+		**/
+		boolean template(Template template, Map<String, Object> variables, Signature signature, int depth)
+		{
+			String[] names = FragmentCache.getNames(template);
+			if (names == FragmentCache.UNCACHEABLE)
+				return false;
+			tag('T');
+			string(getFingerprint(template));
+			if (signature != null)
+			{
+				for (ParameterDescription parameter : signature)
+				{
+					ParameterDescription.Type type = parameter.getType();
+					string(parameter.getName());
+					string(type.getUL4ONString());
+					if (type.hasDefault() && !value(parameter.getDefaultValue(), depth + 1))
+						return false;
+				}
+			}
+			tag(')');
+			for (String name : names)
+			{
+				if (variables != null && variables.containsKey(name))
+				{
+					tag('v');
+					if (!value(variables.get(name), depth + 1))
+						return false;
+				}
+				else if (globalVariables.containsKey(name))
+					tag('g'); // the global variables are part of the key anyway
+				else if (FragmentCache.impureNames.contains(name))
+					return false;
+				else
+					tag('u');
+			}
+			return true;
+		}
+	}
+
+	/**
+	Return the fingerprint of {@code template}: A hash of
+	{@link Template#API_VERSION}, the whitespace mode, the name, the position
+	and the source of the template.
+	**/
+	static String getFingerprint(Template template)
+	{
+		String fingerprint = template.fingerprint;
+		if (fingerprint == null)
+		{
+			Digest digest = new Digest(null);
+			digest.string(Template.API_VERSION);
+			digest.string(String.valueOf(template.getWhitespace()));
+			digest.string(String.valueOf(template.getFullName()));
+			digest.number(template.getStartPos().getStart());
+			digest.string(String.valueOf(template.source));
+			fingerprint = digest.hex();
+			template.fingerprint = fingerprint;
+		}
+		return fingerprint;
+	}
+
+	private final Storage storage;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder uncacheable = new LongAdder();
+
+	/**
+	Create a new {@code RenderCache} that stores the outputs in
+	{@code storage}.
+	**/
+	public RenderCache(Storage storage)
+	{
+		this.storage = storage;
+	}
+
+	/**
+	Create a new {@code RenderCache} that stores at most {@code maxBytes}
+	bytes of output on the Java heap.
+	**/
+	public RenderCache(long maxBytes)
+	{
+		this(new HeapStorage(maxBytes));
+	}
+
+	public Storage getStorage()
+	{
+		return storage;
+	}
+
+	/**
+	Return the number of renders whose output has been taken from the cache.
+	**/
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	Return the number of renders whose output wasn't in the cache (and has
+	been cached after rendering).
+	**/
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	Return the number of renders that have bypassed the cache (because of
+	the template or the variables).
+	**/
+	public long getUncacheable()
+	{
+		return uncacheable.sum();
+	}
+
+	/**
+	Remove all outputs from the cache.
+	**/
+	public void clear()
+	{
+		storage.clear();
+	}
+
+	/**
+	Return the key for rendering {@code template} with the global variables
+	{@code globalVariables} and the variables {@code variables} (or
+	{@code null} if the output can't be cached).
+	**/
+	private static String makeKey(Template template, Map<String, Object> globalVariables, Map<String, Object> variables)
+	{
+		if (globalVariables == null)
+			globalVariables = Collections.emptyMap();
+		Digest digest = new Digest(globalVariables);
+		if (!digest.template(template, null, template.signature, 0))
+			return null;
+		if (!digest.value(globalVariables, 0))
+			return null;
+		if (!digest.value(variables != null ? variables : Collections.emptyMap(), 0))
+			return null;
+		return digest.hex();
+	}
+
+	/**
+	Render {@code template} and return the output (or return the cached
+	output of a previous render).
+	@param template        The template to render.
+	@param globalVariables The global variables that should be available in
+	                       the template and any called recursively. May be
+	                       null.
+	@param variables       The top level variables of the template. May be
+	                       null.
+	@return The rendered output as a string.
+	**/
+	public String renders(Template template, Map<String, Object> globalVariables, Map<String, Object> variables)
+	{
+		try (EvaluationContext context = new EvaluationContext(globalVariables))
+		{
+			return renders(context, template, variables);
+		}
+	}
+
+	/**
+	Render {@code template} in the context {@code context} and return the
+	output (or return the cached output of a previous render). The global
+	variables of {@code context} are part of the key. The other settings of
+	the context (e.g. the runtime limit, the profiler or the
+	{@link ResourceUsage}) only apply when the template is really rendered.
+	@param context   The context in which the template is rendered.
+	@param template  The template to render.
+	@param variables The top level variables of the template. May be null.
+	@return The rendered output as a string.
+	**/
+	public String renders(EvaluationContext context, Template template, Map<String, Object> variables)
+	{
+		String key = makeKey(template, context.getGlobalVariables(), variables);
+		if (key == null)
+		{
+			uncacheable.increment();
+			return template.renders(context, variables);
+		}
+
+		String output = storage.get(key);
+		if (output != null)
+		{
+			hits.increment();
+			return output;
+		}
+
+		misses.increment();
+		output = template.renders(context, variables);
+		storage.put(key, output);
+		return output;
+	}
+
+	/**
+	Render {@code template} to {@code writer} (or write the cached output of a
+	previous render to {@code writer}).
+	@param template        The template to render.
+	@param writer          The {@code Writer} to which the output is written.
+	@param globalVariables The global variables that should be available in
+	                       the template and any called recursively. May be
+	                       null.
+	@param variables       The top level variables of the template. May be
+	                       null.
+	**/
+	public void render(Template template, Writer writer, Map<String, Object> globalVariables, Map<String, Object> variables)
+	{
+		try (EvaluationContext context = new EvaluationContext(writer, globalVariables))
+		{
+			render(context, template, variables);
+		}
+	}
+
+	/**
+	Render {@code template} in the context {@code context} to the writer of
+	the context (or write the cached output of a previous render to it). See
+	{@link #renders(EvaluationContext, Template, Map)} for how the context is
+	used.
+	@param context   The context in which the template is rendered.
+	@param template  The template to render.
+	@param variables The top level variables of the template. May be null.
+	**/
+	public void render(EvaluationContext context, Template template, Map<String, Object> variables)
+	{
+		String key = makeKey(template, context.getGlobalVariables(), variables);
+		if (key == null)
+		{
+			uncacheable.increment();
+			template.render(context, variables);
+			return;
+		}
+
+		String output = storage.get(key);
+		if (output != null)
+			hits.increment();
+		else
+		{
+			misses.increment();
+			output = template.renders(context, variables);
+			storage.put(key, output);
+		}
+		context.write(output);
+	}
+}
@@ -0,0 +1,363 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+Collects statistics about the renders and calls of templates.
+
+<p>A {@code RenderMetrics} object is a {@link RenderObserver}, so it is
+used by installing it via {@link Template#setRenderObserver}. For each
+template (identified by its qualified name, see
+{@link Template#getQualifiedName}) it counts the renders and calls, the
+renders and calls that have exceeded the runtime or allocation limit and the
+exceptions (by exception class), and it records the latency and the output
+size in a {@link Histogram}.</p>
+
+<p>All recording is lock-free, so one {@code RenderMetrics} object can be
+used by all threads. The statistics can be read via {@link #get} or
+{@link #getTemplateMetrics} or can be output in the Prometheus text format
+via {@link #writeText}.</p>
+**/
+public class RenderMetrics implements RenderObserver
+{
+	/**
+	A histogram of non-negative {@code long} values.
+
+	<p>Values are counted in buckets that grow exponentially: Each power of
+	two is split into 8 buckets of equal size, so the value reported for a
+	percentile is at most 12.5% too large. Values below 8 are counted
+	exactly. Counting a value is lock-free and doesn't allocate.</p>
+	**/
+	public static final class Histogram
+	{
+		private static final int SUB_BITS = 3;
+		private static final int SUB_COUNT = 1 << SUB_BITS;
+		private static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+		private static final LongBinaryOperator MAX = new LongBinaryOperator()
+		{
+			@Override
+			public long applyAsLong(long left, long right)
+			{
+				return Math.max(left, right);
+			}
+		};
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(MAX, 0L);
+
+		/**
+		Return the index of the bucket for {@code value}.
+		**/
+		private static int bucket(long value)
+		{
+			if (value < SUB_COUNT)
+				return (int)value;
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int)(value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+			return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+		}
+
+		/**
+		Return the largest value that is counted in the bucket {@code index}.
+		**/
+		private static long upperBound(int index)
+		{
+			if (index < SUB_COUNT)
+				return index;
+			int exponent = index / SUB_COUNT + SUB_BITS - 1;
+			int sub = index % SUB_COUNT;
+			int shift = exponent - SUB_BITS;
+			return ((long)(SUB_COUNT + sub) << shift) + (1L << shift) - 1;
+		}
+
+		/**
+		Count {@code value} (negative values are counted as 0).
+		**/
+		public void record(long value)
+		{
+			if (value < 0)
+				value = 0;
+			buckets.incrementAndGet(bucket(value));
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		public long getCount()
+		{
+			return count.sum();
+		}
+
+		public long getSum()
+		{
+			return sum.sum();
+		}
+
+		public long getMax()
+		{
+			return max.get();
+		}
+
+		public double getMean()
+		{
+			long count = getCount();
+			return count > 0 ? (double)getSum() / count : 0.;
+		}
+
+		/**
+		Return the value below or at which {@code percentile} percent of the
+		counted values lie (or 0 if no values have been counted).
+		**/
+		public long getValueAtPercentile(double percentile)
+		{
+			long[] counts = new long[BUCKET_COUNT];
+			long total = 0;
+			for (int i = 0; i < BUCKET_COUNT; ++i)
+			{
+				counts[i] = buckets.get(i);
+				total += counts[i];
+			}
+			if (total == 0)
+				return 0;
+			long rank = Math.max(1L, (long)Math.ceil(percentile / 100. * total));
+			long seen = 0;
+			for (int i = 0; i < BUCKET_COUNT; ++i)
+			{
+				seen += counts[i];
+				if (seen >= rank)
+					return Math.min(upperBound(i), getMax());
+			}
+			return getMax();
+		}
+
+		public void clear()
+		{
+			for (int i = 0; i < BUCKET_COUNT; ++i)
+				buckets.set(i, 0);
+			count.reset();
+			sum.reset();
+			max.reset();
+		}
+	}
+
+	/**
+	The statistics for one template.
+	**/
+	public static final class TemplateMetrics
+	{
+		private final String templateName;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder timeouts = new LongAdder();
+		private final Histogram latency = new Histogram();
+		private final Histogram outputChars = new Histogram();
+		private final ConcurrentHashMap<String, LongAdder> exceptions = new ConcurrentHashMap<String, LongAdder>();
+
+		TemplateMetrics(String templateName)
+		{
+			this.templateName = templateName;
+		}
+
+		public String getTemplateName()
+		{
+			return templateName;
+		}
+
+		/**
+		Return the number of renders and calls.
+		**/
+		public long getCount()
+		{
+			return count.sum();
+		}
+
+		/**
+		Return the number of renders and calls that have exceeded the runtime
+		limit or the allocation limit.
+		**/
+		public long getTimeouts()
+		{
+			return timeouts.sum();
+		}
+
+		/**
+		Return the histogram of the duration of the renders and calls (in
+		nanoseconds).
+		**/
+		public Histogram getLatency()
+		{
+			return latency;
+		}
+
+		/**
+		Return the histogram of the number of characters output by the renders
+		(calls aren't included).
+		**/
+		public Histogram getOutputChars()
+		{
+			return outputChars;
+		}
+
+		/**
+		Return the number of renders and calls that failed for each exception
+		class.
+		**/
+		public Map<String, Long> getExceptions()
+		{
+			Map<String, Long> result = new TreeMap<String, Long>();
+			for (Map.Entry<String, LongAdder> entry : exceptions.entrySet())
+				result.put(entry.getKey(), entry.getValue().sum());
+			return result;
+		}
+
+		void record(long nanos, long outputChars, Throwable exception, boolean timedOut)
+		{
+			count.increment();
+			latency.record(nanos);
+			if (outputChars >= 0)
+				this.outputChars.record(outputChars);
+			if (timedOut)
+				timeouts.increment();
+			if (exception != null)
+			{
+				String exceptionName = exception.getClass().getName();
+				LongAdder counter = exceptions.get(exceptionName);
+				if (counter == null)
+				{
+					LongAdder newCounter = new LongAdder();
+					counter = exceptions.putIfAbsent(exceptionName, newCounter);
+					if (counter == null)
+						counter = newCounter;
+				}
+				counter.increment();
+			}
+		}
+	}
+
+	private final ConcurrentHashMap<String, TemplateMetrics> templates = new ConcurrentHashMap<String, TemplateMetrics>();
+
+	@Override
+	public void rendered(String templateName, String operation, long nanos, long outputChars, Throwable exception, boolean timedOut)
+	{
+		if (templateName == null)
+			templateName = "?";
+		TemplateMetrics metrics = templates.get(templateName);
+		if (metrics == null)
+		{
+			TemplateMetrics newMetrics = new TemplateMetrics(templateName);
+			metrics = templates.putIfAbsent(templateName, newMetrics);
+			if (metrics == null)
+				metrics = newMetrics;
+		}
+		metrics.record(nanos, outputChars, exception, timedOut);
+	}
+
+	/**
+	Return the statistics for the template with the qualified name
+	{@code templateName} (or {@code null} if it hasn't been rendered or
+	called yet).
+	**/
+	public TemplateMetrics get(String templateName)
+	{
+		return templates.get(templateName != null ? templateName : "?");
+	}
+
+	/**
+	Return the statistics for all templates sorted by template name.
+	**/
+	public Map<String, TemplateMetrics> getTemplateMetrics()
+	{
+		return new TreeMap<String, TemplateMetrics>(templates);
+	}
+
+	/**
+	Drop all statistics.
+	**/
+	public void clear()
+	{
+		templates.clear();
+	}
+
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+	private static String label(String value)
+	{
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static void writeSample(Writer writer, String name, String labels, String value) throws IOException
+	{
+		writer.write(name);
+		writer.write("{");
+		writer.write(labels);
+		writer.write("} ");
+		writer.write(value);
+		writer.write("\n");
+	}
+
+	private static void writeHeader(Writer writer, String name, String type, String help) throws IOException
+	{
+		writer.write("# HELP " + name + " " + help + "\n");
+		writer.write("# TYPE " + name + " " + type + "\n");
+	}
+
+	private static void writeSummary(Writer writer, String name, String labels, Histogram histogram, double scale) throws IOException
+	{
+		for (double quantile : QUANTILES)
+			writeSample(writer, name, labels + ",quantile=\"" + quantile + "\"", format(histogram.getValueAtPercentile(quantile * 100.) * scale));
+		writeSample(writer, name + "_sum", labels, format(histogram.getSum() * scale));
+		writeSample(writer, name + "_count", labels, Long.toString(histogram.getCount()));
+	}
+
+	private static String format(double value)
+	{
+		return Double.toString(value);
+	}
+
+	/**
+	Write the statistics in the Prometheus text exposition format.
+	**/
+	public void writeText(Writer writer) throws IOException
+	{
+		Map<String, TemplateMetrics> templates = getTemplateMetrics();
+
+		writeHeader(writer, "ul4_render_count", "counter", "Number of renders and calls of the template");
+		for (TemplateMetrics metrics : templates.values())
+			writeSample(writer, "ul4_render_count", "template=\"" + label(metrics.templateName) + "\"", Long.toString(metrics.getCount()));
+
+		writeHeader(writer, "ul4_render_timeouts", "counter", "Number of renders and calls of the template that exceeded the runtime or allocation limit");
+		for (TemplateMetrics metrics : templates.values())
+			writeSample(writer, "ul4_render_timeouts", "template=\"" + label(metrics.templateName) + "\"", Long.toString(metrics.getTimeouts()));
+
+		writeHeader(writer, "ul4_render_latency_seconds", "summary", "Duration of the renders and calls of the template");
+		for (TemplateMetrics metrics : templates.values())
+			writeSummary(writer, "ul4_render_latency_seconds", "template=\"" + label(metrics.templateName) + "\"", metrics.latency, 1e-9);
+
+		writeHeader(writer, "ul4_render_output_chars", "summary", "Number of characters output by the renders of the template");
+		for (TemplateMetrics metrics : templates.values())
+			writeSummary(writer, "ul4_render_output_chars", "template=\"" + label(metrics.templateName) + "\"", metrics.outputChars, 1.);
+
+		writeHeader(writer, "ul4_render_exceptions", "counter", "Number of renders and calls of the template that failed with an exception");
+		for (TemplateMetrics metrics : templates.values())
+		{
+			for (Map.Entry<String, Long> entry : metrics.getExceptions().entrySet())
+				writeSample(writer, "ul4_render_exceptions", "template=\"" + label(metrics.templateName) + "\",exception=\"" + label(entry.getKey()) + "\"", Long.toString(entry.getValue()));
+		}
+	}
+}
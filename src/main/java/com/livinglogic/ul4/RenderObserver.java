@@ -0,0 +1,41 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+/**
+Gets notified about every render or call of a template.
+
+<p>A {@code RenderObserver} is installed for the whole process via
+{@link Template#setRenderObserver}. It is notified about renders and calls
+via the public entry points of {@link Template} and {@link PreparedRender}
+and about renders and calls of templates from inside of templates (e.g. of
+templates defined via {@code <?def?>}). Observers are called from many
+threads, so implementations must be thread safe.</p>
+
+<p>{@link RenderMetrics} is an observer that collects statistics for each
+template.</p>
+**/
+public interface RenderObserver
+{
+	/**
+	Called after a template has been rendered or called.
+
+	@param templateName The qualified name of the template (see
+	                    {@link Template#getQualifiedName}) or {@code null}
+	                    for templates without a name.
+	@param operation    {@code "render"}, {@code "renders"} or {@code "call"}.
+	@param nanos        The number of nanoseconds the render or call took.
+	@param outputChars  The number of characters output (or -1 if unknown,
+	                    which is always the case for calls).
+	@param exception    The exception that ended the render or call (or
+	                    {@code null} if it completed normally).
+	@param timedOut     Whether the runtime limit of the
+	                    {@link EvaluationContext} (or the allocation limit
+	                    of its {@link ResourceUsage}) has been exceeded.
+	**/
+	void rendered(String templateName, String operation, long nanos, long outputChars, Throwable exception, boolean timedOut);
+}
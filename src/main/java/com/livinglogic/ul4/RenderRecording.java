@@ -0,0 +1,107 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.io.Writer;
+
+import com.livinglogic.utils.CountingWriter;
+
+/**
+Records one render or call of a template for the {@link TemplateRenderEvent}
+(only for the public entry points), the {@link RenderObserver} (see
+{@link Template#setRenderObserver}) and the {@link ResourceUsage} of the
+context.
+**/
+final class RenderRecording
+{
+	private final TemplateRenderEvent event;
+	private final RenderObserver observer;
+	private final ResourceUsage resourceUsage;
+	private final long start;
+	private CountingWriter counter = null;
+	private Throwable exception = null;
+
+	private RenderRecording(TemplateRenderEvent event, RenderObserver observer, ResourceUsage resourceUsage)
+	{
+		this.event = event;
+		this.observer = observer;
+		this.resourceUsage = resourceUsage;
+		if (event != null)
+			event.begin();
+		start = observer != null ? System.nanoTime() : 0L;
+		if (resourceUsage != null)
+			resourceUsage.enter();
+	}
+
+	/**
+	Start recording a render or call in {@code context} via a public entry
+	point.
+	**/
+	static RenderRecording start(EvaluationContext context)
+	{
+		return new RenderRecording(new TemplateRenderEvent(), Template.renderObserver, context.resourceUsage);
+	}
+
+	/**
+	Start recording a render or call in {@code context} from inside of a
+	template. Return {@code null} if there's neither an observer nor a
+	resource usage.
+	**/
+	static RenderRecording startNested(EvaluationContext context)
+	{
+		RenderObserver observer = Template.renderObserver;
+		ResourceUsage resourceUsage = context.resourceUsage;
+		if (observer == null && resourceUsage == null)
+			return null;
+		return new RenderRecording(null, observer, resourceUsage);
+	}
+
+	/**
+	Return a writer that counts the output written to {@code writer} (or
+	{@code writer} itself if nobody is interested in the output size).
+	**/
+	Writer count(Writer writer)
+	{
+		if (writer != null && (observer != null || (event != null && event.isEnabled())))
+		{
+			counter = new CountingWriter(writer);
+			return counter;
+		}
+		return writer;
+	}
+
+	/**
+	Record that the render or call has been ended by {@code exception}.
+	**/
+	void failed(Throwable exception)
+	{
+		this.exception = exception;
+	}
+
+	/**
+	Finish recording {@code operation} of {@code template} in {@code context}
+	with the output size counted by the writer returned from {@link #count}.
+	**/
+	void finish(Template template, String operation, EvaluationContext context)
+	{
+		finish(template, operation, context, counter != null ? counter.getCount() : -1);
+	}
+
+	/**
+	Finish recording {@code operation} of {@code template} in {@code context}
+	that output {@code outputChars} characters.
+	**/
+	void finish(Template template, String operation, EvaluationContext context, long outputChars)
+	{
+		if (resourceUsage != null)
+			resourceUsage.exit(template);
+		if (event != null)
+			event.finish(template, operation, context, outputChars);
+		if (observer != null)
+			observer.rendered(template.getQualifiedName(), operation, System.nanoTime() - start, outputChars, exception, context.limitExceeded);
+	}
+}
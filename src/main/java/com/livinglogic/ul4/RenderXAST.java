@@ -81,7 +81,7 @@ public class RenderXAST extends RenderAST
 	}
 
 	@Override
-	public Object decoratedEvaluate(EvaluationContext context)
+	Object evaluateDecorated(EvaluationContext context)
 	{
 		Writer newWriter = new XMLEscapeWriter(context.getWriter());
 		Writer oldWriter = context.setWriter(newWriter);
@@ -0,0 +1,296 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+Measures the CPU time used and the memory allocated by the renders and calls
+of templates.
+
+<p>A {@code ResourceUsage} object is used by setting it as the resource usage
+of an {@link EvaluationContext} (see {@link EvaluationContext#setResourceUsage}).
+All renders and calls of templates in this context (via the public entry
+points and from inside of templates) are measured via the
+{@link ThreadMXBean} of the JVM. Each template is only charged for what it
+uses itself, i.e. what a template rendered or called from it uses is charged
+to that template. The totals only include the outermost renders and calls.
+The results stay available after the context has been closed.</p>
+
+<p>Optionally the memory that may be allocated can be limited: When the
+templates have allocated more than {@code allocationLimit} bytes the render
+is aborted with an exception, in the same way as it is when the runtime
+limit of the context is exceeded (i.e. the memory is checked in loops and
+calls, the exception has an {@link InterruptedException} as its cause and
+the render is reported as having exceeded its limit).</p>
+
+<p>If the JVM doesn't support measuring the CPU time or the allocated memory
+of a thread (or it has been disabled) the respective values stay 0 (see
+{@link #isCPUTimeSupported} and {@link #isAllocatedBytesSupported}).</p>
+
+<p>A {@code ResourceUsage} object must only be used by one
+{@code EvaluationContext} at a time, but it can be used for several renders
+one after the other.</p>
+**/
+public class ResourceUsage
+{
+	/**
+	The resources used by one template.
+	**/
+	public static final class TemplateUsage
+	{
+		private final String templateName;
+		private long count = 0;
+		private long cpuNanos = 0;
+		private long allocatedBytes = 0;
+
+		TemplateUsage(String templateName)
+		{
+			this.templateName = templateName;
+		}
+
+		public String getTemplateName()
+		{
+			return templateName;
+		}
+
+		/**
+		Return the number of renders and calls.
+		**/
+		public long getCount()
+		{
+			return count;
+		}
+
+		/**
+		Return the CPU time used by the template itself (in nanoseconds).
+		**/
+		public long getCPUNanos()
+		{
+			return cpuNanos;
+		}
+
+		/**
+		Return the number of bytes allocated by the template itself.
+		**/
+		public long getAllocatedBytes()
+		{
+			return allocatedBytes;
+		}
+	}
+
+	/**
+	One active render or call.
+	**/
+	private static final class Measurement
+	{
+		final Measurement parent;
+		final long startCPUNanos;
+		final long startAllocatedBytes;
+
+		/**
+		The resources used by the templates rendered or called from this one.
+		**/
+		long childCPUNanos = 0;
+		long childAllocatedBytes = 0;
+
+		Measurement(Measurement parent, long startCPUNanos, long startAllocatedBytes)
+		{
+			this.parent = parent;
+			this.startCPUNanos = startCPUNanos;
+			this.startAllocatedBytes = startAllocatedBytes;
+		}
+	}
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private static final com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported() ? (com.sun.management.ThreadMXBean)threads : null;
+
+	private static final boolean cpuTimeSupported = threads.isCurrentThreadCpuTimeSupported();
+
+	private final long allocationLimit;
+	private Map<String, TemplateUsage> templates = new LinkedHashMap<String, TemplateUsage>();
+	private Measurement current = null;
+
+	/**
+	The allocated bytes of the thread when the outermost active render or
+	call started.
+	**/
+	private long startAllocatedBytes = 0;
+
+	private long cpuNanos = 0;
+	private long allocatedBytes = 0;
+	private boolean limitExceeded = false;
+
+	/**
+	Create a {@code ResourceUsage} object without an allocation limit.
+	**/
+	public ResourceUsage()
+	{
+		this(-1);
+	}
+
+	/**
+	Create a {@code ResourceUsage} object that aborts the render when more
+	than {@code allocationLimit} bytes have been allocated. If
+	{@code allocationLimit} is &lt; 0 there's no limit.
+	**/
+	public ResourceUsage(long allocationLimit)
+	{
+		this.allocationLimit = allocationLimit;
+	}
+
+	public static boolean isCPUTimeSupported()
+	{
+		return cpuTimeSupported && threads.isThreadCpuTimeEnabled();
+	}
+
+	public static boolean isAllocatedBytesSupported()
+	{
+		return allocations != null && allocations.isThreadAllocatedMemoryEnabled();
+	}
+
+	private static long currentCPUNanos()
+	{
+		return cpuTimeSupported ? Math.max(0L, threads.getCurrentThreadCpuTime()) : 0L;
+	}
+
+	private static long currentAllocatedBytes()
+	{
+		return allocations != null ? Math.max(0L, allocations.getCurrentThreadAllocatedBytes()) : 0L;
+	}
+
+	public long getAllocationLimit()
+	{
+		return allocationLimit;
+	}
+
+	/**
+	Has the allocation limit been exceeded?
+	**/
+	public boolean isLimitExceeded()
+	{
+		return limitExceeded;
+	}
+
+	/**
+	Return the CPU time used by all outermost renders and calls (in
+	nanoseconds).
+	**/
+	public long getCPUNanos()
+	{
+		return cpuNanos;
+	}
+
+	/**
+	Return the number of bytes allocated by all outermost renders and calls.
+	**/
+	public long getAllocatedBytes()
+	{
+		return allocatedBytes;
+	}
+
+	/**
+	Return the resources used by the template with the qualified name
+	{@code templateName} (see {@link Template#getQualifiedName}), or
+	{@code null} if it hasn't been rendered or called.
+	**/
+	public TemplateUsage get(String templateName)
+	{
+		return templates.get(templateName != null ? templateName : "?");
+	}
+
+	/**
+	Return the resources used by each template (in the order in which the
+	renders and calls of the templates finished for the first time).
+	**/
+	public Map<String, TemplateUsage> getTemplateUsage()
+	{
+		return new LinkedHashMap<String, TemplateUsage>(templates);
+	}
+
+	/**
+	Drop everything that has been measured so far (so the allocation limit
+	applies anew).
+	**/
+	public void clear()
+	{
+		templates = new LinkedHashMap<String, TemplateUsage>();
+		current = null;
+		cpuNanos = 0;
+		allocatedBytes = 0;
+		limitExceeded = false;
+	}
+
+	/**
+	Start measuring a render or call.
+	**/
+	void enter()
+	{
+		long allocatedBytes = currentAllocatedBytes();
+		if (current == null)
+			startAllocatedBytes = allocatedBytes;
+		current = new Measurement(current, currentCPUNanos(), allocatedBytes);
+	}
+
+	/**
+	Finish measuring the innermost active render or call, which was one of
+	{@code template}.
+	**/
+	void exit(Template template)
+	{
+		Measurement measurement = current;
+		if (measurement == null)
+			return;
+		long cpuNanos = currentCPUNanos() - measurement.startCPUNanos;
+		long allocatedBytes = currentAllocatedBytes() - measurement.startAllocatedBytes;
+		current = measurement.parent;
+
+		String templateName = template.getQualifiedName();
+		if (templateName == null)
+			templateName = "?";
+		TemplateUsage usage = templates.get(templateName);
+		if (usage == null)
+		{
+			usage = new TemplateUsage(templateName);
+			templates.put(templateName, usage);
+		}
+		++usage.count;
+		usage.cpuNanos += cpuNanos - measurement.childCPUNanos;
+		usage.allocatedBytes += allocatedBytes - measurement.childAllocatedBytes;
+
+		if (current != null)
+		{
+			current.childCPUNanos += cpuNanos;
+			current.childAllocatedBytes += allocatedBytes;
+		}
+		else
+		{
+			this.cpuNanos += cpuNanos;
+			this.allocatedBytes += allocatedBytes;
+		}
+	}
+
+	/**
+	Abort the render in {@code context} if the allocation limit has been
+	exceeded (called from {@link EvaluationContext#tick}).
+	**/
+	void checkLimit(EvaluationContext context)
+	{
+		if (allocationLimit < 0 || current == null)
+			return;
+		if (allocatedBytes + currentAllocatedBytes() - startAllocatedBytes > allocationLimit)
+		{
+			limitExceeded = true;
+			context.limitExceeded = true;
+			throw new RuntimeException(new InterruptedException("Maximum allocation of " + allocationLimit + " bytes exceeded"));
+		}
+	}
+}
@@ -71,6 +71,7 @@ public class ReturnAST extends UnaryAST
 
 	public Object evaluate(EvaluationContext context)
 	{
-		throw new ReturnException(obj.decoratedEvaluate(context));
+		context.returnValue = obj.decoratedEvaluate(context);
+		return Completion.RETURN;
 	}
 }
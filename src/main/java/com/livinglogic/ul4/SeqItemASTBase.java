@@ -27,7 +27,6 @@ public abstract class SeqItemASTBase extends CodeAST
 	{
 		try
 		{
-			context.tick();
 			evaluateList(context, result);
 		}
 		catch (BreakException|ContinueException|ReturnException|LocationException ex)
@@ -47,7 +46,6 @@ public abstract class SeqItemASTBase extends CodeAST
 	{
 		try
 		{
-			context.tick();
 			evaluateSet(context, result);
 		}
 		catch (BreakException|ContinueException|ReturnException|LocationException ex)
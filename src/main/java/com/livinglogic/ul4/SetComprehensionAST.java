@@ -63,6 +63,12 @@ public class SetComprehensionAST extends CodeAST
 	protected CodeAST container;
 	protected CodeAST condition;
 
+	/**
+	The layout of the frame for the loop variables (set by
+	{@link VariableResolver}).
+	**/
+	Frame.Layout scopeLayout = null;
+
 	public SetComprehensionAST(Template template, int posStart, int posStop, CodeAST item, Object varname, CodeAST container, CodeAST condition)
 	{
 		super(template, posStart, posStop);
@@ -86,14 +92,14 @@ public class SetComprehensionAST extends CodeAST
 		Iterator iter = Utils.iterator(container);
 
 		// Store the loop variables into a local map, so they don't leak into the surrounding scope.
-		Map<String, Object> oldVariables = context.pushVariables(null);
+		Map<String, Object> oldVariables = context.pushScope(scopeLayout);
 
 		try
 		{
 			while (iter.hasNext())
 			{
-				for (Utils.LValueValue lvv : Utils.unpackVariable(varname, iter.next()))
-					lvv.getLValue().evaluateSet(context, lvv.getValue());
+				context.tick();
+				Utils.assignVariable(context, varname, iter.next());
 
 				if (condition == null || Bool.call(context, condition.decoratedEvaluate(context)))
 				{
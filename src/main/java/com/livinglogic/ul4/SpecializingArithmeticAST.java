@@ -0,0 +1,104 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+/**
+The base class of the arithmetic operations that specialize themselves for
+their operand types.
+
+<p>The result of the operation has the same type as the operands, so an
+arithmetic node can be evaluated via {@link CodeAST#evaluateInt},
+{@link CodeAST#evaluateLong} or {@link CodeAST#evaluateDouble} itself, i.e.
+nested arithmetic expressions don't box their intermediate results. If the
+result of an integer operation doesn't fit into the type of its operands,
+the result of the generic implementation (which promotes it to
+{@link java.math.BigInteger}) is used.</p>
+**/
+abstract class SpecializingArithmeticAST extends SpecializingBinaryAST
+{
+	public SpecializingArithmeticAST(Template template, int posStart, int posStop, CodeAST obj1, CodeAST obj2)
+	{
+		super(template, posStart, posStop, obj1, obj2);
+	}
+
+	/**
+	Return the result of the operation for the {@code int} operands
+	{@code arg1} and {@code arg2}. If it doesn't fit into an {@code int}, throw
+	the result of the generic implementation.
+	**/
+	abstract int evaluateInt(EvaluationContext context, int arg1, int arg2) throws UnexpectedResultException;
+
+	/**
+	Return the result of the operation for the {@code long} operands
+	{@code arg1} and {@code arg2}. If it doesn't fit into a {@code long},
+	throw the result of the generic implementation.
+	**/
+	abstract long evaluateLong(EvaluationContext context, long arg1, long arg2) throws UnexpectedResultException;
+
+	/**
+	Return the result of the operation for the {@code double} operands
+	{@code arg1} and {@code arg2}.
+	**/
+	abstract double evaluateDouble(EvaluationContext context, double arg1, double arg2);
+
+	/**
+	Return the result of the operation using the fast path for the operand
+	types this node has specialized itself for.
+	**/
+	abstract Object callSpecialized(EvaluationContext context, Object arg1, Object arg2);
+
+	@Override
+	Object evaluateInts(EvaluationContext context, int arg1, int arg2) throws UnexpectedResultException
+	{
+		return evaluateInt(context, arg1, arg2);
+	}
+
+	@Override
+	Object evaluateLongs(EvaluationContext context, long arg1, long arg2) throws UnexpectedResultException
+	{
+		return evaluateLong(context, arg1, arg2);
+	}
+
+	@Override
+	Object evaluateDoubles(EvaluationContext context, double arg1, double arg2)
+	{
+		return evaluateDouble(context, arg1, arg2);
+	}
+
+	@Override
+	Object evaluateSpecialized(EvaluationContext context, Object arg1, Object arg2)
+	{
+		return callSpecialized(context, arg1, arg2);
+	}
+
+	@Override
+	int evaluateInt(EvaluationContext context) throws UnexpectedResultException
+	{
+		if (operandTypes != OperandTypes.INT)
+			return super.evaluateInt(context);
+		int arg1 = evaluateInt1(context);
+		return evaluateInt(context, arg1, evaluateInt2(context, arg1));
+	}
+
+	@Override
+	long evaluateLong(EvaluationContext context) throws UnexpectedResultException
+	{
+		if (operandTypes != OperandTypes.LONG)
+			return super.evaluateLong(context);
+		long arg1 = evaluateLong1(context);
+		return evaluateLong(context, arg1, evaluateLong2(context, arg1));
+	}
+
+	@Override
+	double evaluateDouble(EvaluationContext context) throws UnexpectedResultException
+	{
+		if (operandTypes != OperandTypes.DOUBLE)
+			return super.evaluateDouble(context);
+		double arg1 = evaluateDouble1(context);
+		return evaluateDouble(context, arg1, evaluateDouble2(context, arg1));
+	}
+}
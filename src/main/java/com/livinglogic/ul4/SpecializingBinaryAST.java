@@ -0,0 +1,198 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+/**
+The base class of the binary operations that evaluate their operands via
+{@link CodeAST#evaluateInt}, {@link CodeAST#evaluateLong} or
+{@link CodeAST#evaluateDouble} (i.e. without boxing) and fall back to the
+generic implementation when an operand turns out to have another type.
+
+<p>{@link #evaluate} dispatches on the operand types the node has specialized
+itself for, so subclasses only have to implement the operation for
+primitive operands, the fast path for boxed operands and the generic
+implementation.</p>
+**/
+abstract class SpecializingBinaryAST extends BinaryAST
+{
+	public SpecializingBinaryAST(Template template, int posStart, int posStop, CodeAST obj1, CodeAST obj2)
+	{
+		super(template, posStart, posStop, obj1, obj2);
+	}
+
+	@Override
+	public Object evaluate(EvaluationContext context)
+	{
+		try
+		{
+			switch (operandTypes)
+			{
+				case INT:
+				{
+					int arg1 = evaluateInt1(context);
+					return evaluateInts(context, arg1, evaluateInt2(context, arg1));
+				}
+				case LONG:
+				{
+					long arg1 = evaluateLong1(context);
+					return evaluateLongs(context, arg1, evaluateLong2(context, arg1));
+				}
+				case DOUBLE:
+				{
+					double arg1 = evaluateDouble1(context);
+					return evaluateDoubles(context, arg1, evaluateDouble2(context, arg1));
+				}
+				default:
+					return evaluateSpecialized(context, obj1.decoratedEvaluate(context), obj2.decoratedEvaluate(context));
+			}
+		}
+		catch (UnexpectedResultException ex)
+		{
+			return ex.getResult();
+		}
+	}
+
+	/**
+	Return the result of the operation for the {@code int} operands
+	{@code arg1} and {@code arg2} (or throw the result of the generic
+	implementation if the result can't be computed on the fast path).
+	**/
+	abstract Object evaluateInts(EvaluationContext context, int arg1, int arg2) throws UnexpectedResultException;
+
+	/**
+	Return the result of the operation for the {@code long} operands
+	{@code arg1} and {@code arg2}.
+	**/
+	abstract Object evaluateLongs(EvaluationContext context, long arg1, long arg2) throws UnexpectedResultException;
+
+	/**
+	Return the result of the operation for the {@code double} operands
+	{@code arg1} and {@code arg2}.
+	**/
+	abstract Object evaluateDoubles(EvaluationContext context, double arg1, double arg2);
+
+	/**
+	Return the result of the operation for the boxed operands {@code arg1}
+	and {@code arg2} (this is used for all other operand types).
+	**/
+	abstract Object evaluateSpecialized(EvaluationContext context, Object arg1, Object arg2);
+
+	/**
+	Return the result of the generic implementation of the operation.
+	**/
+	protected abstract Object callGeneric(EvaluationContext context, Object arg1, Object arg2);
+
+	/**
+	Called when an operand evaluated as a primitive value turned out to have
+	another type: Fall back to the generic implementation for good and return
+	an exception containing its result.
+	**/
+	UnexpectedResultException deoptimize(EvaluationContext context, Object arg1, Object arg2)
+	{
+		operandTypes = OperandTypes.GENERIC;
+		return new UnexpectedResultException(callGeneric(context, arg1, arg2));
+	}
+
+	/**
+	Evaluate the left operand as an {@code int}. If it isn't one, evaluate
+	the right operand, fall back to the generic implementation and throw its
+	result.
+	**/
+	int evaluateInt1(EvaluationContext context) throws UnexpectedResultException
+	{
+		try
+		{
+			return obj1.decoratedEvaluateInt(context);
+		}
+		catch (UnexpectedResultException ex)
+		{
+			throw deoptimize(context, ex.getResult(), obj2.decoratedEvaluate(context));
+		}
+	}
+
+	/**
+	Evaluate the right operand as an {@code int} ({@code arg1} is the value
+	of the left operand).
+	**/
+	int evaluateInt2(EvaluationContext context, int arg1) throws UnexpectedResultException
+	{
+		try
+		{
+			return obj2.decoratedEvaluateInt(context);
+		}
+		catch (UnexpectedResultException ex)
+		{
+			throw deoptimize(context, arg1, ex.getResult());
+		}
+	}
+
+	/**
+	Evaluate the left operand as a {@code long}. If it isn't one, evaluate
+	the right operand, fall back to the generic implementation and throw its
+	result.
+	**/
+	long evaluateLong1(EvaluationContext context) throws UnexpectedResultException
+	{
+		try
+		{
+			return obj1.decoratedEvaluateLong(context);
+		}
+		catch (UnexpectedResultException ex)
+		{
+			throw deoptimize(context, ex.getResult(), obj2.decoratedEvaluate(context));
+		}
+	}
+
+	/**
+	Evaluate the right operand as a {@code long} ({@code arg1} is the value
+	of the left operand).
+	**/
+	long evaluateLong2(EvaluationContext context, long arg1) throws UnexpectedResultException
+	{
+		try
+		{
+			return obj2.decoratedEvaluateLong(context);
+		}
+		catch (UnexpectedResultException ex)
+		{
+			throw deoptimize(context, arg1, ex.getResult());
+		}
+	}
+
+	/**
+	Evaluate the left operand as a {@code double}. If it isn't one, evaluate
+	the right operand, fall back to the generic implementation and throw its
+	result.
+	**/
+	double evaluateDouble1(EvaluationContext context) throws UnexpectedResultException
+	{
+		try
+		{
+			return obj1.decoratedEvaluateDouble(context);
+		}
+		catch (UnexpectedResultException ex)
+		{
+			throw deoptimize(context, ex.getResult(), obj2.decoratedEvaluate(context));
+		}
+	}
+
+	/**
+	Evaluate the right operand as a {@code double} ({@code arg1} is the value
+	of the left operand).
+	**/
+	double evaluateDouble2(EvaluationContext context, double arg1) throws UnexpectedResultException
+	{
+		try
+		{
+			return obj2.decoratedEvaluateDouble(context);
+		}
+		catch (UnexpectedResultException ex)
+		{
+			throw deoptimize(context, arg1, ex.getResult());
+		}
+	}
+}
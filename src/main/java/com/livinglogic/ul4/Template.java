@@ -34,6 +34,7 @@ import org.antlr.runtime.CommonTokenStream;
 import com.livinglogic.ul4on.Decoder;
 import com.livinglogic.ul4on.Encoder;
 import com.livinglogic.ul4on.Utils;
+import com.livinglogic.utils.MapChain;
 
 
 public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Render, UL4Dir, UL4AddStackFrame
@@ -124,6 +125,12 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 	**/
 	public static String VERSION = null;
 
+	/**
+	The observer that gets notified about every render and call of a template
+	(or {@code null}).
+	**/
+	static volatile RenderObserver renderObserver = null;
+
 	/**
 	The name of the template/function (defaults to {@code null})
 	**/
@@ -187,6 +194,68 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 	**/
 	public Template parentTemplate = null;
 
+	/**
+	The bytecode version of the template content (or {@code null} if the
+	template hasn't been compiled via {@link #compileBytecode}).
+	**/
+	private CompiledTemplate compiledTemplate = null;
+
+	/**
+	The assignment of variables to frame slots (set by {@link VariableResolver}).
+	**/
+	Frame.Layout frameLayout = null;
+
+	/**
+	The number of expression values the frame of the template caches (set by
+	{@link ExpressionCache}).
+	**/
+	int cacheSize = 0;
+
+	/**
+	The names of the variables the template uses apart from its parameters
+	(set by {@link FragmentCache} when it's needed first).
+	**/
+	String[] fragmentNames = null;
+
+	/**
+	The hash of the source, signature and options of the template (set by
+	{@link RenderCache} when it's needed first).
+	**/
+	String fingerprint = null;
+
+	/**
+	The types the caller promises for the parameters of the template (see
+	{@link #setParameterTypes}).
+	**/
+	private Map<String, UL4Type> parameterTypes = null;
+
+	/**
+	The assignment of arguments to slots for the last call of the template
+	(see {@link #makeFrame(BoundArguments, Map)}).
+	**/
+	private Frame.ArgumentSlots argumentSlots = null;
+
+	/**
+	The variable names this (nested) template uses that might be defined in
+	the scope the closure is created in, but not in any of the enclosing
+	templates (set by {@link FreeVariables}). {@code null} means that closures
+	must always keep the variables of the scope they are created in.
+	**/
+	String[] closureNames = null;
+
+	/**
+	The signature of closures of this template if it doesn't depend on the
+	scope (created on demand by {@link #makeClosure}).
+	**/
+	private Signature closureSignature = null;
+
+	/**
+	The closure that is used for this template when closures don't keep any
+	variables and have a constant signature (created on demand by
+	{@link #makeClosure}).
+	**/
+	private TemplateClosure sharedClosure = null;
+
 	/**
 	Used for deserializing an UL4ON dump (of top level and sub templates). Doesn't compile any source
 	**/
@@ -280,6 +349,21 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 		this.docPosStop = -1;
 	}
 
+	/**
+	Install {@code observer} as the observer that gets notified about every
+	render and call of a template (e.g. a {@link RenderMetrics} object). Pass
+	{@code null} to remove the observer.
+	**/
+	public static void setRenderObserver(RenderObserver observer)
+	{
+		renderObserver = observer;
+	}
+
+	public static RenderObserver getRenderObserver()
+	{
+		return renderObserver;
+	}
+
 	public static String getVersion()
 	{
 		if (VERSION == null)
@@ -542,7 +626,30 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 		return parts;
 	}
 
+	/**
+	Compile the source of the template into the AST (and record a
+	{@link TemplateCompileEvent} for it).
+	**/
 	protected void compile()
+	{
+		TemplateCompileEvent event = new TemplateCompileEvent();
+		event.begin();
+		try
+		{
+			compileSource();
+		}
+		finally
+		{
+			if (event.shouldCommit())
+			{
+				event.templateName = getFullName();
+				event.sourceLength = source.length();
+				event.commit();
+			}
+		}
+	}
+
+	private void compileSource()
 	{
 		List<Line> lines = tokenizeTags();
 
@@ -822,6 +929,7 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 			innerBlock.decorateException(ex);
 			throw ex;
 		}
+		VariableResolver.resolve(this);
 	}
 
 	private static UL4Parser getParser(Tag tag)
@@ -852,6 +960,27 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 		return namespace != null ? namespace + "." + name : name;
 	}
 
+	/**
+	Return the name that identifies this template in the statistics about
+	renders and calls (see {@link RenderObserver} and {@link ResourceUsage}).
+
+	<p>For a template defined via {@code <?def?>} this is the qualified name of
+	the outer template followed by the name of this template (e.g.
+	{@code namespace.outer.item}), so that local templates with the same name
+	in different templates can be told apart. Otherwise it is the full name
+	(see {@link #getFullName}).</p>
+
+	@return the qualified name (or {@code null} for a top-level template
+	        without a name).
+	**/
+	public String getQualifiedName()
+	{
+		if (parentTemplate == null)
+			return getFullName();
+		String parentName = parentTemplate.getQualifiedName();
+		return (parentName != null ? parentName : "?") + "." + name;
+	}
+
 	public String getNamespace()
 	{
 		return namespace;
@@ -978,10 +1107,38 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 		}
 	}
 
+	/**
+	Prepare the template for being rendered repeatedly with different
+	variables.
+
+	<p>The returned {@link PreparedRender} binds the variables to the signature
+	with a precomputed plan and without copying the variable map.</p>
+	**/
+	public PreparedRender prepare()
+	{
+		return new PreparedRender(this);
+	}
+
 	public void render(EvaluationContext context, Map<String, Object> variables)
 	{
-		BoundArguments arguments = new BoundArguments(this, null, null, variables);
-		renderBound(context, arguments.byName());
+		RenderRecording recording = RenderRecording.start(context);
+		Writer writer = context.getWriter();
+		context.setWriter(recording.count(writer));
+		try
+		{
+			BoundArguments arguments = new BoundArguments(this, null, null, variables);
+			renderBound(context, makeFrame(arguments, null));
+		}
+		catch (Throwable exc)
+		{
+			recording.failed(exc);
+			throw exc;
+		}
+		finally
+		{
+			context.setWriter(writer);
+			recording.finish(this, "render", context);
+		}
 	}
 
 	/**
@@ -1072,12 +1229,25 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 	**/
 	public String renders(EvaluationContext context, Map<String, Object> variables)
 	{
+		RenderRecording recording = RenderRecording.start(context);
 		try (
 			StringWriter output = new StringWriter();
 		)
 		{
-			BoundArguments arguments = new BoundArguments(this, null, null, variables);
-			renderBound(context, output, arguments.byName());
+			try
+			{
+				BoundArguments arguments = new BoundArguments(this, null, null, variables);
+				renderBound(context, output, makeFrame(arguments, null));
+			}
+			catch (Throwable exc)
+			{
+				recording.failed(exc);
+				throw exc;
+			}
+			finally
+			{
+				recording.finish(this, "renders", context, output.getBuffer().length());
+			}
 			return output.toString();
 		}
 		catch (IOException exc)
@@ -1090,10 +1260,94 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 	public void renderUL4(EvaluationContext context, List<Object> args, Map<String, Object> kwargs)
 	{
 		BoundArguments arguments = new BoundArguments(this, null, args, kwargs);
-		renderBound(context, null, arguments.byName());
+		renderFragment(context, null, makeFrame(arguments, null));
 		// no cleanup here, as the render call might leak a closure to the outside world
 	}
 
+	/**
+	Render the template (or the closure {@code closure} of the template) for
+	a render tag with the bound arguments {@code variables}, using the fragment
+	cache of {@code context} if there is one. The render is reported to the
+	render observer (see {@link #setRenderObserver}).
+	**/
+	void renderFragment(EvaluationContext context, TemplateClosure closure, Map<String, Object> variables)
+	{
+		RenderRecording recording = RenderRecording.startNested(context);
+		if (recording == null)
+		{
+			renderFragmentUnrecorded(context, closure, variables);
+			return;
+		}
+		Writer writer = context.getWriter();
+		context.setWriter(recording.count(writer));
+		try
+		{
+			renderFragmentUnrecorded(context, closure, variables);
+		}
+		catch (Throwable exc)
+		{
+			recording.failed(exc);
+			throw exc;
+		}
+		finally
+		{
+			context.setWriter(writer);
+			recording.finish(this, "render", context);
+		}
+	}
+
+	private void renderFragmentUnrecorded(EvaluationContext context, TemplateClosure closure, Map<String, Object> variables)
+	{
+		FragmentCache fragmentCache = context.fragmentCache;
+		if (fragmentCache != null)
+			fragmentCache.render(context, this, closure, variables);
+		else
+			renderBound(context, variables);
+	}
+
+	/**
+	Wrap the variables for executing the template in a {@link Frame} (if
+	the variables of the template have been resolved and {@code variables}
+	isn't such a frame already).
+	**/
+	private Map<String, Object> makeFrame(Map<String, Object> variables)
+	{
+		Frame.Layout layout = frameLayout;
+		if (layout == null)
+			return variables;
+		if (variables instanceof Frame && ((Frame)variables).layout == layout)
+			return variables;
+		return new Frame(layout, variables);
+	}
+
+	/**
+	Return the variables for executing the template with the arguments
+	{@code arguments}, chained to the variables {@code variables} (which may
+	be {@code null}).
+
+	<p>If the variables of the template have been resolved and there's a
+	signature, the arguments are written into the slots of a new {@link Frame}
+	directly, without creating a map of the arguments first.</p>
+	**/
+	Map<String, Object> makeFrame(BoundArguments arguments, Map<String, Object> variables)
+	{
+		Frame.Layout layout = frameLayout;
+		Signature signature = arguments.signature;
+		if (layout == null || signature == null)
+		{
+			Map<String, Object> argumentsByName = arguments.byName();
+			return variables != null ? new MapChain<String, Object>(argumentsByName, variables) : argumentsByName;
+		}
+
+		Frame.ArgumentSlots argumentSlots = this.argumentSlots;
+		if (argumentSlots == null || argumentSlots.layout != layout || argumentSlots.signature != signature)
+		{
+			argumentSlots = new Frame.ArgumentSlots(layout, signature);
+			this.argumentSlots = argumentSlots;
+		}
+		return new Frame(argumentSlots, arguments.byPosition(), variables);
+	}
+
 	/**
 	Internal method that renders the template when all variables are already
 	bound.
@@ -1104,12 +1358,12 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 	**/
 	public void renderBound(EvaluationContext context, Map<String, Object> variables)
 	{
-		Map<String, Object> oldVariables = context.setVariables(variables);
+		Map<String, Object> oldVariables = context.setVariables(makeFrame(variables));
 		Template oldTemplate = context.setTemplate(this);
 
 		try
 		{
-			super.evaluate(context);
+			evaluateContent(context);
 		}
 		catch (ReturnException ex)
 		{
@@ -1132,7 +1386,7 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 	**/
 	public void renderBound(EvaluationContext context, BoundArguments arguments)
 	{
-		renderBound(context, arguments.byName());
+		renderBound(context, makeFrame(arguments, null));
 	}
 
 	/**
@@ -1314,18 +1568,176 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 	**/
 	public Object call(EvaluationContext context, Map<String, Object> variables)
 	{
-		BoundArguments arguments = new BoundArguments(this, null, null, variables);
-		return callBound(context, arguments.byName());
-		// no cleanup here, as the result might be a closure that still needs the local variables
+		RenderRecording recording = RenderRecording.start(context);
+		try
+		{
+			BoundArguments arguments = new BoundArguments(this, null, null, variables);
+			return callBound(context, makeFrame(arguments, null));
+			// no cleanup here, as the result might be a closure that still needs the local variables
+		}
+		catch (Throwable exc)
+		{
+			recording.failed(exc);
+			throw exc;
+		}
+		finally
+		{
+			recording.finish(this, "call", context, -1);
+		}
 	}
 
 	public Object callUL4(EvaluationContext context, List<Object> args, Map<String, Object> kwargs)
 	{
 		BoundArguments arguments = new BoundArguments(this, null, args, kwargs);
-		return callBound(context, arguments.byName());
+		RenderRecording recording = RenderRecording.startNested(context);
+		if (recording == null)
+			return callBound(context, makeFrame(arguments, null));
+		try
+		{
+			return callBound(context, makeFrame(arguments, null));
+		}
+		catch (Throwable exc)
+		{
+			recording.failed(exc);
+			throw exc;
+		}
+		finally
+		{
+			recording.finish(this, "call", context, -1);
+		}
 		// no cleanup here, as the result might be a closure that still needs the local variables
 	}
 
+	/**
+	Execute the content of the template, either via the bytecode generated
+	by {@link #compileBytecode} or via the interpreter (which is always used
+	when profiling, as the bytecode doesn't evaluate each node separately).
+
+	@return the value of the {@code <?return?>} tag that ended the execution
+	        or {@code null}.
+	**/
+	private Object evaluateContent(EvaluationContext context)
+	{
+		CompiledTemplate compiledTemplate = this.compiledTemplate;
+		if (compiledTemplate != null && context.profiler == null)
+			return compiledTemplate.run(context);
+		if (super.evaluate(context) == Completion.RETURN)
+			return context.takeReturnValue();
+		return null;
+	}
+
+	/**
+	Optimize the AST of this template (and of all templates nested in it).
+
+	<p>Expressions consisting only of constants are replaced by their value,
+	and {@code <?if?>}/{@code <?elif?>}/{@code <?while?>} blocks whose
+	condition is constant are simplified or removed. Attribute chains and calls
+	of pure builtin functions whose variable isn't assigned to are evaluated only
+	once per template call (or loop execution), if the attributes are pure
+	(see {@link UL4GetAttr#isPureAttrUL4}). Operators whose operands are
+	known to be strings (see {@link #setParameterTypes}) use the string
+	implementation directly. The optimized template
+	produces the same output as the original one, and can be dumped via UL4ON
+	(so templates created via {@link #loads} from the dump of an optimized
+	template don't have to be optimized again).</p>
+	**/
+	public void optimize()
+	{
+		TemplateOptimizer.optimize(this);
+		VariableResolver.resolve(this);
+		TypeInference.analyze(this);
+		if (compiledTemplate != null)
+			compileBytecode();
+	}
+
+	/**
+	Declare the types of the parameters of the template.
+
+	<p>{@code parameterTypes} maps parameter names to the type of the values
+	the caller will pass for them (e.g. {@code Str.type} or {@code Int.type}).
+	Together with the types of constants and of the results of operators,
+	builtin functions and string methods this is used by {@link #optimize}
+	to specialize operators for string operands and by {@link #checkTypes}
+	to find operations that will always fail. Names that aren't parameters of
+	the signature of the template are ignored.</p>
+
+	<p>The types are only a hint: Passing values of other types still works
+	(but might be slower).</p>
+	**/
+	public void setParameterTypes(Map<String, UL4Type> parameterTypes)
+	{
+		this.parameterTypes = parameterTypes;
+	}
+
+	public Map<String, UL4Type> getParameterTypes()
+	{
+		return parameterTypes;
+	}
+
+	/**
+	Check the template (and all templates nested in it) for type errors that
+	can be found without executing the template.
+
+	<p>This uses the same type information as {@link #optimize} (i.e. the types
+	of constants, the parameter types declared via {@link #setParameterTypes}
+	and the result types of operators, builtin functions and string methods).
+	Variables can only be checked where they have been assigned to before.
+	Builtin functions are assumed not to be shadowed by global variables.</p>
+
+	@return The exceptions that executing the offending operations would
+	        raise (with the location of the operation in the template). If
+	        the template has no type errors, the list is empty.
+	**/
+	public List<Exception> checkTypes()
+	{
+		return TypeInference.analyze(this);
+	}
+
+	/**
+	Compile the content of this template (and of all templates nested in it)
+	into JVM bytecode.
+
+	<p>This makes rendering and calling the template faster, so it's worth it
+	for templates that are used often. Compiling takes considerably longer than
+	a single render, and the generated code isn't part of the UL4ON dump of the
+	template (i.e. templates created via {@link #loads} must be compiled again).
+	Nodes that can't be compiled will be interpreted as usual.</p>
+
+	<p>Note that the template must not be modified after it has been
+	compiled.</p>
+
+	@return {@code true} if the template has been compiled, {@code false} if
+	        it is too large to be compiled (in this case the template will
+	        still be interpreted).
+	**/
+	public boolean compileBytecode()
+	{
+		List<Template> templates = new LinkedList<Template>();
+		TemplateCompiler.collectNestedTemplates(getContent(), templates);
+		for (Template template : templates)
+			template.compileBytecode();
+
+		try
+		{
+			compiledTemplate = TemplateCompiler.compile(this);
+			return true;
+		}
+		catch (IllegalStateException ex)
+		{
+			compiledTemplate = null;
+			return false;
+		}
+	}
+
+	/**
+	Return whether this template has been compiled to JVM bytecode via
+	{@link #compileBytecode}.
+	**/
+	public boolean isBytecodeCompiled()
+	{
+		return compiledTemplate != null;
+	}
+
 	/**
 	Internal method that executes the function when all variables are already
 	bound.
@@ -1336,14 +1748,13 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 	**/
 	public Object callBound(EvaluationContext context, Map<String, Object> variables)
 	{
-		Map<String, Object> oldVariables = context.setVariables(variables);
+		Map<String, Object> oldVariables = context.setVariables(makeFrame(variables));
 		Writer oldWriter = context.setWriter(null);
 		Template oldTemplate = context.setTemplate(this);
 
 		try
 		{
-			super.evaluate(context);
-			return null;
+			return evaluateContent(context);
 		}
 		catch (ReturnException ex)
 		{
@@ -1359,10 +1770,87 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 
 	public Object evaluate(EvaluationContext context)
 	{
-		context.set(name, new TemplateClosure(this, context));
+		context.set(name, makeClosure(context));
 		return null;
 	}
 
+	/**
+	Return a closure for this (nested) template for the current scope of
+	{@code context}.
+
+	<p>The closure only keeps the variables of the current scope if the
+	template might access them (see {@link FreeVariables}). If it doesn't and
+	the signature has only constant default values, all closures would be the
+	same, so one closure is created and shared.</p>
+	**/
+	TemplateClosure makeClosure(EvaluationContext context)
+	{
+		Map<String, Object> variables = context.getVariables();
+		String[] closureNames = this.closureNames;
+		if (closureNames != null)
+		{
+			boolean needsVariables = false;
+			for (String closureName : closureNames)
+			{
+				if (variables.containsKey(closureName))
+				{
+					needsVariables = true;
+					break;
+				}
+			}
+			if (!needsVariables)
+				variables = null;
+		}
+
+		if (!hasConstantSignature())
+			return new TemplateClosure(this, variables, signatureAST.evaluate(context));
+
+		if (variables != null)
+			return new TemplateClosure(this, variables, getClosureSignature(context));
+
+		TemplateClosure sharedClosure = this.sharedClosure;
+		if (sharedClosure == null)
+		{
+			sharedClosure = new TemplateClosure(this, null, getClosureSignature(context));
+			this.sharedClosure = sharedClosure;
+		}
+		return sharedClosure;
+	}
+
+	/**
+	Return whether the signature of this (nested) template doesn't depend on
+	the scope it is defined in (i.e. all default values are constants).
+	**/
+	private boolean hasConstantSignature()
+	{
+		if (signatureAST != null)
+		{
+			for (Parameter parameter : signatureAST.parameters)
+			{
+				if (parameter.defaultValue != null && !(parameter.defaultValue instanceof ConstAST))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	Return the signature for closures of this (nested) template (which must
+	have a constant signature).
+	**/
+	private Signature getClosureSignature(EvaluationContext context)
+	{
+		if (signatureAST == null)
+			return null;
+		Signature closureSignature = this.closureSignature;
+		if (closureSignature == null)
+		{
+			closureSignature = signatureAST.evaluate(context);
+			this.closureSignature = closureSignature;
+		}
+		return closureSignature;
+	}
+
 	@Override
 	public String getType()
 	{
@@ -1938,6 +2426,10 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 			loadSignatureUL4ON(decoder);
 
 			super.loadUL4ON(decoder);
+
+			// Nested templates get resolved by their outermost template
+			if (parentTemplate == null)
+				VariableResolver.resolve(this);
 		}
 	}
 
@@ -2009,11 +2501,11 @@ public class Template extends BlockAST implements UL4Instance, UL4Name, UL4Rende
 			case "renders":
 				BoundArguments boundRenderSArgs = new BoundArguments(this, null, args, kwargs);
 				Writer writer = new StringWriter();
-				renderBound(context, writer, boundRenderSArgs.byName());
+				renderBound(context, writer, makeFrame(boundRenderSArgs, null));
 				return writer.toString();
 			case "render":
 				BoundArguments boundRenderArgs = new BoundArguments(this, null, args, kwargs);
-				renderBound(context, null, boundRenderArgs.byName());
+				renderBound(context, null, makeFrame(boundRenderArgs, null));
 				return null;
 			default:
 				return super.callAttrUL4(context, key, args, kwargs);
@@ -13,8 +13,6 @@ import java.util.Set;
 import java.io.Writer;
 import java.io.StringWriter;
 
-import com.livinglogic.utils.MapChain;
-
 /**
 Template closure
 
@@ -69,11 +67,38 @@ public class TemplateClosure implements UL4Instance, UL4Render, UL4Name, UL4Dir,
 		signature = template.signatureAST != null ? template.signatureAST.evaluate(context) : null;
 	}
 
+	/**
+	Create a closure for {@code template} that keeps the variables
+	{@code variables} (which might be {@code null} if the template doesn't
+	need any variables from the scope it has been defined in) and has the
+	signature {@code signature}.
+	**/
+	TemplateClosure(Template template, Map<String, Object> variables, Signature signature)
+	{
+		this.template = template;
+		this.variables = variables;
+		this.signature = signature;
+	}
+
 	public Template getTemplate()
 	{
 		return template;
 	}
 
+	/**
+	Return the variables of the scope the closure has been created in (or
+	{@code null} if the template doesn't need them).
+	**/
+	Map<String, Object> getVariables()
+	{
+		return variables;
+	}
+
+	Signature getSignature()
+	{
+		return signature;
+	}
+
 	@Override
 	public String getNameUL4()
 	{
@@ -90,7 +115,7 @@ public class TemplateClosure implements UL4Instance, UL4Render, UL4Name, UL4Dir,
 	{
 		// We can clean up here, as a "render" call can't pass anything to the outside world
 		BoundArguments arguments = new BoundArguments(signature, template, null, args, kwargs);
-		render(context, arguments.byName());
+		render(context, arguments);
 	}
 
 	public Object callUL4(EvaluationContext context, List<Object> args, Map<String, Object> kwargs)
@@ -99,7 +124,7 @@ public class TemplateClosure implements UL4Instance, UL4Render, UL4Name, UL4Dir,
 		Object result = null;
 		try
 		{
-			result = call(context, arguments.byName());
+			result = call(context, arguments);
 		}
 		finally
 		{
@@ -108,20 +133,35 @@ public class TemplateClosure implements UL4Instance, UL4Render, UL4Name, UL4Dir,
 		return result;
 	}
 
-	private Object call(EvaluationContext context, Map<String, Object> variables)
+	private Object call(EvaluationContext context, BoundArguments arguments)
 	{
-		return template.callBound(context, new MapChain<String, Object>(variables, this.variables));
+		RenderRecording recording = RenderRecording.startNested(context);
+		if (recording == null)
+			return template.callBound(context, template.makeFrame(arguments, variables));
+		try
+		{
+			return template.callBound(context, template.makeFrame(arguments, variables));
+		}
+		catch (Throwable exc)
+		{
+			recording.failed(exc);
+			throw exc;
+		}
+		finally
+		{
+			recording.finish(template, "call", context, -1);
+		}
 	}
 
-	private void render(EvaluationContext context, Map<String, Object> variables)
+	private void render(EvaluationContext context, BoundArguments arguments)
 	{
-		template.renderBound(context, null, new MapChain<String, Object>(variables, this.variables));
+		template.renderFragment(context, this, template.makeFrame(arguments, variables));
 	}
 
-	private String renders(EvaluationContext context, Map<String, Object> variables)
+	private String renders(EvaluationContext context, BoundArguments arguments)
 	{
 		Writer writer = new StringWriter();
-		template.renderBound(context, writer, new MapChain<String, Object>(variables, this.variables));
+		template.renderBound(context, writer, template.makeFrame(arguments, variables));
 		return writer.toString();
 	}
 
@@ -156,10 +196,10 @@ public class TemplateClosure implements UL4Instance, UL4Render, UL4Name, UL4Dir,
 		{
 			case "renders":
 				BoundArguments boundRenderSArgs = new BoundArguments(signature, this, null, args, kwargs);
-				return renders(context, boundRenderSArgs.byName());
+				return renders(context, boundRenderSArgs);
 			case "render":
 				BoundArguments boundRenderArgs = new BoundArguments(signature, this, null, args, kwargs);
-				render(context, boundRenderArgs.byName());
+				render(context, boundRenderArgs);
 				return null;
 			default:
 				return UL4Instance.super.callAttrUL4(context, key, args, kwargs);
@@ -0,0 +1,31 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+Java Flight Recorder event for compiling a template from its source (see
+{@link Template#compile}).
+**/
+@Name("com.livinglogic.ul4.TemplateCompile")
+@Label("UL4 Template Compile")
+@Description("Compiling a UL4 template from its source")
+@Category({"LivingLogic", "UL4"})
+final class TemplateCompileEvent extends Event
+{
+	@Label("Template")
+	String templateName;
+
+	@Label("Source Length")
+	@Description("The number of characters in the source of the template")
+	int sourceLength;
+}
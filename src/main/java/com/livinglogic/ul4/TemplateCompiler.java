@@ -0,0 +1,1302 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import com.livinglogic.utils.ClassFileWriter;
+
+/**
+Compiles the content of a {@link Template} into JVM bytecode.
+
+<p>The result is a hidden class derived from {@link CompiledTemplate} whose
+{@code run} method executes the template code directly: Blocks become
+jumps, operators become direct calls to the static {@code call} methods of the
+AST classes (e.g. {@link AddAST#call(EvaluationContext, Object, Object)}).
+Every node that has no bytecode implementation (e.g. comprehensions or
+{@code <?def?>} tags) is evaluated via {@link AST#decoratedEvaluate}.</p>
+
+<p>Exceptions get the same location information they'd get from the
+interpreter: Each compiled node is covered by an exception handler that
+decorates the exception with the location of this node (and of all
+surrounding calls).</p>
+
+<p>If the template uses no interpreted nodes at all, nothing else can observe
+the local variables of the template, so variables that the template assigns
+to are kept in JVM local variables. Otherwise the variables are stored in the
+variables map of the {@link EvaluationContext} as usual.</p>
+**/
+final class TemplateCompiler
+{
+	private static final String OBJECT = "java/lang/Object";
+	private static final String STRING = "java/lang/String";
+	private static final String LIST = "java/util/List";
+	private static final String MAP = "java/util/Map";
+	private static final String ITERATOR = "java/util/Iterator";
+	private static final String AST_ = "com/livinglogic/ul4/AST";
+	private static final String CONTEXT = "com/livinglogic/ul4/EvaluationContext";
+	private static final String COMPILEDTEMPLATE = "com/livinglogic/ul4/CompiledTemplate";
+	private static final String GENERATEDTEMPLATE = "com/livinglogic/ul4/GeneratedTemplate";
+
+	private static final String D_OBJECT = "L" + OBJECT + ";";
+	private static final String D_STRING = "L" + STRING + ";";
+	private static final String D_LIST = "L" + LIST + ";";
+	private static final String D_MAP = "L" + MAP + ";";
+	private static final String D_CONTEXT = "L" + CONTEXT + ";";
+	private static final String D_EXCEPTION = "Ljava/lang/Exception;";
+	private static final String D_CONSTRUCTOR = "(Lcom/livinglogic/ul4/Template;[" + "L" + AST_ + ";[" + D_OBJECT + ")V";
+
+	private static final int CONTEXT_LOCAL = 1;
+	private static final int NODES_LOCAL = 2;
+	private static final int CONSTANTS_LOCAL = 3;
+
+	/**
+	Texts longer than this will be loaded from the constants array instead of
+	from the constant pool (which limits the size of strings).
+	**/
+	private static final int MAX_TEXT_CONSTANT = 8192;
+
+	/**
+	Describes how a binary (or unary) operator is compiled.
+	**/
+	private static class Operator
+	{
+		String owner;
+		String descriptor;
+		boolean needsContext;
+		boolean returnsBoolean;
+		/**
+		Is the operation compiled into a call to the node's
+		{@code callSpecialized} method (so that the node can specialize itself
+		for the operand types)?
+		**/
+		boolean specialized;
+
+		Operator(Class cls, boolean needsContext, boolean returnsBoolean, int arity)
+		{
+			this.owner = internalName(cls);
+			this.needsContext = needsContext;
+			this.returnsBoolean = returnsBoolean;
+			StringBuilder buffer = new StringBuilder("(");
+			if (needsContext)
+				buffer.append(D_CONTEXT);
+			for (int i = 0; i < arity; ++i)
+				buffer.append(D_OBJECT);
+			buffer.append(")");
+			buffer.append(returnsBoolean ? "Z" : D_OBJECT);
+			this.descriptor = buffer.toString();
+		}
+	}
+
+	private static Map<Class, Operator> binaryOperators = new HashMap<Class, Operator>();
+	private static Map<Class, Operator> unaryOperators = new HashMap<Class, Operator>();
+
+	/**
+	Maps augmented assignment classes to the name of the operation (as used
+	by {@link AttrAST} and {@link ItemAST}) and the operator class.
+	**/
+	private static Map<Class, String> changeOperations = new HashMap<Class, String>();
+	static Map<Class, Class> changeOperators = new HashMap<Class, Class>();
+
+	static
+	{
+		for (Class cls : new Class[]{AddAST.class, SubAST.class, MulAST.class, FloorDivAST.class, TrueDivAST.class, ShiftLeftAST.class, ShiftRightAST.class, BitAndAST.class, BitOrAST.class, BitXOrAST.class, ItemAST.class})
+			binaryOperators.put(cls, new Operator(cls, true, false, 2));
+		for (Class cls : new Class[]{EQAST.class, NEAST.class, LTAST.class, LEAST.class, GTAST.class, GEAST.class, ContainsAST.class, NotContainsAST.class})
+			binaryOperators.put(cls, new Operator(cls, true, true, 2));
+		binaryOperators.put(IsAST.class, new Operator(IsAST.class, false, true, 2));
+		binaryOperators.put(IsNotAST.class, new Operator(IsNotAST.class, false, true, 2));
+		binaryOperators.put(ModAST.class, new Operator(ModAST.class, false, false, 2));
+		for (Class cls : new Class[]{AddAST.class, SubAST.class, MulAST.class, EQAST.class, NEAST.class, LTAST.class, LEAST.class, GTAST.class, GEAST.class})
+			binaryOperators.get(cls).specialized = true;
+
+		unaryOperators.put(NotAST.class, new Operator(NotAST.class, true, true, 1));
+		unaryOperators.put(NegAST.class, new Operator(NegAST.class, true, false, 1));
+		unaryOperators.put(BitNotAST.class, new Operator(BitNotAST.class, true, false, 1));
+
+		addChangeOperation(AddVarAST.class, "Add", AddAST.class);
+		addChangeOperation(SubVarAST.class, "Sub", SubAST.class);
+		addChangeOperation(MulVarAST.class, "Mul", MulAST.class);
+		addChangeOperation(FloorDivVarAST.class, "FloorDiv", FloorDivAST.class);
+		addChangeOperation(TrueDivVarAST.class, "TrueDiv", TrueDivAST.class);
+		addChangeOperation(ModVarAST.class, "Mod", ModAST.class);
+		addChangeOperation(ShiftLeftVarAST.class, "ShiftLeft", ShiftLeftAST.class);
+		addChangeOperation(ShiftRightVarAST.class, "ShiftRight", ShiftRightAST.class);
+		addChangeOperation(BitAndVarAST.class, "BitAnd", BitAndAST.class);
+		addChangeOperation(BitXOrVarAST.class, "BitXOr", BitXOrAST.class);
+		addChangeOperation(BitOrVarAST.class, "BitOr", BitOrAST.class);
+	}
+
+	private static void addChangeOperation(Class cls, String operation, Class operator)
+	{
+		changeOperations.put(cls, operation);
+		changeOperators.put(cls, operator);
+	}
+
+	private static String internalName(Class cls)
+	{
+		return cls.getName().replace('.', '/');
+	}
+
+	/**
+	Thrown when an interpreted node is encountered while compiling with JVM
+	local variables (which the interpreted node couldn't see).
+	**/
+	private static class InterpretedNodeException extends RuntimeException
+	{
+		InterpretedNodeException()
+		{
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	A call or render node that encloses the code currently being generated
+	together with the local variable that holds the object being called.
+	**/
+	private static class EnclosingCall
+	{
+		CallRenderAST node;
+		int objectLocal;
+
+		EnclosingCall(CallRenderAST node, int objectLocal)
+		{
+			this.node = node;
+			this.objectLocal = objectLocal;
+		}
+	}
+
+	/**
+	An exception handler that has to be generated at the end of the method.
+	**/
+	private static class Handler
+	{
+		ClassFileWriter.Label label;
+		AST node;
+		int objectLocal;
+		List<EnclosingCall> calls;
+
+		Handler(ClassFileWriter.Label label, AST node, int objectLocal, List<EnclosingCall> calls)
+		{
+			this.label = label;
+			this.node = node;
+			this.objectLocal = objectLocal;
+			this.calls = calls;
+		}
+	}
+
+	private static class Loop
+	{
+		ClassFileWriter.Label continueLabel;
+		ClassFileWriter.Label breakLabel;
+
+		Loop(ClassFileWriter.Label continueLabel, ClassFileWriter.Label breakLabel)
+		{
+			this.continueLabel = continueLabel;
+			this.breakLabel = breakLabel;
+		}
+	}
+
+	private Template template;
+	private boolean useLocals;
+	private ClassFileWriter.Code code;
+	private List<AST> nodes = new ArrayList<AST>();
+	private Map<AST, Integer> nodeIndexes = new IdentityHashMap<AST, Integer>();
+	private List<Object> constants = new ArrayList<Object>();
+	private Map<String, Integer> variableLocals = new LinkedHashMap<String, Integer>();
+	private LinkedList<Loop> loops = new LinkedList<Loop>();
+	private LinkedList<EnclosingCall> calls = new LinkedList<EnclosingCall>();
+	private List<Handler> handlers = new ArrayList<Handler>();
+
+	private TemplateCompiler(Template template, boolean useLocals)
+	{
+		this.template = template;
+		this.useLocals = useLocals;
+	}
+
+	/**
+	Compile the content of {@code template} into bytecode.
+
+	@return The compiled template.
+	@throws IllegalStateException if the template is too large to be
+	        compiled into a single JVM method.
+	**/
+	static CompiledTemplate compile(Template template)
+	{
+		try
+		{
+			return new TemplateCompiler(template, true).generate();
+		}
+		catch (InterpretedNodeException ex)
+		{
+			return new TemplateCompiler(template, false).generate();
+		}
+	}
+
+	/**
+	Collect all templates nested inside the content of {@code block} (i.e.
+	those defined via {@code <?def?>} and the content of
+	{@code <?renderblock?>} tags).
+	**/
+	static void collectNestedTemplates(List<AST> content, List<Template> templates)
+	{
+		for (AST item : content)
+		{
+			if (item instanceof Template)
+				templates.add((Template)item);
+			else if (item instanceof RenderBlockAST)
+				templates.add(((RenderBlockAST)item).content);
+			else if (item instanceof RenderBlocksAST)
+				collectNestedTemplates(((RenderBlocksAST)item).content, templates);
+			else if (item instanceof BlockAST)
+				collectNestedTemplates(((BlockAST)item).getContent(), templates);
+		}
+	}
+
+	private CompiledTemplate generate()
+	{
+		ClassFileWriter writer = new ClassFileWriter(ClassFileWriter.ACC_FINAL|ClassFileWriter.ACC_SUPER, GENERATEDTEMPLATE, COMPILEDTEMPLATE);
+
+		ClassFileWriter.Code init = writer.addMethod(0, "<init>", D_CONSTRUCTOR);
+		init.aload(0);
+		init.aload(1);
+		init.aload(2);
+		init.aload(3);
+		init.invokespecial(COMPILEDTEMPLATE, "<init>", D_CONSTRUCTOR);
+		init.return_();
+
+		code = writer.addMethod(0, "run", "(" + D_CONTEXT + ")" + D_OBJECT);
+		code.newLocal(); // NODES_LOCAL
+		code.newLocal(); // CONSTANTS_LOCAL
+		code.aload(0);
+		code.getfield(COMPILEDTEMPLATE, "nodes", "[L" + AST_ + ";");
+		code.astore(NODES_LOCAL);
+		code.aload(0);
+		code.getfield(COMPILEDTEMPLATE, "constants", "[" + D_OBJECT);
+		code.astore(CONSTANTS_LOCAL);
+
+		if (useLocals)
+		{
+			collectVariables(template.getContent());
+			// Variables start with the value they have in the context
+			// (i.e. a parameter, a global, a builtin or undefined)
+			for (Map.Entry<String, Integer> entry : variableLocals.entrySet())
+			{
+				code.aload(CONTEXT_LOCAL);
+				code.ldc(entry.getKey());
+				code.invokevirtual(CONTEXT, "get", "(" + D_STRING + ")" + D_OBJECT);
+				code.astore(entry.getValue());
+			}
+		}
+
+		compileStatements(template.getContent());
+
+		if (code.isReachable())
+		{
+			code.aconstNull();
+			code.areturn();
+		}
+
+		for (Handler handler : handlers)
+		{
+			code.mark(handler.label);
+			if (handler.objectLocal >= 0)
+				decorateCall(handler.node, handler.objectLocal);
+			else
+			{
+				loadNode(handler.node);
+				code.invokestatic(COMPILEDTEMPLATE, "decorate", "(" + D_EXCEPTION + "L" + AST_ + ";)" + D_EXCEPTION);
+			}
+			for (EnclosingCall call : handler.calls)
+				decorateCall(call.node, call.objectLocal);
+			code.athrow();
+		}
+
+		byte[] bytes = writer.toByteArray();
+
+		try
+		{
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+			return (CompiledTemplate)lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, Template.class, AST[].class, Object[].class)).invoke(template, nodes.toArray(new AST[nodes.size()]), constants.toArray());
+		}
+		catch (RuntimeException|Error ex)
+		{
+			throw ex;
+		}
+		catch (Throwable ex)
+		{
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private void decorateCall(AST node, int objectLocal)
+	{
+		loadNode(node);
+		code.checkcast(internalName(CallRenderAST.class));
+		code.aload(objectLocal);
+		code.invokestatic(COMPILEDTEMPLATE, "decorateCall", "(" + D_EXCEPTION + "Lcom/livinglogic/ul4/CallRenderAST;" + D_OBJECT + ")" + D_EXCEPTION);
+	}
+
+	private void collectVariables(List<AST> content)
+	{
+		for (AST item : content)
+		{
+			if (item instanceof SetVarAST)
+				collectVariables(((SetVarAST)item).lvalue);
+			else if (item instanceof ChangeVarAST)
+				collectVariables(((ChangeVarAST)item).lvalue);
+			else if (item instanceof ForBlockAST)
+				collectVariables(((ForBlockAST)item).varname);
+			if (item instanceof BlockAST && !(item instanceof Template))
+				collectVariables(((BlockAST)item).getContent());
+		}
+	}
+
+	private void collectVariables(Object lvalue)
+	{
+		if (lvalue instanceof VarAST)
+		{
+			String name = ((VarAST)lvalue).getName();
+			if (!variableLocals.containsKey(name))
+				variableLocals.put(name, code.newLocal());
+		}
+		else if (lvalue instanceof List)
+		{
+			for (Object item : (List)lvalue)
+				collectVariables(item);
+		}
+	}
+
+	private int nodeIndex(AST node)
+	{
+		Integer index = nodeIndexes.get(node);
+		if (index == null)
+		{
+			index = nodes.size();
+			nodes.add(node);
+			nodeIndexes.put(node, index);
+		}
+		return index;
+	}
+
+	private void loadNode(AST node)
+	{
+		code.aload(NODES_LOCAL);
+		code.iconst(nodeIndex(node));
+		code.aaload();
+	}
+
+	private void loadVarNode(VarAST node)
+	{
+		loadNode(node);
+		code.checkcast(internalName(VarAST.class));
+		code.aload(CONTEXT_LOCAL);
+	}
+
+	private void loadConstant(Object value)
+	{
+		if (value == null)
+			code.aconstNull();
+		else if (value instanceof String && ((String)value).length() <= MAX_TEXT_CONSTANT)
+			code.ldc((String)value);
+		else
+		{
+			code.aload(CONSTANTS_LOCAL);
+			code.iconst(constants.size());
+			code.aaload();
+			constants.add(value);
+		}
+	}
+
+	private ClassFileWriter.Label start()
+	{
+		ClassFileWriter.Label label = code.newLabel();
+		code.mark(label);
+		return label;
+	}
+
+	/**
+	Register an exception handler that decorates exceptions in the code from
+	{@code start} to the current position with the location of {@code node}.
+	**/
+	private void end(ClassFileWriter.Label start, AST node)
+	{
+		end(start, node, -1);
+	}
+
+	private void end(ClassFileWriter.Label start, AST node, int objectLocal)
+	{
+		if (code.getPosition() > start.getPosition())
+		{
+			ClassFileWriter.Label end = code.newLabel();
+			code.mark(end);
+			ClassFileWriter.Label handler = code.newLabel();
+			code.tryCatch(start, end, handler, "java/lang/Exception");
+			handlers.add(new Handler(handler, node, objectLocal, new ArrayList<EnclosingCall>(calls)));
+		}
+	}
+
+	private void interpreted()
+	{
+		if (useLocals)
+			throw new InterpretedNodeException();
+	}
+
+	private void tick()
+	{
+		code.aload(CONTEXT_LOCAL);
+		code.invokevirtual(CONTEXT, "tick", "()V");
+	}
+
+	private void compileStatements(List<AST> content)
+	{
+		for (int i = 0; i < content.size();)
+		{
+			// Don't generate unreachable code (e.g. after a {@code <?break?>})
+			if (!code.isReachable())
+				break;
+			AST item = content.get(i);
+			if (isStaticText(item) || item.getClass() == IndentAST.class)
+				i = compileText(content, i);
+			else
+			{
+				compileStatement(item);
+				++i;
+			}
+		}
+	}
+
+	/**
+	Is {@code node} literal text that doesn't depend on the indentation?
+	**/
+	private static boolean isStaticText(AST node)
+	{
+		return node.getClass() == TextAST.class || node.getClass() == LineEndAST.class;
+	}
+
+	/**
+	Compile the text node at index {@code index} in {@code content} together
+	with the literal text nodes following it and return the index of the
+	first node after them. The text is output by a single {@code write} call
+	(or a single {@code writeIndent} call if the first node is an
+	{@link IndentAST}).
+	**/
+	private int compileText(List<AST> content, int index)
+	{
+		AST first = content.get(index++);
+		String text = ((TextAST)first).getText();
+		if (index < content.size() && isStaticText(content.get(index)))
+		{
+			StringBuilder buffer = new StringBuilder(text);
+			for (; index < content.size() && isStaticText(content.get(index)); ++index)
+				buffer.append(((TextAST)content.get(index)).getText());
+			text = buffer.toString();
+		}
+
+		ClassFileWriter.Label start = start();
+		code.aload(CONTEXT_LOCAL);
+		loadConstant(text);
+		code.invokevirtual(CONTEXT, first.getClass() == IndentAST.class ? "writeIndent" : "write", "(" + D_STRING + ")V");
+		end(start, first);
+		return index;
+	}
+
+	private void compileStatement(AST node)
+	{
+		if (node.getClass() == PrintAST.class)
+		{
+			ClassFileWriter.Label start = start();
+			code.aload(CONTEXT_LOCAL);
+			code.aload(CONTEXT_LOCAL);
+			compileExpression(((PrintAST)node).getObj());
+			code.invokestatic(internalName(Str.class), "call", "(" + D_CONTEXT + D_OBJECT + ")" + D_STRING);
+			code.invokevirtual(CONTEXT, "write", "(" + D_STRING + ")V");
+			end(start, node);
+		}
+		else if (node.getClass() == PrintXAST.class)
+		{
+			ClassFileWriter.Label start = start();
+			code.aload(CONTEXT_LOCAL);
+			code.aload(CONTEXT_LOCAL);
+			compileExpression(((PrintXAST)node).getObj());
+			code.invokestatic(internalName(FunctionXMLEscape.class), "call", "(" + D_CONTEXT + D_OBJECT + ")" + D_STRING);
+			code.invokevirtual(CONTEXT, "write", "(" + D_STRING + ")V");
+			end(start, node);
+		}
+		else if (node.getClass() == ConditionalBlocksAST.class)
+			compileConditionalBlocks((ConditionalBlocksAST)node);
+		else if (node.getClass() == ForBlockAST.class)
+			compileFor((ForBlockAST)node);
+		else if (node.getClass() == WhileBlockAST.class)
+			compileWhile((WhileBlockAST)node);
+		else if (node.getClass() == BreakAST.class && !loops.isEmpty())
+			code.goto_(loops.getFirst().breakLabel);
+		else if (node.getClass() == ContinueAST.class && !loops.isEmpty())
+			code.goto_(loops.getFirst().continueLabel);
+		else if (node.getClass() == ReturnAST.class)
+		{
+			ClassFileWriter.Label start = start();
+			compileExpression(((ReturnAST)node).getObj());
+			end(start, node);
+			code.areturn();
+		}
+		else if (node.getClass() == SetVarAST.class)
+		{
+			SetVarAST setVar = (SetVarAST)node;
+			ClassFileWriter.Label start = start();
+			compileExpression(setVar.value);
+			compileAssignment(setVar.lvalue);
+			end(start, node);
+		}
+		else if (changeOperations.containsKey(node.getClass()))
+			compileChangeVar((ChangeVarAST)node);
+		else if (isCompilableRender(node))
+			compileCallRender((CallRenderAST)node, true);
+		else if (node.getClass() == CallAST.class && !((CallAST)node).isStreamable() && ((CallAST)node).cacheSlot < 0)
+		{
+			compileCallRender((CallRenderAST)node, false);
+			code.pop();
+		}
+		else
+		{
+			// Use the interpreter
+			interpreted();
+			loadNode(node);
+			code.aload(CONTEXT_LOCAL);
+			code.invokevirtual(AST_, "decoratedEvaluate", "(" + D_CONTEXT + ")" + D_OBJECT);
+			code.pop();
+		}
+	}
+
+	private boolean isCompilableRender(AST node)
+	{
+		Class cls = node.getClass();
+		// All other subclasses of {@code RenderAST} overwrite {@code evaluateDecorated}
+		return cls == RenderAST.class || cls == RenderOrPrintAST.class || cls == RenderOrPrintXAST.class || cls == RenderXOrPrintAST.class || cls == RenderXOrPrintXAST.class;
+	}
+
+	private void compileCondition(AST condition)
+	{
+		code.aload(CONTEXT_LOCAL);
+		compileExpression(condition);
+		code.invokestatic(internalName(Bool.class), "call", "(" + D_CONTEXT + D_OBJECT + ")Z");
+	}
+
+	private void compileConditionalBlocks(ConditionalBlocksAST node)
+	{
+		ClassFileWriter.Label start = start();
+		ClassFileWriter.Label endLabel = code.newLabel();
+		for (AST item : node.getContent())
+		{
+			if (item instanceof ConditionalBlockWithCondition)
+			{
+				ClassFileWriter.Label next = code.newLabel();
+				compileCondition(((ConditionalBlockWithCondition)item).condition);
+				code.ifeq(next);
+				compileStatements(((BlockAST)item).getContent());
+				if (code.isReachable())
+					code.goto_(endLabel);
+				code.mark(next);
+			}
+			else
+			{
+				// {@code <?else?>} is always the last block
+				compileStatements(((BlockAST)item).getContent());
+				break;
+			}
+		}
+		code.mark(endLabel);
+		end(start, node);
+	}
+
+	private void compileFor(ForBlockAST node)
+	{
+		ClassFileWriter.Label start = start();
+		compileExpression(node.container);
+		code.invokestatic(internalName(Utils.class), "iterator", "(" + D_OBJECT + ")L" + ITERATOR + ";");
+		int iteratorLocal = code.newLocal();
+		code.astore(iteratorLocal);
+		compileClearCache(node);
+
+		ClassFileWriter.Label continueLabel = start();
+		ClassFileWriter.Label breakLabel = code.newLabel();
+		tick();
+		code.aload(iteratorLocal);
+		code.invokeinterface(ITERATOR, "hasNext", "()Z");
+		code.ifeq(breakLabel);
+		code.aload(iteratorLocal);
+		code.invokeinterface(ITERATOR, "next", "()" + D_OBJECT);
+		compileAssignment(node.varname);
+
+		loops.push(new Loop(continueLabel, breakLabel));
+		compileStatements(node.getContent());
+		loops.pop();
+		if (code.isReachable())
+			code.goto_(continueLabel);
+		code.mark(breakLabel);
+		end(start, node);
+	}
+
+	private void compileWhile(WhileBlockAST node)
+	{
+		ClassFileWriter.Label start = start();
+		compileClearCache(node);
+		ClassFileWriter.Label continueLabel = start();
+		ClassFileWriter.Label breakLabel = code.newLabel();
+		tick();
+		compileCondition(node.condition);
+		code.ifeq(breakLabel);
+
+		loops.push(new Loop(continueLabel, breakLabel));
+		compileStatements(node.getContent());
+		loops.pop();
+		if (code.isReachable())
+			code.goto_(continueLabel);
+		code.mark(breakLabel);
+		end(start, node);
+	}
+
+	/**
+	Forget the expression values that the loop {@code node} caches (see
+	{@link ExpressionCache}).
+	**/
+	private void compileClearCache(BlockAST node)
+	{
+		if (node.cacheSlots != null)
+		{
+			loadNode(node);
+			code.checkcast(internalName(BlockAST.class));
+			code.aload(CONTEXT_LOCAL);
+			code.invokevirtual(internalName(BlockAST.class), "clearCache", "(" + D_CONTEXT + ")V");
+		}
+	}
+
+	/**
+	Assign the value on top of the stack to {@code lvalue} (which is an
+	{@link LValue} or a nested list of them).
+	**/
+	private void compileAssignment(Object lvalue)
+	{
+		int valueLocal = code.newLocal();
+		code.astore(valueLocal);
+		List<Object> lvalues = new ArrayList<Object>();
+		List<Integer> valueLocals = new ArrayList<Integer>();
+		// First unpack everything, then assign (like {@link Utils#unpackVariable} does it)
+		unpack(lvalue, valueLocal, lvalues, valueLocals);
+		for (int i = 0; i < lvalues.size(); ++i)
+			compileSet((LValue)lvalues.get(i), valueLocals.get(i));
+	}
+
+	private void unpack(Object lvalue, int valueLocal, List<Object> lvalues, List<Integer> valueLocals)
+	{
+		if (lvalue instanceof List)
+		{
+			List list = (List)lvalue;
+			code.aload(valueLocal);
+			code.iconst(list.size());
+			code.invokestatic(COMPILEDTEMPLATE, "unpack", "(" + D_OBJECT + "I)[" + D_OBJECT);
+			int arrayLocal = code.newLocal();
+			code.astore(arrayLocal);
+			for (int i = 0; i < list.size(); ++i)
+			{
+				int itemLocal = code.newLocal();
+				code.aload(arrayLocal);
+				code.iconst(i);
+				code.aaload();
+				code.astore(itemLocal);
+				unpack(list.get(i), itemLocal, lvalues, valueLocals);
+			}
+		}
+		else
+		{
+			lvalues.add(lvalue);
+			valueLocals.add(valueLocal);
+		}
+	}
+
+	private void compileSet(LValue lvalue, int valueLocal)
+	{
+		if (lvalue.getClass() == VarAST.class)
+		{
+			VarAST var = (VarAST)lvalue;
+			if (useLocals)
+			{
+				code.aload(valueLocal);
+				code.astore(variableLocals.get(var.getName()));
+			}
+			else
+			{
+				loadVarNode(var);
+				code.aload(valueLocal);
+				code.invokevirtual(internalName(VarAST.class), "evaluateSet", "(" + D_CONTEXT + D_OBJECT + ")V");
+			}
+		}
+		else if (lvalue.getClass() == AttrAST.class)
+		{
+			AttrAST attr = (AttrAST)lvalue;
+			code.aload(CONTEXT_LOCAL);
+			compileExpression(attr.obj);
+			code.ldc(attr.attrName);
+			code.aload(valueLocal);
+			code.invokestatic(internalName(AttrAST.class), "callSet", "(" + D_CONTEXT + D_OBJECT + D_STRING + D_OBJECT + ")V");
+		}
+		else if (lvalue.getClass() == ItemAST.class)
+		{
+			ItemAST item = (ItemAST)lvalue;
+			code.aload(CONTEXT_LOCAL);
+			compileExpression(item.obj1);
+			compileExpression(item.obj2);
+			code.aload(valueLocal);
+			code.invokestatic(internalName(ItemAST.class), "callSet", "(" + D_CONTEXT + D_OBJECT + D_OBJECT + D_OBJECT + ")V");
+		}
+		else
+		{
+			interpreted();
+			loadNode((AST)lvalue);
+			code.checkcast(internalName(LValue.class));
+			code.aload(CONTEXT_LOCAL);
+			code.aload(valueLocal);
+			code.invokeinterface(internalName(LValue.class), "evaluateSet", "(" + D_CONTEXT + D_OBJECT + ")V");
+		}
+	}
+
+	private void compileChangeVar(ChangeVarAST node)
+	{
+		String operation = changeOperations.get(node.getClass());
+		ClassFileWriter.Label start = start();
+		compileExpression(node.value);
+		int valueLocal = code.newLocal();
+		code.astore(valueLocal);
+
+		LValue lvalue = node.lvalue;
+		if (lvalue.getClass() == VarAST.class)
+		{
+			VarAST var = (VarAST)lvalue;
+			Operator operator = binaryOperators.get(changeOperators.get(node.getClass()));
+			if (!useLocals)
+				loadVarNode(var);
+			if (operator.needsContext)
+				code.aload(CONTEXT_LOCAL);
+			compileExpression(var);
+			code.aload(valueLocal);
+			code.invokestatic(operator.owner, "call", operator.descriptor);
+			if (useLocals)
+				code.astore(variableLocals.get(var.getName()));
+			else
+				code.invokevirtual(internalName(VarAST.class), "evaluateSet", "(" + D_CONTEXT + D_OBJECT + ")V");
+		}
+		else if (lvalue.getClass() == AttrAST.class)
+		{
+			AttrAST attr = (AttrAST)lvalue;
+			code.aload(CONTEXT_LOCAL);
+			compileExpression(attr.obj);
+			code.ldc(attr.attrName);
+			code.aload(valueLocal);
+			code.invokestatic(internalName(AttrAST.class), "call" + operation, "(" + D_CONTEXT + D_OBJECT + D_STRING + D_OBJECT + ")V");
+		}
+		else if (lvalue.getClass() == ItemAST.class)
+		{
+			ItemAST item = (ItemAST)lvalue;
+			code.aload(CONTEXT_LOCAL);
+			compileExpression(item.obj1);
+			compileExpression(item.obj2);
+			code.aload(valueLocal);
+			code.invokestatic(internalName(ItemAST.class), "call" + operation, "(" + D_CONTEXT + D_OBJECT + D_OBJECT + D_OBJECT + ")V");
+		}
+		else
+		{
+			interpreted();
+			loadNode((AST)lvalue);
+			code.checkcast(internalName(LValue.class));
+			code.aload(CONTEXT_LOCAL);
+			code.aload(valueLocal);
+			code.invokeinterface(internalName(LValue.class), "evaluate" + operation, "(" + D_CONTEXT + D_OBJECT + ")V");
+		}
+		end(start, node);
+	}
+
+	/**
+	Generate code for a call or render node. For a call the result of the
+	call will be left on the stack.
+	**/
+	private void compileCallRender(CallRenderAST node, boolean render)
+	{
+		int objectLocal = code.newLocal();
+		code.aconstNull();
+		code.astore(objectLocal);
+
+		ClassFileWriter.Label start = start();
+		tick();
+
+		calls.push(new EnclosingCall(node, objectLocal));
+		AttrAST attr = node.obj instanceof AttrAST ? (AttrAST)node.obj : null;
+		compileExpression(attr != null ? attr.obj : node.obj);
+		code.astore(objectLocal);
+
+		ClassFileWriter.Label callEndLabel = null;
+		if (attr == null && (!render || node.getClass() == RenderAST.class) && node.hasSimpleArguments())
+			callEndLabel = compileInlineCall(node, render, objectLocal);
+
+		int argsLocal = code.newLocal();
+		code.newObject("java/util/ArrayList");
+		code.dup();
+		code.iconst(node.arguments.size());
+		code.invokespecial("java/util/ArrayList", "<init>", "(I)V");
+		code.astore(argsLocal);
+
+		int kwargsLocal = code.newLocal();
+		// A call without keyword arguments doesn't need a map for them (but a
+		// render might, as {@code RenderBlockAST} adds its content to them).
+		// {@code CallAST} replaces the shared empty map with a new one for
+		// callables that might modify it.
+		if (render || node.hasKeywordArguments())
+		{
+			code.newObject("java/util/LinkedHashMap");
+			code.dup();
+			code.invokespecial("java/util/LinkedHashMap", "<init>", "()V");
+		}
+		else
+			code.invokestatic("java/util/Collections", "emptyMap", "()" + D_MAP);
+		code.astore(kwargsLocal);
+
+		for (ArgumentASTBase argument : node.arguments)
+			compileArgument(argument, argsLocal, kwargsLocal);
+		calls.pop();
+
+		String argsDescriptor = D_LIST + D_MAP;
+		if (!render)
+		{
+			if (attr != null)
+			{
+				// Go through the node, so that its type cache is used
+				loadNode(node);
+				code.checkcast(internalName(CallAST.class));
+				code.aload(CONTEXT_LOCAL);
+				code.aload(objectLocal);
+				code.aload(argsLocal);
+				code.aload(kwargsLocal);
+				code.invokevirtual(internalName(CallAST.class), "evaluateCallAttr", "(" + D_CONTEXT + D_OBJECT + argsDescriptor + ")" + D_OBJECT);
+			}
+			else
+			{
+				code.aload(CONTEXT_LOCAL);
+				code.aload(objectLocal);
+				code.aload(argsLocal);
+				code.aload(kwargsLocal);
+				code.invokestatic(internalName(CallAST.class), "call", "(" + D_CONTEXT + D_OBJECT + argsDescriptor + ")" + D_OBJECT);
+			}
+		}
+		else
+		{
+			String renderAST = internalName(RenderAST.class);
+			ClassFileWriter.Label endLabel = code.newLabel();
+			if (attr != null)
+			{
+				ClassFileWriter.Label noGetAttr = code.newLabel();
+				String getAttr = internalName(UL4GetAttr.class);
+				code.aload(objectLocal);
+				code.instanceOf(getAttr);
+				code.ifeq(noGetAttr);
+				code.aload(objectLocal);
+				code.checkcast(getAttr);
+				code.aload(CONTEXT_LOCAL);
+				code.ldc(attr.attrName);
+				code.aload(argsLocal);
+				code.aload(kwargsLocal);
+				code.invokeinterface(getAttr, "renderAttrUL4", "(" + D_CONTEXT + D_STRING + argsDescriptor + ")V");
+				code.goto_(endLabel);
+				code.mark(noGetAttr);
+				// This is an attribute access, but the resulting object doesn't
+				// implement {@link UL4GetAttr}, so we have to get the attribute
+				// via {@link AttrAST}.
+				loadNode(attr);
+				code.checkcast(internalName(AttrAST.class));
+				code.aload(CONTEXT_LOCAL);
+				code.aload(objectLocal);
+				code.invokevirtual(internalName(AttrAST.class), "evaluateAttr", "(" + D_CONTEXT + D_OBJECT + ")" + D_OBJECT);
+				code.astore(objectLocal);
+			}
+			loadNode(node);
+			code.checkcast(renderAST);
+			code.aload(CONTEXT_LOCAL);
+			code.aload(objectLocal);
+			code.aload(argsLocal);
+			code.aload(kwargsLocal);
+			code.invokevirtual(renderAST, "call", "(" + D_CONTEXT + D_OBJECT + argsDescriptor + ")V");
+			code.mark(endLabel);
+		}
+		if (callEndLabel != null)
+			code.mark(callEndLabel);
+		end(start, node, objectLocal);
+	}
+
+	/**
+	Compile the code that calls the object in {@code objectLocal} via an
+	{@link InlineCall} if it is a {@link TemplateClosure} that can be called
+	that way. The code jumps to the returned label after the call (and falls
+	through to the normal call otherwise).
+	**/
+	private ClassFileWriter.Label compileInlineCall(CallRenderAST node, boolean render, int objectLocal)
+	{
+		String callRenderAST = internalName(CallRenderAST.class);
+		String inlineCall = internalName(InlineCall.class);
+		String closure = internalName(TemplateClosure.class);
+		ClassFileWriter.Label normalLabel = code.newLabel();
+		ClassFileWriter.Label endLabel = code.newLabel();
+		int inlineCallLocal = code.newLocal();
+
+		code.aload(objectLocal);
+		code.instanceOf(closure);
+		code.ifeq(normalLabel);
+		loadNode(node);
+		code.checkcast(callRenderAST);
+		code.aload(objectLocal);
+		code.checkcast(closure);
+		code.invokevirtual(callRenderAST, "getInlineCall", "(L" + closure + ";)L" + inlineCall + ";");
+		code.dup();
+		code.astore(inlineCallLocal);
+		code.ifnull(normalLabel);
+
+		if (render)
+		{
+			loadNode(node);
+			code.checkcast(internalName(RenderAST.class));
+			code.aload(CONTEXT_LOCAL);
+			code.aload(inlineCallLocal);
+		}
+		else
+		{
+			code.aload(inlineCallLocal);
+			code.aload(CONTEXT_LOCAL);
+		}
+		code.aload(objectLocal);
+		code.checkcast(closure);
+		code.iconst(node.arguments.size());
+		code.anewarray(OBJECT);
+		int index = 0;
+		for (ArgumentASTBase argument : node.arguments)
+		{
+			code.dup();
+			code.iconst(index++);
+			compileExpression(argument instanceof PositionalArgumentAST ? ((PositionalArgumentAST)argument).value : ((KeywordArgumentAST)argument).value);
+			code.aastore();
+		}
+		if (render)
+			code.invokevirtual(internalName(RenderAST.class), "render", "(" + D_CONTEXT + "L" + inlineCall + ";L" + closure + ";[" + D_OBJECT + ")V");
+		else
+			code.invokevirtual(inlineCall, "call", "(" + D_CONTEXT + "L" + closure + ";[" + D_OBJECT + ")" + D_OBJECT);
+		code.goto_(endLabel);
+		code.mark(normalLabel);
+		return endLabel;
+	}
+
+	private void compileArgument(ArgumentASTBase argument, int argsLocal, int kwargsLocal)
+	{
+		if (argument.getClass() == PositionalArgumentAST.class)
+		{
+			code.aload(argsLocal);
+			compileExpression(((PositionalArgumentAST)argument).value);
+			code.invokeinterface(LIST, "add", "(" + D_OBJECT + ")Z");
+			code.pop();
+		}
+		else if (argument.getClass() == KeywordArgumentAST.class)
+		{
+			KeywordArgumentAST keywordArgument = (KeywordArgumentAST)argument;
+			ClassFileWriter.Label start = start();
+			code.aload(kwargsLocal);
+			code.ldc(keywordArgument.name);
+			code.invokestatic(COMPILEDTEMPLATE, "checkKeywordArgument", "(" + D_MAP + D_STRING + ")V");
+			code.aload(kwargsLocal);
+			code.ldc(keywordArgument.name);
+			compileExpression(keywordArgument.value);
+			code.invokeinterface(MAP, "put", "(" + D_OBJECT + D_OBJECT + ")" + D_OBJECT);
+			code.pop();
+			end(start, argument);
+		}
+		else if (argument.getClass() == UnpackListArgumentAST.class)
+		{
+			ClassFileWriter.Label start = start();
+			code.aload(argsLocal);
+			compileExpression(((UnpackListArgumentAST)argument).value);
+			code.invokestatic(COMPILEDTEMPLATE, "addAll", "(Ljava/util/Collection;" + D_OBJECT + ")V");
+			end(start, argument);
+		}
+		else if (argument.getClass() == UnpackDictArgumentAST.class)
+		{
+			ClassFileWriter.Label start = start();
+			code.aload(kwargsLocal);
+			compileExpression(((UnpackDictArgumentAST)argument).value);
+			code.invokestatic(internalName(UnpackDictArgumentAST.class), "putKeywordArguments", "(" + D_MAP + D_OBJECT + ")V");
+			end(start, argument);
+		}
+		else
+		{
+			interpreted();
+			loadNode(argument);
+			code.checkcast(internalName(ArgumentASTBase.class));
+			code.aload(CONTEXT_LOCAL);
+			code.aload(argsLocal);
+			code.aload(kwargsLocal);
+			code.invokevirtual(internalName(ArgumentASTBase.class), "decoratedEvaluateCall", "(" + D_CONTEXT + D_LIST + D_MAP + ")V");
+		}
+	}
+
+	/**
+	Generate code that leaves the value of the expression {@code node} on the
+	stack.
+	**/
+	private void compileExpression(AST node)
+	{
+		Class cls = node.getClass();
+
+		if (cls == ConstAST.class)
+		{
+			loadConstant(((ConstAST)node).getValue());
+			return;
+		}
+		else if (cls == VarAST.class)
+		{
+			VarAST var = (VarAST)node;
+			Integer local = useLocals ? variableLocals.get(var.getName()) : null;
+			if (local != null)
+				code.aload(local);
+			else
+			{
+				// {@code VarAST.evaluate} uses the frame slot of the variable (if there is one)
+				loadVarNode(var);
+				code.invokevirtual(internalName(VarAST.class), "evaluate", "(" + D_CONTEXT + ")" + D_OBJECT);
+			}
+			return;
+		}
+		else if (cls == CallAST.class && !((CallAST)node).isStreamable() && ((CallAST)node).cacheSlot < 0)
+		{
+			compileCallRender((CallAST)node, false);
+			return;
+		}
+
+		ClassFileWriter.Label start = start();
+		if (binaryOperators.containsKey(cls) && ((BinaryAST)node).staticOperandTypes == OperandTypes.STR)
+			compileStrOperator((BinaryAST)node, binaryOperators.get(cls));
+		else if (binaryOperators.containsKey(cls))
+		{
+			Operator operator = binaryOperators.get(cls);
+			if (operator.specialized)
+			{
+				loadNode(node);
+				code.checkcast(operator.owner);
+			}
+			if (operator.needsContext)
+				code.aload(CONTEXT_LOCAL);
+			compileExpression(((BinaryAST)node).obj1);
+			compileExpression(((BinaryAST)node).obj2);
+			if (operator.specialized)
+				code.invokevirtual(operator.owner, "callSpecialized", operator.descriptor);
+			else
+				code.invokestatic(operator.owner, "call", operator.descriptor);
+			if (operator.returnsBoolean)
+				box();
+		}
+		else if (unaryOperators.containsKey(cls))
+		{
+			Operator operator = unaryOperators.get(cls);
+			if (operator.needsContext)
+				code.aload(CONTEXT_LOCAL);
+			compileExpression(((UnaryAST)node).obj);
+			code.invokestatic(operator.owner, "call", operator.descriptor);
+			if (operator.returnsBoolean)
+				box();
+		}
+		else if (cls == AndAST.class || cls == OrAST.class)
+		{
+			ClassFileWriter.Label endLabel = code.newLabel();
+			compileExpression(((BinaryAST)node).obj1);
+			code.dup();
+			int valueLocal = code.newLocal();
+			code.astore(valueLocal);
+			code.aload(CONTEXT_LOCAL);
+			code.aload(valueLocal);
+			code.invokestatic(internalName(Bool.class), "call", "(" + D_CONTEXT + D_OBJECT + ")Z");
+			if (cls == AndAST.class)
+				code.ifeq(endLabel);
+			else
+				code.ifne(endLabel);
+			code.pop();
+			compileExpression(((BinaryAST)node).obj2);
+			code.mark(endLabel);
+		}
+		else if (cls == IfAST.class)
+		{
+			IfAST ifAST = (IfAST)node;
+			ClassFileWriter.Label elseLabel = code.newLabel();
+			ClassFileWriter.Label endLabel = code.newLabel();
+			compileCondition(ifAST.getObjCond());
+			code.ifeq(elseLabel);
+			compileExpression(ifAST.getObjIf());
+			code.goto_(endLabel);
+			code.mark(elseLabel);
+			compileExpression(ifAST.getObjElse());
+			code.mark(endLabel);
+		}
+		else if (cls == AttrAST.class && ((AttrAST)node).cacheSlot < 0)
+		{
+			AttrAST attr = (AttrAST)node;
+			// Go through the node, so that its type cache is used
+			loadNode(attr);
+			code.checkcast(internalName(AttrAST.class));
+			code.aload(CONTEXT_LOCAL);
+			compileExpression(attr.obj);
+			code.invokevirtual(internalName(AttrAST.class), "evaluateAttr", "(" + D_CONTEXT + D_OBJECT + ")" + D_OBJECT);
+		}
+		else if (cls == SliceAST.class)
+		{
+			SliceAST slice = (SliceAST)node;
+			compileOptionalExpression(slice.index1);
+			compileOptionalExpression(slice.index2);
+			code.invokestatic(internalName(SliceAST.class), "call", "(" + D_OBJECT + D_OBJECT + ")" + D_OBJECT);
+		}
+		else if ((cls == ListAST.class || cls == SetAST.class) && hasOnlyClasses(((cls == ListAST.class) ? ((ListAST)node).items : ((SetAST)node).items), SeqItemAST.class, UnpackSeqItemAST.class))
+		{
+			List<SeqItemASTBase> items = cls == ListAST.class ? ((ListAST)node).items : ((SetAST)node).items;
+			String collection = cls == ListAST.class ? "java/util/ArrayList" : "java/util/HashSet";
+			code.newObject(collection);
+			code.dup();
+			code.iconst(items.size());
+			code.invokespecial(collection, "<init>", "(I)V");
+			for (SeqItemASTBase item : items)
+			{
+				ClassFileWriter.Label itemStart = start();
+				code.dup();
+				if (item.getClass() == SeqItemAST.class)
+				{
+					compileExpression(((SeqItemAST)item).value);
+					code.invokeinterface("java/util/Collection", "add", "(" + D_OBJECT + ")Z");
+					code.pop();
+				}
+				else
+				{
+					compileExpression(((UnpackSeqItemAST)item).value);
+					code.invokestatic(COMPILEDTEMPLATE, "addAll", "(Ljava/util/Collection;" + D_OBJECT + ")V");
+				}
+				end(itemStart, item);
+			}
+		}
+		else if (cls == DictAST.class && hasOnlyClasses(((DictAST)node).items, DictItemAST.class, UnpackDictItemAST.class))
+		{
+			code.newObject("java/util/LinkedHashMap");
+			code.dup();
+			code.invokespecial("java/util/LinkedHashMap", "<init>", "()V");
+			for (DictItemASTBase item : ((DictAST)node).items)
+			{
+				ClassFileWriter.Label itemStart = start();
+				code.dup();
+				if (item.getClass() == DictItemAST.class)
+				{
+					compileExpression(((DictItemAST)item).key);
+					compileExpression(((DictItemAST)item).value);
+					code.invokeinterface(MAP, "put", "(" + D_OBJECT + D_OBJECT + ")" + D_OBJECT);
+					code.pop();
+				}
+				else
+				{
+					compileExpression(((UnpackDictItemAST)item).item);
+					code.invokestatic(internalName(UnpackDictItemAST.class), "update", "(" + D_MAP + D_OBJECT + ")V");
+				}
+				end(itemStart, item);
+			}
+		}
+		else
+			compileInterpreted(node);
+		end(start, node);
+	}
+
+	private static boolean hasOnlyClasses(List<? extends AST> items, Class cls1, Class cls2)
+	{
+		for (AST item : items)
+		{
+			if (item.getClass() != cls1 && item.getClass() != cls2)
+				return false;
+		}
+		return true;
+	}
+
+	private void compileInterpreted(AST node)
+	{
+		interpreted();
+		loadNode(node);
+		code.aload(CONTEXT_LOCAL);
+		code.invokevirtual(AST_, "decoratedEvaluate", "(" + D_CONTEXT + ")" + D_OBJECT);
+	}
+
+	private void compileOptionalExpression(AST node)
+	{
+		if (node != null)
+			compileExpression(node);
+		else
+			code.aconstNull();
+	}
+
+	/**
+	Generate code for the operator {@code node} whose operands are expected to
+	be strings: If they are, the string implementation of the operator is
+	called directly, otherwise the normal implementation is used.
+	**/
+	private void compileStrOperator(BinaryAST node, Operator operator)
+	{
+		ClassFileWriter.Label genericLabel = code.newLabel();
+		ClassFileWriter.Label endLabel = code.newLabel();
+		compileExpression(node.obj1);
+		int local1 = code.newLocal();
+		code.astore(local1);
+		compileExpression(node.obj2);
+		int local2 = code.newLocal();
+		code.astore(local2);
+
+		code.aload(local1);
+		code.instanceOf(STRING);
+		code.ifeq(genericLabel);
+		code.aload(local2);
+		code.instanceOf(STRING);
+		code.ifeq(genericLabel);
+		code.aload(CONTEXT_LOCAL);
+		code.aload(local1);
+		code.checkcast(STRING);
+		code.aload(local2);
+		code.checkcast(STRING);
+		code.invokestatic(operator.owner, "call", "(" + D_CONTEXT + D_STRING + D_STRING + ")" + (operator.returnsBoolean ? "Z" : D_OBJECT));
+		code.goto_(endLabel);
+
+		code.mark(genericLabel);
+		if (operator.specialized)
+		{
+			loadNode(node);
+			code.checkcast(operator.owner);
+		}
+		code.aload(CONTEXT_LOCAL);
+		code.aload(local1);
+		code.aload(local2);
+		if (operator.specialized)
+			code.invokevirtual(operator.owner, "callSpecialized", operator.descriptor);
+		else
+			code.invokestatic(operator.owner, "call", operator.descriptor);
+		code.mark(endLabel);
+		if (operator.returnsBoolean)
+			box();
+	}
+
+	private void box()
+	{
+		code.invokestatic("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+	}
+}
@@ -0,0 +1,596 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+Optimizes the AST of a template.
+
+<p>{@code TemplateOptimizer} folds expressions that consist only of constants
+into {@link ConstAST} nodes and removes {@code <?if?>}/{@code <?elif?>}
+blocks whose condition is constant as well as {@code <?while?>} blocks whose
+condition is constantly false.</p>
+
+<p>Adjacent literal text nodes are merged into one {@link TextAST} (or into
+the preceding {@link IndentAST}), so the text is output with a single
+{@code write} call.</p>
+
+<p>Finally {@link ExpressionCache} determines which attribute chains and
+builtin calls can be evaluated once per template call or loop execution.</p>
+
+<p>The optimized AST consists of the usual AST node classes, so it can be
+dumped via UL4ON like any other template. Folded nodes keep the source
+position of the original expression.</p>
+
+<p>Expressions are only folded when the result is an immutable value (i.e.
+{@code None}, a boolean, a number or a string) and when evaluating the
+expression doesn't fail (so that the exception is still raised at runtime
+with the correct location). List, set and dict literals are only folded into a
+constant when they are used as the container of a loop, a comprehension or
+an {@code in} test, because there nobody can get at (and modify) the
+collection object itself.</p>
+**/
+final class TemplateOptimizer
+{
+	/**
+	Maximum length of string constants that will be produced by folding.
+	**/
+	private static final int MAX_STRING_LENGTH = 4096;
+
+	/**
+	Maximum number of bits of integer constants that will be produced by folding.
+	**/
+	private static final int MAX_INTEGER_BITS = 4096;
+
+	/**
+	The AST classes that can be folded when all their operands are constant.
+	**/
+	private static Set<Class> foldableClasses = new HashSet<Class>();
+
+	static
+	{
+		Collections.addAll(
+			foldableClasses,
+			NotAST.class,
+			NegAST.class,
+			BitNotAST.class,
+			AddAST.class,
+			SubAST.class,
+			MulAST.class,
+			FloorDivAST.class,
+			TrueDivAST.class,
+			ModAST.class,
+			ShiftLeftAST.class,
+			ShiftRightAST.class,
+			BitAndAST.class,
+			BitXOrAST.class,
+			BitOrAST.class,
+			EQAST.class,
+			NEAST.class,
+			LTAST.class,
+			LEAST.class,
+			GTAST.class,
+			GEAST.class,
+			ContainsAST.class,
+			NotContainsAST.class,
+			IsAST.class,
+			IsNotAST.class,
+			ItemAST.class
+		);
+	}
+
+	private EvaluationContext context;
+
+	private TemplateOptimizer(EvaluationContext context)
+	{
+		this.context = context;
+	}
+
+	/**
+	Optimize {@code template} and all templates nested in it.
+	**/
+	static void optimize(Template template)
+	{
+		try (EvaluationContext context = new EvaluationContext())
+		{
+			new TemplateOptimizer(context).optimizeStatements(template.getContent());
+		}
+		ExpressionCache.analyze(template);
+	}
+
+	private void optimizeStatements(List<AST> content)
+	{
+		List<AST> result = new ArrayList<AST>(content.size());
+		for (AST item : content)
+			optimizeStatement(item, result);
+		mergeText(result);
+		content.clear();
+		content.addAll(result);
+	}
+
+	/**
+	Is {@code node} literal text that doesn't depend on the indentation?
+	**/
+	private static boolean isStaticText(AST node)
+	{
+		return node.getClass() == TextAST.class || node.getClass() == LineEndAST.class;
+	}
+
+	/**
+	Replace runs of adjacent literal text nodes in {@code content} by a single
+	{@link TextAST}. As an {@link IndentAST} outputs the current indentation
+	followed by its text, the text following an {@code IndentAST} is merged
+	into the {@code IndentAST}.
+	**/
+	private static void mergeText(List<AST> content)
+	{
+		int target = 0;
+		for (int i = 0; i < content.size(); ++target)
+		{
+			AST node = content.get(i++);
+			if ((isStaticText(node) || node instanceof IndentAST) && i < content.size() && isStaticText(content.get(i)))
+			{
+				StringBuilder buffer = new StringBuilder(((TextAST)node).getText());
+				AST last = node;
+				while (i < content.size() && isStaticText(content.get(i)))
+				{
+					last = content.get(i++);
+					buffer.append(((TextAST)last).getText());
+				}
+				if (node instanceof IndentAST)
+					node = new IndentAST(node.getTemplate(), node.getStartPosStart(), last.getStartPosStop(), buffer.toString());
+				else
+					node = new TextAST(node.getTemplate(), node.getStartPosStart(), last.getStartPosStop(), buffer.toString());
+			}
+			content.set(target, node);
+		}
+		content.subList(target, content.size()).clear();
+	}
+
+	/**
+	Optimize the statement {@code node} and append the optimized statements
+	(if any) to {@code result}.
+	**/
+	private void optimizeStatement(AST node, List<AST> result)
+	{
+		if (node instanceof ConditionalBlocksAST)
+			optimizeConditionalBlocks((ConditionalBlocksAST)node, result);
+		else if (node instanceof WhileBlockAST)
+		{
+			WhileBlockAST block = (WhileBlockAST)node;
+			block.condition = optimizeExpression(block.condition);
+			if (block.condition instanceof ConstAST && !Bool.call(context, ((ConstAST)block.condition).value))
+				return;
+			optimizeStatements(block.content);
+			result.add(block);
+		}
+		else if (node instanceof ForBlockAST)
+		{
+			ForBlockAST block = (ForBlockAST)node;
+			optimizeLValue(block.varname);
+			block.container = (CodeAST)optimizeContainer(block.container);
+			optimizeStatements(block.content);
+			result.add(block);
+		}
+		else if (node instanceof Template)
+		{
+			Template template = (Template)node;
+			if (template.signatureAST != null)
+			{
+				for (Parameter parameter : template.signatureAST.parameters)
+					parameter.defaultValue = optimizeExpression(parameter.defaultValue);
+			}
+			optimizeStatements(template.content);
+			result.add(template);
+		}
+		else if (node instanceof SetVarAST)
+		{
+			SetVarAST setVar = (SetVarAST)node;
+			optimizeLValue(setVar.lvalue);
+			setVar.value = optimizeExpression(setVar.value);
+			result.add(setVar);
+		}
+		else if (node instanceof ChangeVarAST)
+		{
+			ChangeVarAST changeVar = (ChangeVarAST)node;
+			optimizeLValue(changeVar.lvalue);
+			changeVar.value = optimizeExpression(changeVar.value);
+			result.add(changeVar);
+		}
+		else
+		{
+			node = optimizeExpression(node);
+			// A constant as a statement does nothing
+			if (!(node instanceof ConstAST))
+				result.add(node);
+		}
+	}
+
+	private void optimizeConditionalBlocks(ConditionalBlocksAST node, List<AST> result)
+	{
+		List<AST> blocks = new ArrayList<AST>(node.content.size());
+
+		for (AST item : node.content)
+		{
+			BlockAST block = (BlockAST)item;
+			optimizeStatements(block.content);
+
+			boolean alwaysExecuted;
+			if (block instanceof ConditionalBlockWithCondition)
+			{
+				ConditionalBlockWithCondition conditionalBlock = (ConditionalBlockWithCondition)block;
+				conditionalBlock.condition = optimizeExpression(conditionalBlock.condition);
+				if (conditionalBlock.condition instanceof ConstAST)
+				{
+					if (!Bool.call(context, ((ConstAST)conditionalBlock.condition).value))
+						continue; // This block will never be executed
+					alwaysExecuted = true;
+				}
+				else
+					alwaysExecuted = false;
+			}
+			else // {@code <?else?>}
+				alwaysExecuted = true;
+
+			if (alwaysExecuted)
+			{
+				if (blocks.isEmpty())
+				{
+					// No previous block can be executed, so this block can replace the complete {@code <?if?>}
+					result.addAll(block.content);
+					return;
+				}
+				else if (!(block instanceof ElseBlockAST))
+				{
+					// An {@code <?elif?>} whose condition is always true works like an {@code <?else?>}
+					ElseBlockAST elseBlock = new ElseBlockAST(block.template, block.startPosStart, block.startPosStop, block.stopPosStart, block.stopPosStop);
+					elseBlock.content.addAll(block.content);
+					block = elseBlock;
+				}
+				blocks.add(block);
+				break; // All following blocks will never be executed
+			}
+			else if (blocks.isEmpty() && block instanceof ElIfBlockAST)
+			{
+				// The previous blocks have been dropped, so this block becomes the {@code <?if?>} block
+				ElIfBlockAST elIfBlock = (ElIfBlockAST)block;
+				IfBlockAST ifBlock = new IfBlockAST(block.template, block.startPosStart, block.startPosStop, block.stopPosStart, block.stopPosStop, (CodeAST)elIfBlock.condition);
+				ifBlock.content.addAll(block.content);
+				block = ifBlock;
+			}
+			blocks.add(block);
+		}
+
+		if (!blocks.isEmpty())
+		{
+			node.content.clear();
+			node.content.addAll(blocks);
+			result.add(node);
+		}
+	}
+
+	private void optimizeLValue(Object lvalue)
+	{
+		// Only optimize the subexpressions, as the lvalue itself must stay an lvalue
+		if (lvalue instanceof AttrAST)
+			((AttrAST)lvalue).obj = optimizeExpression(((AttrAST)lvalue).obj);
+		else if (lvalue instanceof ItemAST)
+		{
+			ItemAST item = (ItemAST)lvalue;
+			item.obj1 = (CodeAST)optimizeExpression(item.obj1);
+			item.obj2 = (CodeAST)optimizeExpression(item.obj2);
+		}
+		else if (lvalue instanceof List)
+		{
+			for (Object item : (List)lvalue)
+				optimizeLValue(item);
+		}
+	}
+
+	/**
+	Optimize the expression {@code node} and return the optimized expression.
+	**/
+	private AST optimizeExpression(AST node)
+	{
+		if (node == null || node instanceof ConstAST || node instanceof VarAST)
+			return node;
+		else if (node instanceof UnaryAST)
+		{
+			UnaryAST unary = (UnaryAST)node;
+			unary.obj = (CodeAST)optimizeExpression(unary.obj);
+			if (unary.obj instanceof ConstAST)
+				return fold(node);
+		}
+		else if (node instanceof AndAST || node instanceof OrAST)
+		{
+			BinaryAST binary = (BinaryAST)node;
+			binary.obj1 = (CodeAST)optimizeExpression(binary.obj1);
+			binary.obj2 = (CodeAST)optimizeExpression(binary.obj2);
+			if (binary.obj1 instanceof ConstAST)
+			{
+				// {@code and} returns the first operand if it's false, else the second one ({@code or} vice versa)
+				boolean value = Bool.call(context, ((ConstAST)binary.obj1).value);
+				return (value == (node instanceof AndAST)) ? binary.obj2 : binary.obj1;
+			}
+		}
+		else if (node instanceof BinaryAST)
+		{
+			BinaryAST binary = (BinaryAST)node;
+			binary.obj1 = (CodeAST)optimizeExpression(binary.obj1);
+			if (node instanceof ContainsAST || node instanceof NotContainsAST)
+				binary.obj2 = (CodeAST)optimizeContainer(binary.obj2);
+			else
+				binary.obj2 = (CodeAST)optimizeExpression(binary.obj2);
+			if (binary.obj1 instanceof ConstAST && binary.obj2 instanceof ConstAST)
+				return fold(node);
+		}
+		else if (node instanceof IfAST)
+		{
+			IfAST ifAST = (IfAST)node;
+			ifAST.objIf = (CodeAST)optimizeExpression(ifAST.objIf);
+			ifAST.objCond = (CodeAST)optimizeExpression(ifAST.objCond);
+			ifAST.objElse = (CodeAST)optimizeExpression(ifAST.objElse);
+			if (ifAST.objCond instanceof ConstAST)
+				return Bool.call(context, ((ConstAST)ifAST.objCond).value) ? ifAST.objIf : ifAST.objElse;
+		}
+		else if (node instanceof AttrAST)
+			((AttrAST)node).obj = optimizeExpression(((AttrAST)node).obj);
+		else if (node instanceof SliceAST)
+		{
+			SliceAST slice = (SliceAST)node;
+			slice.index1 = optimizeExpression(slice.index1);
+			slice.index2 = optimizeExpression(slice.index2);
+		}
+		else if (node instanceof CallRenderAST)
+		{
+			CallRenderAST call = (CallRenderAST)node;
+			call.obj = optimizeExpression(call.obj);
+			for (ArgumentASTBase argument : call.arguments)
+				optimizeExpression(argument);
+			if (node instanceof RenderBlockAST)
+				optimizeStatements(((RenderBlockAST)node).content.content);
+			else if (node instanceof RenderBlocksAST)
+				optimizeStatements(((RenderBlocksAST)node).content);
+		}
+		else if (node instanceof PositionalArgumentAST)
+			((PositionalArgumentAST)node).value = optimizeExpression(((PositionalArgumentAST)node).value);
+		else if (node instanceof KeywordArgumentAST)
+			((KeywordArgumentAST)node).value = optimizeExpression(((KeywordArgumentAST)node).value);
+		else if (node instanceof UnpackListArgumentAST)
+			((UnpackListArgumentAST)node).value = optimizeExpression(((UnpackListArgumentAST)node).value);
+		else if (node instanceof UnpackDictArgumentAST)
+			((UnpackDictArgumentAST)node).value = optimizeExpression(((UnpackDictArgumentAST)node).value);
+		else if (node instanceof ListAST)
+			optimizeSeqItems(((ListAST)node).items);
+		else if (node instanceof SetAST)
+			optimizeSeqItems(((SetAST)node).items);
+		else if (node instanceof DictAST)
+		{
+			for (DictItemASTBase item : ((DictAST)node).items)
+			{
+				if (item instanceof DictItemAST)
+				{
+					((DictItemAST)item).key = optimizeExpression(((DictItemAST)item).key);
+					((DictItemAST)item).value = optimizeExpression(((DictItemAST)item).value);
+				}
+				else
+					((UnpackDictItemAST)item).item = optimizeExpression(((UnpackDictItemAST)item).item);
+			}
+		}
+		else if (node instanceof ListComprehensionAST)
+		{
+			ListComprehensionAST comprehension = (ListComprehensionAST)node;
+			comprehension.item = (CodeAST)optimizeExpression(comprehension.item);
+			comprehension.container = (CodeAST)optimizeContainer(comprehension.container);
+			comprehension.condition = (CodeAST)optimizeExpression(comprehension.condition);
+		}
+		else if (node instanceof SetComprehensionAST)
+		{
+			SetComprehensionAST comprehension = (SetComprehensionAST)node;
+			comprehension.item = (CodeAST)optimizeExpression(comprehension.item);
+			comprehension.container = (CodeAST)optimizeContainer(comprehension.container);
+			comprehension.condition = (CodeAST)optimizeExpression(comprehension.condition);
+		}
+		else if (node instanceof DictComprehensionAST)
+		{
+			DictComprehensionAST comprehension = (DictComprehensionAST)node;
+			comprehension.key = (CodeAST)optimizeExpression(comprehension.key);
+			comprehension.value = (CodeAST)optimizeExpression(comprehension.value);
+			comprehension.container = (CodeAST)optimizeContainer(comprehension.container);
+			comprehension.condition = (CodeAST)optimizeExpression(comprehension.condition);
+		}
+		else if (node instanceof GeneratorExpressionAST)
+		{
+			GeneratorExpressionAST generator = (GeneratorExpressionAST)node;
+			generator.item = (CodeAST)optimizeExpression(generator.item);
+			generator.container = (CodeAST)optimizeContainer(generator.container);
+			generator.condition = (CodeAST)optimizeExpression(generator.condition);
+		}
+		return node;
+	}
+
+	private void optimizeSeqItems(List<SeqItemASTBase> items)
+	{
+		for (SeqItemASTBase item : items)
+		{
+			if (item instanceof SeqItemAST)
+				((SeqItemAST)item).value = optimizeExpression(((SeqItemAST)item).value);
+			else
+				((UnpackSeqItemAST)item).value = optimizeExpression(((UnpackSeqItemAST)item).value);
+		}
+	}
+
+	/**
+	Optimize an expression that is only used for iterating over it or for
+	checking whether it contains something. A list, set or dict literal
+	consisting only of constants will be folded into a constant.
+	**/
+	private AST optimizeContainer(AST node)
+	{
+		node = optimizeExpression(node);
+
+		if ((node instanceof ListAST && hasConstantItems(((ListAST)node).items)) || (node instanceof SetAST && hasConstantItems(((SetAST)node).items)) || (node instanceof DictAST && hasConstantDictItems(((DictAST)node).items)))
+		{
+			Object value;
+			try
+			{
+				value = node.evaluate(context);
+			}
+			catch (Exception ex)
+			{
+				return node;
+			}
+			if (value instanceof List)
+				value = Collections.unmodifiableList((List)value);
+			else if (value instanceof Set)
+				value = Collections.unmodifiableSet((Set)value);
+			// Dicts stay as they are as their type determines whether UL4ON preserves the order
+			return new ConstAST(node.template, node.startPosStart, node.startPosStop, value);
+		}
+		return node;
+	}
+
+	private boolean hasConstantItems(List<SeqItemASTBase> items)
+	{
+		for (SeqItemASTBase item : items)
+		{
+			AST value = item instanceof SeqItemAST ? ((SeqItemAST)item).value : ((UnpackSeqItemAST)item).value;
+			if (!(value instanceof ConstAST) || !isImmutable(((ConstAST)value).value))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean hasConstantDictItems(List<DictItemASTBase> items)
+	{
+		for (DictItemASTBase item : items)
+		{
+			if (!(item instanceof DictItemAST))
+				return false;
+			AST key = ((DictItemAST)item).key;
+			AST value = ((DictItemAST)item).value;
+			if (!(key instanceof ConstAST) || !isImmutable(((ConstAST)key).value) || !(value instanceof ConstAST) || !isImmutable(((ConstAST)value).value))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	Evaluate {@code node} (whose operands are all constant) and return a
+	{@link ConstAST} for the result (or {@code node} itself if the result
+	can't be used as a constant).
+	**/
+	private AST fold(AST node)
+	{
+		if (!foldableClasses.contains(node.getClass()))
+			return node;
+		if (isTooLarge(node))
+			return node;
+
+		Object value;
+		try
+		{
+			value = node.evaluate(context);
+		}
+		catch (Exception ex)
+		{
+			// Leave it to the runtime to report the error
+			return node;
+		}
+
+		if (!isImmutable(value))
+			return node;
+		if (value instanceof String && ((String)value).length() > MAX_STRING_LENGTH)
+			return node;
+		if (value instanceof BigInteger && ((BigInteger)value).bitLength() > MAX_INTEGER_BITS)
+			return node;
+		return new ConstAST(node.template, node.startPosStart, node.startPosStop, value);
+	}
+
+	/**
+	Return whether folding {@code node} would produce a string, list or
+	integer that exceeds the limits for constants. This is checked on the
+	operands before evaluating, because the result would be built in full
+	(without any runtime limit) before it could be rejected.
+	**/
+	private static boolean isTooLarge(AST node)
+	{
+		if (node instanceof MulAST)
+		{
+			Object arg1 = ((ConstAST)((MulAST)node).obj1).value;
+			Object arg2 = ((ConstAST)((MulAST)node).obj2).value;
+			return isRepetitionTooLarge(arg1, arg2) || isRepetitionTooLarge(arg2, arg1);
+		}
+		else if (node instanceof ShiftLeftAST)
+			return isShiftTooLarge(((ConstAST)((ShiftLeftAST)node).obj1).value, ((ConstAST)((ShiftLeftAST)node).obj2).value, 1);
+		else if (node instanceof ShiftRightAST)
+			return isShiftTooLarge(((ConstAST)((ShiftRightAST)node).obj1).value, ((ConstAST)((ShiftRightAST)node).obj2).value, -1);
+		return false;
+	}
+
+	/**
+	Return whether repeating {@code sequence} {@code count} times exceeds
+	{@link #MAX_STRING_LENGTH}.
+	**/
+	private static boolean isRepetitionTooLarge(Object sequence, Object count)
+	{
+		long length;
+		if (sequence instanceof String)
+			length = ((String)sequence).length();
+		else if (sequence instanceof List)
+			length = ((List)sequence).size();
+		else
+			return false;
+		if (!isInteger(count))
+			return false;
+		// Use {@code double} to avoid overflows
+		return length * toDouble(count) > MAX_STRING_LENGTH;
+	}
+
+	/**
+	Return whether shifting {@code value} by {@code count} bits in the
+	direction {@code direction} (1 for left, -1 for right) produces an
+	integer with more than {@link #MAX_INTEGER_BITS} bits.
+	**/
+	private static boolean isShiftTooLarge(Object value, Object count, int direction)
+	{
+		if (!isInteger(value) || !isInteger(count))
+			return false;
+		int bits;
+		if (value instanceof BigInteger)
+			bits = ((BigInteger)value).bitLength();
+		else if (value instanceof Boolean)
+			bits = 1;
+		else
+			bits = 64 - Long.numberOfLeadingZeros(Math.abs(((Number)value).longValue()));
+		return bits + direction * toDouble(count) > MAX_INTEGER_BITS;
+	}
+
+	private static boolean isInteger(Object value)
+	{
+		return value instanceof Boolean || value instanceof Integer || value instanceof Long || value instanceof BigInteger || value instanceof Byte || value instanceof Short;
+	}
+
+	private static double toDouble(Object value)
+	{
+		if (value instanceof Boolean)
+			return ((Boolean)value) ? 1. : 0.;
+		return ((Number)value).doubleValue();
+	}
+
+	private static boolean isImmutable(Object value)
+	{
+		return value == null || value instanceof Boolean || value instanceof Integer || value instanceof Long || value instanceof BigInteger || value instanceof Double || value instanceof String;
+	}
+}
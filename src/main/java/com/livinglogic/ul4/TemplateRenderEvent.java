@@ -0,0 +1,57 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+Java Flight Recorder event for rendering or calling a template via the
+public entry points of {@link Template} and {@link PreparedRender} (but not
+for renders and calls from inside of templates).
+**/
+@Name("com.livinglogic.ul4.TemplateRender")
+@Label("UL4 Template Render")
+@Description("Rendering or calling a UL4 template")
+@Category({"LivingLogic", "UL4"})
+final class TemplateRenderEvent extends Event
+{
+	@Label("Template")
+	String templateName;
+
+	@Label("Operation")
+	@Description("\"render\", \"renders\" or \"call\"")
+	String operation;
+
+	@Label("Output Characters")
+	@Description("The number of characters output (or -1 if unknown)")
+	long outputChars;
+
+	@Label("Limit Exceeded")
+	@Description("Whether the runtime limit or the allocation limit has been exceeded")
+	boolean limitExceeded;
+
+	/**
+	Commit the event (if it is enabled and has taken long enough) for
+	{@code operation} of {@code template} in {@code context}, that output
+	{@code outputChars} characters.
+	**/
+	void finish(Template template, String operation, EvaluationContext context, long outputChars)
+	{
+		if (shouldCommit())
+		{
+			templateName = template.getQualifiedName();
+			this.operation = operation;
+			this.outputChars = outputChars;
+			limitExceeded = context.limitExceeded;
+			commit();
+		}
+	}
+}
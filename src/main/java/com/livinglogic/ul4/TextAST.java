@@ -68,6 +68,17 @@ public class TextAST extends AST
 		this.text = source.substring(startPos, stopPos).intern();
 	}
 
+	/**
+	Create a text node for the text {@code text} that doesn't have to be the
+	source text between {@code startPos} and {@code stopPos} (this is used
+	by {@link TemplateOptimizer} when merging adjacent text nodes).
+	**/
+	TextAST(Template template, int startPos, int stopPos, String text)
+	{
+		super(template, startPos, stopPos);
+		this.text = text.intern();
+	}
+
 	public void toString(Formatter formatter)
 	{
 		formatter.write("text ");
@@ -0,0 +1,147 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+An inline cache for attribute access and method calls, keyed on the Java
+class of the object and the name of the attribute.
+
+<p>AST nodes that access attributes or call methods (i.e. {@link AttrAST} and
+{@link CallAST}) each have their own {@code TypeCache}. At most call sites the
+objects always have the same class (or one of a few classes), so looking up
+the class in the cache is much faster than {@link UL4Type#getType}, which has
+to go through a long chain of {@code instanceof} checks.</p>
+
+<p>Each entry is the accessor for the attribute resolved for its class: For
+{@link Map}s whose attribute isn't one of the dict methods (i.e. for
+{@code record.field}) the entry fetches the item from the map directly, so
+the dispatch on the attribute name in {@link Dict#getAttr} is skipped too.
+For all other objects the entry passes the attribute name to the type of the
+object.</p>
+
+<p>The cache remembers up to {@link #MAX_ENTRIES} accessors. Objects of other
+classes (i.e. at megamorphic call sites) fall back to
+{@link UL4Type#getType}.</p>
+
+<p>As templates might be used by multiple threads at the same time, the cache
+consists of immutable entries. Two threads updating the cache at the same
+time might lose an entry, which does no harm.</p>
+**/
+final class TypeCache
+{
+	private static final int MAX_ENTRIES = 4;
+
+	/**
+	Accesses the attribute {@code key} of instances of the class {@code cls}.
+	**/
+	private static class Entry
+	{
+		final Class cls;
+		final String key;
+		/**
+		The type of instances of {@code cls} or {@code null} if the instances
+		determine their type themselves (i.e. they implement {@link UL4Instance}).
+		**/
+		final UL4Type type;
+		final Entry next;
+		final int count;
+
+		Entry(Class cls, String key, UL4Type type, Entry next)
+		{
+			this.cls = cls;
+			this.key = key;
+			this.type = type;
+			this.next = next;
+			this.count = next != null ? next.count + 1 : 1;
+		}
+
+		UL4Type getType(Object object)
+		{
+			return type != null ? type : ((UL4Instance)object).getTypeUL4();
+		}
+
+		Object getAttr(EvaluationContext context, Object object)
+		{
+			return getType(object).getAttr(context, object, key);
+		}
+
+		Object callAttr(EvaluationContext context, Object object, List<Object> args, Map<String, Object> kwargs)
+		{
+			UL4Type type = getType(object);
+			return type.callAttr(context, object, key, args, CallAST.keywordArguments(type, kwargs));
+		}
+	}
+
+	/**
+	Accesses the item {@code key} of a {@link Map} (where {@code key} isn't the
+	name of a dict method).
+	**/
+	private static final class MapItemEntry extends Entry
+	{
+		MapItemEntry(Class cls, String key, Entry next)
+		{
+			super(cls, key, Dict.type, next);
+		}
+
+		@Override
+		Object getAttr(EvaluationContext context, Object object)
+		{
+			Map map = (Map)object;
+			Object result = map.get(key);
+			if (result == null && !map.containsKey(key))
+				return super.getAttr(context, object);
+			return result;
+		}
+	}
+
+	private Entry entries = null;
+
+	/**
+	Return the attribute {@code key} of {@code object} (the same as
+	{@link UL4Type#getAttr} would).
+	**/
+	Object getAttr(EvaluationContext context, Object object, String key)
+	{
+		return getEntry(object, key).getAttr(context, object);
+	}
+
+	/**
+	Call the method {@code key} of {@code object} (the same as
+	{@link UL4Type#callAttr} would).
+	**/
+	Object callAttr(EvaluationContext context, Object object, String key, List<Object> args, Map<String, Object> kwargs)
+	{
+		return getEntry(object, key).callAttr(context, object, args, kwargs);
+	}
+
+	private Entry getEntry(Object object, String key)
+	{
+		Class cls = object != null ? object.getClass() : null;
+		Entry entries = this.entries;
+		for (Entry entry = entries; entry != null; entry = entry.next)
+		{
+			if (entry.cls == cls && entry.key == key)
+				return entry;
+		}
+
+		Entry entry = newEntry(cls, key, object, entries);
+		if (entries == null || entries.count < MAX_ENTRIES)
+			this.entries = entry;
+		return entry;
+	}
+
+	private static Entry newEntry(Class cls, String key, Object object, Entry next)
+	{
+		UL4Type type = UL4Type.getType(object);
+		if (type == Dict.type && !(object instanceof UL4GetAttr) && !(object instanceof UL4Instance) && !Dict.attributes.contains(key))
+			return new MapItemEntry(cls, key, next);
+		return new Entry(cls, key, object instanceof UL4Instance ? null : type, next);
+	}
+}
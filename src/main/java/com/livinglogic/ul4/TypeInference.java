@@ -0,0 +1,528 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+Determines the types of expressions in a template before the template is
+executed.
+
+<p>Types are known for constants, for list, set and dict literals, for the
+parameters whose types the caller has declared via
+{@link Template#setParameterTypes}, for the results of calls of some builtin
+functions (e.g. {@code str()} or {@code len()}) and of string methods, for
+the loop variable of loops over {@code range()} or over a string, and for the
+results of operators whose operand types are known.</p>
+
+<p>The type of a variable is the common type of all values assigned to it in
+the template. It is only used where the variable has certainly been assigned
+to before (as otherwise it might be a variable from the caller or a global
+variable), i.e. after an assignment in the same or an enclosing block, for
+loop variables in the loop body and for parameters with declared types.
+Builtin functions are assumed not to be shadowed by global variables.</p>
+
+<p>The result type of an operator is determined by applying the operator to
+a sample value of each operand type. If this fails because the operator
+doesn't support the types, executing the operation will always fail, and the
+exception is reported as a type error.</p>
+
+<p>Operators that have a separate implementation for strings get
+{@link BinaryAST#staticOperandTypes} set when both operands are strings.
+As the inferred types rely on the declared parameter types and on the
+builtins not being shadowed, the bytecode still checks the operand types
+before using the string implementation.</p>
+**/
+final class TypeInference
+{
+	/**
+	The types we track and a sample value for each of them.
+	**/
+	private static final Map<UL4Type, Object> samples = new LinkedHashMap<UL4Type, Object>();
+
+	/**
+	The result types of builtin functions (by builtin object).
+	**/
+	private static final Map<Object, UL4Type> builtinTypes = new IdentityHashMap<Object, UL4Type>();
+
+	/**
+	The result types of string methods.
+	**/
+	private static final Map<String, UL4Type> strMethodTypes = new HashMap<String, UL4Type>();
+
+	/**
+	The operators that have an implementation for two string operands.
+	**/
+	private static final Set<Class> strOperators = new HashSet<Class>();
+
+	/**
+	The operators whose result type is determined via {@link #apply}.
+	**/
+	private static final Set<Class> operators = new HashSet<Class>();
+
+	static
+	{
+		samples.put(None.type, null);
+		samples.put(Bool.type, true);
+		samples.put(Int.type, 1);
+		samples.put(Float_.type, 1.0);
+		samples.put(Str.type, "");
+		samples.put(List_.type, new ArrayList<Object>());
+		samples.put(Dict.type, new LinkedHashMap<Object, Object>());
+		samples.put(Set_.type, new HashSet<Object>());
+
+		for (String name : new String[]{"str", "repr", "ascii", "hex", "oct", "bin"})
+			builtinTypes.put(EvaluationContext.getBuiltin(name), Str.type);
+		builtinTypes.put(EvaluationContext.getBuiltin("len"), Int.type);
+		builtinTypes.put(EvaluationContext.getBuiltin("bool"), Bool.type);
+
+		for (String name : new String[]{"strip", "lstrip", "rstrip", "removeprefix", "removesuffix", "upper", "lower", "capitalize", "replace", "join"})
+			strMethodTypes.put(name, Str.type);
+		for (String name : new String[]{"split", "rsplit", "splitlines"})
+			strMethodTypes.put(name, List_.type);
+		for (String name : new String[]{"startswith", "endswith", "isdigit", "isasciidigit"})
+			strMethodTypes.put(name, Bool.type);
+		for (String name : new String[]{"count", "find", "rfind"})
+			strMethodTypes.put(name, Int.type);
+
+		for (Class cls : new Class[]{AddAST.class, EQAST.class, NEAST.class, LTAST.class, LEAST.class, GTAST.class, GEAST.class, ContainsAST.class})
+			strOperators.add(cls);
+
+		for (Class cls : new Class[]{AddAST.class, SubAST.class, MulAST.class, FloorDivAST.class, TrueDivAST.class, ModAST.class, ShiftLeftAST.class, ShiftRightAST.class, BitAndAST.class, BitOrAST.class, BitXOrAST.class, LTAST.class, LEAST.class, GTAST.class, GEAST.class, ContainsAST.class, NotContainsAST.class, NegAST.class, BitNotAST.class})
+			operators.add(cls);
+	}
+
+	private static final Object range = EvaluationContext.getBuiltin("range");
+
+	private EvaluationContext context;
+
+	/**
+	The type of each variable assigned to in the template (a {@code null}
+	value means that the variable might have different types).
+	**/
+	private Map<String, UL4Type> types = new HashMap<String, UL4Type>();
+
+	/**
+	The variables that have certainly been assigned to at the current
+	position.
+	**/
+	private Set<String> defined;
+
+	/**
+	Has the type of a variable changed in the current pass?
+	**/
+	private boolean changed;
+
+	/**
+	The type errors found (or {@code null} if this isn't the final pass).
+	**/
+	private List<Exception> errors = null;
+
+	private TypeInference(EvaluationContext context)
+	{
+		this.context = context;
+	}
+
+	/**
+	Determine the types in {@code template} and all templates nested in it.
+
+	@return the type errors found.
+	**/
+	static List<Exception> analyze(Template template)
+	{
+		List<Exception> errors = new ArrayList<Exception>();
+		try (EvaluationContext context = new EvaluationContext())
+		{
+			analyze(context, template, template.getParameterTypes(), errors);
+		}
+		return errors;
+	}
+
+	private static void analyze(EvaluationContext context, Template template, Map<String, UL4Type> parameterTypes, List<Exception> errors)
+	{
+		TypeInference inference = new TypeInference(context);
+		Set<String> parameters = new HashSet<String>();
+		if (parameterTypes != null && template.signature != null)
+		{
+			for (Map.Entry<String, UL4Type> entry : parameterTypes.entrySet())
+			{
+				if (template.signature.getParameterByName(entry.getKey()) != null)
+				{
+					inference.types.put(entry.getKey(), samples.containsKey(entry.getValue()) ? entry.getValue() : null);
+					parameters.add(entry.getKey());
+				}
+			}
+		}
+
+		// Repeat until the variable types don't change any more (each
+		// variable can only change twice: from unassigned to a type and from
+		// a type to unknown), then record the results in a final pass.
+		do
+		{
+			inference.changed = false;
+			inference.defined = new HashSet<String>(parameters);
+			inference.statements(template.getContent());
+		}
+		while (inference.changed);
+		inference.errors = errors;
+		inference.defined = new HashSet<String>(parameters);
+		inference.statements(template.getContent());
+
+		List<Template> templates = new ArrayList<Template>();
+		TemplateCompiler.collectNestedTemplates(template.getContent(), templates);
+		for (Template nested : templates)
+			analyze(context, nested, null, errors);
+	}
+
+	private void statements(List<AST> content)
+	{
+		for (AST node : content)
+			statement(node);
+	}
+
+	private void statement(AST node)
+	{
+		if (node instanceof ForBlockAST)
+		{
+			ForBlockAST block = (ForBlockAST)node;
+			UL4Type itemType = itemType(block.container);
+			Set<String> outer = new HashSet<String>(defined);
+			assign(block.varname, itemType);
+			statements(block.getContent());
+			defined = outer;
+		}
+		else if (node instanceof WhileBlockAST)
+		{
+			WhileBlockAST block = (WhileBlockAST)node;
+			Set<String> outer = new HashSet<String>(defined);
+			expression(block.condition);
+			statements(block.getContent());
+			defined = outer;
+		}
+		else if (node instanceof Template)
+			// The template is analyzed on its own
+			assignName(((Template)node).name, null);
+		else if (node instanceof RenderBlockAST || node instanceof RenderBlocksAST)
+			// These have their own variables
+			return;
+		else if (node instanceof BlockAST)
+		{
+			// The content of the block might not be executed (or only partially)
+			Set<String> outer = new HashSet<String>(defined);
+			if (node instanceof ConditionalBlockWithCondition)
+				expression(((ConditionalBlockWithCondition)node).condition);
+			statements(((BlockAST)node).getContent());
+			defined = outer;
+		}
+		else if (node instanceof SetVarAST)
+			assign(((SetVarAST)node).lvalue, expression(((SetVarAST)node).value));
+		else if (node instanceof ChangeVarAST)
+		{
+			ChangeVarAST changeVar = (ChangeVarAST)node;
+			Class operator = TemplateCompiler.changeOperators.get(node.getClass());
+			if (changeVar.lvalue instanceof VarAST && operator != null)
+			{
+				UL4Type type1 = expression((VarAST)changeVar.lvalue);
+				UL4Type type2 = expression(changeVar.value);
+				assign(changeVar.lvalue, resultType(node, operator, type1, type2));
+			}
+			else
+			{
+				assign(changeVar.lvalue, null);
+				expression(changeVar.value);
+			}
+		}
+		else
+			expression(node);
+	}
+
+	/**
+	Record that {@code type} is assigned to the target {@code lvalue}.
+	**/
+	private void assign(Object lvalue, UL4Type type)
+	{
+		if (lvalue instanceof VarAST)
+			assignName(((VarAST)lvalue).getName(), type);
+		else if (lvalue instanceof List)
+		{
+			for (Object item : (List)lvalue)
+				assign(item, null);
+		}
+		else if (lvalue instanceof AttrAST)
+			expression(((AttrAST)lvalue).obj);
+		else if (lvalue instanceof ItemAST)
+		{
+			expression(((ItemAST)lvalue).obj1);
+			expression(((ItemAST)lvalue).obj2);
+		}
+	}
+
+	private void assignName(String name, UL4Type type)
+	{
+		if (!types.containsKey(name))
+		{
+			types.put(name, type);
+			changed = true;
+		}
+		else
+		{
+			UL4Type oldType = types.get(name);
+			if (oldType != null && oldType != type)
+			{
+				types.put(name, null);
+				changed = true;
+			}
+		}
+		defined.add(name);
+	}
+
+	/**
+	Return the type of the items produced by iterating through the value of
+	{@code container}.
+	**/
+	private UL4Type itemType(AST container)
+	{
+		UL4Type type = expression(container);
+		if (type == Str.type)
+			return Str.type;
+		if (container instanceof CallAST && ((CallAST)container).obj instanceof VarAST && ((VarAST)((CallAST)container).obj).builtin == range)
+			return Int.type;
+		return null;
+	}
+
+	/**
+	Return the type of the value of {@code node} (or {@code null} if it isn't
+	known).
+	**/
+	private UL4Type expression(AST node)
+	{
+		if (node == null)
+			return null;
+		else if (node instanceof ConstAST)
+			return typeOf(((ConstAST)node).getValue());
+		else if (node instanceof VarAST)
+		{
+			String name = ((VarAST)node).getName();
+			return defined.contains(name) ? types.get(name) : null;
+		}
+		else if (node instanceof AndAST || node instanceof OrAST)
+		{
+			// The result is one of the operands
+			UL4Type type1 = expression(((BinaryAST)node).obj1);
+			UL4Type type2 = expression(((BinaryAST)node).obj2);
+			return type1 == type2 ? type1 : null;
+		}
+		else if (node instanceof BinaryAST)
+			return binary((BinaryAST)node);
+		else if (node instanceof NotAST)
+		{
+			expression(((UnaryAST)node).obj);
+			return Bool.type;
+		}
+		else if (node instanceof NegAST || node instanceof BitNotAST)
+			return resultType(node, node.getClass(), expression(((UnaryAST)node).obj), null);
+		else if (node instanceof IfAST)
+		{
+			UL4Type typeIf = expression(((IfAST)node).objIf);
+			expression(((IfAST)node).objCond);
+			UL4Type typeElse = expression(((IfAST)node).objElse);
+			return typeIf == typeElse ? typeIf : null;
+		}
+		else if (node instanceof CallAST)
+			return call((CallAST)node);
+		else if (node instanceof ListAST)
+		{
+			children.walkChildren(node);
+			return List_.type;
+		}
+		else if (node instanceof SetAST)
+		{
+			children.walkChildren(node);
+			return Set_.type;
+		}
+		else if (node instanceof DictAST)
+		{
+			children.walkChildren(node);
+			return Dict.type;
+		}
+		// The expressions in comprehensions might use the loop variables of the
+		// comprehension, so they aren't checked
+		else if (node instanceof ListComprehensionAST)
+			return List_.type;
+		else if (node instanceof SetComprehensionAST)
+			return Set_.type;
+		else if (node instanceof DictComprehensionAST)
+			return Dict.type;
+		else if (node instanceof GeneratorExpressionAST)
+			return null;
+		// The type of anything else isn't known, but its children are checked
+		children.walkChildren(node);
+		return null;
+	}
+
+	/**
+	Walks the children of the nodes whose own type isn't determined by
+	{@link #expression} and checks them.
+	**/
+	private final ASTWalker children = new ASTWalker()
+	{
+		@Override
+		void walk(Object node)
+		{
+			if (node instanceof AST)
+				expression((AST)node);
+			else
+				super.walk(node);
+		}
+	};
+
+	private UL4Type call(CallAST call)
+	{
+		UL4Type type = null;
+		if (call.obj instanceof AttrAST)
+		{
+			// A method call: Only the object is evaluated
+			if (expression(((AttrAST)call.obj).obj) == Str.type)
+				type = strMethodTypes.get(((AttrAST)call.obj).attrName);
+		}
+		else
+		{
+			expression(call.obj);
+			if (call.obj instanceof VarAST && ((VarAST)call.obj).builtin != null)
+				type = builtinTypes.get(((VarAST)call.obj).builtin);
+		}
+		children.walk(call.arguments);
+		return type;
+	}
+
+	private UL4Type binary(BinaryAST node)
+	{
+		UL4Type type1 = expression(node.obj1);
+		UL4Type type2 = expression(node.obj2);
+		Class cls = node.getClass();
+		if (errors != null && strOperators.contains(cls))
+		{
+			if (type1 == Str.type && type2 == Str.type)
+			{
+				node.staticOperandTypes = OperandTypes.STR;
+				if (node.operandTypes == OperandTypes.UNINITIALIZED)
+					node.operandTypes = OperandTypes.STR;
+			}
+			else
+				node.staticOperandTypes = null;
+		}
+		if (cls == EQAST.class || cls == NEAST.class || cls == IsAST.class || cls == IsNotAST.class)
+			return Bool.type;
+		else if (cls == ItemAST.class)
+			// Items and slices of strings are strings
+			return type1 == Str.type ? Str.type : null;
+		return resultType(node, cls, type1, type2);
+	}
+
+	/**
+	Return the type of the result of the operator {@code operator} (an AST
+	class) for operands of type {@code type1} and {@code type2} (which is
+	ignored for unary operators) and report a type error for {@code node} if
+	the operator doesn't support these types.
+	**/
+	private UL4Type resultType(AST node, Class operator, UL4Type type1, UL4Type type2)
+	{
+		// Check this before applying the operator, as exceptions from the
+		// operator itself are ignored below
+		if (!operators.contains(operator))
+			throw unknownOperator(node, operator);
+		boolean unary = operator == NegAST.class || operator == BitNotAST.class;
+		boolean returnsBoolean = operator == LTAST.class || operator == LEAST.class || operator == GTAST.class || operator == GEAST.class || operator == ContainsAST.class || operator == NotContainsAST.class;
+		if (type1 == null || (!unary && type2 == null))
+			return returnsBoolean ? Bool.type : null;
+		try
+		{
+			return typeOf(apply(operator, samples.get(type1), samples.get(type2)));
+		}
+		catch (ArgumentTypeMismatchException ex)
+		{
+			if (errors != null)
+			{
+				node.decorateException(ex);
+				errors.add(ex);
+			}
+		}
+		catch (Exception ex)
+		{
+			// Something else went wrong, so we can't tell
+		}
+		return returnsBoolean ? Bool.type : null;
+	}
+
+	private Object apply(Class operator, Object arg1, Object arg2)
+	{
+		if (operator == AddAST.class)
+			return AddAST.call(context, arg1, arg2);
+		else if (operator == SubAST.class)
+			return SubAST.call(context, arg1, arg2);
+		else if (operator == MulAST.class)
+			return MulAST.call(context, arg1, arg2);
+		else if (operator == FloorDivAST.class)
+			return FloorDivAST.call(context, arg1, arg2);
+		else if (operator == TrueDivAST.class)
+			return TrueDivAST.call(context, arg1, arg2);
+		else if (operator == ModAST.class)
+			return ModAST.call(arg1, arg2);
+		else if (operator == ShiftLeftAST.class)
+			return ShiftLeftAST.call(context, arg1, arg2);
+		else if (operator == ShiftRightAST.class)
+			return ShiftRightAST.call(context, arg1, arg2);
+		else if (operator == BitAndAST.class)
+			return BitAndAST.call(context, arg1, arg2);
+		else if (operator == BitOrAST.class)
+			return BitOrAST.call(context, arg1, arg2);
+		else if (operator == BitXOrAST.class)
+			return BitXOrAST.call(context, arg1, arg2);
+		else if (operator == LTAST.class)
+			return LTAST.call(context, arg1, arg2);
+		else if (operator == LEAST.class)
+			return LEAST.call(context, arg1, arg2);
+		else if (operator == GTAST.class)
+			return GTAST.call(context, arg1, arg2);
+		else if (operator == GEAST.class)
+			return GEAST.call(context, arg1, arg2);
+		else if (operator == ContainsAST.class)
+			return ContainsAST.call(context, arg1, arg2);
+		else if (operator == NotContainsAST.class)
+			return NotContainsAST.call(context, arg1, arg2);
+		else if (operator == NegAST.class)
+			return NegAST.call(context, arg1);
+		else if (operator == BitNotAST.class)
+			return BitNotAST.call(context, arg1);
+		throw unknownOperator(null, operator);
+	}
+
+	private static IllegalArgumentException unknownOperator(AST node, Class operator)
+	{
+		String message = "can't determine the result type of operator " + operator.getName();
+		if (node != null && node.getClass() != operator)
+			message += " (for " + node.getClass().getName() + ")";
+		return new IllegalArgumentException(message);
+	}
+
+	/**
+	Return the type of {@code value} if it's one of the types we track
+	(otherwise {@code null}).
+	**/
+	private static UL4Type typeOf(Object value)
+	{
+		UL4Type type = UL4Type.getType(value);
+		return samples.containsKey(type) ? type : null;
+	}
+}
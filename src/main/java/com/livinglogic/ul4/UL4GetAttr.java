@@ -37,6 +37,26 @@ public interface UL4GetAttr
 		return new UndefinedAttribute(this, key);
 	}
 
+	/**
+	<p>Return whether the attribute named {@code key} of this object is pure,
+	i.e. whether fetching it via {@link #getAttrUL4(EvaluationContext, String)}
+	has no side effects and returns the same object each time while a
+	template is running (and that object won't be modified in the meantime).</p>
+
+	<p>The optimizer (see {@link Template#optimize}) uses this to evaluate
+	attribute chains like {@code app.params.lang} only once per template call
+	(or once per loop execution) instead of each time they are used.</p>
+
+	<p>The default implementation returns {@code false} for all attributes.</p>
+
+	@param key The name of the attribute.
+	@return {@code true} if the attribute is pure.
+	**/
+	default boolean isPureAttrUL4(String key)
+	{
+		return false;
+	}
+
 	/**
 	<p>Call the attribute (i.e. method) named {@code key} of this object with
 	the positional arguments {@code args} and the keyword arguments
@@ -0,0 +1,33 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+
+/**
+Thrown by {@link CodeAST#evaluateInt}, {@link CodeAST#evaluateLong} and
+{@link CodeAST#evaluateDouble} when the result of the node can't be returned
+as a primitive value.
+
+<p>The exception contains the (boxed) result, so the caller can continue
+with it. As this is used for control flow, the exception has no stack
+trace.</p>
+**/
+final class UnexpectedResultException extends Exception
+{
+	private final Object result;
+
+	UnexpectedResultException(Object result)
+	{
+		super(null, null, false, false);
+		this.result = result;
+	}
+
+	Object getResult()
+	{
+		return result;
+	}
+}
@@ -80,8 +80,11 @@ public class UnpackDictArgumentAST extends ArgumentASTBase
 
 	public void evaluateCall(EvaluationContext context, List<Object> arguments, Map<String, Object> keywordArguments)
 	{
-		Object item = value.decoratedEvaluate(context);
+		putKeywordArguments(keywordArguments, value.decoratedEvaluate(context));
+	}
 
+	static void putKeywordArguments(Map<String, Object> keywordArguments, Object item)
+	{
 		if (item instanceof Map)
 		{
 			Set<Map.Entry> entrySet = ((Map)item).entrySet();
@@ -112,7 +115,7 @@ public class UnpackDictArgumentAST extends ArgumentASTBase
 		}
 	}
 
-	private void putKeywordArgument(Map<String, Object> keywordArguments, Object key, Object value)
+	private static void putKeywordArgument(Map<String, Object> keywordArguments, Object key, Object value)
 	{
 		String exceptionMessage = "expressions for ** unpacking must evaluate to dicts or iterables of (key, value) pairs";
 
@@ -75,8 +75,11 @@ public class UnpackDictItemAST extends DictItemASTBase
 
 	public void evaluateDict(EvaluationContext context, Map result)
 	{
-		Object item = this.item.decoratedEvaluate(context);
+		update(result, item.decoratedEvaluate(context));
+	}
 
+	static void update(Map result, Object item)
+	{
 		if (item instanceof Map)
 		{
 			result.putAll((Map)item);
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import static java.util.Arrays.asList;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 import java.io.StringWriter;
 import java.io.PrintWriter;
 import java.io.IOException;
@@ -844,6 +845,47 @@ public class Utils
 		}
 	}
 
+	/**
+	Assign {@code item} to the loop variable(s) {@code lvalue}.
+
+	<p>This does the same as assigning all results of
+	{@link #unpackVariable}, but for the common cases (a single variable, or
+	a fixed number of variables and a list with the same number of items)
+	no intermediate objects are created.</p>
+	**/
+	public static void assignVariable(EvaluationContext context, Object lvalue, Object item)
+	{
+		if (lvalue instanceof VarAST)
+		{
+			((VarAST)lvalue).evaluateSet(context, item);
+			return;
+		}
+		else if (lvalue instanceof List && item instanceof List && item instanceof RandomAccess)
+		{
+			List lvalues = (List)lvalue;
+			List items = (List)item;
+			if (lvalues.size() == items.size() && isVariableList(lvalues))
+			{
+				int i = 0;
+				for (Object var : lvalues)
+					((VarAST)var).evaluateSet(context, items.get(i++));
+				return;
+			}
+		}
+		for (LValueValue lvv : unpackVariable(lvalue, item))
+			lvv.getLValue().evaluateSet(context, lvv.getValue());
+	}
+
+	private static boolean isVariableList(List lvalues)
+	{
+		for (Object lvalue : lvalues)
+		{
+			if (!(lvalue instanceof VarAST))
+				return false;
+		}
+		return true;
+	}
+
 	public static List<LValueValue> unpackVariable(Object lvalue, Object item)
 	{
 		List<LValueValue> result = new ArrayList<LValueValue>();
@@ -64,6 +64,20 @@ public class VarAST extends CodeAST implements LValue
 
 	protected String name;
 
+	/**
+	The frame layout of the template this variable belongs to and the slot
+	of the variable in this layout (set by {@link VariableResolver}).
+	**/
+	private Frame.Layout layout = null;
+	private int slot = -1;
+
+	/**
+	The builtin object this variable refers to if the variable can't be
+	defined anywhere else (set by {@link BuiltinResolver}). This is only used
+	if the global variables of the context don't shadow the builtins.
+	**/
+	Object builtin = null;
+
 	public VarAST(Template template, int posStart, int posStop, String name)
 	{
 		super(template, posStart, posStop);
@@ -80,6 +94,12 @@ public class VarAST extends CodeAST implements LValue
 		return "var";
 	}
 
+	void setSlot(Frame.Layout layout, int slot)
+	{
+		this.layout = layout;
+		this.slot = slot;
+	}
+
 	@Override
 	public VSQLFieldRefAST asVSQL(Map<String, VSQLField> vars)
 	{
@@ -101,67 +121,76 @@ public class VarAST extends CodeAST implements LValue
 	@Override
 	public Object evaluate(EvaluationContext context)
 	{
+		if (builtin != null && !context.globalsShadowBuiltins)
+			return builtin;
+		if (slot >= 0)
+		{
+			Object value = Frame.get(context.variables, layout, slot);
+			if (value != Frame.UNSET)
+				return value;
+		}
 		return context.get(name);
 	}
 
 	public void evaluateSet(EvaluationContext context, Object value)
 	{
-		context.set(name, value);
+		if (slot < 0 || !Frame.set(context.variables, layout, slot, value))
+			context.set(name, value);
 	}
 
 	public void evaluateAdd(EvaluationContext context, Object value)
 	{
-		context.set(name, AddAST.call(context, context.get(name), value));
+		evaluateSet(context, AddAST.call(context, evaluate(context), value));
 	}
 
 	public void evaluateSub(EvaluationContext context, Object value)
 	{
-		context.set(name, SubAST.call(context, context.get(name), value));
+		evaluateSet(context, SubAST.call(context, evaluate(context), value));
 	}
 
 	public void evaluateMul(EvaluationContext context, Object value)
 	{
-		context.set(name, MulAST.call(context, context.get(name), value));
+		evaluateSet(context, MulAST.call(context, evaluate(context), value));
 	}
 
 	public void evaluateFloorDiv(EvaluationContext context, Object value)
 	{
-		context.set(name, FloorDivAST.call(context, context.get(name), value));
+		evaluateSet(context, FloorDivAST.call(context, evaluate(context), value));
 	}
 
 	public void evaluateTrueDiv(EvaluationContext context, Object value)
 	{
-		context.set(name, TrueDivAST.call(context, context.get(name), value));
+		evaluateSet(context, TrueDivAST.call(context, evaluate(context), value));
 	}
 
 	public void evaluateMod(EvaluationContext context, Object value)
 	{
-		context.set(name, ModAST.call(context.get(name), value));
+		evaluateSet(context, ModAST.call(evaluate(context), value));
 	}
 
 	public void evaluateShiftLeft(EvaluationContext context, Object value)
 	{
-		context.set(name, ShiftLeftAST.call(context, context.get(name), value));
+		evaluateSet(context, ShiftLeftAST.call(context, evaluate(context), value));
 	}
 
 	public void evaluateShiftRight(EvaluationContext context, Object value)
 	{
-		context.set(name, ShiftRightAST.call(context, context.get(name), value));
+		evaluateSet(context, ShiftRightAST.call(context, evaluate(context), value));
 	}
 
 	public void evaluateBitAnd(EvaluationContext context, Object value)
 	{
-		context.set(name, BitAndAST.call(context, context.get(name), value));
+		evaluateSet(context, BitAndAST.call(context, evaluate(context), value));
 	}
 
 	public void evaluateBitXOr(EvaluationContext context, Object value)
 	{
-		context.set(name, BitXOrAST.call(context, context.get(name), value));
+		evaluateSet(context, BitXOrAST.call(context, evaluate(context), value));
 	}
 
 	public void evaluateBitOr(EvaluationContext context, Object value)
 	{
-		context.set(name, BitOrAST.call(context, context.get(name), value));
+		evaluateSet(context, BitOrAST.call(context, evaluate(context), value));
 	}
 
 	@Override
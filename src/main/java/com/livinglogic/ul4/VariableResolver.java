@@ -0,0 +1,206 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+Assigns frame slots to the variables of a template.
+
+<p>For each template (and each nested template) {@code VariableResolver}
+collects all variable names that are assigned to in the template itself
+(i.e. not in the body of {@code <?renderblocks?>} blocks, which have their
+own variable scope), creates a {@link Frame.Layout} for them and stores the
+slot index in each {@link VarAST} referencing one of these variables.
+Variables that are only read don't get a slot: They are looked up by name
+(in the variables passed to the template, the globals or the builtins).</p>
+
+<p>Comprehensions and generator expressions get a layout of their own for
+their loop variables. All other variables used in them are variables of the
+enclosing scope.</p>
+
+<p>At runtime {@link Template#renderBound} and {@link Template#callBound}
+put the variables into a {@link Frame} with this layout (and comprehensions
+put their loop variables into a nested frame), so that the {@code VarAST}
+nodes can access their variables via the slot index. Whenever the variables
+of the context are something else (e.g. in the scope of a
+{@code <?renderblocks?>} block) the {@code VarAST} nodes fall back to looking
+up their variable by name.</p>
+**/
+final class VariableResolver extends ASTWalker
+{
+	private Map<String, Integer> slots = new LinkedHashMap<String, Integer>();
+	private List<VarAST> vars = new ArrayList<VarAST>();
+
+	/**
+	The layouts of the comprehensions we're currently in (the innermost one
+	first).
+	**/
+	private Deque<Frame.Layout> scopes = new ArrayDeque<Frame.Layout>();
+
+	private VariableResolver()
+	{
+	}
+
+	/**
+	Assign slots to the variables in {@code template} and all templates
+	nested in it (and determine which variables closures of the nested
+	templates need, see {@link FreeVariables}, and which variables refer to
+	builtins, see {@link BuiltinResolver}).
+	**/
+	static void resolve(Template template)
+	{
+		resolveSlots(template);
+		FreeVariables.analyze(template);
+		BuiltinResolver.resolve(template);
+	}
+
+	private static void resolveSlots(Template template)
+	{
+		VariableResolver resolver = new VariableResolver();
+
+		if (template.signature != null)
+		{
+			for (ParameterDescription parameter : template.signature)
+				resolver.addName(parameter.getName());
+		}
+		else if (template.signatureAST != null)
+		{
+			for (Parameter parameter : template.signatureAST.parameters)
+				resolver.addName(parameter.getName());
+		}
+
+		resolver.walk(template.getContent());
+
+		Frame.Layout layout = new Frame.Layout(resolver.slots, template.cacheSize);
+		template.frameLayout = layout;
+		for (VarAST var : resolver.vars)
+		{
+			Integer slot = resolver.slots.get(var.getName());
+			if (slot != null)
+				var.setSlot(layout, slot);
+		}
+
+		List<Template> templates = new ArrayList<Template>();
+		TemplateCompiler.collectNestedTemplates(template.getContent(), templates);
+		for (Template nested : templates)
+			resolveSlots(nested);
+	}
+
+	private void addName(String name)
+	{
+		if (!slots.containsKey(name))
+			slots.put(name, slots.size());
+	}
+
+	@Override
+	void walkVar(VarAST var)
+	{
+		String name = var.getName();
+		for (Frame.Layout scope : scopes)
+		{
+			Integer slot = scope.slots.get(name);
+			if (slot != null)
+			{
+				var.setSlot(scope, slot);
+				return;
+			}
+		}
+		vars.add(var);
+	}
+
+	@Override
+	void walkTarget(Object lvalue)
+	{
+		if (lvalue instanceof VarAST)
+			addName(((VarAST)lvalue).getName());
+		else if (lvalue instanceof List)
+		{
+			for (Object item : (List)lvalue)
+				walkTarget(item);
+			return;
+		}
+		walk(lvalue);
+	}
+
+	@Override
+	void walkTemplate(Template template)
+	{
+		addName(template.name);
+		super.walkTemplate(template);
+	}
+
+	@Override
+	void walkRenderBlocks(List<AST> content)
+	{
+		// The content of {@code <?renderblocks?>} isn't in our scope
+	}
+
+	/**
+	For comprehensions only the container is evaluated in our scope.
+	**/
+	@Override
+	void walkComprehension(CodeAST comprehension, Object varname, CodeAST container, CodeAST... expressions)
+	{
+		walk(container);
+		Frame.Layout layout = collectScope(varname, expressions);
+		if (comprehension instanceof ListComprehensionAST)
+			((ListComprehensionAST)comprehension).scopeLayout = layout;
+		else if (comprehension instanceof SetComprehensionAST)
+			((SetComprehensionAST)comprehension).scopeLayout = layout;
+		else if (comprehension instanceof DictComprehensionAST)
+			((DictComprehensionAST)comprehension).scopeLayout = layout;
+		else if (comprehension instanceof GeneratorExpressionAST)
+			((GeneratorExpressionAST)comprehension).scopeLayout = layout;
+	}
+
+	/**
+	Create the layout for the scope of a comprehension with the loop
+	variables {@code varname} and assign slots to the variables in the
+	comprehension: The loop variables get a slot in the new layout, all
+	others are variables of the enclosing scope.
+	**/
+	private Frame.Layout collectScope(Object varname, CodeAST... expressions)
+	{
+		Map<String, Integer> scopeSlots = new LinkedHashMap<String, Integer>();
+		collectLoopVariables(varname, scopeSlots);
+		Frame.Layout layout = new Frame.Layout(scopeSlots);
+
+		scopes.push(layout);
+		try
+		{
+			walk(varname);
+			for (CodeAST expression : expressions)
+				walk(expression);
+		}
+		finally
+		{
+			scopes.pop();
+		}
+		return layout;
+	}
+
+	private void collectLoopVariables(Object varname, Map<String, Integer> scopeSlots)
+	{
+		if (varname instanceof VarAST)
+		{
+			String name = ((VarAST)varname).getName();
+			if (!scopeSlots.containsKey(name))
+				scopeSlots.put(name, scopeSlots.size());
+		}
+		else if (varname instanceof List)
+		{
+			for (Object item : (List)varname)
+				collectLoopVariables(item, scopeSlots);
+		}
+	}
+}
@@ -139,25 +139,20 @@ public class WhileBlockAST extends BlockAST
 
 	public Object evaluate(EvaluationContext context)
 	{
+		clearCache(context);
 		for (;;)
 		{
+			context.tick();
 			Object condition = this.condition.decoratedEvaluate(context);
 			if (!Bool.call(context, condition))
 				break;
 
-			try
-			{
-				for (AST item : content)
-					item.decoratedEvaluate(context);
-			}
-			catch (BreakException ex)
-			{
+			Object completion = evaluateContent(context, content);
+			if (completion == Completion.BREAK)
 				break; // breaking this for loop breaks the evaluated while loop
-			}
-			catch (ContinueException ex)
-			{
-				// doing nothing here does exactly what we need ;)
-			}
+			else if (completion == Completion.RETURN)
+				return completion;
+			// For {@code Completion.CONTINUE} doing nothing here does exactly what we need ;)
 		}
 		return null;
 	}
@@ -43,6 +43,8 @@ import com.livinglogic.ul4.BoundArguments;
 import com.livinglogic.ul4.AttributeException;
 import com.livinglogic.ul4.ArgumentTypeMismatchException;
 
+import com.livinglogic.utils.CountingReader;
+
 import static com.livinglogic.utils.StringUtils.formatMessage;
 
 
@@ -134,6 +136,11 @@ public class Decoder implements Iterable<Object>, UL4Instance, UL4Repr, UL4Dir
 	**/
 	private Stack<String> stack = new Stack<String>();
 
+	/**
+	The number of calls to {@link #load()} (for {@link UL4ONDecodeEvent}).
+	**/
+	private long objectCount = 0;
+
 	/**
 	Create an {@code Decoder} object for reading serialized UL4ON dumps.
 	**/
@@ -173,11 +180,22 @@ public class Decoder implements Iterable<Object>, UL4Instance, UL4Repr, UL4Dir
 	**/
 	public Object load(Reader reader) throws IOException
 	{
-		this.reader = reader;
+		UL4ONDecodeEvent event = new UL4ONDecodeEvent();
+		event.begin();
+		long oldObjectCount = objectCount;
+		// Count the input only if somebody is interested
+		CountingReader counter = event.isEnabled() ? new CountingReader(reader) : null;
+		this.reader = counter != null ? counter : reader;
 		position = 0;
 		bufferedChar = -1;
 		Object result = load();
 		this.reader = null;
+		if (event.shouldCommit())
+		{
+			event.chars = counter != null ? counter.getCount() : -1;
+			event.objectCount = objectCount - oldObjectCount;
+			event.commit();
+		}
 		return result;
 	}
 
@@ -209,6 +227,7 @@ public class Decoder implements Iterable<Object>, UL4Instance, UL4Repr, UL4Dir
 	**/
 	public Object load() throws IOException
 	{
+		++objectCount;
 		char typecode = nextChar();
 
 		if (typecode == '^')
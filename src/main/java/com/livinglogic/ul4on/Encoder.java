@@ -41,6 +41,7 @@ import com.livinglogic.ul4.ArgumentTypeMismatchException;
 import com.livinglogic.ul4.BoundMethod;
 import com.livinglogic.ul4.Signature;
 import com.livinglogic.ul4.BoundArguments;
+import com.livinglogic.utils.CountingWriter;
 
 
 /**
@@ -141,6 +142,11 @@ public class Encoder implements UL4Repr, UL4GetAttr, UL4Dir, UL4Instance
 	**/
 	private Map<String, String> strings = new HashMap<String, String>();
 
+	/**
+	The number of calls to {@link #dump(Object)} (for {@link UL4ONEncodeEvent}).
+	**/
+	private long objectCount = 0;
+
 	/**
 	Create an {@code Encoder} object for writing serialized UL4ON output
 	to the {@code Writer} {@code writer}
@@ -249,9 +255,20 @@ public class Encoder implements UL4Repr, UL4GetAttr, UL4Dir, UL4Instance
 	**/
 	public void dump(Writer writer, Object obj) throws IOException
 	{
-		resetInternal(writer);
+		UL4ONEncodeEvent event = new UL4ONEncodeEvent();
+		event.begin();
+		long oldObjectCount = objectCount;
+		// Count the output only if somebody is interested
+		CountingWriter counter = event.isEnabled() ? new CountingWriter(writer) : null;
+		resetInternal(counter != null ? counter : writer);
 		dump(obj);
 		this.writer = null;
+		if (event.shouldCommit())
+		{
+			event.chars = counter != null ? counter.getCount() : -1;
+			event.objectCount = objectCount - oldObjectCount;
+			event.commit();
+		}
 	}
 
 	/**
@@ -262,12 +279,21 @@ public class Encoder implements UL4Repr, UL4GetAttr, UL4Dir, UL4Instance
 	**/
 	public String dumps(Object obj)
 	{
+		UL4ONEncodeEvent event = new UL4ONEncodeEvent();
+		event.begin();
+		long oldObjectCount = objectCount;
 		try (StringWriter writer = new StringWriter())
 		{
 			resetInternal(writer);
 			dump(obj);
 			String result = writer.toString();
 			this.writer = null;
+			if (event.shouldCommit())
+			{
+				event.chars = result.length();
+				event.objectCount = objectCount - oldObjectCount;
+				event.commit();
+			}
 			return result;
 		}
 		catch (IOException exc)
@@ -287,6 +313,7 @@ public class Encoder implements UL4Repr, UL4GetAttr, UL4Dir, UL4Instance
 	**/
 	public void dump(Object obj) throws IOException
 	{
+		++objectCount;
 		// Have we serialized this object before?
 		obj = internString(obj);
 		Integer index = object2id.get(obj);
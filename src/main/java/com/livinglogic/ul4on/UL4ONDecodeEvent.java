@@ -0,0 +1,31 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4on;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+Java Flight Recorder event for loading a UL4ON dump via {@link Decoder}.
+**/
+@Name("com.livinglogic.ul4on.Decode")
+@Label("UL4ON Decode")
+@Description("Loading an object from a UL4ON dump")
+@Category({"LivingLogic", "UL4ON"})
+final class UL4ONDecodeEvent extends Event
+{
+	@Label("Characters")
+	@Description("The number of characters read from the dump (or -1 if unknown)")
+	long chars;
+
+	@Label("Object Count")
+	@Description("The number of objects loaded (including backreferences)")
+	long objectCount;
+}
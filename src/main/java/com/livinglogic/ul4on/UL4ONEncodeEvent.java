@@ -0,0 +1,31 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.ul4on;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+Java Flight Recorder event for creating a UL4ON dump via {@link Encoder}.
+**/
+@Name("com.livinglogic.ul4on.Encode")
+@Label("UL4ON Encode")
+@Description("Creating a UL4ON dump of an object")
+@Category({"LivingLogic", "UL4ON"})
+final class UL4ONEncodeEvent extends Event
+{
+	@Label("Characters")
+	@Description("The length of the dump (or -1 if unknown)")
+	long chars;
+
+	@Label("Object Count")
+	@Description("The number of objects dumped (including backreferences)")
+	long objectCount;
+}
@@ -0,0 +1,678 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.utils;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+A minimal writer for Java class files.
+
+This supports just enough of the class file format to generate simple
+classes at runtime: A constant pool, methods with bytecode, forward and
+backward branches via {@link Label} objects and exception tables.
+
+As the generated class files use class file version 49 (i.e. Java 5), no
+stack map frames have to be generated. Maximum stack sizes are tracked
+automatically.
+
+Exceeding one of the limits of the class file format (e.g. more than 32767
+bytes of bytecode in a method) results in an {@link IllegalStateException}.
+**/
+
+public class ClassFileWriter
+{
+	public static final int ACC_PUBLIC = 0x0001;
+	public static final int ACC_PRIVATE = 0x0002;
+	public static final int ACC_PROTECTED = 0x0004;
+	public static final int ACC_STATIC = 0x0008;
+	public static final int ACC_FINAL = 0x0010;
+	public static final int ACC_SUPER = 0x0020;
+
+	private static final int CONSTANT_Utf8 = 1;
+	private static final int CONSTANT_Integer = 3;
+	private static final int CONSTANT_Class = 7;
+	private static final int CONSTANT_String = 8;
+	private static final int CONSTANT_Fieldref = 9;
+	private static final int CONSTANT_Methodref = 10;
+	private static final int CONSTANT_InterfaceMethodref = 11;
+	private static final int CONSTANT_NameAndType = 12;
+
+	private static final int CLASSFILE_VERSION = 49;
+
+	private int access;
+	private int thisClass;
+	private int superClass;
+
+	private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private DataOutputStream pool = new DataOutputStream(poolBytes);
+	private int poolCount = 1;
+	private Map<String, Integer> poolIndexes = new HashMap<String, Integer>();
+
+	private List<Code> methods = new ArrayList<Code>();
+
+	/**
+	Create a new class file writer.
+
+	@param access The access flags for the class.
+	@param className The internal name of the class (e.g. {@code "com/example/Foo"}).
+	@param superName The internal name of the base class.
+	**/
+	public ClassFileWriter(int access, String className, String superName)
+	{
+		this.access = access;
+		thisClass = classConstant(className);
+		superClass = classConstant(superName);
+	}
+
+	private int constant(String key, int tag, byte[] data)
+	{
+		Integer index = poolIndexes.get(key);
+		if (index != null)
+			return index;
+		if (poolCount >= 0xffff)
+			throw new IllegalStateException("constant pool too large");
+		try
+		{
+			pool.writeByte(tag);
+			pool.write(data);
+		}
+		catch (IOException ex)
+		{
+			// can't happen
+			throw new RuntimeException(ex);
+		}
+		index = poolCount++;
+		poolIndexes.put(key, index);
+		return index;
+	}
+
+	private static byte[] bytes(int... values)
+	{
+		byte[] result = new byte[values.length * 2];
+		for (int i = 0; i < values.length; ++i)
+		{
+			result[2*i] = (byte)(values[i] >> 8);
+			result[2*i+1] = (byte)values[i];
+		}
+		return result;
+	}
+
+	public int utf8Constant(String value)
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try
+		{
+			new DataOutputStream(buffer).writeUTF(value);
+		}
+		catch (IOException ex)
+		{
+			throw new IllegalStateException("string constant too large");
+		}
+		return constant("U" + value, CONSTANT_Utf8, buffer.toByteArray());
+	}
+
+	public int classConstant(String name)
+	{
+		int nameIndex = utf8Constant(name);
+		return constant("C" + name, CONSTANT_Class, bytes(nameIndex));
+	}
+
+	public int stringConstant(String value)
+	{
+		int valueIndex = utf8Constant(value);
+		return constant("S" + value, CONSTANT_String, bytes(valueIndex));
+	}
+
+	public int integerConstant(int value)
+	{
+		return constant("I" + value, CONSTANT_Integer, bytes(value >>> 16, value & 0xffff));
+	}
+
+	private int nameAndTypeConstant(String name, String descriptor)
+	{
+		int nameIndex = utf8Constant(name);
+		int descriptorIndex = utf8Constant(descriptor);
+		return constant("N" + name + ":" + descriptor, CONSTANT_NameAndType, bytes(nameIndex, descriptorIndex));
+	}
+
+	private int memberConstant(int tag, String owner, String name, String descriptor)
+	{
+		int classIndex = classConstant(owner);
+		int nameAndTypeIndex = nameAndTypeConstant(name, descriptor);
+		return constant(tag + owner + "." + name + ":" + descriptor, tag, bytes(classIndex, nameAndTypeIndex));
+	}
+
+	/**
+	Add a new method to the class.
+
+	@param access The access flags for the method.
+	@param name The name of the method.
+	@param descriptor The method descriptor (e.g. {@code "(Ljava/lang/Object;)V"}).
+	@return A {@link Code} object that can be used to generate the bytecode for the method.
+	**/
+	public Code addMethod(int access, String name, String descriptor)
+	{
+		Code code = new Code(access, name, descriptor);
+		methods.add(code);
+		return code;
+	}
+
+	/**
+	Return the class file as a byte array.
+	**/
+	public byte[] toByteArray()
+	{
+		// Resolve all constants before writing the constant pool
+		for (Code method : methods)
+			method.prepare();
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buffer);
+		try
+		{
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);
+			out.writeShort(CLASSFILE_VERSION);
+			out.writeShort(poolCount);
+			out.write(poolBytes.toByteArray());
+			out.writeShort(access);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(methods.size());
+			for (Code method : methods)
+				method.write(out);
+			out.writeShort(0); // attributes
+		}
+		catch (IOException ex)
+		{
+			// can't happen
+			throw new RuntimeException(ex);
+		}
+		return buffer.toByteArray();
+	}
+
+	/**
+	Return the number of stack slots required for the arguments of
+	{@code descriptor} (in the first array entry) and for its return value
+	(in the second array entry).
+	**/
+	private static int[] slots(String descriptor)
+	{
+		int argSlots = 0;
+		int i = 1;
+		while (descriptor.charAt(i) != ')')
+		{
+			char c = descriptor.charAt(i);
+			if (c == 'J' || c == 'D')
+			{
+				argSlots += 2;
+				++i;
+			}
+			else
+			{
+				++argSlots;
+				while (descriptor.charAt(i) == '[')
+					++i;
+				if (descriptor.charAt(i) == 'L')
+					i = descriptor.indexOf(';', i);
+				++i;
+			}
+		}
+		char r = descriptor.charAt(i+1);
+		int returnSlots = r == 'V' ? 0 : (r == 'J' || r == 'D' ? 2 : 1);
+		return new int[]{argSlots, returnSlots};
+	}
+
+	/**
+	A position in the bytecode of a method that can be the target of a jump.
+	**/
+	public static class Label
+	{
+		private int position = -1;
+		private int stack = -1;
+		private List<int[]> fixups = new ArrayList<int[]>();
+
+		private Label()
+		{
+		}
+
+		public boolean isPlaced()
+		{
+			return position >= 0;
+		}
+
+		public int getPosition()
+		{
+			return position;
+		}
+	}
+
+	/**
+	Generates the bytecode of a method.
+	**/
+	public class Code
+	{
+		private int access;
+		private String name;
+		private String descriptor;
+		private int nameIndex;
+		private int descriptorIndex;
+
+		private ByteArrayOutputStream code = new ByteArrayOutputStream();
+		private int maxLocals;
+		private int stack = 0;
+		private int maxStack = 0;
+		private boolean reachable = true;
+		private List<Object[]> exceptionTable = new ArrayList<Object[]>();
+		private List<Label> labels = new ArrayList<Label>();
+
+		private Code(int access, String name, String descriptor)
+		{
+			this.access = access;
+			this.name = name;
+			this.descriptor = descriptor;
+			maxLocals = slots(descriptor)[0] + ((access & ACC_STATIC) != 0 ? 0 : 1);
+		}
+
+		/**
+		Allocate a new local variable slot (for a reference or an {@code int}).
+
+		@return The index of the new local variable.
+		**/
+		public int newLocal()
+		{
+			return maxLocals++;
+		}
+
+		/**
+		Return the current position in the bytecode.
+		**/
+		public int getPosition()
+		{
+			return code.size();
+		}
+
+		/**
+		Return whether the current position can be reached via normal control flow.
+		**/
+		public boolean isReachable()
+		{
+			return reachable;
+		}
+
+		/**
+		Return the current depth of the operand stack.
+		**/
+		public int getStack()
+		{
+			return stack;
+		}
+
+		private void adjust(int delta)
+		{
+			stack += delta;
+			if (stack > maxStack)
+				maxStack = stack;
+		}
+
+		private void u1(int value)
+		{
+			code.write(value);
+		}
+
+		private void u2(int value)
+		{
+			code.write(value >> 8);
+			code.write(value);
+		}
+
+		private void op(int opcode, int delta)
+		{
+			u1(opcode);
+			adjust(delta);
+		}
+
+		private void localOp(int opcode, int shortOpcode, int index, int delta)
+		{
+			if (index <= 3)
+				u1(shortOpcode + index);
+			else if (index <= 0xff)
+			{
+				u1(opcode);
+				u1(index);
+			}
+			else
+			{
+				u1(0xc4); // wide
+				u1(opcode);
+				u2(index);
+			}
+			adjust(delta);
+		}
+
+		public void aload(int index)
+		{
+			localOp(0x19, 0x2a, index, 1);
+		}
+
+		public void astore(int index)
+		{
+			localOp(0x3a, 0x4b, index, -1);
+		}
+
+		public void iload(int index)
+		{
+			localOp(0x15, 0x1a, index, 1);
+		}
+
+		public void istore(int index)
+		{
+			localOp(0x36, 0x3b, index, -1);
+		}
+
+		public void aconstNull()
+		{
+			op(0x01, 1);
+		}
+
+		public void iconst(int value)
+		{
+			if (value >= -1 && value <= 5)
+				op(0x03 + value, 1);
+			else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+			{
+				op(0x10, 1); // bipush
+				u1(value);
+			}
+			else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+			{
+				op(0x11, 1); // sipush
+				u2(value);
+			}
+			else
+				ldcIndex(integerConstant(value));
+		}
+
+		public void ldc(String value)
+		{
+			ldcIndex(stringConstant(value));
+		}
+
+		private void ldcIndex(int index)
+		{
+			if (index <= 0xff)
+			{
+				op(0x12, 1); // ldc
+				u1(index);
+			}
+			else
+			{
+				op(0x13, 1); // ldc_w
+				u2(index);
+			}
+		}
+
+		public void pop()
+		{
+			op(0x57, -1);
+		}
+
+		public void dup()
+		{
+			op(0x59, 1);
+		}
+
+		public void swap()
+		{
+			op(0x5f, 0);
+		}
+
+		public void aaload()
+		{
+			op(0x32, -1);
+		}
+
+		public void aastore()
+		{
+			op(0x53, -3);
+		}
+
+		public void anewarray(String type)
+		{
+			op(0xbd, 0);
+			u2(classConstant(type));
+		}
+
+		public void newObject(String type)
+		{
+			op(0xbb, 1);
+			u2(classConstant(type));
+		}
+
+		public void checkcast(String type)
+		{
+			op(0xc0, 0);
+			u2(classConstant(type));
+		}
+
+		public void instanceOf(String type)
+		{
+			op(0xc1, 0);
+			u2(classConstant(type));
+		}
+
+		public void getstatic(String owner, String name, String descriptor)
+		{
+			op(0xb2, slots("()" + descriptor)[1]);
+			u2(memberConstant(CONSTANT_Fieldref, owner, name, descriptor));
+		}
+
+		public void getfield(String owner, String name, String descriptor)
+		{
+			op(0xb4, slots("()" + descriptor)[1] - 1);
+			u2(memberConstant(CONSTANT_Fieldref, owner, name, descriptor));
+		}
+
+		private void invoke(int opcode, int tag, boolean hasReceiver, String owner, String name, String descriptor)
+		{
+			int[] slots = slots(descriptor);
+			op(opcode, slots[1] - slots[0] - (hasReceiver ? 1 : 0));
+			u2(memberConstant(tag, owner, name, descriptor));
+			if (opcode == 0xb9)
+			{
+				u1(slots[0] + 1);
+				u1(0);
+			}
+		}
+
+		public void invokestatic(String owner, String name, String descriptor)
+		{
+			invoke(0xb8, CONSTANT_Methodref, false, owner, name, descriptor);
+		}
+
+		public void invokevirtual(String owner, String name, String descriptor)
+		{
+			invoke(0xb6, CONSTANT_Methodref, true, owner, name, descriptor);
+		}
+
+		public void invokespecial(String owner, String name, String descriptor)
+		{
+			invoke(0xb7, CONSTANT_Methodref, true, owner, name, descriptor);
+		}
+
+		public void invokeinterface(String owner, String name, String descriptor)
+		{
+			invoke(0xb9, CONSTANT_InterfaceMethodref, true, owner, name, descriptor);
+		}
+
+		private void jump(int opcode, int delta, Label label)
+		{
+			int position = code.size();
+			op(opcode, delta);
+			if (label.stack < 0)
+				label.stack = stack;
+			if (label.position >= 0)
+				u2(offset(label.position - position));
+			else
+			{
+				label.fixups.add(new int[]{position, code.size()});
+				u2(0);
+			}
+		}
+
+		private int offset(int offset)
+		{
+			if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+				throw new IllegalStateException("method " + name + " too large");
+			return offset;
+		}
+
+		public void goto_(Label label)
+		{
+			jump(0xa7, 0, label);
+			reachable = false;
+		}
+
+		public void ifeq(Label label)
+		{
+			jump(0x99, -1, label);
+		}
+
+		public void ifne(Label label)
+		{
+			jump(0x9a, -1, label);
+		}
+
+		public void ifnull(Label label)
+		{
+			jump(0xc6, -1, label);
+		}
+
+		public void ifnonnull(Label label)
+		{
+			jump(0xc7, -1, label);
+		}
+
+		public void areturn()
+		{
+			op(0xb0, -1);
+			reachable = false;
+		}
+
+		public void return_()
+		{
+			op(0xb1, 0);
+			reachable = false;
+		}
+
+		public void athrow()
+		{
+			op(0xbf, -1);
+			reachable = false;
+		}
+
+		/**
+		Place {@code label} at the current position.
+		**/
+		public void mark(Label label)
+		{
+			if (label.position >= 0)
+				throw new IllegalStateException("label placed twice");
+			label.position = code.size();
+			if (!reachable)
+			{
+				stack = label.stack >= 0 ? label.stack : 0;
+				reachable = true;
+			}
+			else if (label.stack < 0)
+				label.stack = stack;
+		}
+
+		/**
+		Register an exception handler.
+
+		@param start The start of the protected code (inclusive).
+		@param end The end of the protected code (exclusive).
+		@param handler The start of the exception handler. On entry to the
+		               handler the operand stack contains only the exception.
+		@param type The internal name of the exception class that should be
+		            handled (or {@code null} to handle all exceptions).
+		**/
+		public void tryCatch(Label start, Label end, Label handler, String type)
+		{
+			handler.stack = 1;
+			if (stack > maxStack)
+				maxStack = stack;
+			exceptionTable.add(new Object[]{start, end, handler, type != null ? classConstant(type) : 0});
+		}
+
+		private void prepare()
+		{
+			nameIndex = utf8Constant(name);
+			descriptorIndex = utf8Constant(descriptor);
+			utf8Constant("Code");
+		}
+
+		private void write(DataOutputStream out) throws IOException
+		{
+			byte[] bytes = code.toByteArray();
+			if (bytes.length > 0xffff)
+				throw new IllegalStateException("method " + name + " too large");
+
+			// Patch forward branches
+			for (Label label : labels)
+			{
+				if (!label.fixups.isEmpty() && !label.isPlaced())
+					throw new IllegalStateException("unplaced label in method " + name);
+				for (int[] fixup : label.fixups)
+				{
+					int offset = offset(label.position - fixup[0]);
+					bytes[fixup[1]] = (byte)(offset >> 8);
+					bytes[fixup[1]+1] = (byte)offset;
+				}
+			}
+
+			out.writeShort(access);
+			out.writeShort(nameIndex);
+			out.writeShort(descriptorIndex);
+			out.writeShort(1); // attributes
+			out.writeShort(utf8Constant("Code"));
+			out.writeInt(2 + 2 + 4 + bytes.length + 2 + 8 * exceptionTable.size() + 2);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.writeShort(exceptionTable.size());
+			for (Object[] entry : exceptionTable)
+			{
+				out.writeShort(((Label)entry[0]).position);
+				out.writeShort(((Label)entry[1]).position);
+				out.writeShort(((Label)entry[2]).position);
+				out.writeShort((Integer)entry[3]);
+			}
+			out.writeShort(0); // attributes
+		}
+
+		/**
+		Create a new label for this method.
+		**/
+		public Label newLabel()
+		{
+			Label label = new Label();
+			labels.add(label);
+			return label;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+
+
+/**
+A {@code Reader} that reads from another {@code Reader} and counts the number
+of characters read.
+**/
+public class CountingReader extends Reader
+{
+	private Reader reader;
+	private long count = 0;
+
+	public CountingReader(Reader reader)
+	{
+		this.reader = reader;
+	}
+
+	/**
+	Return the number of characters read so far.
+	**/
+	public long getCount()
+	{
+		return count;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		int c = reader.read();
+		if (c >= 0)
+			++count;
+		return c;
+	}
+
+	@Override
+	public int read(char[] buffer, int offset, int length) throws IOException
+	{
+		int result = reader.read(buffer, offset, length);
+		if (result > 0)
+			count += result;
+		return result;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		reader.close();
+	}
+}
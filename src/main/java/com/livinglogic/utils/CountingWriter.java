@@ -0,0 +1,74 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+A {@code Writer} that passes everything on to another {@code Writer} and
+counts the number of characters written.
+**/
+public class CountingWriter extends Writer
+{
+	private Writer writer;
+	private long count = 0;
+
+	public CountingWriter(Writer writer)
+	{
+		this.writer = writer;
+	}
+
+	/**
+	Return the number of characters written so far.
+	**/
+	public long getCount()
+	{
+		return count;
+	}
+
+	@Override
+	public void write(int c) throws IOException
+	{
+		writer.write(c);
+		++count;
+	}
+
+	@Override
+	public void write(char[] buffer, int offset, int length) throws IOException
+	{
+		writer.write(buffer, offset, length);
+		count += length;
+	}
+
+	@Override
+	public void write(String string) throws IOException
+	{
+		writer.write(string);
+		count += string.length();
+	}
+
+	@Override
+	public void write(String string, int offset, int length) throws IOException
+	{
+		writer.write(string, offset, length);
+		count += length;
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		writer.close();
+	}
+}
@@ -4,7 +4,11 @@ import java.util.TimerTask;
 
 /*
 ** Interrupt the given task when the timer runs.
+**
+** Unused since the runtime limit of {@code EvaluationContext} is checked
+** against a deadline instead of interrupting the thread.
 */
+@Deprecated
 public class InterruptTimerTask extends TimerTask
 {
 	private Thread tread;
@@ -19,4 +23,4 @@ public class InterruptTimerTask extends TimerTask
 	{
 		tread.interrupt();
 	}
-}
\ No newline at end of file
+}
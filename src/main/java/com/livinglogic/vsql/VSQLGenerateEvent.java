@@ -0,0 +1,31 @@
+/*
+** Copyright 2026 by LivingLogic AG, Bayreuth/Germany
+** All Rights Reserved
+** See LICENSE for the license
+*/
+
+package com.livinglogic.vsql;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+Java Flight Recorder event for generating the SQL source of a
+{@link VSQLQuery}.
+**/
+@Name("com.livinglogic.vsql.Generate")
+@Label("vSQL Generate")
+@Description("Generating the SQL source of a vSQL query")
+@Category({"LivingLogic", "vSQL"})
+final class VSQLGenerateEvent extends Event
+{
+	@Label("Comment")
+	String comment;
+
+	@Label("SQL Length")
+	@Description("The number of characters in the generated SQL")
+	int sqlLength;
+}
@@ -851,6 +851,8 @@ public class VSQLQuery
 
 	public String getSQLSource(int indentLevel)
 	{
+		VSQLGenerateEvent event = new VSQLGenerateEvent();
+		event.begin();
 		StringBuilder buffer = new StringBuilder();
 
 		boolean first = true;
@@ -1006,7 +1008,14 @@ public class VSQLQuery
 			buffer.append("fetch next ").append(limit).append(" rows only\n");
 		}
 
-		return buffer.toString();
+		String result = buffer.toString();
+		if (event.shouldCommit())
+		{
+			event.comment = comment;
+			event.sqlLength = result.length();
+			event.commit();
+		}
+		return result;
 	}
 
 	public String getSQLSource()
@@ -6,6 +6,7 @@ import static com.livinglogic.utils.MapUtils.makeOrderedMap;
 import static com.livinglogic.utils.SetUtils.makeSet;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.time.ZoneOffset;
@@ -14,10 +15,14 @@ import java.time.temporal.TemporalField;
 import java.util.*;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.Duration;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Statement;
 import java.sql.SQLException;
 
@@ -26,6 +31,10 @@ import org.junit.runner.RunWith;
 
 import org.apache.commons.lang3.StringUtils;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import com.livinglogic.ul4.*;
 import static com.livinglogic.utils.StringUtils.formatMessage;
 
@@ -140,6 +149,38 @@ public class UL4Test
 		}
 	}
 
+	private static class CountingAttrs implements UL4GetAttr, UL4SetAttr
+	{
+		private Map<String, Object> attrs;
+		private boolean pure;
+		private int count = 0;
+
+		public CountingAttrs(Map<String, Object> attrs, boolean pure)
+		{
+			this.attrs = attrs;
+			this.pure = pure;
+		}
+
+		@Override
+		public Object getAttrUL4(EvaluationContext context, String key)
+		{
+			++count;
+			return attrs.get(key);
+		}
+
+		@Override
+		public boolean isPureAttrUL4(String key)
+		{
+			return pure;
+		}
+
+		@Override
+		public void setAttrUL4(EvaluationContext context, String key, Object value)
+		{
+			attrs.put(key, value);
+		}
+	}
+
 	private static class Iterate implements Iterable
 	{
 		public Iterator iterator()
@@ -344,6 +385,18 @@ public class UL4Test
 		// Check that they have the same output
 		String output2 = template2.renders(milliseconds, globalVariables, variables);
 		assertEquals(expected, output2);
+
+		// Check that the bytecode compiled template has the same output
+		template2.compileBytecode();
+		String output3 = template2.renders(milliseconds, globalVariables, variables);
+		assertEquals(expected, output3);
+
+		// Check that the optimized template has the same output (and survives a dump)
+		Template template3 = Template.loads(template.dumps());
+		template3.optimize();
+		String output4 = template3.renders(milliseconds, globalVariables, variables);
+		assertEquals(expected, output4);
+		assertEquals(template3.toString(), Template.loads(template3.dumps()).toString());
 	}
 
 	private static void checkResult(Object expected, Template template)
@@ -366,6 +419,18 @@ public class UL4Test
 		// Check that they have the same output
 		Object output2 = template2.call(variables);
 		assertEquals(expected, output2);
+
+		// Check that the bytecode compiled template has the same result
+		template2.compileBytecode();
+		Object output3 = template2.call(variables);
+		assertEquals(expected, output3);
+
+		// Check that the optimized template has the same result (and survives a dump)
+		Template template3 = Template.loads(template.dumps());
+		template3.optimize();
+		Object output4 = template3.call(variables);
+		assertEquals(expected, output4);
+		assertEquals(template3.toString(), Template.loads(template3.dumps()).toString());
 	}
 
 	public com.livinglogic.dbutils.Connection getDatabaseConnection()
@@ -668,6 +733,30 @@ public class UL4Test
 		checkOutput("0, 2, 4, 6", T("<?print ', '.join((str(2*i) for i in range(4)))?>"));
 	}
 
+	@Test
+	public void comprehension_scope()
+	{
+		// Loop variables don't leak, other variables come from the enclosing scope
+		checkOutput("[10, 30];i", T("<?code i = 'i'?><?code f = 10?><?print [i*f for i in [1, 2, 3] if i != 2]?>;<?print i?>"));
+		checkOutput("[[11, 21], [12, 22]]", T("<?print [[x+y for y in [10, 20]] for x in [1, 2]]?>"));
+		checkOutput("{'a': 1, 'b': 2}", T("<?print {k: v for (k, v) in [['a', 1], ['b', 2]]}?>"));
+		// Generators see the current values of the enclosing variables
+		checkOutput("[101]", T("<?code f = 10?><?code g = (r + f for r in [1])?><?code f = 100?><?print list(g)?>"));
+	}
+
+	@Test
+	public void comprehension_streaming()
+	{
+		// The items are passed to the function one by one, so any/all/first stop early
+		checkOutput("True", T("<?print any([1/x > 0 for x in [1, 0]])?>"));
+		checkOutput("False", T("<?print all([1/x > 1 for x in [1, 0]])?>"));
+		checkOutput("1", T("<?print first([1/x for x in [1, 0]])?>"));
+		checkOutput("2;16;5;42;[3, 2, 1];1-3", T("<?print len([x for x in [1, 2, 3] if x != 2])?>;<?print sum([x for x in [1, 2, 3]], start=10)?>;<?print max([x for x in [1, 5, 3]])?>;<?print min([x for x in []], default=42)?>;<?print sorted([x for x in [1, 3, 2]], reverse=True)?>;<?print '-'.join([str(x) for x in [1, 3]])?>"));
+		checkOutput("x", T("<?code x = 'x'?><?code n = len([x for x in [1, 2]])?><?print x?>"));
+		// A variable shadowing the builtin function gets the list
+		checkOutput("[1, 2]", T("<?code any = list?><?print any([x for x in [1, 2]])?>"));
+	}
+
 	@Test
 	public void storevar()
 	{
@@ -969,6 +1058,13 @@ public class UL4Test
 		checkOutput("1, 3, !1, 3, !", T("<?for i in [1,2,3]?><?if i==2?><?continue?><?end if?><?for j in [1,2,3]?><?if j==2?><?continue?><?end if?><?print j?>, <?end for?>!<?end for?>"));
 	}
 
+	@Test
+	public void tag_return_in_loop()
+	{
+		checkOutput("6-1", T("<?def f(n)?><?for i in range(10)?><?while True?><?if i == n?><?return 2*i?><?end if?><?break?><?end while?><?end for?><?return -1?><?end def?><?print f(3)?><?print f(20)?>"));
+		checkOutput("0", T("<?for i in range(10)?><?print i?><?return?><?end for?>"));
+	}
+
 	@CauseTest(expectedCause=BlockException.class)
 	public void tag_continue_outside_loop()
 	{
@@ -986,6 +1082,29 @@ public class UL4Test
 		checkOutput("42", T("<?ul4 test(x=42)?><?print x?>"));
 	}
 
+	@Test
+	public void template_prepare()
+	{
+		PreparedRender prepared = T("<?ul4 test(x, y=2, *args, **kwargs)?><?print x?>,<?print y?>,<?print args?>,<?print kwargs?><?code x = 0?>").prepare();
+
+		Map<String, Object> variables = V("x", 1);
+		assertEquals("1,2,[],{}", prepared.renders(variables));
+		assertEquals(V("x", 1), variables);
+		assertEquals("1,3,[],{}", prepared.renders(V("x", 1, "y", 3)));
+		assertEquals("1,2,[],{'z': 4}", prepared.renders(V("x", 1, "z", 4)));
+
+		PreparedRender unsigned = T("<?print x?><?code x = 0?><?print x?>").prepare();
+		variables = V("x", 1);
+		assertEquals("10", unsigned.renders(variables));
+		assertEquals(V("x", 1), variables);
+	}
+
+	@CauseTest(expectedCause=MissingArgumentException.class)
+	public void template_prepare_missing_argument()
+	{
+		T("<?ul4 test(x)?><?print x?>").prepare().renders(V());
+	}
+
 	@Test
 	public void tag_while()
 	{
@@ -1081,6 +1200,39 @@ public class UL4Test
 		checkOutput("3.0", T("<?print 1+2.0?>"));
 	}
 
+	@Test
+	public void operator_type_change()
+	{
+		// The operators specialize themselves for the types of the first operands and have to handle other types afterwards
+		checkOutput("2;4294967294;6000000000;3.0;aa;2;", T("<?for x in [1, 2147483647, 3000000000, 1.5, 'a', 1]?><?print x + x?>;<?end for?>"));
+		checkOutput("2;0.5;1;", T("<?for x in [3, 1.5, 2]?><?print x - 1?>;<?end for?>"));
+		checkOutput("6;4.5;aaa;", T("<?for x in [2, 1.5, 'a']?><?print x * 3?>;<?end for?>"));
+		checkOutput("TrueFalseTrueFalseTrue", T("<?for x in [1, 3, 1.5, 'c', 'a']?><?print x < 'b' if isstr(x) else x < 2?><?end for?>"));
+		checkOutput("TrueTrueFalseTrue", T("<?for x in [1, 1.0, 'a', 1]?><?print x == 1?><?end for?>"));
+		checkOutput("2012-10-18;2012-10-18 12:00;2012-10-18;", T("<?for x in [@(2012-10-17), @(2012-10-17T12:00), @(2012-10-17)]?><?print x + timedelta(1)?>;<?end for?>"));
+	}
+
+	@Test
+	public void operator_unboxed()
+	{
+		// Nested arithmetic is evaluated without boxing the intermediate results, this must still promote to big integers on overflow
+		checkOutput("3;4294967295;18446744073709551615;2.0;", T("<?for x in [1, 2147483647, 9223372036854775807, 0.5]?><?print x * 2 + 1?>;<?end for?>"));
+		checkOutput("TrueFalseTrueFalse", T("<?for x in [1, 4, 0.5, 'a']?><?print x * x - 1 < 3 if isint(x) or isfloat(x) else x + 'b' < 'a'?><?end for?>"));
+		checkOutput("10", T("<?code s = 0?><?for i in range(5)?><?code s += i?><?end for?><?print s?>"));
+	}
+
+	@Test
+	public void operator_unboxed_types()
+	{
+		// The loop evaluates the specialized nodes, their results must have the same type as those of the generic implementation
+		Template t = T("<?for i in range(3)?><?code r = x + y * z - y?><?end for?><?return r?>");
+		checkResult(new BigInteger("2147483648"), t, V("x", Integer.MAX_VALUE, "y", 1, "z", 2));
+		checkResult(3, t, V("x", 1, "y", 1, "z", 3));
+		checkResult(3L, t, V("x", 1L, "y", 1L, "z", 3L));
+		checkResult(new BigInteger("9223372036854775808"), t, V("x", Long.MAX_VALUE, "y", 1L, "z", 2L));
+		checkResult(true, T("<?for i in range(3)?><?code r = x + y < z?><?end for?><?return r?>"), V("x", 1L, "y", 2L, "z", 4L));
+	}
+
 	@Test
 	public void operator_sub()
 	{
@@ -5061,6 +5213,41 @@ public class UL4Test
 		checkOutput("45!45!44!44!43!43!", t, V("x", 42, "y", 42));
 	}
 
+	@Test
+	public void def_closure_variables()
+	{
+		// Closures that don't use variables from the enclosing scope are shared
+		checkOutput("True", T("<?code fs = []?><?for i in range(3)?><?def f(x=1)?><?return len([x])?><?end def?><?code fs.append(f)?><?end for?><?print fs[0] is fs[2]?>"));
+		// Closures that do still see the current values
+		checkOutput("False222", T("<?code fs = []?><?for i in range(3)?><?def f()?><?return i?><?end def?><?code fs.append(f)?><?end for?><?print fs[0] is fs[2]?><?for f in fs?><?print f()?><?end for?>"));
+		// Variables passed to the template shadow builtins in closures too
+		checkOutput("shadow", T("<?def f()?><?return len?><?end def?><?print f()?>"), V("len", "shadow"));
+		checkOutput("42", T("<?def outer()?><?def inner()?><?return x?><?end def?><?return inner?><?end def?><?code f = outer()?><?code x = 42?><?print f()?>"));
+	}
+
+	@Test
+	public void call_argument_shapes()
+	{
+		Template t = T(
+			"<?code y = 'y'?>" +
+			"<?def f(a, b=2, *args, **kwargs)?>" +
+				"<?code a += 100?>" +
+				"<?return [a, b, args, kwargs, y]?>" +
+			"<?end def?>" +
+			"<?for i in range(2)?>" +
+				"<?print f(i)?>;" +
+				"<?print f(i, 3, 4)?>;" +
+				"<?print f(a=i, c=5)?>;" +
+				"<?print f(i, **{'b': 6})?>;" +
+			"<?end for?>" +
+			"<?print a?>"
+		);
+		checkOutput("[100, 2, [], {}, 'y'];[100, 3, [4], {}, 'y'];[100, 2, [], {'c': 5}, 'y'];[100, 6, [], {}, 'y'];[101, 2, [], {}, 'y'];[101, 3, [4], {}, 'y'];[101, 2, [], {'c': 5}, 'y'];[101, 6, [], {}, 'y'];", t);
+
+		Template f = T("<?ul4 f(x, unused=None)?><?return x * 10?>");
+		checkOutput("10;20", T("<?print f(1)?>;<?print f(x=2)?>"), V("f", f));
+	}
+
 	@Test
 	public void method_mimeformat()
 	{
@@ -5393,6 +5580,16 @@ public class UL4Test
 		checkOutput("1", t, V("haystack", list, "needle", 2, "start", 2, "end", 7));
 	}
 
+	@Test
+	public void method_polymorphic()
+	{
+		// The objects at the same call site have different types
+		checkOutput("2;1;0;1;1;2;", T("<?for x in ['aa', [1, 'a'], 'b', 'a', ['a'], 'aa']?><?print x.count('a')?>;<?end for?>"));
+		checkOutput("AB;3;CD;", T("<?for x in ['ab', {'a': 3}, 'cd']?><?print x.a if isdict(x) else x.upper()?>;<?end for?>"));
+		// Dict items and dict methods at the same call sites
+		checkOutput("1;2;2;1;x;1;", T("<?for x in [{'a': 1, 'keys': 5}, {'a': 2}, {'a': 'x'}]?><?print x.a?>;<?print len(list(x.keys()))?>;<?end for?>"));
+	}
+
 	@Test
 	public void method_find()
 	{
@@ -6131,6 +6328,22 @@ public class UL4Test
 		checkOutput("24", T("<?code f = []?><?def outer()?><?code y=3?><?def inner(x)?><?print 2*x*y?><?end def?><?code f.append(inner)?><?end def?><?code outer()?><?render f[0](x=4)?>"));
 	}
 
+	@Test
+	public void template_closure_variables()
+	{
+		checkOutput("1L2L2", T("<?def f?><?print x?><?code x = 'L'?><?print x?><?end def?><?code x = 1?><?render f()?><?code x = 2?><?render f()?><?print x?>"));
+		checkOutput("[1, 2]3", T("<?code x = 3?><?print [x for x in [1, 2]]?><?print x?>"));
+	}
+
+	@Test
+	public void template_variables_unmodified()
+	{
+		// The variables passed to the template are never modified
+		Map<String, Object> variables = V("x", 1, "y", 2);
+		assertEquals("3", T("<?code x = x + y?><?print x?>").renders(variables));
+		assertEquals(V("x", 1, "y", 2), variables);
+	}
+
 	@Test
 	public void template_closure_toplevel()
 	{
@@ -6172,6 +6385,470 @@ public class UL4Test
 		checkOutput("", T("<?while True?><?end while?>"), 10);
 	}
 
+	@CauseTest(expectedCause=RuntimeException.class)
+	public void runtime_limit_comprehension()
+	{
+		checkOutput("", T("<?print len([i for i in range(2000000000)])?>"), 10);
+	}
+
+	@Test
+	public void runtime_limit_deadlines()
+	{
+		long armed = Deadlines.getArmedCount();
+		long fired = Deadlines.getFiredCount();
+
+		T("<?print 42?>").renders(1000, null, null);
+		assertEquals(armed + 1, Deadlines.getArmedCount());
+		assertEquals(fired, Deadlines.getFiredCount());
+
+		try
+		{
+			T("<?while True?><?end while?>").renders(10, null, null);
+		}
+		catch (RuntimeException ex)
+		{
+		}
+		assertEquals(armed + 2, Deadlines.getArmedCount());
+		assertEquals(fired + 1, Deadlines.getFiredCount());
+	}
+
+	@Test
+	public void runtime_limit_ignores_interrupt()
+	{
+		// The runtime limit doesn't use the thread's interrupt flag
+		Thread.currentThread().interrupt();
+		try
+		{
+			checkOutput("3", T("<?for i in range(3)?><?end for?><?print i+1?>"), 1000);
+			assertTrue(Thread.currentThread().isInterrupted());
+		}
+		finally
+		{
+			Thread.interrupted();
+		}
+	}
+
+	@Test
+	public void compileBytecode()
+	{
+		Template t = T("<?def f(x)?><?return x*2?><?end def?><?for (i, c) in enumerate('ab')?><?print i?><?print c?><?if i?><?break?><?end if?><?end for?><?print f(21)?>");
+
+		assertFalse(t.isBytecodeCompiled());
+		assertTrue(t.compileBytecode());
+		assertTrue(t.isBytecodeCompiled());
+		assertEquals("0a1b42", t.renders());
+	}
+
+	@Test
+	public void optimize()
+	{
+		Template t = T("<?print 1+2*3?><?if False?>debug<?elif 1 > 2?>debug<?end if?><?for i in [1, 2]?><?print i in [2, 3]?><?end for?><?print 1/0 if False else 42?>");
+
+		t.optimize();
+		assertEquals(3, t.getContent().size());
+		checkOutput("7FalseTrue42", t);
+	}
+
+	@Test
+	public void optimize_oversized_constants()
+	{
+		// Folding these would build huge objects during {@code optimize()}
+		Template t = T("<?if False?><?print 'x' * 2000000000?><?print [0] * 2000000000?><?print 1 << 2000000000?><?print 1 >> -2000000000?><?end if?><?if big?><?print 2000000000 * 'x'?><?end if?><?print 'x' * 3?>");
+
+		t.optimize();
+		checkOutput("xxx", t, V("big", false));
+	}
+
+	@Test
+	public void optimize_text()
+	{
+		Template t = T("foo<?note comment?>bar<?print 42?>baz<?if True?>\n<?end if?>qux");
+
+		// Adjacent text is merged (including the text of the constant <?if?> block),
+		// text at the start of a line is merged into the indentation of the line
+		t.optimize();
+		assertEquals(4, t.getContent().size());
+		checkOutput("foobar42baz\nqux", t);
+
+		// The indentation of nested render calls is combined
+		Template r = T("<?print 42?>\n<?print 43?>", "r", Template.Whitespace.keep);
+		Template t2 = T("\t<?render r()?>", "t2", Template.Whitespace.keep);
+		checkOutput("\t\t42\n\t\t43", T("\t<?render t2(r=r)?>"), V("t2", t2, "r", r));
+	}
+
+	private static String rendersWithGlobals(Template template, boolean globalsShadowBuiltins, Map<String, Object> globalVariables, Map<String, Object> variables)
+	{
+		try (EvaluationContext context = new EvaluationContext(globalVariables))
+		{
+			context.setGlobalsShadowBuiltins(globalsShadowBuiltins);
+			return template.renders(context, variables);
+		}
+	}
+
+	@Test
+	public void globals_shadow_builtins()
+	{
+		Template t = T("<?ul4 t(x)?><?print len(x)?>;<?print str(x)?><?code str = repr?>;<?def f()?><?print len(x)?><?end def?><?render f()?>");
+		Map<String, Object> globals = V("len", FunctionRepr.function);
+
+		// By default globals can replace builtins
+		assertEquals("'foo';foo;'foo'", rendersWithGlobals(t, true, globals, V("x", "foo")));
+		// If they don't, variables that can only refer to a builtin use the builtin
+		assertEquals("3;foo;3", rendersWithGlobals(t, false, null, V("x", "foo")));
+		assertEquals("3;foo;3", rendersWithGlobals(t, false, globals, V("x", "foo")));
+
+		// Without a signature the variables might contain anything
+		assertEquals("'foo'", rendersWithGlobals(T("<?print len(x)?>"), false, null, V("x", "foo", "len", FunctionRepr.function)));
+	}
+
+	@Test
+	public void optimize_invariants()
+	{
+		Template t = T("<?ul4 t(app)?><?for i in range(3)?><?print app.params.lang?><?print len(app.params.items)?><?end for?><?code a = app?><?for i in range(2)?><?print a.params.lang?><?code a = None?><?end for?>");
+		CountingAttrs params = new CountingAttrs(V("lang", "de", "items", asList(1, 2)), true);
+		CountingAttrs app = new CountingAttrs(V("params", params), true);
+
+		t.optimize();
+		assertEquals("de2de2de2de", t.renders(V("app", app)));
+		// The invariant attributes are fetched once, except when the variable is assigned in the loop
+		assertEquals(2, app.count);
+		assertEquals(3, params.count);
+
+		t.compileBytecode();
+		app.count = 0;
+		params.count = 0;
+		assertEquals("de2de2de2de", t.renders(V("app", app)));
+		assertEquals(2, app.count);
+		assertEquals(3, params.count);
+
+		// Attributes that aren't pure are fetched each time
+		CountingAttrs impure = new CountingAttrs(V("params", params), false);
+		params.count = 0;
+		assertEquals("de2de2de2de", t.renders(V("app", impure)));
+		assertEquals(7, impure.count);
+	}
+
+	@Test
+	public void optimize_invariants_modified()
+	{
+		// Modifying an object counts as an assignment to its variable
+		Template t = T("<?ul4 t(app)?><?print len(app.params.items)?><?code app.params.items.append(3)?><?print len(app.params.items)?>;<?print app.params.lang?><?code app.params.lang = 'en'?><?print app.params.lang?>");
+		t.optimize();
+		CountingAttrs params = new CountingAttrs(V("lang", "de", "items", new ArrayList<Object>(asList(1, 2))), true);
+		assertEquals("23;deen", t.renders(V("app", new CountingAttrs(V("params", params), true))));
+
+		// The list might be modified somewhere else, so its length isn't cached
+		t = T("<?ul4 t(app, add)?><?for i in range(2)?><?print len(app.params.items)?><?render add(app.params.items)?><?end for?>");
+		Template add = T("<?ul4 add(l)?><?code l.append(0)?>");
+		t.optimize();
+		params = new CountingAttrs(V("items", new ArrayList<Object>(asList(1, 2))), true);
+		assertEquals("23", t.renders(V("app", new CountingAttrs(V("params", params), true), "add", add)));
+		assertEquals(1, params.count);
+
+		t.compileBytecode();
+		params = new CountingAttrs(V("items", new ArrayList<Object>(asList(1, 2))), true);
+		assertEquals("23", t.renders(V("app", new CountingAttrs(V("params", params), true), "add", add)));
+		assertEquals(1, params.count);
+	}
+
+	@Test
+	public void inline_call()
+	{
+		Template t = T("<?def f(x, y=10)?><?return x*y+i?><?end def?><?def p(s)?><?print s?><?end def?><?code i = 100?><?print f(2)?>;<?print f(3, y=2)?>;<?print f(y=1, x=5)?>;<?render p('r')?>;<?print f(*[1])?>");
+		checkOutput("120;106;105;r;110", t);
+
+		t.compileBytecode();
+		checkOutput("120;106;105;r;110", t);
+	}
+
+	@CauseTest(expectedCause=TooManyArgumentsException.class)
+	public void inline_call_too_many_arguments()
+	{
+		checkOutput("", T("<?def f(x, y=10)?><?return x*y?><?end def?><?print f(1, 2, 3)?>"));
+	}
+
+	@Test
+	public void inline_call_stackframes()
+	{
+		try
+		{
+			checkOutput("", T("<?def f(x)?><?return 1/x?><?end def?><?print f(0)?>"));
+		}
+		catch (Exception e)
+		{
+			checkStackTrace(
+				e,
+				"division by zero",
+				"1/x",
+				"f(0)"
+			);
+		}
+	}
+
+	@Test
+	public void type_inference()
+	{
+		Template t = T("<?code s = a + '-'?><?for c in a?><?code s += c?><?end for?><?print s == 'ab-ab'?><?print s < a?><?print a in s?><?print len(s) + n?><?print s.upper()?>", null, Template.Whitespace.keep, "a, n");
+		Map<String, UL4Type> types = new HashMap<String, UL4Type>();
+		types.put("a", Str.type);
+		types.put("n", Int.type);
+		t.setParameterTypes(types);
+		assertEquals(0, t.checkTypes().size());
+		t.optimize();
+		assertEquals("TrueFalseTrue6AB-AB", t.renders(V("a", "ab", "n", 1)));
+		t.compileBytecode();
+		assertEquals("TrueFalseTrue6AB-AB", t.renders(V("a", "ab", "n", 1)));
+
+		// The types are only hints
+		Template t2 = T("<?print a + b?><?print a < b?>", null, Template.Whitespace.keep, "a, b");
+		Map<String, UL4Type> types2 = new HashMap<String, UL4Type>();
+		types2.put("a", Str.type);
+		types2.put("b", Str.type);
+		t2.setParameterTypes(types2);
+		t2.optimize();
+		t2.compileBytecode();
+		assertEquals("abTrue", t2.renders(V("a", "a", "b", "b")));
+		assertEquals("3True", t2.renders(V("a", 1, "b", 2)));
+	}
+
+	@Test
+	public void type_inference_errors()
+	{
+		Template t = T("<?for i in range(3)?><?print i < 'x'?><?end for?><?print n - 1?><?print x + 'x'?><?code y = 'y'?><?print -y?>", null, Template.Whitespace.keep, "n");
+		Map<String, UL4Type> types = new HashMap<String, UL4Type>();
+		types.put("n", Str.type);
+		t.setParameterTypes(types);
+		List<Exception> errors = t.checkTypes();
+		assertEquals(3, errors.size());
+		checkStackTrace(errors.get(0), "<", "i < 'x'");
+		checkStackTrace(errors.get(1), "not supported", "n - 1");
+		checkStackTrace(errors.get(2), "-<java.lang.String>", "-y");
+	}
+
+	@Test
+	public void fragment_cache()
+	{
+		Template t = T("<?def card(x)?>(<?print x?>)<?end def?><?def label(x)?><?print prefix?><?print x?><?end def?><?for i in [1, 2, 1, 2]?><?render card(i)?><?render label(i)?><?end for?>");
+		FragmentCache cache = new FragmentCache(10, -1);
+		EvaluationContext context = new EvaluationContext(V("prefix", "#"));
+		context.setFragmentCache(cache);
+		assertEquals("(1)#1(2)#2(1)#1(2)#2", t.renders(context, V()));
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		// label uses a global variable, so it is never cached
+		assertEquals(4, cache.getUncacheable());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void fragment_cache_loop_target()
+	{
+		// Loops over items or attributes modify objects, so fill() is never cached
+		Template t = T("<?code box = {'n': 0}?><?def fill(x)?><?for box['n'] in [x]?><?end for?><?end def?><?render fill(1)?><?print box['n']?><?code box['n'] = 0?><?render fill(1)?><?print box['n']?>");
+		FragmentCache cache = new FragmentCache(10, -1);
+		EvaluationContext context = new EvaluationContext();
+		context.setFragmentCache(cache);
+		assertEquals("11", t.renders(context, V()));
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getUncacheable());
+	}
+
+	@Test
+	public void render_cache()
+	{
+		Template t = T("<?print prefix?><?print x?>", "t", Template.Whitespace.keep, "x");
+		Template clock = T("<?print now() is not None?>");
+		RenderCache.HeapStorage storage = new RenderCache.HeapStorage(1000);
+		RenderCache cache = new RenderCache(storage);
+		assertEquals("#1", cache.renders(t, V("prefix", "#"), V("x", 1)));
+		assertEquals("#1", cache.renders(t, V("prefix", "#"), V("x", 1)));
+		assertEquals("-1", cache.renders(t, V("prefix", "-"), V("x", 1)));
+		assertEquals("#[1, 2]", cache.renders(t, V("prefix", "#"), V("x", asList(1, 2))));
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+		// now() and objects that can't be hashed bypass the cache
+		assertEquals("True", cache.renders(clock, null, null));
+		assertEquals("#1", cache.renders(t, V("prefix", "#", "obj", new Object()), V("x", 1)));
+		assertEquals(2, cache.getUncacheable());
+		assertEquals(3, storage.size());
+	}
+
+	@Test
+	public void render_cache_context() throws Exception
+	{
+		Template t = T("<?print prefix?><?print x?>", "t", Template.Whitespace.keep, "x");
+		RenderCache cache = new RenderCache(1000);
+		// The template is rendered in the passed context (with its global variables and profiler)
+		Profiler profiler = new Profiler();
+		EvaluationContext context = new EvaluationContext(V("prefix", "#"));
+		context.setProfiler(profiler);
+		assertEquals("#1", cache.renders(context, t, V("x", 1)));
+		StringWriter report = new StringWriter();
+		profiler.writeReport(report);
+		assertTrue(report.toString().contains(" test.t:1:1 print"));
+		// Hits and misses are written to the writer of the context
+		StringWriter output = new StringWriter();
+		context.setWriter(output);
+		cache.render(context, t, V("x", 1));
+		cache.render(context, t, V("x", 2));
+		assertEquals("#1#2", output.toString());
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void profiler() throws Exception
+	{
+		Template t = T("<?for i in range(3)?><?print i?><?end for?>", "t", Template.Whitespace.keep);
+		t.compileBytecode();
+		Profiler profiler = new Profiler();
+		EvaluationContext context = new EvaluationContext();
+		context.setProfiler(profiler);
+		assertEquals("012", t.renders(context, V()));
+
+		StringWriter report = new StringWriter();
+		profiler.writeReport(report);
+		assertTrue(report.toString().matches("(?s).*\\n +3 [^\\n]*  test.t:1:22 print\\n.*"));
+
+		StringWriter stacks = new StringWriter();
+		profiler.writeCollapsedStacks(stacks);
+		assertTrue(stacks.toString().contains("test.t:1:1 forblock;test.t:1:22 print "));
+	}
+
+	@Test
+	public void jfr_events() throws Exception
+	{
+		Path file = Files.createTempFile("ul4", ".jfr");
+		try (Recording recording = new Recording())
+		{
+			recording.enable("com.livinglogic.ul4.TemplateCompile").withThreshold(Duration.ZERO);
+			recording.enable("com.livinglogic.ul4.TemplateRender").withThreshold(Duration.ZERO);
+			recording.start();
+			Template t = T("<?print 'foo'?>", "jfr", Template.Whitespace.keep);
+			assertEquals("foo", t.renders());
+			recording.stop();
+			recording.dump(file);
+
+			Set<String> found = new HashSet<String>();
+			for (RecordedEvent event : RecordingFile.readAllEvents(file))
+			{
+				String name = event.getEventType().getName();
+				if (name.equals("com.livinglogic.ul4.TemplateCompile") && "test.jfr".equals(event.getString("templateName")))
+				{
+					assertEquals(15, event.getInt("sourceLength"));
+					found.add("compile");
+				}
+				else if (name.equals("com.livinglogic.ul4.TemplateRender") && "test.jfr".equals(event.getString("templateName")))
+				{
+					assertEquals("renders", event.getString("operation"));
+					assertEquals(3, event.getLong("outputChars"));
+					assertFalse(event.getBoolean("limitExceeded"));
+					found.add("render");
+				}
+			}
+			assertEquals(makeSet("compile", "render"), found);
+		}
+		finally
+		{
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void render_metrics() throws Exception
+	{
+		RenderMetrics metrics = new RenderMetrics();
+		Template.setRenderObserver(metrics);
+		try
+		{
+			Template t = T("<?def metricsdef(x)?><?print x?><?end def?><?for i in range(3)?><?render metricsdef(i)?><?end for?>", "metrics", Template.Whitespace.keep);
+			assertEquals("012", t.renders());
+			Template t1 = T("<?def metricsdef(x)?><?print x?><?end def?><?render metricsdef(42)?>", "metrics1", Template.Whitespace.keep);
+			assertEquals("42", t1.renders());
+			Template t2 = T("<?print 1/0?>", "metricsfail", Template.Whitespace.keep);
+			try
+			{
+				t2.renders();
+			}
+			catch (RuntimeException exc)
+			{
+			}
+
+			RenderMetrics.TemplateMetrics top = metrics.get("test.metrics");
+			assertEquals(1, top.getCount());
+			assertEquals(3, top.getOutputChars().getMax());
+			assertEquals(1, top.getLatency().getCount());
+			assertEquals(0, top.getTimeouts());
+
+			RenderMetrics.TemplateMetrics inner = metrics.get("test.metrics.metricsdef");
+			assertEquals(3, inner.getCount());
+			assertEquals(3, inner.getOutputChars().getSum());
+
+			// Local templates with the same name in different templates are recorded separately
+			assertEquals(1, metrics.get("test.metrics1.metricsdef").getCount());
+			assertEquals(null, metrics.get("metricsdef"));
+
+			assertEquals(1, metrics.get("test.metricsfail").getExceptions().size());
+
+			StringWriter text = new StringWriter();
+			metrics.writeText(text);
+			assertTrue(text.toString().contains("ul4_render_count{template=\"test.metrics.metricsdef\"} 3\n"));
+		}
+		finally
+		{
+			Template.setRenderObserver(null);
+		}
+	}
+
+	@Test
+	public void resource_usage()
+	{
+		Template t = T("<?def usagedef(x)?><?print x?><?end def?><?for i in range(3)?><?render usagedef(i)?><?end for?>", "usage", Template.Whitespace.keep);
+		ResourceUsage usage = new ResourceUsage();
+		try (EvaluationContext context = new EvaluationContext())
+		{
+			context.setResourceUsage(usage);
+			assertEquals("012", t.renders(context, V()));
+		}
+		assertEquals(1, usage.get("test.usage").getCount());
+		assertEquals(3, usage.get("test.usage.usagedef").getCount());
+		assertEquals(usage.getAllocatedBytes(), usage.get("test.usage").getAllocatedBytes() + usage.get("test.usage.usagedef").getAllocatedBytes());
+		assertEquals(usage.getCPUNanos(), usage.get("test.usage").getCPUNanos() + usage.get("test.usage.usagedef").getCPUNanos());
+		assertFalse(usage.isLimitExceeded());
+	}
+
+	@CauseTest(expectedCause=InterruptedException.class)
+	public void allocation_limit()
+	{
+		try (EvaluationContext context = new EvaluationContext())
+		{
+			context.setResourceUsage(new ResourceUsage(10000));
+			T("<?for i in range(1000000)?><?print str(i)?><?end for?>").renders(context, V());
+		}
+	}
+
+	@Test
+	public void allocation_limit_metrics()
+	{
+		RenderMetrics metrics = new RenderMetrics();
+		Template.setRenderObserver(metrics);
+		ResourceUsage usage = new ResourceUsage(10000);
+		try (EvaluationContext context = new EvaluationContext())
+		{
+			context.setResourceUsage(usage);
+			T("<?for i in range(1000000)?><?print str(i)?><?end for?>", "allocation", Template.Whitespace.keep).renders(context, V());
+		}
+		catch (RuntimeException exc)
+		{
+		}
+		finally
+		{
+			Template.setRenderObserver(null);
+		}
+		assertTrue(usage.isLimitExceeded());
+		assertEquals(1, metrics.get("test.allocation").getTimeouts());
+	}
+
 	@Test
 	public void stripWhitespace()
 	{
@@ -6293,6 +6970,24 @@ public class UL4Test
 		assertEquals("2;3", output2);
 	}
 
+	public static final class DefaultKeyword implements UL4Call
+	{
+		@Override
+		public Object callUL4(EvaluationContext context, List<Object> args, Map<String, Object> kwargs)
+		{
+			kwargs.putIfAbsent("sep", ";");
+			return args.size() + (String)kwargs.get("sep");
+		}
+	}
+
+	@Test
+	public void keywordArgumentsModifiedByCallable()
+	{
+		// Callables may modify the keyword arguments, even if the call doesn't pass any
+		checkOutput("0;1;2,", T("<?print f()?><?print f(x)?><?print f(x, x, sep=',')?>"), V("f", new DefaultKeyword(), "x", 42));
+		checkOutput("0;", T("<?print o.f()?>"), V("o", makeMap("f", new DefaultKeyword())));
+	}
+
 	@Test
 	public void notContainmentPrecedence()
 	{